@@ -0,0 +1,326 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The cached transitive closures of the groups of one frozen cluster.
+ * <p>
+ * The groups, proteins and peptides of the cluster get cluster-local indices.
+ * For each group the closures returned by
+ * {@link IntermediateGroup#getAllProteins()},
+ * {@link IntermediateGroup#getAllChildren()},
+ * {@link IntermediateGroup#getAllPeptideChildren()} and
+ * {@link IntermediateGroup#getAllPeptides()} are computed once in topological
+ * order and stored as {@link BitSet}s over these indices. The groups return
+ * unmodifiable set views of the bit sets, which are created during freezing,
+ * so no sets are allocated while accessing the closures.
+ * <p>
+ * Any structural change of a group of the cluster invalidates the closures of
+ * the whole cluster.
+ *
+ * @author julian
+ *
+ */
+class ClusterClosures {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(ClusterClosures.class);
+
+
+	/** whether the closures are still valid */
+	private volatile boolean valid;
+
+	/** the cluster-local indices of the groups, proteins and peptides */
+	private Map<Object, Integer> indices;
+
+	/** the closures of the groups' proteins, by the groups' local indices */
+	private List<Set<IntermediateProtein>> allProteins;
+
+	/** the closures of the groups' children, by the groups' local indices */
+	private List<Set<IntermediateGroup>> allChildren;
+
+	/** the closures of the groups' children with peptides, by the groups' local indices */
+	private List<Set<IntermediateGroup>> allPeptideChildren;
+
+	/** the closures of the groups' peptides, by the groups' local indices */
+	private List<Set<IntermediatePeptide>> allPeptides;
+
+
+	private ClusterClosures() {
+		this.valid = true;
+		this.indices = new IdentityHashMap<Object, Integer>();
+	}
+
+
+	/**
+	 * Computes the closures of all groups of the given cluster and sets them
+	 * in the groups. The cluster must contain all parents and children of its
+	 * groups.
+	 *
+	 * @param cluster
+	 * @return the closures or null, if the cluster could not be frozen
+	 */
+	public static ClusterClosures freeze(Collection<IntermediateGroup> cluster) {
+		ClusterClosures closures = new ClusterClosures();
+
+		IntermediateGroup[] groups = cluster.toArray(new IntermediateGroup[cluster.size()]);
+		List<IntermediateProtein> proteins = new ArrayList<IntermediateProtein>();
+		List<IntermediatePeptide> peptides = new ArrayList<IntermediatePeptide>();
+
+		for (int i = 0; i < groups.length; i++) {
+			closures.indices.put(groups[i], i);
+		}
+		for (IntermediateGroup group : groups) {
+			if (group.getProteins() != null) {
+				for (IntermediateProtein protein : group.getProteins()) {
+					closures.indices.put(protein, proteins.size());
+					proteins.add(protein);
+				}
+			}
+			if (group.getPeptides() != null) {
+				for (IntermediatePeptide peptide : group.getPeptides()) {
+					closures.indices.put(peptide, peptides.size());
+					peptides.add(peptide);
+				}
+			}
+		}
+
+		int[] order = topologicalOrder(groups, closures.indices);
+		if (order == null) {
+			logger.error("the groups of the cluster contain a cycle, cannot freeze it");
+			return null;
+		}
+
+		BitSet[] proteinBits = new BitSet[groups.length];
+		BitSet[] childrenBits = new BitSet[groups.length];
+		BitSet[] peptideChildrenBits = new BitSet[groups.length];
+		BitSet[] peptideBits = new BitSet[groups.length];
+
+		// the proteins are passed from the parents to the children
+		for (int groupIdx : order) {
+			IntermediateGroup group = groups[groupIdx];
+			BitSet bits = new BitSet(proteins.size());
+
+			if (group.getProteins() != null) {
+				for (IntermediateProtein protein : group.getProteins()) {
+					bits.set(closures.indices.get(protein));
+				}
+			}
+			if (group.getParents() != null) {
+				for (IntermediateGroup parent : group.getParents()) {
+					bits.or(proteinBits[closures.indices.get(parent)]);
+				}
+			}
+
+			proteinBits[groupIdx] = bits;
+		}
+
+		// the children and peptides are passed from the children to the parents
+		for (int pos = order.length - 1; pos >= 0; pos--) {
+			int groupIdx = order[pos];
+			IntermediateGroup group = groups[groupIdx];
+			BitSet children = new BitSet(groups.length);
+			BitSet peptideChildren = new BitSet(groups.length);
+			BitSet groupPeptides = new BitSet(peptides.size());
+
+			if (group.getPeptides() != null) {
+				for (IntermediatePeptide peptide : group.getPeptides()) {
+					groupPeptides.set(closures.indices.get(peptide));
+				}
+			}
+			if (group.getChildren() != null) {
+				for (IntermediateGroup child : group.getChildren()) {
+					int childIdx = closures.indices.get(child);
+
+					children.set(childIdx);
+					children.or(childrenBits[childIdx]);
+
+					if ((child.getPeptides() != null) && (child.getPeptides().size() > 0)) {
+						peptideChildren.set(childIdx);
+					}
+					peptideChildren.or(peptideChildrenBits[childIdx]);
+
+					groupPeptides.or(peptideBits[childIdx]);
+				}
+			}
+
+			childrenBits[groupIdx] = children;
+			peptideChildrenBits[groupIdx] = peptideChildren;
+			peptideBits[groupIdx] = groupPeptides;
+		}
+
+		IntermediateProtein[] proteinArray = proteins.toArray(new IntermediateProtein[proteins.size()]);
+		IntermediatePeptide[] peptideArray = peptides.toArray(new IntermediatePeptide[peptides.size()]);
+
+		closures.allProteins = new ArrayList<Set<IntermediateProtein>>(groups.length);
+		closures.allChildren = new ArrayList<Set<IntermediateGroup>>(groups.length);
+		closures.allPeptideChildren = new ArrayList<Set<IntermediateGroup>>(groups.length);
+		closures.allPeptides = new ArrayList<Set<IntermediatePeptide>>(groups.length);
+		for (int i = 0; i < groups.length; i++) {
+			closures.allProteins.add(closures.new BitSetView<IntermediateProtein>(proteinBits[i], proteinArray));
+			closures.allChildren.add(closures.new BitSetView<IntermediateGroup>(childrenBits[i], groups));
+			closures.allPeptideChildren.add(closures.new BitSetView<IntermediateGroup>(peptideChildrenBits[i], groups));
+			closures.allPeptides.add(closures.new BitSetView<IntermediatePeptide>(peptideBits[i], peptideArray));
+		}
+
+		for (int i = 0; i < groups.length; i++) {
+			groups[i].setClusterClosures(closures, i);
+		}
+
+		return closures;
+	}
+
+
+	/**
+	 * Sorts the groups topologically, i.e. each group comes after all its
+	 * parents.
+	 *
+	 * @return the local indices of the groups in topological order or null,
+	 * if the groups contain a cycle
+	 */
+	private static int[] topologicalOrder(IntermediateGroup[] groups, Map<Object, Integer> indices) {
+		int[] nrOpenParents = new int[groups.length];
+		int[] order = new int[groups.length];
+		int nrOrdered = 0;
+
+		for (int i = 0; i < groups.length; i++) {
+			nrOpenParents[i] = (groups[i].getParents() == null) ? 0 : groups[i].getParents().size();
+			if (nrOpenParents[i] == 0) {
+				order[nrOrdered++] = i;
+			}
+		}
+
+		for (int pos = 0; pos < nrOrdered; pos++) {
+			IntermediateGroup group = groups[order[pos]];
+			if (group.getChildren() != null) {
+				for (IntermediateGroup child : group.getChildren()) {
+					int childIdx = indices.get(child);
+					if (--nrOpenParents[childIdx] == 0) {
+						order[nrOrdered++] = childIdx;
+					}
+				}
+			}
+		}
+
+		return (nrOrdered == groups.length) ? order : null;
+	}
+
+
+	/**
+	 * Whether the closures are still valid, i.e. no group of the cluster was
+	 * changed after freezing.
+	 *
+	 * @return
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+
+	/**
+	 * Invalidates the closures of all groups in the cluster.
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+
+	public Set<IntermediateProtein> getAllProteins(int groupIdx) {
+		return allProteins.get(groupIdx);
+	}
+
+
+	public Set<IntermediateGroup> getAllChildren(int groupIdx) {
+		return allChildren.get(groupIdx);
+	}
+
+
+	public Set<IntermediateGroup> getAllPeptideChildren(int groupIdx) {
+		return allPeptideChildren.get(groupIdx);
+	}
+
+
+	public Set<IntermediatePeptide> getAllPeptides(int groupIdx) {
+		return allPeptides.get(groupIdx);
+	}
+
+
+	/**
+	 * An unmodifiable set of the elements, whose cluster-local indices are set
+	 * in the bit set.
+	 *
+	 * @param <E>
+	 */
+	private class BitSetView<E> extends AbstractSet<E> {
+
+		/** the indices of the contained elements */
+		private BitSet bits;
+
+		/** all elements of this type in the cluster, by their indices */
+		private E[] elements;
+
+		/** the number of elements in this set */
+		private int size;
+
+
+		public BitSetView(BitSet bits, E[] elements) {
+			this.bits = bits;
+			this.elements = elements;
+			this.size = bits.cardinality();
+		}
+
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+
+		@Override
+		public boolean contains(Object o) {
+			Integer idx = indices.get(o);
+			return (idx != null) && (idx < elements.length) && (elements[idx] == o) && bits.get(idx);
+		}
+
+
+		@Override
+		public Iterator<E> iterator() {
+			return new Iterator<E>() {
+				private int next = bits.nextSetBit(0);
+
+				@Override
+				public boolean hasNext() {
+					return next > -1;
+				}
+
+				@Override
+				public E next() {
+					if (next < 0) {
+						throw new NoSuchElementException();
+					}
+					E element = elements[next];
+					next = bits.nextSetBit(next + 1);
+					return element;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException("the closures of a frozen group cannot be changed");
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
+
+
+/**
+ * Processes a list of independent clusters in a {@link ForkJoinPool}.
+ * <p>
+ * The clusters are sorted by their estimated cost, so that the most expensive
+ * clusters are started first and do not keep a single thread busy while all
+ * others are idle at the end. Clusters with less than the average cost per
+ * chunk are batched into chunks, which avoids the overhead of handing out
+ * many tiny clusters one by one. The threads take the chunks from a shared
+ * cursor in the order of descending cost.
+ * <p>
+ * After processing, the time each thread was busy respectively idle is
+ * available via {@link #getBusyNanos()} and {@link #getIdleNanos()}. It is
+ * logged per thread on debug level, a single summary line on info level.
+ *
+ * @author julian
+ *
+ * @param <T> the type of the clusters
+ */
+public class ClusterScheduler<T> {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(ClusterScheduler.class);
+
+	/** the number of chunks per thread, which the small clusters are batched into */
+	private static final int CHUNKS_PER_THREAD = 16;
+
+
+	/** the name of the scheduled work, used for logging */
+	private String name;
+
+	/** the number of used threads */
+	private int nrThreads;
+
+	/** the nanoseconds each thread was processing clusters in the last run */
+	private long[] busyNanos;
+
+	/** the nanoseconds each thread was not processing clusters in the last run */
+	private long[] idleNanos;
+
+	/** the number of clusters each thread processed in the last run */
+	private int[] processedClusters;
+
+
+	public ClusterScheduler(String name, int nrThreads) {
+		this.name = name;
+		this.nrThreads = Math.max(1, nrThreads);
+
+		this.busyNanos = new long[this.nrThreads];
+		this.idleNanos = new long[this.nrThreads];
+		this.processedClusters = new int[this.nrThreads];
+	}
+
+
+	/**
+	 * Processes all given clusters with the processor and returns after all
+	 * are finished. A {@link RuntimeException} thrown by the processor is
+	 * passed on to the caller.
+	 *
+	 * @param clusters the clusters to process
+	 * @param costs the estimated costs of the clusters, in the same order
+	 * @param processor the processor, called concurrently by all threads
+	 */
+	public void process(List<T> clusters, long[] costs, ClusterProcessor<T> processor) {
+		process(clusters, costs, processor, null);
+	}
+
+
+	/**
+	 * Processes all given clusters with the processor like
+	 * {@link #process(List, long[], ClusterProcessor)} and advances the given
+	 * tracker by the processed clusters after each chunk.
+	 *
+	 * @param clusters the clusters to process
+	 * @param costs the estimated costs of the clusters, in the same order
+	 * @param processor the processor, called concurrently by all threads
+	 * @param tracker the tracker of the progress, may be null
+	 */
+	public void process(final List<T> clusters, final long[] costs,
+			final ClusterProcessor<T> processor, final ProgressTracker tracker) {
+		if (clusters.size() != costs.length) {
+			throw new IllegalArgumentException("the number of clusters and costs differ");
+		}
+
+		final Integer[] order = sortByDescendingCost(costs);
+		final int[] chunkStarts = createChunks(order, costs);
+		final AtomicInteger nextChunk = new AtomicInteger(0);
+
+		Arrays.fill(busyNanos, 0);
+		Arrays.fill(idleNanos, 0);
+		Arrays.fill(processedClusters, 0);
+
+		logger.debug(name + ": " + clusters.size() + " clusters in "
+				+ (chunkStarts.length - 1) + " chunks for " + nrThreads + " threads");
+
+		ForkJoinPool pool = new ForkJoinPool(nrThreads);
+		long start = System.nanoTime();
+		try {
+			List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>(nrThreads);
+			for (int i = 0; i < nrThreads; i++) {
+				final int threadIdx = i;
+
+				tasks.add(pool.submit(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						int chunkIdx = nextChunk.getAndIncrement();
+						while (chunkIdx < chunkStarts.length - 1) {
+							long chunkStart = System.nanoTime();
+
+							for (int pos = chunkStarts[chunkIdx]; pos < chunkStarts[chunkIdx + 1]; pos++) {
+								processor.processCluster(clusters.get(order[pos]));
+							}
+
+							busyNanos[threadIdx] += System.nanoTime() - chunkStart;
+							processedClusters[threadIdx] += chunkStarts[chunkIdx + 1] - chunkStarts[chunkIdx];
+							if (tracker != null) {
+								tracker.advance(chunkStarts[chunkIdx + 1] - chunkStarts[chunkIdx]);
+							}
+							chunkIdx = nextChunk.getAndIncrement();
+						}
+					}
+				}));
+			}
+
+			for (ForkJoinTask<Void> task : tasks) {
+				task.join();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		long wallNanos = System.nanoTime() - start;
+
+		long totalBusyNanos = 0;
+		long maxIdleNanos = 0;
+		for (int i = 0; i < nrThreads; i++) {
+			idleNanos[i] = wallNanos - busyNanos[i];
+			totalBusyNanos += busyNanos[i];
+			maxIdleNanos = Math.max(maxIdleNanos, idleNanos[i]);
+			logger.debug(name + " thread " + i + ": " + processedClusters[i] + " clusters, busy "
+					+ (busyNanos[i] / 1000000) + " ms, idle " + (idleNanos[i] / 1000000) + " ms");
+		}
+
+		logger.info(name + ": " + clusters.size() + " clusters by " + nrThreads + " threads in "
+				+ (wallNanos / 1000000) + " ms, busy " + (totalBusyNanos / 1000000) + " ms in total, idle at most "
+				+ (maxIdleNanos / 1000000) + " ms per thread");
+	}
+
+
+	/**
+	 * Returns the indices of the clusters sorted by descending costs, equal
+	 * costs are kept in the original order.
+	 *
+	 * @param costs
+	 * @return
+	 */
+	private static Integer[] sortByDescendingCost(final long[] costs) {
+		Integer[] order = new Integer[costs.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				if (costs[o1] != costs[o2]) {
+					return (costs[o1] > costs[o2]) ? -1 : 1;
+				}
+				return o1.compareTo(o2);
+			}
+		});
+
+		return order;
+	}
+
+
+	/**
+	 * Batches the sorted clusters into chunks. Each cluster with at least the
+	 * target cost builds its own chunk, the cheaper ones are put together
+	 * until the target cost is reached.
+	 *
+	 * @param order the cluster indices sorted by descending cost
+	 * @param costs
+	 * @return the start positions of the chunks in the order and, as last
+	 * element, the number of clusters
+	 */
+	private int[] createChunks(Integer[] order, long[] costs) {
+		long totalCost = 0;
+		for (long cost : costs) {
+			totalCost += cost;
+		}
+		long targetCost = Math.max(1, totalCost / (nrThreads * CHUNKS_PER_THREAD));
+
+		int[] chunkStarts = new int[order.length + 1];
+		int nrChunks = 0;
+		long chunkCost = 0;
+
+		for (int pos = 0; pos < order.length; pos++) {
+			if ((pos == 0) || (chunkCost >= targetCost)) {
+				chunkStarts[nrChunks++] = pos;
+				chunkCost = 0;
+			}
+			chunkCost += costs[order[pos]];
+		}
+		chunkStarts[nrChunks] = order.length;
+
+		return Arrays.copyOf(chunkStarts, nrChunks + 1);
+	}
+
+
+	/**
+	 * Returns the nanoseconds each thread was processing clusters during the
+	 * last call of {@link #process(List, long[], ClusterProcessor)}.
+	 *
+	 * @return
+	 */
+	public long[] getBusyNanos() {
+		return busyNanos;
+	}
+
+
+	/**
+	 * Returns the nanoseconds each thread was waiting or not yet started
+	 * during the last call of {@link #process(List, long[], ClusterProcessor)}.
+	 *
+	 * @return
+	 */
+	public long[] getIdleNanos() {
+		return idleNanos;
+	}
+
+
+	/**
+	 * Returns the number of clusters each thread processed during the last
+	 * call of {@link #process(List, long[], ClusterProcessor)}.
+	 *
+	 * @return
+	 */
+	public int[] getProcessedClusters() {
+		return processedClusters;
+	}
+
+
+	/**
+	 * The processing of a single cluster. The processor is called by all
+	 * threads of the scheduler concurrently.
+	 *
+	 * @author julian
+	 *
+	 * @param <T>
+	 */
+	public interface ClusterProcessor<T> {
+		/**
+		 * Processes the given cluster.
+		 *
+		 * @param cluster
+		 */
+		void processCluster(T cluster);
+	}
+}
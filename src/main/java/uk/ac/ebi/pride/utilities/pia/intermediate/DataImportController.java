@@ -3,6 +3,8 @@ package uk.ac.ebi.pride.utilities.pia.intermediate;
 import java.util.List;
 
 import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.ImportFilterStage;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
 
 
 
@@ -53,6 +55,52 @@ public interface DataImportController {
 	public void addSpectrumIdentificationsToStructCreator(List<AbstractFilter> filters, String cacheScoreAccession);
 	
 	
+	/**
+	 * Adds the filtered PSMs to the given {@link IntermediateStructureCreator}
+	 * instead of the one associated with this controller. This is used to
+	 * import several files concurrently, each into its own staging creator,
+	 * which are merged afterwards.
+	 * 
+	 * @param structCreator the creator to which the PSMs are added
+	 * @param filters
+	 * @param cacheScoreAccession
+	 */
+	public void addSpectrumIdentificationsToStructCreator(IntermediateStructureCreator structCreator,
+			List<AbstractFilter> filters, String cacheScoreAccession);
+	
+	
+	/**
+	 * Returns the filter stage of the last import, which holds the numbers of
+	 * PSMs rejected by each filter, or null if no PSMs were imported yet.
+	 * 
+	 * @return
+	 */
+	public ImportFilterStage getImportFilterStage();
+	
+	
+	/**
+	 * Sets the index of the input file, which is the upper half of the
+	 * numeric IDs of the imported PSMs (see
+	 * {@link IntermediatePeptideSpectrumMatch#computeNumericID(int, int)}).
+	 * Without a set index, the handle of the controller's ID in the symbol
+	 * table of the creator is used, which depends on the symbols interned
+	 * before the import.
+	 * 
+	 * @param fileIndex the index of the file, not negative
+	 */
+	public void setFileIndex(int fileIndex);
+	
+	
+	/**
+	 * Sets the tracker, to which the progress of the following imports is
+	 * reported. The items of the progress are the read PSMs, controllers
+	 * reading the file themselves also report the read bytes.
+	 * 
+	 * @param tracker the tracker, null for no tracking
+	 */
+	public void setProgressTracker(ProgressTracker tracker);
+	
+	
 	/**
 	 * Some controllers should be closed after usage.
 	 */
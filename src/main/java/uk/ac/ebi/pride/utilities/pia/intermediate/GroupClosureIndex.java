@@ -0,0 +1,209 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A cluster-local index of the transitive proteins of the groups, which are
+ * created while building the groups of a single cluster.
+ * <p>
+ * Each protein of the cluster gets a bit, each group a {@link BitSet} of the
+ * proteins returned by {@link IntermediateGroup#getAllProteins()}, i.e. its
+ * direct proteins and the proteins of all its parents. The bit sets are kept
+ * up to date by the modifications of the groups passed to this index.
+ * <p>
+ * The groups are referenced by their IDs, which must be the consecutive IDs
+ * given during the building of a cluster, starting with 1.
+ *
+ * @author julian
+ *
+ */
+class GroupClosureIndex {
+
+	/** the bits of the proteins, by identity as the proteins' hash codes change with their groups */
+	private Map<IntermediateProtein, Integer> proteinBits;
+
+	/** the transitive protein bits, indexed by the groups' IDs */
+	private List<BitSet> closures;
+
+
+	public GroupClosureIndex() {
+		this.proteinBits = new IdentityHashMap<IntermediateProtein, Integer>();
+		this.closures = new ArrayList<BitSet>();
+
+		// there is no group with ID 0
+		this.closures.add(null);
+	}
+
+
+	/**
+	 * Returns the bit of the given protein, a new bit is assigned if the
+	 * protein is not yet in the index.
+	 *
+	 * @param protein
+	 * @return
+	 */
+	public int getProteinBit(IntermediateProtein protein) {
+		Integer bit = proteinBits.get(protein);
+		if (bit == null) {
+			bit = proteinBits.size();
+			proteinBits.put(protein, bit);
+		}
+		return bit;
+	}
+
+
+	/**
+	 * Returns the bits of the given proteins.
+	 *
+	 * @param proteins
+	 * @return
+	 */
+	public BitSet getProteinBits(Set<IntermediateProtein> proteins) {
+		BitSet bits = new BitSet(proteinBits.size());
+		for (IntermediateProtein protein : proteins) {
+			bits.set(getProteinBit(protein));
+		}
+		return bits;
+	}
+
+
+	/**
+	 * Adds a new group without any proteins or parents to the index.
+	 *
+	 * @param group
+	 */
+	public void addGroup(IntermediateGroup group) {
+		if (group.getID() != closures.size()) {
+			throw new IllegalArgumentException("the groups must be added with consecutive IDs, "
+					+ "expected " + closures.size() + " but got " + group.getID());
+		}
+		closures.add(new BitSet());
+	}
+
+
+	/**
+	 * Returns the bits of all proteins of the group and its parents. The
+	 * returned set must not be changed.
+	 *
+	 * @param group
+	 * @return
+	 */
+	public BitSet getClosure(IntermediateGroup group) {
+		return closures.get(group.getID());
+	}
+
+
+	/**
+	 * Updates the index after the protein was added to the group's direct
+	 * proteins.
+	 *
+	 * @param group
+	 * @param protein
+	 */
+	public void proteinAdded(IntermediateGroup group, IntermediateProtein protein) {
+		setBit(group, getProteinBit(protein));
+	}
+
+
+	/**
+	 * Sets the bit in the group and its descendants. Groups already having
+	 * the bit are not followed further, as their descendants have it as well.
+	 */
+	private void setBit(IntermediateGroup group, int bit) {
+		BitSet closure = getClosure(group);
+		if (closure.get(bit)) {
+			return;
+		}
+
+		closure.set(bit);
+		if (group.getChildren() != null) {
+			for (IntermediateGroup child : group.getChildren()) {
+				setBit(child, bit);
+			}
+		}
+	}
+
+
+	/**
+	 * Updates the index after the protein was removed from the group's direct
+	 * proteins. The bit is only cleared, if the protein is no longer reachable
+	 * via the group's parents.
+	 *
+	 * @param group
+	 * @param protein
+	 */
+	public void proteinRemoved(IntermediateGroup group, IntermediateProtein protein) {
+		clearUnreachableBit(group, getProteinBit(protein));
+	}
+
+
+	/**
+	 * Clears the bit in the group, if neither the group has the protein
+	 * directly nor any parent has the bit, and continues with the children.
+	 */
+	private void clearUnreachableBit(IntermediateGroup group, int bit) {
+		BitSet closure = getClosure(group);
+		if (!closure.get(bit)) {
+			return;
+		}
+
+		if (group.getProteins() != null) {
+			for (IntermediateProtein protein : group.getProteins()) {
+				if (proteinBits.get(protein) == bit) {
+					return;
+				}
+			}
+		}
+
+		if (group.getParents() != null) {
+			for (IntermediateGroup parent : group.getParents()) {
+				if (getClosure(parent).get(bit)) {
+					return;
+				}
+			}
+		}
+
+		closure.clear(bit);
+		if (group.getChildren() != null) {
+			for (IntermediateGroup child : group.getChildren()) {
+				clearUnreachableBit(child, bit);
+			}
+		}
+	}
+
+
+	/**
+	 * Updates the index after the parent and child group were connected.
+	 *
+	 * @param parent
+	 * @param child
+	 */
+	public void groupsConnected(IntermediateGroup parent, IntermediateGroup child) {
+		addBits(child, getClosure(parent));
+	}
+
+
+	/**
+	 * Adds the bits to the group and passes the new ones on to its children.
+	 */
+	private void addBits(IntermediateGroup group, BitSet bits) {
+		BitSet newBits = (BitSet) bits.clone();
+		newBits.andNot(getClosure(group));
+		if (newBits.isEmpty()) {
+			return;
+		}
+
+		getClosure(group).or(newBits);
+		if (group.getChildren() != null) {
+			for (IntermediateGroup child : group.getChildren()) {
+				addBits(child, newBits);
+			}
+		}
+	}
+}
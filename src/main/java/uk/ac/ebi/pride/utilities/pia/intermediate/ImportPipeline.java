@@ -0,0 +1,623 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.ImportFilterStage;
+
+
+/**
+ * A pipeline for the import of a file, which separates the reading of the
+ * raw records, their conversion and filtering, and the writing into the
+ * {@link IntermediateStructureCreator} into stages running on their own
+ * threads.
+ * <p>
+ * The reader is the thread calling {@link #put(Object)}. It collects the
+ * records into batches, which are converted by a pool of threads, each with
+ * its own {@link ImportFilterStage}. A single writer thread takes the
+ * converted batches in the order they were put and writes them, so it is the
+ * only thread accessing the creator and the result does not depend on the
+ * number of threads. The batches between reader and writer are held in a
+ * bounded queue: if it is full, the reader blocks until the writer took a
+ * batch, which bounds the memory of the pipeline.
+ * <p>
+ * For each stage, the processed records and the time it was busy are
+ * measured, together with the time the reader was blocked by the full queue
+ * and the depth of the queue at each put batch. These are logged after
+ * {@link #finish()} and tell the stage, which is the bottleneck of the
+ * import.
+ *
+ * @author julian
+ *
+ * @param <R> the type of the raw records
+ * @param <P> the type of the converted records
+ */
+public class ImportPipeline<R, P> {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(ImportPipeline.class);
+
+	/** the default capacity of the queue in batches */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/** the number of records in a batch */
+	private static final int BATCH_SIZE = 256;
+
+
+	/** the name of the import, used for logging and the thread names */
+	private final String name;
+
+	/** the converter of the records */
+	private final RecordConverter<R, P> converter;
+
+	/** the writer of the converted records */
+	private final RecordWriter<P> writer;
+
+	/** the filters, for which each converter thread creates a stage */
+	private final List<AbstractFilter> filters;
+
+	/** the filter stages of the converter threads */
+	private final List<ImportFilterStage> filterStages;
+
+	/** the filter stage of the current converter thread */
+	private final ThreadLocal<ImportFilterStage> threadFilterStage;
+
+	/** the batches in conversion or waiting for the writer, in the order they were put */
+	private final BlockingQueue<Future<List<P>>> batches;
+
+	/** the marker of the end of the input in the queue */
+	private final Future<List<P>> endOfInput;
+
+	/** the threads converting the batches */
+	private final ExecutorService converterPool;
+
+	/** the thread writing the converted batches */
+	private final Thread writerThread;
+
+	/** the batch, which is currently collected by the reader */
+	private List<R> currentBatch;
+
+	/** the first error of a converter or the writer */
+	private volatile Throwable failure;
+
+	/** whether the pipeline is finished */
+	private boolean finished;
+
+	/** the summed up filter stage, available after finishing */
+	private ImportFilterStage filterStage;
+
+
+	/** the time of the creation */
+	private final long startNanos;
+
+	/** the time from the creation until the writer finished */
+	private long wallNanos;
+
+	/** the number of put records */
+	private long nrRecords;
+
+	/** the number of put batches */
+	private long nrBatches;
+
+	/** the time the reader was blocked by the full queue */
+	private long readerBlockedNanos;
+
+	/** the sum of the queue depths at each put batch */
+	private long queueDepthSum;
+
+	/** the maximal queue depth at a put batch */
+	private int maxQueueDepth;
+
+	/** the number of records passing the conversion */
+	private final AtomicLong nrConverted;
+
+	/** the summed time the converter threads were busy */
+	private final AtomicLong converterBusyNanos;
+
+	/** the number of written records, only accessed by the writer */
+	private long nrWritten;
+
+	/** the time the writer was writing, only accessed by the writer */
+	private long writerBusyNanos;
+
+	/** the time the writer waited for the conversion of a batch, only accessed by the writer */
+	private long writerWaitingNanos;
+
+
+	/**
+	 * Creates the pipeline and starts its threads.
+	 *
+	 * @param name the name of the import
+	 * @param nrConverterThreads the number of threads converting the records
+	 * @param capacity the maximal number of batches between reader and writer
+	 * @param filters the import filters, may be null
+	 * @param converter
+	 * @param writer
+	 */
+	public ImportPipeline(final String name, int nrConverterThreads, int capacity, List<AbstractFilter> filters,
+			RecordConverter<R, P> converter, RecordWriter<P> writer) {
+		this.name = name;
+		this.converter = converter;
+		this.writer = writer;
+		this.filters = filters;
+		this.filterStages = Collections.synchronizedList(new ArrayList<ImportFilterStage>());
+		this.threadFilterStage = new ThreadLocal<ImportFilterStage>() {
+			@Override
+			protected ImportFilterStage initialValue() {
+				ImportFilterStage stage = new ImportFilterStage(ImportPipeline.this.filters);
+				filterStages.add(stage);
+				return stage;
+			}
+		};
+
+		this.batches = new ArrayBlockingQueue<Future<List<P>>>(Math.max(1, capacity));
+		this.endOfInput = new FutureTask<List<P>>(new Callable<List<P>>() {
+			@Override
+			public List<P> call() {
+				return null;
+			}
+		});
+
+		this.nrConverted = new AtomicLong(0);
+		this.converterBusyNanos = new AtomicLong(0);
+		this.startNanos = System.nanoTime();
+
+		// the threads do not keep the JVM alive, if an aborted import was not finished
+		this.converterPool = Executors.newFixedThreadPool(Math.max(1, nrConverterThreads), new ThreadFactory() {
+			private final AtomicInteger nrThreads = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + " converter " + nrThreads.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.writerThread = new Thread(name + " writer") {
+			@Override
+			public void run() {
+				writeBatches();
+			}
+		};
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+
+	/**
+	 * Puts a raw record into the pipeline. This blocks, while the queue is
+	 * full.
+	 *
+	 * @param record
+	 * @throws IllegalStateException if the conversion or writing failed
+	 * before or the reader was interrupted
+	 */
+	public void put(R record) {
+		if (finished) {
+			throw new IllegalStateException("the pipeline is already finished");
+		}
+		throwOnFailure();
+
+		if (currentBatch == null) {
+			currentBatch = new ArrayList<R>(BATCH_SIZE);
+		}
+		currentBatch.add(record);
+		nrRecords++;
+
+		if (currentBatch.size() == BATCH_SIZE) {
+			putBatch();
+		}
+	}
+
+
+	/**
+	 * Puts the remaining records into the pipeline and waits, until all are
+	 * written. Afterwards, the threads of the pipeline are stopped. This must
+	 * also be called, if the reading is aborted.
+	 *
+	 * @throws RuntimeException the first error of the conversion or writing
+	 */
+	public void finish() {
+		if (!finished) {
+			finished = true;
+			try {
+				if ((currentBatch != null) && (failure == null)) {
+					putBatch();
+				}
+			} finally {
+				enqueue(endOfInput);
+				joinWriter();
+				converterPool.shutdown();
+
+				wallNanos = System.nanoTime() - startNanos;
+				filterStage = new ImportFilterStage(filters);
+				for (ImportFilterStage stage : filterStages) {
+					filterStage.addCounts(stage);
+				}
+				logStatistics();
+			}
+		}
+
+		throwOnFailure();
+	}
+
+
+	/**
+	 * Returns the summed up filter stage of all converter threads. This is
+	 * only available after {@link #finish()}.
+	 *
+	 * @return
+	 */
+	public ImportFilterStage getFilterStage() {
+		return filterStage;
+	}
+
+
+	/**
+	 * Puts the current batch into the queue and hands it to the converter
+	 * pool.
+	 */
+	private void putBatch() {
+		final List<R> batch = currentBatch;
+		currentBatch = null;
+
+		FutureTask<List<P>> task = new FutureTask<List<P>>(new Callable<List<P>>() {
+			@Override
+			public List<P> call() {
+				return convertBatch(batch);
+			}
+		});
+
+		int depth = batches.size();
+		queueDepthSum += depth;
+		maxQueueDepth = Math.max(maxQueueDepth, depth);
+		nrBatches++;
+
+		// the task is executed not before there is room for it in the queue
+		enqueue(task);
+		converterPool.execute(task);
+	}
+
+
+	/**
+	 * Puts the batch into the queue, waiting for room if it is full.
+	 */
+	private void enqueue(Future<List<P>> batch) {
+		if (batches.offer(batch)) {
+			return;
+		}
+
+		long blockStart = System.nanoTime();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				batches.put(batch);
+				break;
+			} catch (InterruptedException e) {
+				// the end of input must reach the writer, the interruption is passed on afterwards
+				if (batch != endOfInput) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("the import " + name + " was interrupted", e);
+				}
+				interrupted = true;
+			}
+		}
+		readerBlockedNanos += System.nanoTime() - blockStart;
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Converts the records of the batch, called by the converter threads.
+	 */
+	private List<P> convertBatch(List<R> batch) {
+		long start = System.nanoTime();
+		List<P> converted = new ArrayList<P>(batch.size());
+
+		if (failure == null) {
+			ImportFilterStage stage = threadFilterStage.get();
+			for (R record : batch) {
+				P convertedRecord = converter.convert(record, stage);
+				if (convertedRecord != null) {
+					converted.add(convertedRecord);
+				}
+			}
+		}
+
+		nrConverted.addAndGet(converted.size());
+		converterBusyNanos.addAndGet(System.nanoTime() - start);
+		return converted;
+	}
+
+
+	/**
+	 * Writes the converted batches in the order of the queue until the end of
+	 * the input, called by the writer thread. After a failure, the remaining
+	 * batches are only taken, so the reader is not blocked.
+	 */
+	private void writeBatches() {
+		while (true) {
+			Future<List<P>> batch;
+			try {
+				batch = batches.take();
+			} catch (InterruptedException e) {
+				setFailure(e);
+				continue;
+			}
+			if (batch == endOfInput) {
+				break;
+			}
+
+			long waitStart = System.nanoTime();
+			List<P> converted;
+			try {
+				converted = batch.get();
+			} catch (InterruptedException e) {
+				setFailure(e);
+				continue;
+			} catch (ExecutionException e) {
+				setFailure(e.getCause());
+				continue;
+			}
+			long writeStart = System.nanoTime();
+			writerWaitingNanos += writeStart - waitStart;
+
+			if (failure == null) {
+				try {
+					for (P record : converted) {
+						writer.write(record);
+					}
+					nrWritten += converted.size();
+				} catch (RuntimeException e) {
+					setFailure(e);
+				} catch (Error e) {
+					setFailure(e);
+				}
+			}
+			writerBusyNanos += System.nanoTime() - writeStart;
+		}
+	}
+
+
+	private void joinWriter() {
+		boolean interrupted = false;
+		while (writerThread.isAlive()) {
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private synchronized void setFailure(Throwable throwable) {
+		if (failure == null) {
+			failure = throwable;
+			logger.error("the import " + name + " failed", throwable);
+		}
+	}
+
+
+	/**
+	 * Passes the first failure on to the caller.
+	 */
+	private void throwOnFailure() {
+		Throwable throwable = failure;
+		if (throwable instanceof RuntimeException) {
+			throw (RuntimeException) throwable;
+		} else if (throwable instanceof Error) {
+			throw (Error) throwable;
+		} else if (throwable != null) {
+			throw new IllegalStateException("the import " + name + " failed", throwable);
+		}
+	}
+
+
+	private void logStatistics() {
+		logger.info(name + " pipeline: " + nrRecords + " records in " + nrBatches + " batches, "
+				+ (wallNanos / 1000000) + " ms, bottleneck " + getBottleneck());
+		logger.info(name + " reader: " + getThroughput(nrRecords, wallNanos) + " records/s, blocked "
+				+ (readerBlockedNanos / 1000000) + " ms, queue depth avg " + getAverageQueueDepth()
+				+ " max " + maxQueueDepth);
+		logger.info(name + " converters: " + nrConverted.get() + " passed, "
+				+ getThroughput(nrRecords, converterBusyNanos.get()) + " records/s per thread, busy "
+				+ (converterBusyNanos.get() / 1000000) + " ms");
+		logger.info(name + " writer: " + nrWritten + " written, "
+				+ getThroughput(nrWritten, writerBusyNanos) + " records/s, busy "
+				+ (writerBusyNanos / 1000000) + " ms, waiting " + (writerWaitingNanos / 1000000) + " ms");
+	}
+
+
+	private static long getThroughput(long nrItems, long nanos) {
+		return (nanos > 0) ? (long) (nrItems * 1.0e9 / nanos) : 0;
+	}
+
+
+	/**
+	 * Returns the stage, which limited the throughput of the finished
+	 * pipeline: the writer, if the reader was blocked by the full queue while
+	 * the writer hardly waited for converted batches, the converters, if both
+	 * reader and writer were waiting for them, and otherwise the reader.
+	 *
+	 * @return
+	 */
+	public Stage getBottleneck() {
+		long threshold = wallNanos / 10;
+		if (readerBlockedNanos <= threshold) {
+			return Stage.READER;
+		}
+		return (writerWaitingNanos > writerBusyNanos) ? Stage.CONVERTER : Stage.WRITER;
+	}
+
+
+	public long getNrRecords() {
+		return nrRecords;
+	}
+
+
+	/**
+	 * Returns the number of records, which passed the conversion and
+	 * filtering.
+	 *
+	 * @return
+	 */
+	public long getNrConverted() {
+		return nrConverted.get();
+	}
+
+
+	/**
+	 * Returns the number of written records, valid after {@link #finish()}.
+	 *
+	 * @return
+	 */
+	public long getNrWritten() {
+		return nrWritten;
+	}
+
+
+	/**
+	 * Returns the time the reader was blocked by the full queue.
+	 *
+	 * @return
+	 */
+	public long getReaderBlockedNanos() {
+		return readerBlockedNanos;
+	}
+
+
+	/**
+	 * Returns the summed time the converter threads were busy.
+	 *
+	 * @return
+	 */
+	public long getConverterBusyNanos() {
+		return converterBusyNanos.get();
+	}
+
+
+	/**
+	 * Returns the time the writer was writing, valid after {@link #finish()}.
+	 *
+	 * @return
+	 */
+	public long getWriterBusyNanos() {
+		return writerBusyNanos;
+	}
+
+
+	/**
+	 * Returns the time the writer waited for the conversion of the next
+	 * batch, valid after {@link #finish()}.
+	 *
+	 * @return
+	 */
+	public long getWriterWaitingNanos() {
+		return writerWaitingNanos;
+	}
+
+
+	/**
+	 * Returns the average number of batches in the queue, when a batch was
+	 * put.
+	 *
+	 * @return
+	 */
+	public double getAverageQueueDepth() {
+		return (nrBatches > 0) ? (double) queueDepthSum / nrBatches : 0;
+	}
+
+
+	/**
+	 * Returns the maximal number of batches in the queue, when a batch was
+	 * put.
+	 *
+	 * @return
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+
+	/**
+	 * Returns the time from the creation until all records were written,
+	 * valid after {@link #finish()}.
+	 *
+	 * @return
+	 */
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+
+	/**
+	 * The stages of the pipeline.
+	 */
+	public enum Stage {
+		READER,
+		CONVERTER,
+		WRITER,
+	}
+
+
+	/**
+	 * Converts a raw record and checks it against the import filters. The
+	 * converter is called by all converter threads concurrently.
+	 *
+	 * @author julian
+	 *
+	 * @param <R>
+	 * @param <P>
+	 */
+	public interface RecordConverter<R, P> {
+		/**
+		 * Converts the record.
+		 *
+		 * @param record
+		 * @param filterStage the filter stage of the calling thread
+		 * @return the converted record or null, if it does not pass the
+		 * filters
+		 */
+		P convert(R record, ImportFilterStage filterStage);
+	}
+
+
+	/**
+	 * Writes the converted records, this is only called by the writer thread.
+	 *
+	 * @author julian
+	 *
+	 * @param <P>
+	 */
+	public interface RecordWriter<P> {
+		/**
+		 * Writes the converted record.
+		 *
+		 * @param record
+		 */
+		void write(P record);
+	}
+}
@@ -25,6 +25,12 @@ public class IntermediateGroup {
 	/** List of the directly attached proteins of this group. */
 	private Set<IntermediateProtein> proteins;
 	
+	/** the cached closures of the group's cluster, null if it is not frozen */
+	private ClusterClosures clusterClosures;
+	
+	/** the index of this group in the clusterClosures */
+	private int closuresIdx;
+	
 	
 	/**
 	 * Basic Constructor, sets all the maps to null and score to NaN.
@@ -38,6 +44,8 @@ public class IntermediateGroup {
 		this.children = null;
 		this.parents = null;
 		this.proteins = null;
+		this.clusterClosures = null;
+		this.closuresIdx = -1;
 	}
 	
 	
@@ -135,6 +143,7 @@ public class IntermediateGroup {
 	 * @param peptides
 	 */
 	public void setPeptides(Collection<IntermediatePeptide> peptides) {
+		invalidateClosures();
 		this.peptides = new HashSet<IntermediatePeptide>(peptides);
 	}
 	
@@ -145,6 +154,7 @@ public class IntermediateGroup {
 	 * @param peptides
 	 */
 	public void addPeptide(IntermediatePeptide peptide) {
+		invalidateClosures();
 		if (peptides == null) {
 			peptides = new HashSet<IntermediatePeptide>();
 		}
@@ -165,9 +175,16 @@ public class IntermediateGroup {
 	
 	/**
 	 * getter for all peptides, including all children's peptides.
+	 * <p>
+	 * If the group is frozen, the returned set is an unmodifiable cached
+	 * view, otherwise a newly created set.
 	 * @return
 	 */
 	public Set<IntermediatePeptide> getAllPeptides() {
+		if (isFrozen()) {
+			return clusterClosures.getAllPeptides(closuresIdx);
+		}
+		
 		Set<IntermediatePeptide> pepSet = new HashSet<IntermediatePeptide>();
 		
 		if (peptides != null) {
@@ -193,6 +210,7 @@ public class IntermediateGroup {
 	 * @param peptides
 	 */
 	public void addChild(IntermediateGroup child) {
+		invalidateClosures();
 		if (children == null) {
 			children = new HashSet<IntermediateGroup>();
 		}
@@ -213,8 +231,15 @@ public class IntermediateGroup {
 	/**
 	 * Getter for all children groups of this group, including children's
 	 * children and so on.
+	 * <p>
+	 * If the group is frozen, the returned set is an unmodifiable cached
+	 * view, otherwise a newly created set.
 	 */
 	public Set<IntermediateGroup> getAllChildren(){
+		if (isFrozen()) {
+			return clusterClosures.getAllChildren(closuresIdx);
+		}
+		
 		Set<IntermediateGroup> allChildren = new HashSet<IntermediateGroup>();
 		
 		if (children != null) {
@@ -234,8 +259,15 @@ public class IntermediateGroup {
 	/**
 	 * Getter for all children groups of this group that have at least one
 	 * peptide, recursive, i.e. get the reporting peptide groups.
+	 * <p>
+	 * If the group is frozen, the returned set is an unmodifiable cached
+	 * view, otherwise a newly created set.
 	 */
 	public Set<IntermediateGroup> getAllPeptideChildren(){
+		if (isFrozen()) {
+			return clusterClosures.getAllPeptideChildren(closuresIdx);
+		}
+		
 		Set<IntermediateGroup> allChildren = new HashSet<IntermediateGroup>();
 		
 		if (children != null) {
@@ -259,6 +291,7 @@ public class IntermediateGroup {
 	 * @param parent
 	 */
 	public void addParent(IntermediateGroup parent) {
+		invalidateClosures();
 		if (parents == null) {
 			parents = new HashSet<IntermediateGroup>();
 		}
@@ -284,6 +317,7 @@ public class IntermediateGroup {
 	 * @param dbSeq
 	 */
 	public void addProtein(IntermediateProtein protein) {
+		invalidateClosures();
 		if (proteins == null) {
 			proteins = new HashSet<IntermediateProtein>();
 		}
@@ -298,6 +332,7 @@ public class IntermediateGroup {
 	 * @param dbSeq
 	 */
 	public void removeProtein(IntermediateProtein protein) {
+		invalidateClosures();
 		if (proteins != null) {
 			proteins.remove(protein);
 		}
@@ -316,10 +351,17 @@ public class IntermediateGroup {
 	
 	/**
 	 * Getter for the intermediateProtein of this group and all the parents.
+	 * <p>
+	 * If the group is frozen, the returned set is an unmodifiable cached
+	 * view, otherwise a newly created set.
 	 * 
 	 * @return
 	 */
 	public Set<IntermediateProtein> getAllProteins() {
+		if (isFrozen()) {
+			return clusterClosures.getAllProteins(closuresIdx);
+		}
+		
 		Set<IntermediateProtein> allProteins = new HashSet<IntermediateProtein>();
 		
 		if (parents != null) {
@@ -344,4 +386,40 @@ public class IntermediateGroup {
 	public boolean directlyConnectedToProtein(IntermediateProtein protein) {
         return proteins != null && proteins.contains(protein);
     }
+	
+	
+	/**
+	 * Returns true, if the closures of the group are cached, i.e. the group's
+	 * cluster was frozen and not changed since.
+	 * 
+	 * @return
+	 */
+	public boolean isFrozen() {
+		return (clusterClosures != null) && clusterClosures.isValid();
+	}
+	
+	
+	/**
+	 * Sets the cached closures of the group's cluster.
+	 * 
+	 * @param closures
+	 * @param idx the index of this group in the closures
+	 */
+	void setClusterClosures(ClusterClosures closures, int idx) {
+		this.clusterClosures = closures;
+		this.closuresIdx = idx;
+	}
+	
+	
+	/**
+	 * Invalidates the cached closures of the whole cluster, called before any
+	 * structural change of the group.
+	 */
+	private void invalidateClosures() {
+		if (clusterClosures != null) {
+			clusterClosures.invalidate();
+			clusterClosures = null;
+			closuresIdx = -1;
+		}
+	}
 }
@@ -1,10 +1,10 @@
 package uk.ac.ebi.pride.utilities.pia.intermediate;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
@@ -15,6 +15,15 @@ import uk.ac.ebi.pride.utilities.pia.modeller.scores.ScoringItemType;
 
 /**
  * A peptide class, which is used in the intermediate structure.
+ * <p>
+ * The PSMs are identified by their numeric IDs and stored in a list. The
+ * filtering and scoring information is kept by the positions of the PSMs in
+ * this list.
+ * <p>
+ * An inference run does not filter and score the peptides of the intermediate
+ * structure directly, but views of them (see {@link #createView(BitSet)}).
+ * A view shares the PSMs with its peptide, but has its own passing PSMs and
+ * scoring information, so any number of runs can use the same structure.
  * 
  * @author julian
  *
@@ -28,17 +37,27 @@ public class IntermediatePeptide {
 	private IntermediateGroup group;
 	
 	/** List of identifications for this peptide */
-	private Map<Comparable, IntermediatePeptideSpectrumMatch> peptideSpectrumMatches;
+	private List<IntermediatePeptideSpectrumMatch> peptideSpectrumMatches;
 	
-	/** The PSMs passing a given filter */
-	private Set<Comparable> psmsPassingFilter;
+	/** hash table of the positions + 1 of the PSMs by their numeric IDs, only created for many PSMs */
+	private int[] psmPositions;
+	
+	/** The positions of the PSMs passing a given filter */
+	private BitSet psmsPassingFilter;
 	
 	/** the peptide score */
 	private Double score;
 	
-	/** The IDs of the PSMs mapping to the type of scoring. If a PSM's ID is not
-	 *  a key in the map, it is assumed to not score */
-	private Map<Comparable, ScoringItemType> psmScorings;
+	/** The types of scoring by the positions of the PSMs. If a PSM's position
+	 *  is not in the array or null, it is assumed to not score */
+	private ScoringItemType[] psmScorings;
+	
+	/** whether this is a view of another peptide, which shares its PSMs */
+	private boolean isView;
+	
+	
+	/** up to this number of PSMs, they are found by a linear search */
+	private static final int MAX_LINEAR_SEARCH = 8;
 	
 	
 	/**
@@ -49,10 +68,31 @@ public class IntermediatePeptide {
 	public IntermediatePeptide(String sequence) {
 		this.sequence = sequence;
 		this.group = null;
-		this.peptideSpectrumMatches = new HashMap<Comparable, IntermediatePeptideSpectrumMatch>();
+		this.peptideSpectrumMatches = new ArrayList<IntermediatePeptideSpectrumMatch>(2);
+		this.psmPositions = null;
 		this.psmsPassingFilter = null;
 		this.score = Double.NaN;
 		this.psmScorings = null;
+		this.isView = false;
+	}
+	
+	
+	/**
+	 * Creates a view of the given peptide, in which only the PSMs at the given
+	 * positions pass.
+	 * 
+	 * @param peptide
+	 * @param passingPositions
+	 */
+	private IntermediatePeptide(IntermediatePeptide peptide, BitSet passingPositions) {
+		this.sequence = peptide.sequence;
+		this.group = peptide.group;
+		this.peptideSpectrumMatches = peptide.peptideSpectrumMatches;
+		this.psmPositions = peptide.psmPositions;
+		this.psmsPassingFilter = passingPositions;
+		this.score = Double.NaN;
+		this.psmScorings = null;
+		this.isView = true;
 	}
 	
 	
@@ -113,14 +153,29 @@ public class IntermediatePeptide {
 	 * 
 	 * @param spectrum
 	 * @return true if this peptide did not already contain the spectrum identification
+	 * @throws UnsupportedOperationException if this is a view of a peptide
 	 */
 	public boolean addPeptideSpectrumMatch(IntermediatePeptideSpectrumMatch spectrumIdentification) {
-		if (!peptideSpectrumMatches.containsKey(spectrumIdentification.getID())) {
-			peptideSpectrumMatches.put(spectrumIdentification.getID(), spectrumIdentification);
+		if (isView) {
+			throw new UnsupportedOperationException("PSMs cannot be added to the view of a peptide");
+		}
+		
+		if (getPosition(spectrumIdentification.getNumericID()) < 0) {
+			int position = peptideSpectrumMatches.size();
+			peptideSpectrumMatches.add(spectrumIdentification);
 			spectrumIdentification.setPeptide(this);
 			
+			if (psmPositions != null) {
+				insertPosition(psmPositions, position);
+				if (2 * peptideSpectrumMatches.size() > psmPositions.length) {
+					rehashPositions();
+				}
+			} else if (peptideSpectrumMatches.size() > MAX_LINEAR_SEARCH) {
+				rehashPositions();
+			}
+			
 			if (psmsPassingFilter != null) {
-				psmsPassingFilter.add(spectrumIdentification.getID());
+				psmsPassingFilter.set(position);
 			}
 			return true;
 		}
@@ -129,6 +184,74 @@ public class IntermediatePeptide {
 	}
 	
 	
+	/**
+	 * Returns the position of the PSM with the given numeric ID in the list
+	 * of PSMs, or -1 if this peptide has no such PSM.
+	 */
+	private int getPosition(long numericID) {
+		if (psmPositions == null) {
+			for (int i = 0; i < peptideSpectrumMatches.size(); i++) {
+				if (peptideSpectrumMatches.get(i).getNumericID() == numericID) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+		int mask = psmPositions.length - 1;
+		int bucket = spread(numericID) & mask;
+		while (psmPositions[bucket] > 0) {
+			int position = psmPositions[bucket] - 1;
+			if (peptideSpectrumMatches.get(position).getNumericID() == numericID) {
+				return position;
+			}
+			bucket = (bucket + 1) & mask;
+		}
+		return -1;
+	}
+	
+	
+	/**
+	 * Inserts the given position into the hash table, the PSM at this
+	 * position must not be in the table yet.
+	 */
+	private void insertPosition(int[] table, int position) {
+		int mask = table.length - 1;
+		int bucket = spread(peptideSpectrumMatches.get(position).getNumericID()) & mask;
+		while (table[bucket] > 0) {
+			bucket = (bucket + 1) & mask;
+		}
+		table[bucket] = position + 1;
+	}
+	
+	
+	/**
+	 * Creates the hash table of the positions with at most 50% load.
+	 */
+	private void rehashPositions() {
+		int nrBuckets = 16;
+		while (nrBuckets < 2 * peptideSpectrumMatches.size()) {
+			nrBuckets *= 2;
+		}
+		
+		int[] table = new int[nrBuckets];
+		for (int position = 0; position < peptideSpectrumMatches.size(); position++) {
+			insertPosition(table, position);
+		}
+		psmPositions = table;
+	}
+	
+	
+	/**
+	 * Spreads the bits of a numeric ID, as the lower bits are consecutive
+	 * ordinals and the upper bits the file index.
+	 */
+	private static int spread(long numericID) {
+		int h = (int) (numericID ^ (numericID >>> 32)) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	
 	/**
 	 * Getter for the PSMs.
 	 * <p>
@@ -140,15 +263,14 @@ public class IntermediatePeptide {
 	public List<IntermediatePeptideSpectrumMatch> getPeptideSpectrumMatches() {
 		if (psmsPassingFilter != null) {
 			List<IntermediatePeptideSpectrumMatch> psms =
-					new ArrayList<IntermediatePeptideSpectrumMatch>(psmsPassingFilter.size());
-			for (Map.Entry<Comparable, IntermediatePeptideSpectrumMatch> psmIt : peptideSpectrumMatches.entrySet()) {
-				if (psmsPassingFilter.contains(psmIt.getKey())) {
-					psms.add(psmIt.getValue());
-				}
+					new ArrayList<IntermediatePeptideSpectrumMatch>(psmsPassingFilter.cardinality());
+			for (int position = psmsPassingFilter.nextSetBit(0); position >= 0;
+					position = psmsPassingFilter.nextSetBit(position + 1)) {
+				psms.add(peptideSpectrumMatches.get(position));
 			}
 			return psms;
 		} else {
-			return new ArrayList<IntermediatePeptideSpectrumMatch>(peptideSpectrumMatches.values());
+			return new ArrayList<IntermediatePeptideSpectrumMatch>(peptideSpectrumMatches);
 		}
 	}
 	
@@ -163,7 +285,7 @@ public class IntermediatePeptide {
 	 */
 	public Integer getNumberOfPeptideSpectrumMatches() {
 		if (psmsPassingFilter != null) {
-			return psmsPassingFilter.size();
+			return psmsPassingFilter.cardinality();
 		} else {
 			return peptideSpectrumMatches.size();
 		}
@@ -175,7 +297,7 @@ public class IntermediatePeptide {
 	 * @return
 	 */
 	public List<IntermediatePeptideSpectrumMatch> getAllPeptideSpectrumMatches() {
-		return new ArrayList<IntermediatePeptideSpectrumMatch>(peptideSpectrumMatches.values());
+		return new ArrayList<IntermediatePeptideSpectrumMatch>(peptideSpectrumMatches);
 	}
 	
 	
@@ -195,18 +317,64 @@ public class IntermediatePeptide {
 	/**
 	 * Filters the PSMs using the given filters. Any prior filtering will be
 	 * deleted.
+	 * <p>
+	 * This changes the peptide for all its users, use
+	 * {@link #createFilteredView(List)} to filter for a single inference run.
 	 * 
 	 * @param filters
 	 */
 	public void filterPSMs(List<AbstractFilter> filters) {
-		psmsPassingFilter = new HashSet<Comparable>();
+		psmsPassingFilter = getPassingPositions(filters);
+	}
+	
+	
+	/**
+	 * Creates a view of this peptide, in which only the PSMs passing the given
+	 * filters pass. This peptide is not changed.
+	 * 
+	 * @param filters
+	 * @return
+	 */
+	public IntermediatePeptide createFilteredView(List<AbstractFilter> filters) {
+		return createView(getPassingPositions(filters));
+	}
+	
+	
+	/**
+	 * Creates a view of this peptide, in which only the PSMs at the given
+	 * positions pass. The positions are the ones in the list of
+	 * {@link #getAllPeptideSpectrumMatches()}, the set must not be changed
+	 * afterwards.
+	 * <p>
+	 * The view shares the PSMs, sequence and group with this peptide, but has
+	 * its own score and scoring information. No PSMs can be added to it and
+	 * the PSMs still reference this peptide.
+	 * 
+	 * @param passingPositions
+	 * @return
+	 */
+	public IntermediatePeptide createView(BitSet passingPositions) {
+		return new IntermediatePeptide(this, passingPositions);
+	}
+	
+	
+	/**
+	 * Returns the positions of all PSMs, which pass the given filters. The
+	 * positions are the ones in the list of
+	 * {@link #getAllPeptideSpectrumMatches()}.
+	 * 
+	 * @param filters
+	 * @return
+	 */
+	public BitSet getPassingPositions(List<AbstractFilter> filters) {
+		BitSet passing = new BitSet(peptideSpectrumMatches.size());
 		
-		for (IntermediatePeptideSpectrumMatch psm : getAllPeptideSpectrumMatches()) {
-			if (FilterUtilities.satisfiesFilterList(psm, filters)) {
-				psmsPassingFilter.add(psm.getID());
-				
+		for (int position = 0; position < peptideSpectrumMatches.size(); position++) {
+			if (FilterUtilities.satisfiesFilterList(peptideSpectrumMatches.get(position), filters)) {
+				passing.set(position);
 			}
 		}
+		return passing;
 	}
 	
 	
@@ -237,13 +405,15 @@ public class IntermediatePeptide {
 	 * @param psmID
 	 */
 	public void setPSMsScoringType(IntermediatePeptideSpectrumMatch psm, ScoringItemType type) {
-		if (psmScorings == null) {
-			psmScorings = new HashMap<Comparable, ScoringItemType>();
+		if ((psmScorings == null) || (psmScorings.length < peptideSpectrumMatches.size())) {
+			psmScorings = (psmScorings == null) ?
+					new ScoringItemType[peptideSpectrumMatches.size()] :
+					Arrays.copyOf(psmScorings, peptideSpectrumMatches.size());
 		}
 		
-		Comparable psmID = psm.getID();
-		if (peptideSpectrumMatches.containsKey(psmID)) {
-			psmScorings.put(psmID, type);
+		int position = getPosition(psm.getNumericID());
+		if (position >= 0) {
+			psmScorings[position] = type;
 		}
 	}
 	
@@ -255,12 +425,12 @@ public class IntermediatePeptide {
 	 * @return
 	 */
 	public ScoringItemType getPSMsScoringType(IntermediatePeptideSpectrumMatch psm) {
-		Comparable psmID = psm.getID();
+		int position = (psmScorings != null) ? getPosition(psm.getNumericID()) : -1;
 		
-		if ((psmScorings == null) || !psmScorings.containsKey(psmID)) {
+		if ((position < 0) || (position >= psmScorings.length) || (psmScorings[position] == null)) {
 			return ScoringItemType.NOT_SCORING;
 		} else {
-			return psmScorings.get(psmID);
+			return psmScorings[position];
 		}
 	}
 	
@@ -296,6 +466,11 @@ public class IntermediatePeptide {
 	}
 	
 	
+	/**
+	 * Two peptides are equal, if they have the same sequence and group ID and
+	 * the same PSMs by their numeric IDs, of which the same ones pass. The
+	 * positions of the PSMs may differ, e.g. for read in structures.
+	 */
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj) return true;
@@ -304,26 +479,40 @@ public class IntermediatePeptide {
 		IntermediatePeptide peptide = (IntermediatePeptide)obj;
 		
 		if (!sequence.equals(peptide.getSequence())) return false;
-		if (psmsPassingFilter != null) {
-			if (!psmsPassingFilter.equals(peptide.psmsPassingFilter)) {
-				return false;
-			}
-		} else {
-			if (peptide.psmsPassingFilter != null) {
+		if ((group == null) ? (peptide.group != null) :
+				((peptide.group == null) || !group.getID().equals(peptide.group.getID()))) {
+			return false;
+		}
+		if ((psmsPassingFilter == null) != (peptide.psmsPassingFilter == null)) return false;
+		if (peptideSpectrumMatches.size() != peptide.peptideSpectrumMatches.size()) return false;
+		
+		if (peptideSpectrumMatches == peptide.peptideSpectrumMatches) {
+			// views of the same peptide
+			return (psmsPassingFilter == null) || psmsPassingFilter.equals(peptide.psmsPassingFilter);
+		}
+		
+		// the numeric IDs are unique within a peptide, so equal sizes and containment suffice
+		for (int position = 0; position < peptideSpectrumMatches.size(); position++) {
+			int otherPosition = peptide.getPosition(peptideSpectrumMatches.get(position).getNumericID());
+			if ((otherPosition < 0) || ((psmsPassingFilter != null) &&
+					(psmsPassingFilter.get(position) != peptide.psmsPassingFilter.get(otherPosition)))) {
 				return false;
 			}
 		}
-		
-		return !((group != null) ? !group.getID().equals(peptide.getGroup().getID()) : (peptide.getGroup() != null)) &&
-				!((peptideSpectrumMatches != null) ? !peptideSpectrumMatches.equals(peptide.peptideSpectrumMatches) : (peptide.peptideSpectrumMatches != null));
+		return true;
 	}
 	
 	
+	/**
+	 * The hash code uses only the sequence, the group ID and the number of
+	 * PSMs, so it does not depend on the positions of the PSMs and does not
+	 * change by filtering the peptide.
+	 */
 	@Override
 	public int hashCode() {
         int result = (sequence != null) ? sequence.hashCode() : 0;
         result = 31 * result + ((group != null) ? group.getID().hashCode() : 0);
-        result = 31 * result + ((peptideSpectrumMatches != null) ? peptideSpectrumMatches.hashCode() : 0);
+        result = 31 * result + peptideSpectrumMatches.size();
         return result;
 	}
 }
@@ -1,11 +1,14 @@
 package uk.ac.ebi.pride.utilities.pia.intermediate;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
 import uk.ac.ebi.jmzidml.model.mzidml.Modification;
 import uk.ac.ebi.pride.utilities.pia.modeller.fdr.FDRComputableByDecoys;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.CvScore;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.ScoreRegistry;
 
 
 
@@ -35,13 +38,29 @@ public abstract class IntermediatePeptideSpectrumMatch implements FDRComputableB
 	/** whether this PSM is unique for one protein, does not have to be set by implementation */
 	private Boolean isUnique;
 	
+	/** the accessions of the base scores in the order of the input, may be shared between PSMs */
+	private String[] baseScoreAccessions;
+	
+	/** the values of the base scores indexed by their slots in the {@link ScoreRegistry}, NaN for not given scores */
+	private double[] baseScores;
+	
+	/** the compact numeric ID, unique within the imported data */
+	private long numericID;
+	
+	
+	/** the source of the numeric IDs of PSMs, which get no ID by their importer (always negative) */
+	private static final AtomicLong unassignedIDs = new AtomicLong();
+	
 	
 	public IntermediatePeptideSpectrumMatch() {
+		this.numericID = unassignedIDs.decrementAndGet();
 		this.isDecoy = null;
 		this.fdrValue = null;
 		this.qValue = null;
 		this.fdrScore = null;
 		this.isUnique = null;
+		this.baseScoreAccessions = null;
+		this.baseScores = null;
 	}
 	
 	
@@ -53,6 +72,47 @@ public abstract class IntermediatePeptideSpectrumMatch implements FDRComputableB
 	public abstract Comparable getID();
 	
 	
+	/**
+	 * Returns the compact numeric ID of this PSM, which is used to identify
+	 * the PSM within the intermediate structure. The IDs assigned by the
+	 * importers are built by {@link #computeNumericID(int, int)} and are not
+	 * negative, all other PSMs get a unique negative ID on creation.
+	 * <p>
+	 * The readable ID for exports is still given by {@link #getID()}.
+	 * 
+	 * @return
+	 */
+	public long getNumericID() {
+		return numericID;
+	}
+	
+	
+	/**
+	 * Sets the compact numeric ID, this must be done by the importer before
+	 * the PSM is added to a peptide.
+	 * 
+	 * @param numericID
+	 */
+	public void setNumericID(long numericID) {
+		this.numericID = numericID;
+	}
+	
+	
+	/**
+	 * Computes the numeric ID of the PSM with the given ordinal in the input
+	 * file with the given index. The file index is the upper and the ordinal
+	 * the lower half of the ID.
+	 * 
+	 * @param fileIndex the index of the file, e.g. the handle of the
+	 * controller ID in the {@link SymbolTable}
+	 * @param ordinal the position of the PSM in the file
+	 * @return
+	 */
+	public static long computeNumericID(int fileIndex, int ordinal) {
+		return ((long) fileIndex << 32) | (ordinal & 0xffffffffL);
+	}
+	
+	
 	/**
 	 * Returns the ID of the used controller for importing.
 	 * @return
@@ -67,6 +127,118 @@ public abstract class IntermediatePeptideSpectrumMatch implements FDRComputableB
 	public abstract Double getScore(String scoreAccession);
 	
 	
+	/**
+	 * Returns the value of the score with the given slot of the
+	 * {@link ScoreRegistry}, or NaN if the PSM has no such score. For base
+	 * scores set by {@link #setBaseScores(String[], double[])} and the
+	 * calculated scores, this is an array respectively field read.
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public double getScore(int slot) {
+		Double score;
+		switch (slot) {
+		case ScoreRegistry.FDR_SCORE_SLOT:
+			score = getFDRScore();
+			break;
+			
+		case ScoreRegistry.LOCAL_FDR_SLOT:
+			score = getFDR();
+			break;
+			
+		case ScoreRegistry.Q_VALUE_SLOT:
+			score = getQValue();
+			break;
+			
+		default:
+			if (slot < 0) {
+				return Double.NaN;
+			} else if (baseScores != null) {
+				return (slot < baseScores.length) ? baseScores[slot] : Double.NaN;
+			}
+			score = getScore(ScoreRegistry.getAccession(slot));
+			break;
+		}
+		
+		return (score != null) ? score : Double.NaN;
+	}
+	
+	
+	/**
+	 * Sets the base scores of this PSM, which are stored in an array indexed
+	 * by the slots of the {@link ScoreRegistry}. Should be called once by the
+	 * implementations while importing.
+	 * 
+	 * @param accessions the accessions of the scores, the array is stored and
+	 * must not be changed afterwards
+	 * @param values the values of the scores, in the order of the accessions
+	 */
+	protected final void setBaseScores(String[] accessions, double[] values) {
+		if (accessions.length != values.length) {
+			throw new IllegalArgumentException("the number of score accessions and values differ");
+		}
+		
+		int[] slots = new int[accessions.length];
+		int maxSlot = -1;
+		for (int i = 0; i < accessions.length; i++) {
+			slots[i] = ScoreRegistry.getSlot(accessions[i]);
+			maxSlot = Math.max(maxSlot, slots[i]);
+		}
+		
+		double[] scores = new double[maxSlot + 1];
+		Arrays.fill(scores, Double.NaN);
+		for (int i = 0; i < slots.length; i++) {
+			scores[slots[i]] = values[i];
+		}
+		
+		this.baseScoreAccessions = accessions;
+		this.baseScores = scores;
+	}
+	
+	
+	/**
+	 * Replaces the array of base score accessions by an equal instance, which
+	 * may be shared between PSMs.
+	 * 
+	 * @param accessions
+	 */
+	protected final void setBaseScoreAccessions(String[] accessions) {
+		if (!Arrays.equals(baseScoreAccessions, accessions)) {
+			throw new IllegalArgumentException("the score accessions differ from the set ones");
+		}
+		this.baseScoreAccessions = accessions;
+	}
+	
+	
+	/**
+	 * Returns the array of the base score accessions set by
+	 * {@link #setBaseScores(String[], double[])}, which must not be changed.
+	 * 
+	 * @return
+	 */
+	protected final String[] getBaseScoreAccessionArray() {
+		return baseScoreAccessions;
+	}
+	
+	
+	/**
+	 * Returns the value of the base score with the given accession, if it was
+	 * set by {@link #setBaseScores(String[], double[])}, otherwise null.
+	 * 
+	 * @param scoreAccession
+	 * @return
+	 */
+	protected final Double getBaseScore(String scoreAccession) {
+		int slot = ScoreRegistry.getSlotIfAssigned(scoreAccession);
+		if ((baseScores == null) || (slot < 0) || (slot >= baseScores.length)
+				|| Double.isNaN(baseScores[slot])) {
+			return null;
+		}
+		return baseScores[slot];
+	}
+	
+	
 	/**
 	 * Returns the accessions of the available scores of this PSM, including
 	 * calculated scores.
@@ -230,6 +402,17 @@ public abstract class IntermediatePeptideSpectrumMatch implements FDRComputableB
 	}
 	
 	
+	/**
+	 * Returns the isDecoy flag set by {@link #setIsDecoy(Boolean)}, null if
+	 * the decoy state is given by the proteins.
+	 * 
+	 * @return
+	 */
+	public Boolean getIsDecoyFlag() {
+		return isDecoy;
+	}
+	
+	
 	/**
 	 * Setter for the isDecoy flag.
 	 * <p>
@@ -1,5 +1,6 @@
 package uk.ac.ebi.pride.utilities.pia.intermediate;
 
+import uk.ac.ebi.pride.utilities.pia.intermediate.fasta.SequenceReference;
 import uk.ac.ebi.pride.utilities.pia.modeller.fdr.FDRComputableByDecoys;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.CvScore;
 
@@ -32,6 +33,12 @@ public abstract class IntermediateProtein implements FDRComputableByDecoys {
 	/** the protein score (if it is calculatet */
 	private Double proteinScore;
 	
+	/** the reference to the sequence in a sequence store, overrides the sequence of the source */
+	private SequenceReference sequenceReference;
+	
+	/** the sequence given by another file, if the source of the protein gave none */
+	private String addedSequence;
+	
 	
 	public IntermediateProtein() {
 		this.group = null;
@@ -40,6 +47,8 @@ public abstract class IntermediateProtein implements FDRComputableByDecoys {
 		this.qValue = null;
 		this.fdrScore = null;
 		this.proteinScore = null;
+		this.sequenceReference = null;
+		this.addedSequence = null;
 	}
 	
 	
@@ -51,10 +60,81 @@ public abstract class IntermediateProtein implements FDRComputableByDecoys {
 	
 	
 	/**
-	 * getter for the protein sequence.
+	 * getter for the protein sequence. If the protein references its sequence
+	 * in a sequence store, it is decoded on each call.
 	 * @return null, if no sequence was imported
 	 */
-	public abstract String getProteinSequence();
+	public String getProteinSequence() {
+		if (sequenceReference != null) {
+			return sequenceReference.getSequence();
+		} else if (addedSequence != null) {
+			return addedSequence;
+		}
+		return getSourceSequence();
+	}
+	
+	
+	/**
+	 * Returns the sequence given by the source of the protein, i.e. the
+	 * imported file or controller.
+	 * @return null, if the source gives no sequence
+	 */
+	protected String getSourceSequence() {
+		return null;
+	}
+	
+	
+	/**
+	 * Returns the reference to the sequence in a sequence store or null, if the
+	 * sequence is not stored there.
+	 * @return
+	 */
+	public SequenceReference getSequenceReference() {
+		return sequenceReference;
+	}
+	
+	
+	/**
+	 * Sets the reference to the sequence in a sequence store, the referenced
+	 * sequence overrides the sequence of the source.
+	 * @param sequenceReference
+	 */
+	public void setSequenceReference(SequenceReference sequenceReference) {
+		this.sequenceReference = sequenceReference;
+	}
+	
+	
+	/**
+	 * Sets the sequence given by another file, which is used if the source of
+	 * this protein gives none.
+	 * @param sequence
+	 */
+	public void setAddedSequence(String sequence) {
+		this.addedSequence = sequence;
+	}
+	
+	
+	/**
+	 * Checks whether both proteins have the same sequence. If any of the
+	 * proteins references its sequence, only the lengths and hashes are
+	 * compared and no sequence store is decoded.
+	 * 
+	 * @param other
+	 * @return false, if any of the proteins has no sequence
+	 */
+	public boolean sequenceEquals(IntermediateProtein other) {
+		if (sequenceReference != null) {
+			if (other.getSequenceReference() != null) {
+				return sequenceReference.sequenceEquals(other.getSequenceReference());
+			}
+			return sequenceReference.sequenceEquals(other.getProteinSequence());
+		} else if (other.getSequenceReference() != null) {
+			return other.getSequenceReference().sequenceEquals(getProteinSequence());
+		}
+		
+		String sequence = getProteinSequence();
+		return (sequence != null) && sequence.equals(other.getProteinSequence());
+	}
 	
 	
 	/**
@@ -31,12 +31,20 @@ public class IntermediateStructure {
 	/** the total number of groups in the structure */
 	private Integer nrGroups;
 	
+	/** the ID of the next added group, IDs are not reused after removals */
+	private int nextGroupID;
+	
+	/** the treeID of the next added cluster, IDs are not reused after removals */
+	private int nextTreeID;
+	
 	
 	public IntermediateStructure() {
 		clusters = new HashMap<Integer, Set<IntermediateGroup>>();
 		peptides = new HashSet<IntermediatePeptide>();
 		proteins = new HashSet<IntermediateProtein>();
 		nrGroups = 0;
+		nextGroupID = 0;
+		nextTreeID = 1;
 	}
 	
 	
@@ -47,12 +55,13 @@ public class IntermediateStructure {
 	 * @param cluster
 	 */
 	public void addCluster(Collection<IntermediateGroup> cluster) {
-		Integer newTreeID = clusters.size() + 1;
+		Integer newTreeID = nextTreeID++;
 		Set<IntermediateGroup> newGroup = new HashSet<IntermediateGroup>(cluster.size());
 		
 		for (IntermediateGroup group : cluster) {
 			// increase the groups' IDs and adjust the treeIDs
-			group.setID(nrGroups++);
+			group.setID(nextGroupID++);
+			nrGroups++;
 			group.setTreeID(newTreeID);
 			
 			if (group.getPeptides() != null) {
@@ -74,6 +83,72 @@ public class IntermediateStructure {
 	}
 	
 	
+	/**
+	 * Removes the cluster with the given treeID from the structure, e.g. to
+	 * rebuild it with new data. The peptides and proteins of the cluster are
+	 * removed as well, but keep their groups, which are returned.
+	 * <p>
+	 * The treeIDs and group IDs of the other clusters are not changed and the
+	 * IDs of the removed cluster are not given to later added clusters.
+	 * 
+	 * @param clusterNr
+	 * @return the groups of the removed cluster or null, if there is no
+	 * cluster with this treeID
+	 */
+	public Set<IntermediateGroup> removeCluster(Integer clusterNr) {
+		Set<IntermediateGroup> cluster = clusters.remove(clusterNr);
+		if (cluster == null) {
+			return null;
+		}
+		
+		for (IntermediateGroup group : cluster) {
+			if (group.getPeptides() != null) {
+				peptides.removeAll(group.getPeptides());
+			}
+			if (group.getProteins() != null) {
+				proteins.removeAll(group.getProteins());
+			}
+			nrGroups--;
+		}
+		
+		return cluster;
+	}
+	
+	
+	/**
+	 * Caches the transitive closures of all groups, whose clusters are not yet
+	 * frozen or were changed since freezing.
+	 * 
+	 * @see IntermediateGroup#isFrozen()
+	 */
+	public void freeze() {
+		for (Set<IntermediateGroup> cluster : clusters.values()) {
+			boolean frozen = true;
+			for (IntermediateGroup group : cluster) {
+				if (!group.isFrozen()) {
+					frozen = false;
+					break;
+				}
+			}
+			
+			if (!frozen) {
+				freezeCluster(cluster);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Caches the transitive closures of all groups in the given cluster, which
+	 * must contain all parents and children of its groups.
+	 * 
+	 * @param cluster
+	 */
+	protected static void freezeCluster(Collection<IntermediateGroup> cluster) {
+		ClusterClosures.freeze(cluster);
+	}
+	
+	
 	/**
 	 * Returns the number of trees
 	 * 
@@ -106,6 +181,40 @@ public class IntermediateStructure {
 	}
 	
 	
+	/**
+	 * Returns the number of peptides in the cluster given by the clusterNr.
+	 * 
+	 * @param clusterNr
+	 * @return
+	 */
+	public int getClusterNrPeptides(Integer clusterNr) {
+		int nrPeptides = 0;
+		for (IntermediateGroup group : clusters.get(clusterNr)) {
+			if (group.getPeptides() != null) {
+				nrPeptides += group.getPeptides().size();
+			}
+		}
+		return nrPeptides;
+	}
+	
+	
+	/**
+	 * Returns the number of proteins in the cluster given by the clusterNr.
+	 * 
+	 * @param clusterNr
+	 * @return
+	 */
+	public int getClusterNrProteins(Integer clusterNr) {
+		int nrProteins = 0;
+		for (IntermediateGroup group : clusters.get(clusterNr)) {
+			if (group.getProteins() != null) {
+				nrProteins += group.getProteins().size();
+			}
+		}
+		return nrProteins;
+	}
+	
+	
 	/**
 	 * Returns the number of total groups
 	 * 
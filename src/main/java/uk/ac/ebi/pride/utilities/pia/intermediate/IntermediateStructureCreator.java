@@ -1,17 +1,22 @@
 package uk.ac.ebi.pride.utilities.pia.intermediate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.ebi.pride.utilities.pia.intermediate.fasta.FastaSequenceStore;
+import uk.ac.ebi.pride.utilities.pia.intermediate.fasta.SequenceReference;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressListener.Stage;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressReporter;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
+
 
 /**
  * This class creates the intermediate structure needed for fast data access
@@ -25,25 +30,10 @@ public class IntermediateStructureCreator {
 	/** the logger for this class */
 	private static final Logger logger = LoggerFactory.getLogger(IntermediateStructureCreator.class);
 	
-	/** mapping from the peptide ID to intermediatePeptide
+	/** the peptides, proteins and their connections, indexed by dense ints
 	 * TODO: we could decide in this class, whether a peptide is defined by the sequence only or also by the mods
 	 **/
-	private Map<Comparable, IntermediatePeptide> peptides;
-	
-	/** mapping from protein accession to the protein */
-	private Map<String, IntermediateProtein> proteins;
-	
-	
-	
-	/** mapping from the protein accessions to connected peptides' IDs **/
-	private Map<String, Set<Comparable>> proteinsToPeptidesMapping;
-	
-	/** mapping from the peptide IDs to connected proteins' accessions */
-	private Map<Comparable, Set<String>> peptidesToProteinsMapping;
-
-	/** iterates over the clustered list of peptide -> proteins mapping */
-	private ListIterator<Map<Comparable, Set<String>>> clusterIterator;
-
+	private PeptideProteinGraph graph;
 	
 	/** the created intermediate structure */
 	private IntermediateStructure intermediateStructure;
@@ -51,18 +41,107 @@ public class IntermediateStructureCreator {
 	/** the maximal number of used threads */
 	private int numberThreads;
 	
+	/** the method used to cluster the peptide to protein mapping */
+	private ClusteringMethod clusteringMethod;
+	
+	/** the table deduplicating the strings of the imported data */
+	private SymbolTable symbolTable;
+	
+	/** the reporter of the progress of the clustering and building */
+	private ProgressReporter progressReporter;
+	
+	/** the store of the protein sequences, may be null */
+	private FastaSequenceStore sequenceStore;
+	
 	
 	public IntermediateStructureCreator(int threads) {
-		this.peptides = new HashMap<Comparable, IntermediatePeptide>();
-		this.proteins = new HashMap<String, IntermediateProtein>();
-		this.proteinsToPeptidesMapping =
-				new HashMap<String, Set<Comparable>>();
-		this.peptidesToProteinsMapping = new HashMap<Comparable, Set<String>>();
+		this(threads, new SymbolTable());
+	}
+	
+	
+	/**
+	 * Creates a creator using the given symbol table, which may be shared
+	 * with other creators (e.g. the staging creators of a concurrent import).
+	 * 
+	 * @param threads
+	 * @param symbolTable
+	 */
+	public IntermediateStructureCreator(int threads, SymbolTable symbolTable) {
+		this.graph = new PeptideProteinGraph();
 		
-		this.clusterIterator = null;
 		this.intermediateStructure = null;
 		
 		this.numberThreads = threads;
+		this.clusteringMethod = ClusteringMethod.UNION_FIND;
+		this.symbolTable = symbolTable;
+		this.progressReporter = new ProgressReporter();
+		this.sequenceStore = null;
+	}
+	
+	
+	/**
+	 * Sets the reporter of the progress of the clustering and building of
+	 * the intermediate structure.
+	 * 
+	 * @param reporter
+	 */
+	public void setProgressReporter(ProgressReporter reporter) {
+		this.progressReporter = reporter;
+	}
+	
+	
+	/**
+	 * Sets the method used to cluster the peptide to protein mapping while
+	 * building the intermediate structure.
+	 * 
+	 * @param method
+	 */
+	public void setClusteringMethod(ClusteringMethod method) {
+		this.clusteringMethod = method;
+	}
+	
+	
+	/**
+	 * Getter for the method used to cluster the peptide to protein mapping.
+	 * 
+	 * @return
+	 */
+	public ClusteringMethod getClusteringMethod() {
+		return clusteringMethod;
+	}
+	
+	
+	/**
+	 * Sets the store of the protein sequences. The proteins added afterwards
+	 * reference their sequences in the store, if it contains their accessions,
+	 * instead of holding them.
+	 * 
+	 * @param sequenceStore the store, null for none
+	 */
+	public void setSequenceStore(FastaSequenceStore sequenceStore) {
+		this.sequenceStore = sequenceStore;
+	}
+	
+	
+	/**
+	 * Getter for the store of the protein sequences.
+	 * 
+	 * @return the store or null, if none is used
+	 */
+	public FastaSequenceStore getSequenceStore() {
+		return sequenceStore;
+	}
+	
+	
+	/**
+	 * Getter for the symbol table, which should be used by the importers to
+	 * deduplicate the peptide sequences, protein accessions, controller IDs
+	 * and score accessions.
+	 * 
+	 * @return
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
 	}
 	
 	
@@ -73,7 +152,7 @@ public class IntermediateStructureCreator {
 	 * @return
 	 */
 	public boolean peptidesContains(Comparable peptideID) {
-		return peptides.containsKey(peptideID);
+		return graph.getPeptideIndex(peptideID) > -1;
 	}
 	
 	
@@ -84,7 +163,7 @@ public class IntermediateStructureCreator {
 	 * @return any previous peptide with the same ID or null
 	 */
 	public IntermediatePeptide addPeptide(IntermediatePeptide peptide) {
-		return peptides.put(peptide.getID(), peptide);
+		return graph.addPeptide(peptide);
 	}
 	
 	
@@ -94,7 +173,8 @@ public class IntermediateStructureCreator {
 	 * @return
 	 */
 	public IntermediatePeptide getPeptide(Comparable pepId) {
-		return peptides.get(pepId);
+		int idx = graph.getPeptideIndex(pepId);
+		return (idx > -1) ? graph.getPeptide(idx) : null;
 	}
 	
 	
@@ -105,7 +185,7 @@ public class IntermediateStructureCreator {
 	 * @return
 	 */
 	public boolean proteinsContains(String accession) {
-		return proteins.containsKey(accession);
+		return graph.getProteinIndex(accession) > -1;
 	}
 	
 	
@@ -116,7 +196,13 @@ public class IntermediateStructureCreator {
 	 * @return any previous protein with the same ID or null
 	 */
 	public IntermediateProtein addProtein(IntermediateProtein protein) {
-		return proteins.put(protein.getAccession(), protein);
+		if ((sequenceStore != null) && (protein.getSequenceReference() == null)) {
+			SequenceReference reference = sequenceStore.getReference(protein.getAccession());
+			if (reference != null) {
+				protein.setSequenceReference(reference);
+			}
+		}
+		return graph.addProtein(protein);
 	}
 	
 	
@@ -127,23 +213,31 @@ public class IntermediateStructureCreator {
 	 * @param proteinAccession the accession of the protein, which should get
 	 * new information
 	 * @param newProtein the protein, which may contain additional information
-	 * @return any previous protein with the same ID or null
 	 */
 	public void addProteinInformation(String proteinAccession, IntermediateProtein newProtein) {
-		// TODO: look if the newProtein contains additional information for the protein given by proteinAccession
-		IntermediateProtein oldProtein = proteins.get(proteinAccession);
+		IntermediateProtein oldProtein = graph.getProtein(graph.getProteinIndex(proteinAccession));
+		if (oldProtein == newProtein) {
+			return;
+		}
 		
-		if (oldProtein.getProteinSequence() == null) {
-			if (newProtein.getProteinSequence() != null) {
-				logger.warn("THIS IS NOT YET IMPLEMENTED!!! Don't use multiple files yet!");
-			}
-		} else if (newProtein.getProteinSequence() != null) {
-			if (!oldProtein.getProteinSequence().equals(newProtein.getProteinSequence())) {
-				logger.warn("Protein with different sequences: " + oldProtein.getAccession() +
-						", this is not supported, the first sequence is used" +
-						"\n\t" + oldProtein.getProteinSequence() +
-						"\n\t" + newProtein.getProteinSequence());
+		SequenceReference newReference = newProtein.getSequenceReference();
+		String newSequence = (newReference == null) ? newProtein.getProteinSequence() : null;
+		if ((newReference == null) && (newSequence == null)) {
+			return;
+		}
+		
+		if ((oldProtein.getSequenceReference() == null) && (oldProtein.getProteinSequence() == null)) {
+			// the first file gave no sequence, take the one of the new file
+			if (newReference != null) {
+				oldProtein.setSequenceReference(newReference);
+			} else {
+				oldProtein.setAddedSequence(newSequence);
 			}
+		} else if (!oldProtein.sequenceEquals(newProtein)) {
+			logger.warn("Protein with different sequences: " + oldProtein.getAccession() +
+					", this is not supported, the first sequence is used" +
+					"\n\t" + oldProtein.getProteinSequence() +
+					"\n\t" + newProtein.getProteinSequence());
 		}
 	}
 	
@@ -155,9 +249,8 @@ public class IntermediateStructureCreator {
 	 * @return 
 	 */
 	public IntermediateProtein getProtein(Comparable proteinID) {
-		if(proteins != null)
-           return proteins.get(proteinID);
-        return null;
+		int idx = graph.getProteinIndex(proteinID.toString());
+		return (idx > -1) ? graph.getProtein(idx) : null;
 	}
 	
 	
@@ -170,35 +263,97 @@ public class IntermediateStructureCreator {
 	 * @return
 	 */
 	public void addPeptideToProteinConnection(Comparable peptideID, String proteinAccession) {
-		Set<String> protAccessions = peptidesToProteinsMapping.get(peptideID);
-		if (protAccessions == null) {
-			protAccessions = new HashSet<String>();
-			peptidesToProteinsMapping.put(peptideID, protAccessions);
+		int peptideIdx = graph.getPeptideIndex(peptideID);
+		int proteinIdx = graph.getProteinIndex(proteinAccession);
+		
+		if ((peptideIdx < 0) || (proteinIdx < 0)) {
+			logger.error("cannot connect peptide " + peptideID + " and protein "
+					+ proteinAccession + ", both must be added before");
+			return;
 		}
-		protAccessions.add(proteinAccession);
 		
-		Set<Comparable> pepIDs = proteinsToPeptidesMapping.get(proteinAccession);
-		if (pepIDs == null) {
-			pepIDs = new HashSet<Comparable>();
-			proteinsToPeptidesMapping.put(proteinAccession, pepIDs);
+		graph.addConnection(peptideIdx, proteinIdx);
+	}
+	
+	
+	/**
+	 * Adds all proteins, peptides, PSMs and connections of the staging
+	 * creator to this creator, as if they were added directly in the order of
+	 * the staging creator. Merging the staging creators of several files in a
+	 * fixed order therefore gives the same result as importing the files one
+	 * after another in this order.
+	 * <p>
+	 * The staging creator must not be used anymore afterwards, as its peptides
+	 * may be taken over by this creator.
+	 *
+	 * @param staging
+	 */
+	public void mergeStagingCreator(IntermediateStructureCreator staging) {
+		PeptideProteinGraph stagingGraph = staging.getGraph();
+
+		int[] proteinIndices = new int[stagingGraph.getNrProteins()];
+		for (int idx = 0; idx < proteinIndices.length; idx++) {
+			IntermediateProtein protein = stagingGraph.getProtein(idx);
+			String accession = protein.getAccession();
+
+			if (!proteinsContains(accession)) {
+				addProtein(protein);
+			} else {
+				addProteinInformation(accession, protein);
+			}
+			proteinIndices[idx] = graph.getProteinIndex(accession);
+		}
+
+		int[] peptideIndices = new int[stagingGraph.getNrPeptides()];
+		for (int idx = 0; idx < peptideIndices.length; idx++) {
+			IntermediatePeptide peptide = stagingGraph.getPeptide(idx);
+
+			IntermediatePeptide knownPeptide = getPeptide(peptide.getID());
+			if (knownPeptide == null) {
+				addPeptide(peptide);
+			} else {
+				for (IntermediatePeptideSpectrumMatch psm : peptide.getAllPeptideSpectrumMatches()) {
+					knownPeptide.addPeptideSpectrumMatch(psm);
+				}
+			}
+			peptideIndices[idx] = graph.getPeptideIndex(peptide.getID());
 		}
-		pepIDs.add(peptideID);
+
+		int[] offsets = stagingGraph.getPeptideOffsets();
+		int[] adjacency = stagingGraph.getPeptideAdjacency();
+		for (int pepIdx = 0; pepIdx < peptideIndices.length; pepIdx++) {
+			for (int i = offsets[pepIdx]; i < offsets[pepIdx + 1]; i++) {
+				graph.addConnection(peptideIndices[pepIdx], proteinIndices[adjacency[i]]);
+			}
+		}
+
+		stagingGraph.clearConnections();
+	}
+
+
+	/**
+	 * Getter for the graph of the peptides, proteins and their connections.
+	 * 
+	 * @return
+	 */
+	PeptideProteinGraph getGraph() {
+		return graph;
 	}
 	
 	
 	public int getNrPeptides() {
-		return peptides.size();
+		return graph.getNrPeptides();
 	}
 	
 	
 	public int getNrProteins() {
-		return proteins.size();
+		return graph.getNrProteins();
 	}
 	
 	
 	public int getNrSpectrumIdentifications() {
 		int nrSpectrumIdentifications = 0;
-		for (IntermediatePeptide pep : peptides.values()) {
+		for (IntermediatePeptide pep : graph.getPeptides()) {
 			nrSpectrumIdentifications += pep.getAllPeptideSpectrumMatches().size();
 		}
 		return nrSpectrumIdentifications;
@@ -212,7 +367,7 @@ public class IntermediateStructureCreator {
 	 * @return
 	 */
 	public IntermediateStructure buildIntermediateStructure() {
-		if ((peptides.size() < 1) || (proteins.size() < 1)) {
+		if ((graph.getNrPeptides() < 1) || (graph.getNrProteins() < 1)) {
 			logger.error("no data to build the intermediate structure!");
 			return null;
 		}
@@ -225,37 +380,16 @@ public class IntermediateStructureCreator {
         logger.info("creating intermediate structure with\n\t"
 				+ getNrSpectrumIdentifications() + " spectrum identifications\n\t"
 				+ getNrPeptides() + " peptides\n\t"
-				+ getNrProteins() + " protein accessions");
+				+ getNrProteins() + " protein accessions\n\t"
+				+ graph.getNrConnections() + " peptide to protein connections");
         
 		// first cluster the data
-		List<Map<Comparable, Set<String>>> clusterList = buildClusterList();
-		
-		// initialize the iterator
-		clusterIterator = clusterList.listIterator();
+		List<int[]> clusterList = buildClusterList();
 		
 		// initialize the intermediate structure
 		intermediateStructure = new IntermediateStructure();
 		
-		// start the threads
-		List<IntermediateStructureCreatorWorkerThread> threads;
-		threads = new ArrayList<IntermediateStructureCreatorWorkerThread>(numberThreads);
-		for (int i = 0; i < numberThreads; i++) {
-			IntermediateStructureCreatorWorkerThread thread =
-					new IntermediateStructureCreatorWorkerThread(i, this);
-			threads.add(thread);
-			
-			thread.start();
-		}
-		
-		// wait for the threads to finish
-		for (IntermediateStructureCreatorWorkerThread thread : threads) {
-			try {
-				thread.join();
-			} catch (InterruptedException e) {
-				logger.error("thread got interrupted!", e);
-				return null;
-			}
-		}
+		buildClusters(clusterList);
 		
 		logger.debug("intermediate structure contains "
 				+ intermediateStructure.getNrClusters() + " clusters and "
@@ -266,127 +400,386 @@ public class IntermediateStructureCreator {
 	
 	
 	/**
-	 * Creates mappings from peptide IDs to protein accessions, which are
-	 * disjoint.
+	 * Adds the peptides, proteins and PSMs of this creator to the given,
+	 * already built intermediate structure. This creator must share the
+	 * symbol table with the creator of the structure (see
+	 * {@link #createIncrementCreator()}), so that the numeric IDs of the new
+	 * PSMs are unique.
+	 * <p>
+	 * Only the clusters containing any peptide or protein of this creator are
+	 * removed from the structure and rebuilt together with the new data, the
+	 * new PSMs are added to the already known peptides. All other clusters
+	 * keep their groups, IDs and cached closures. The rebuilt clusters get
+	 * new treeIDs and group IDs, but as the peptides of each cluster are
+	 * inserted in the order of their IDs, their groups are the same as in a
+	 * full build of all the data.
+	 * 
+	 * @param structure
+	 * @return the updated structure or null, if it could not be updated
 	 */
-	private List<Map<Comparable, Set<String>>> buildClusterList() {
+	public IntermediateStructure addToIntermediateStructure(IntermediateStructure structure) {
+		if (graph.getNrPeptides() < 1) {
+			logger.error("no data to add to the intermediate structure!");
+			return null;
+		}
+		
+		if (intermediateStructure != null) {
+			logger.error("The intermediate structure was already created!");
+			return null;
+		}
+		
+		// the clusters sharing any peptide or protein with the new data
+		List<Integer> touchedClusters = new ArrayList<Integer>();
+		for (Map.Entry<Integer, Set<IntermediateGroup>> clusterIt : structure.getClusters().entrySet()) {
+			if (clusterIsTouched(clusterIt.getValue())) {
+				touchedClusters.add(clusterIt.getKey());
+			}
+		}
+		Collections.sort(touchedClusters);
+		
+		logger.info("adding to intermediate structure\n\t"
+				+ getNrSpectrumIdentifications() + " spectrum identifications\n\t"
+				+ getNrPeptides() + " peptides\n\t"
+				+ getNrProteins() + " protein accessions\n\t"
+				+ graph.getNrConnections() + " peptide to protein connections\n\t"
+				+ touchedClusters.size() + " of " + structure.getNrClusters() + " clusters to rebuild");
+		
+		// remove the touched clusters and put their data into the graph
+		List<IntermediatePeptide> oldPeptides = new ArrayList<IntermediatePeptide>();
+		List<List<IntermediateProtein>> oldConnections = new ArrayList<List<IntermediateProtein>>();
+		for (Integer clusterNr : touchedClusters) {
+			for (IntermediateGroup group : structure.removeCluster(clusterNr)) {
+				if (group.getPeptides() != null) {
+					List<IntermediateProtein> groupProteins =
+							new ArrayList<IntermediateProtein>(group.getAllProteins());
+					for (IntermediatePeptide peptide : group.getPeptides()) {
+						oldPeptides.add(peptide);
+						oldConnections.add(groupProteins);
+					}
+				}
+			}
+		}
 		
-		logger.info("start sorting clusters");
+		for (int i = 0; i < oldPeptides.size(); i++) {
+			int peptideIdx = mergeOldPeptide(oldPeptides.get(i));
+			for (IntermediateProtein protein : oldConnections.get(i)) {
+				graph.addConnection(peptideIdx, mergeOldProtein(protein));
+			}
+		}
 		
-		// disjoint list of mappings from peptide IDs to protein IDs
-		List<Map<Comparable, Set<String>>> clusteredPepEntriesMap =
-				new ArrayList<Map<Comparable,Set<String>>>();
+		List<int[]> clusterList = buildClusterList();
 		
-		Set<Comparable> peptidesDone = new HashSet<Comparable>(peptides.size());
-		Set<String> proteinsDone = new HashSet<String>(proteins.size());
+		intermediateStructure = structure;
+		buildClusters(clusterList);
 		
-		for (Map.Entry<String, Set<Comparable>> entryToPepsIt : proteinsToPeptidesMapping.entrySet()) {
-			if (!proteinsDone.contains(entryToPepsIt.getKey())) {
-				// this accession is not yet clustered, so start a new cluster
-				// and insert all the "connected" peptides and accessions
-				Map<Comparable, Set<String>> pepEntriesMapCluster =
-						createCluster(entryToPepsIt.getKey(), peptidesDone, proteinsDone);
-				
-				if (pepEntriesMapCluster != null) {
-					clusteredPepEntriesMap.add(pepEntriesMapCluster);
-				} else {
-					logger.error("cluster could not be created!");
+		logger.debug("intermediate structure contains "
+				+ intermediateStructure.getNrClusters() + " clusters and "
+				+ intermediateStructure.getNrGroups() + " groups after rebuilding "
+				+ clusterList.size() + " clusters");
+		
+		return intermediateStructure;
+	}
+	
+	
+	/**
+	 * Creates an empty creator for the data, which is added to the structure
+	 * built by this creator via {@link #addToIntermediateStructure(IntermediateStructure)}.
+	 * The new creator shares the symbol table and uses the same settings.
+	 * 
+	 * @return
+	 */
+	public IntermediateStructureCreator createIncrementCreator() {
+		IntermediateStructureCreator creator =
+				new IntermediateStructureCreator(numberThreads, symbolTable);
+		creator.setClusteringMethod(clusteringMethod);
+		creator.setProgressReporter(progressReporter);
+		creator.setSequenceStore(sequenceStore);
+		return creator;
+	}
+	
+	
+	/**
+	 * Checks, whether any peptide or protein of the given cluster is also in
+	 * the graph.
+	 */
+	private boolean clusterIsTouched(Set<IntermediateGroup> cluster) {
+		for (IntermediateGroup group : cluster) {
+			if (group.getPeptides() != null) {
+				for (IntermediatePeptide peptide : group.getPeptides()) {
+					if (graph.getPeptideIndex(peptide.getID()) > -1) {
+						return true;
+					}
+				}
+			}
+			
+			if (group.getProteins() != null) {
+				for (IntermediateProtein protein : group.getProteins()) {
+					if (graph.getProteinIndex(protein.getAccession()) > -1) {
+						return true;
+					}
 				}
-				
-				proteinsDone.add(entryToPepsIt.getKey());
 			}
 		}
+		return false;
+	}
+	
+	
+	/**
+	 * Puts the peptide of a removed cluster into the graph. If the graph
+	 * already contains the peptide, the old peptide replaces it and gets its
+	 * PSMs. The group of the peptide is reset.
+	 * 
+	 * @return the index of the peptide in the graph
+	 */
+	private int mergeOldPeptide(IntermediatePeptide oldPeptide) {
+		IntermediatePeptide newPeptide = graph.addPeptide(oldPeptide);
+		if ((newPeptide != null) && (newPeptide != oldPeptide)) {
+			for (IntermediatePeptideSpectrumMatch psm : newPeptide.getAllPeptideSpectrumMatches()) {
+				oldPeptide.addPeptideSpectrumMatch(psm);
+			}
+		}
+		oldPeptide.setGroup(null);
+		return graph.getPeptideIndex(oldPeptide.getID());
+	}
+	
+	
+	/**
+	 * Puts the protein of a removed cluster into the graph. If the graph
+	 * already contains the protein, the old protein replaces it and takes
+	 * over its information. The group of the protein is reset.
+	 * 
+	 * @return the index of the protein in the graph
+	 */
+	private int mergeOldProtein(IntermediateProtein oldProtein) {
+		int proteinIdx = graph.getProteinIndex(oldProtein.getAccession());
+		if ((proteinIdx < 0) || (graph.getProtein(proteinIdx) != oldProtein)) {
+			IntermediateProtein newProtein = graph.addProtein(oldProtein);
+			if (newProtein != null) {
+				addProteinInformation(oldProtein.getAccession(), newProtein);
+			}
+			oldProtein.setGroup(null);
+			proteinIdx = graph.getProteinIndex(oldProtein.getAccession());
+		}
+		return proteinIdx;
+	}
+	
+	
+	/**
+	 * Builds the groups of the given clusters into the intermediate structure
+	 * and clears the connections of the graph afterwards.
+	 */
+	private void buildClusters(List<int[]> clusterList) {
+		// build the groups of the clusters, the largest clusters first
+		ProgressTracker tracker = progressReporter.startStage(Stage.STRUCTURE_BUILDING,
+				"structure creation", clusterList.size());
+		try {
+			ClusterScheduler<int[]> scheduler =
+					new ClusterScheduler<int[]>("structure creation", numberThreads);
+			scheduler.process(clusterList, estimateClusterCosts(clusterList),
+					new IntermediateStructureCreatorWorker(this), tracker);
+		} finally {
+			tracker.finish();
+		}
+		
+		// the connections are no longer needed
+		graph.clearConnections();
+	}
+	
+	
+	/**
+	 * Creates the disjoint clusters of peptide indices.
+	 */
+	private List<int[]> buildClusterList() {
+		
+		logger.info("start sorting clusters (" + clusteringMethod + ")");
+		ProgressTracker tracker = progressReporter.startStage(Stage.CLUSTERING,
+				clusteringMethod.toString(), graph.getNrPeptides());
 		
-		// the maps are no longer needed
-		proteinsToPeptidesMapping = null;
-		peptidesToProteinsMapping = null;
+		// disjoint list of the clusters' peptide indices
+		List<int[]> clusterList;
+		try {
+			clusterList = createClusterList(clusteringMethod);
+			tracker.advance(graph.getNrPeptides());
+		} finally {
+			tracker.finish();
+		}
 		
-		logger.info(clusteredPepEntriesMap.size() + " sorted clusters");
-		return clusteredPepEntriesMap;
+		logger.info(clusterList.size() + " sorted clusters");
+		return clusterList;
 	}
 	
 	
 	/**
-	 * Inserts the cluster of the given accession into the peptide accession
-	 * map cluster.
+	 * Creates the disjoint clusters of connected peptides with the given
+	 * method. Each cluster is given by the sorted indices of its peptides, the
+	 * clusters are sorted by their smallest peptide index. Peptides without
+	 * any protein are in no cluster.
 	 * <p>
-	 * This method should only be called by
-	 * {@link IntermediateStructureCreator#buildClusterList()}
+	 * The connections of the graph are not altered by this method.
+	 * 
+	 * @param method
+	 * @return
 	 */
-	@SuppressWarnings("UnusedAssignment")
-    private Map<Comparable, Set<String>> createCluster(String proteinAccession,
-			Set<Comparable> peptidesDone, Set<String> proteinsDone) {
+	List<int[]> createClusterList(ClusteringMethod method) {
+		switch (method) {
+		case ITERATIVE:
+			return createClusterListIterative();
+			
+		case UNION_FIND:
+		default:
+			return createClusterListUnionFind();
+		}
+	}
+	
+	
+	/**
+	 * Creates the clusters by growing each cluster from an unclustered peptide
+	 * until no more peptides or proteins are added.
+	 */
+	private List<int[]> createClusterListIterative() {
+		int[] peptideOffsets = graph.getPeptideOffsets();
+		int[] peptideAdjacency = graph.getPeptideAdjacency();
+		int[] proteinOffsets = graph.getProteinOffsets();
+		int[] proteinAdjacency = graph.getProteinAdjacency();
 		
-		Set<String> clusterProteins = new HashSet<String>();
-		Set<Comparable> clusterPeptides = new HashSet<Comparable>();
+		int nrPeptides = graph.getNrPeptides();
+		List<int[]> clusterList = new ArrayList<int[]>();
 		
-		boolean newProteins = true; // the given dbSequence is new 
-		boolean newPeptides = false;
+		boolean[] peptidesDone = new boolean[nrPeptides];
+		boolean[] proteinsDone = new boolean[graph.getNrProteins()];
 		
-		// initialize the cluster's peptides with the peptides of the given dbSequence
-		for (Comparable pepID : proteinsToPeptidesMapping.get(proteinAccession)) {
-			newPeptides |= clusterPeptides.add(pepID);
-		}
+		// the peptides of the current cluster, which are also the queue of peptides to process
+		int[] clusterPeptides = new int[nrPeptides];
 		
-		// put the entries and peptides into the cluster and remove them from the original maps
-		while (newProteins || newPeptides) {
-			// repeat as long, as we get more accessions or peptides
-			newProteins = false;
-			newPeptides = false;
+		for (int startIdx = 0; startIdx < nrPeptides; startIdx++) {
+			if (peptidesDone[startIdx] || (peptideOffsets[startIdx] == peptideOffsets[startIdx + 1])) {
+				continue;
+			}
 			
-			// get proteins for peptides, which are new since the last loop
-			for (Comparable newPeptideID : clusterPeptides) {
-				if (!peptidesDone.contains(newPeptideID)) {
-					for (String newProteinID : peptidesToProteinsMapping.get(newPeptideID)) {
-						newProteins |= clusterProteins.add(newProteinID);
+			// this peptide is not yet clustered, so start a new cluster and
+			// insert all the "connected" peptides and proteins
+			int clusterSize = 0;
+			clusterPeptides[clusterSize++] = startIdx;
+			peptidesDone[startIdx] = true;
+			
+			for (int queueIdx = 0; queueIdx < clusterSize; queueIdx++) {
+				int pepIdx = clusterPeptides[queueIdx];
+				
+				for (int i = peptideOffsets[pepIdx]; i < peptideOffsets[pepIdx + 1]; i++) {
+					int protIdx = peptideAdjacency[i];
+					if (!proteinsDone[protIdx]) {
+						proteinsDone[protIdx] = true;
+						
+						for (int j = proteinOffsets[protIdx]; j < proteinOffsets[protIdx + 1]; j++) {
+							int newPepIdx = proteinAdjacency[j];
+							if (!peptidesDone[newPepIdx]) {
+								peptidesDone[newPepIdx] = true;
+								clusterPeptides[clusterSize++] = newPepIdx;
+							}
+						}
 					}
-					peptidesDone.add(newPeptideID);
 				}
 			}
 			
-			// get peptides for proteins, which are new since the last loop
-			for (String newProteinAccession : clusterProteins) {
-				if (!proteinsDone.contains(newProteinAccession)) {
-					for (Comparable newPeptideID : proteinsToPeptidesMapping.get(newProteinAccession)) {
-						newPeptides |= clusterPeptides.add(newPeptideID);
-					}
-					proteinsDone.add(newProteinAccession);
-				}
+			int[] cluster = Arrays.copyOf(clusterPeptides, clusterSize);
+			Arrays.sort(cluster);
+			clusterList.add(cluster);
+		}
+		
+		return clusterList;
+	}
+	
+	
+	/**
+	 * Creates the clusters with a disjoint-set forest in a single pass over
+	 * the peptide rows. The peptides get the first indices of the forest, the
+	 * proteins the following ones.
+	 */
+	private List<int[]> createClusterListUnionFind() {
+		int[] peptideOffsets = graph.getPeptideOffsets();
+		int[] peptideAdjacency = graph.getPeptideAdjacency();
+		
+		int nrPeptides = graph.getNrPeptides();
+		UnionFind forest = new UnionFind(nrPeptides + graph.getNrProteins());
+		
+		for (int pepIdx = 0; pepIdx < nrPeptides; pepIdx++) {
+			for (int i = peptideOffsets[pepIdx]; i < peptideOffsets[pepIdx + 1]; i++) {
+				forest.union(pepIdx, nrPeptides + peptideAdjacency[i]);
 			}
 		}
-		clusterProteins = null;
 		
-		// now we have the whole cluster, so put it into the pepAccMapCluster
-		Map<Comparable, Set<String>> peptidesToProteinsMapCluster =
-				new HashMap<Comparable, Set<String>>(clusterPeptides.size());
+		// number the clusters by their first peptide and count their sizes
+		int[] rootClusters = new int[nrPeptides + graph.getNrProteins()];
+		Arrays.fill(rootClusters, -1);
+		int[] peptideClusters = new int[nrPeptides];
+		int[] clusterSizes = new int[forest.getNrSets()];
+		int nrClusters = 0;
 		
-		for (Comparable peptideID : clusterPeptides) {
-			peptidesToProteinsMapCluster.put(peptideID, peptidesToProteinsMapping.get(peptideID));
+		for (int pepIdx = 0; pepIdx < nrPeptides; pepIdx++) {
+			if (peptideOffsets[pepIdx] == peptideOffsets[pepIdx + 1]) {
+				peptideClusters[pepIdx] = -1;
+				continue;
+			}
+			
+			int root = forest.find(pepIdx);
+			if (rootClusters[root] < 0) {
+				rootClusters[root] = nrClusters++;
+			}
+			peptideClusters[pepIdx] = rootClusters[root];
+			clusterSizes[rootClusters[root]]++;
+		}
+		rootClusters = null;
+		
+		// collect the peptides of the clusters in ascending order
+		List<int[]> clusterList = new ArrayList<int[]>(nrClusters);
+		for (int clusterIdx = 0; clusterIdx < nrClusters; clusterIdx++) {
+			clusterList.add(new int[clusterSizes[clusterIdx]]);
+			clusterSizes[clusterIdx] = 0;
+		}
+		for (int pepIdx = 0; pepIdx < nrPeptides; pepIdx++) {
+			int clusterIdx = peptideClusters[pepIdx];
+			if (clusterIdx > -1) {
+				clusterList.get(clusterIdx)[clusterSizes[clusterIdx]++] = pepIdx;
+			}
 		}
 		
-		return peptidesToProteinsMapCluster;
+		return clusterList;
 	}
 	
 	
 	/**
-	 * Returns the next cluster in the clustered mapping of peptides to
-	 * proteins.
+	 * Estimates the costs of building the groups of each cluster by the
+	 * number of peptides times the number of proteins in the cluster.
 	 * 
+	 * @param clusterList
 	 * @return
 	 */
-	protected synchronized Map<Comparable, Set<String>> getNextCluster() {
-		synchronized (clusterIterator) {
-			if (clusterIterator != null) {
-				if (clusterIterator.hasNext()) {
-					return clusterIterator.next();
-				} else {
-					return null;
+	private long[] estimateClusterCosts(List<int[]> clusterList) {
+		int[] peptideOffsets = graph.getPeptideOffsets();
+		int[] peptideAdjacency = graph.getPeptideAdjacency();
+		
+		// the last cluster, in which the protein was counted
+		int[] proteinStamps = new int[graph.getNrProteins()];
+		Arrays.fill(proteinStamps, -1);
+		
+		long[] costs = new long[clusterList.size()];
+		for (int clusterIdx = 0; clusterIdx < costs.length; clusterIdx++) {
+			int[] cluster = clusterList.get(clusterIdx);
+			int nrProteins = 0;
+			
+			for (int pepIdx : cluster) {
+				for (int i = peptideOffsets[pepIdx]; i < peptideOffsets[pepIdx + 1]; i++) {
+					if (proteinStamps[peptideAdjacency[i]] != clusterIdx) {
+						proteinStamps[peptideAdjacency[i]] = clusterIdx;
+						nrProteins++;
+					}
 				}
-			} else {
-				logger.error("The cluster iterator is not yet initialized!");
-				return null;
 			}
+			
+			costs[clusterIdx] = (long) cluster.length * nrProteins;
 		}
+		
+		return costs;
 	}
 	
 	
@@ -400,4 +793,18 @@ public class IntermediateStructureCreator {
 			intermediateStructure.addCluster(cluster);
 		}
 	}
+	
+	
+	/**
+	 * The methods available for clustering the peptide to protein mapping.
+	 * 
+	 * @author julian
+	 *
+	 */
+	public enum ClusteringMethod {
+		/** grows each cluster by repeated passes until no new peptides or proteins are found */
+		ITERATIVE,
+		/** clusters in a single pass using a disjoint-set forest */
+		UNION_FIND,
+	}
 }
@@ -1,5 +1,8 @@
 package uk.ac.ebi.pride.utilities.pia.intermediate;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -11,68 +14,104 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * This thread builds up the intermediate structure given the peptide to
- * dbSequence mapping. 
+ * This worker builds up the intermediate structure given the peptide to
+ * dbSequence mapping. It is called by the {@link ClusterScheduler} for each
+ * cluster of peptides.
  * 
  * @author julian
  *
  */
-public class IntermediateStructureCreatorWorkerThread extends Thread {
+public class IntermediateStructureCreatorWorker implements ClusterScheduler.ClusterProcessor<int[]> {
 	
-	/** the ID of this worker thread */
-	private int ID;
-	
-	/** the parent/creator of this thread */
+	/** the parent/creator of this worker */
 	private IntermediateStructureCreator parent;
 	
+	/** the graph of the peptide to protein connections */
+	private PeptideProteinGraph graph;
+	
 	
 	/** logger for this class */
-	private static final Logger logger = LoggerFactory.getLogger(IntermediateStructureCreatorWorkerThread.class);
+	private static final Logger logger = LoggerFactory.getLogger(IntermediateStructureCreatorWorker.class);
 	
 	
-	public IntermediateStructureCreatorWorkerThread(int ID, IntermediateStructureCreator parent) {
-		this.ID = ID;
+	public IntermediateStructureCreatorWorker(IntermediateStructureCreator parent) {
 		this.parent = parent;
-		
-		this.setName(getClass().getCanonicalName()+"-"+ID);
+		this.graph = parent.getGraph();
 	}
 	
 	
 	@Override
-	public void run() {
-		int workedClusters = 0;
-		Map<Comparable, Set<String>> cluster;
+	public void processCluster(int[] cluster) {
+		// the created groups of this cluster
+		Map<Integer, IntermediateGroup> subGroups =
+				new HashMap<Integer, IntermediateGroup>();
+		// the transitive proteins of the created groups
+		GroupClosureIndex closures = new GroupClosureIndex();
 		
-		// get the next available cluster from the parent
-		cluster = parent.getNextCluster();
-		while (cluster != null) {
-			// the created groups of this cluster
-			Map<Integer, IntermediateGroup> subGroups =
-					new HashMap<Integer, IntermediateGroup>();
-			
-			for (Map.Entry<Comparable, Set<String>> pepIt : cluster.entrySet()) {
-				
-				IntermediatePeptide pep = parent.getPeptide(pepIt.getKey());
-				
-				Set<IntermediateProtein> proteins =
-						new HashSet<IntermediateProtein>(pepIt.getValue().size());
-				for (String proteinAccession : pepIt.getValue()) {
-					proteins.add(parent.getProtein(proteinAccession));
-				}
-				
-				insertIntoMap(pep, proteins, subGroups);
+		for (int peptideIdx : sortPeptidesByID(cluster)) {
+			insertIntoMap(graph, peptideIdx, subGroups, closures);
+		}
+		
+		// cache the closures of the groups, the cluster will not change anymore
+		ClusterClosures.freeze(subGroups.values());
+		
+		// put the subGroups as new tree into the intermediateStructure
+		parent.addCluster(subGroups.values());
+	}
+	
+	
+	/**
+	 * Returns the peptide indices of the cluster in the order of the peptides'
+	 * IDs. The groups built by {@link #insertIntoMap(IntermediatePeptide, Set, Map, GroupClosureIndex)}
+	 * depend on the order of the inserted peptides, so this makes them
+	 * independent of the order in which the peptides were added to the graph,
+	 * e.g. a full build and an incremental update give the same groups.
+	 * 
+	 * @param cluster
+	 * @return
+	 */
+	private Integer[] sortPeptidesByID(int[] cluster) {
+		Integer[] sortedCluster = new Integer[cluster.length];
+		for (int i = 0; i < cluster.length; i++) {
+			sortedCluster[i] = cluster[i];
+		}
+		
+		Arrays.sort(sortedCluster, new Comparator<Integer>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public int compare(Integer idx1, Integer idx2) {
+				return graph.getPeptide(idx1).getID().compareTo(graph.getPeptide(idx2).getID());
 			}
-			
-			// put the subGroups as new tree into the intermediateStructure
-			parent.addCluster(subGroups.values());
-			workedClusters++;
-			
-			// get the next cluster information
-			cluster = parent.getNextCluster();
+		});
+		
+		return sortedCluster;
+	}
+	
+	
+	/**
+	 * Inserts the peptide with the given index and its connected proteins
+	 * from the graph into the intermediate format, which is then build up by
+	 * the groups in subGroups.
+	 * 
+	 * @param graph
+	 * @param peptideIdx
+	 * @param subGroups
+	 * @param closures
+	 */
+	void insertIntoMap(PeptideProteinGraph graph, int peptideIdx,
+			Map<Integer, IntermediateGroup> subGroups, GroupClosureIndex closures) {
+		int[] peptideOffsets = graph.getPeptideOffsets();
+		int[] peptideAdjacency = graph.getPeptideAdjacency();
+		
+		int start = peptideOffsets[peptideIdx];
+		int end = peptideOffsets[peptideIdx + 1];
+		
+		Set<IntermediateProtein> proteins = new HashSet<IntermediateProtein>(end - start);
+		for (int i = start; i < end; i++) {
+			proteins.add(graph.getProtein(peptideAdjacency[i]));
 		}
 		
-		logger.info("<thread " + ID + " has no more work after " +
-				workedClusters + " clusters> ");
+		insertIntoMap(graph.getPeptide(peptideIdx), proteins, subGroups, closures);
 	}
 	
 	
@@ -83,10 +122,12 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 	 * @param peptide
 	 * @param dbSequences
 	 * @param subGroups
+	 * @param closures the index of the transitive proteins of the subGroups
 	 */
 	public void insertIntoMap(IntermediatePeptide peptide,
 			Set<IntermediateProtein> proteins,
-			Map<Integer, IntermediateGroup> subGroups) {
+			Map<Integer, IntermediateGroup> subGroups,
+			GroupClosureIndex closures) {
 		
 		Map<Integer, Set<IntermediateProtein>> groupToProteinsMap;	// the proteins, grouped by their groups' IDs
 		
@@ -110,15 +151,14 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 		    //  => assign all to a new group
 			
 			// create the new group
-			IntermediateGroup group = new IntermediateGroup(subGroups.size()+1);
-			subGroups.put(group.getID(), group);
+			IntermediateGroup group = createGroup(subGroups, closures);
 			
 			// connect peptide and group
 			connectPeptideToGroup(peptide, group);
 			
 			// add all accessions to this new group
 			for (IntermediateProtein protein : proteins) {
-				connectProteinToGroup(protein, group);
+				connectProteinToGroup(protein, group, closures);
 			}
 		} else {
 			if (groupToProteinsMap.size() == 1) {
@@ -142,18 +182,16 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 					//      group and move the accessions there
 					
 			        // create the new group
-					IntermediateGroup betweenGroup =
-							new IntermediateGroup(subGroups.size()+1);
-					subGroups.put(betweenGroup.getID(), betweenGroup);
+					IntermediateGroup betweenGroup = createGroup(subGroups, closures);
 					
 			        // add group to peptide and vice versa
 					connectPeptideToGroup(peptide, betweenGroup);
 
 			        // add the old group to new group as child
-					connectGroups(betweenGroup, group);
+					connectGroups(betweenGroup, group, closures);
 					
 					for (IntermediateProtein protein : groupToProteinsMap.get(group.getID())) {
-						connectProteinToGroup(protein, betweenGroup);
+						connectProteinToGroup(protein, betweenGroup, closures);
 					}
 				}
 			} else {
@@ -162,7 +200,7 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 				
 				Set<Integer> remainingGroups = new HashSet<Integer>();
 				Set<Integer> subTreeSet = getSubtreeGroups(proteins,
-						remainingGroups, subGroups);
+						remainingGroups, subGroups, closures);
 				
 				if ((remainingGroups.size() == 0) &&
 						(((subTreeSet.size() == 1) && !subTreeSet.contains(-1L)) ||			// either there is only one group (and it's not -1, the unassigned)
@@ -182,17 +220,15 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 							// we have some unassigned accessions as well
 							
 							// create a between group
-							IntermediateGroup betweenGroup =
-									new IntermediateGroup(subGroups.size()+1);
-							subGroups.put(betweenGroup.getID(), betweenGroup);
+							IntermediateGroup betweenGroup = createGroup(subGroups, closures);
 							
 							// add the unassigned accessions to the between group
 							for (IntermediateProtein protein : groupToProteinsMap.get(-1)) {
-								connectProteinToGroup(protein, betweenGroup);
+								connectProteinToGroup(protein, betweenGroup, closures);
 							}
 							
 							// add the new group as child to the group
-							connectGroups(group, betweenGroup);
+							connectGroups(group, betweenGroup, closures);
 							
 							group = betweenGroup;
 						}
@@ -206,9 +242,7 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 					// can't say much about the constellation of groups
 					
 					// create new group for peptide
-					IntermediateGroup pepGroup =
-							new IntermediateGroup(subGroups.size()+1);
-					subGroups.put(pepGroup.getID(), pepGroup);
+					IntermediateGroup pepGroup = createGroup(subGroups, closures);
 					
 					// add group to peptide and vice versa
 					connectPeptideToGroup(peptide, pepGroup);
@@ -220,12 +254,12 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 							// if we have unassigned accessions, add them
 							// directly to the pepGroup
 							for (IntermediateProtein protein : groupToProteinsMap.get(-1)) {
-								connectProteinToGroup(protein, pepGroup);
+								connectProteinToGroup(protein, pepGroup, closures);
 							}
 						} else {
 							// add the pepGroup to the other (not unassigned
 							// accessions) groups
-							connectGroups(subGroups.get(subTreeId), pepGroup);
+							connectGroups(subGroups.get(subTreeId), pepGroup, closures);
 						}
 					}
 					
@@ -236,17 +270,15 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 						IntermediateGroup group = subGroups.get(remGroupId);
 						
 						// create an between group
-						IntermediateGroup betweenGroup =
-								new IntermediateGroup(subGroups.size()+1);
-						subGroups.put(betweenGroup.getID(), betweenGroup);
+						IntermediateGroup betweenGroup = createGroup(subGroups, closures);
 						
 						// connect the between group to the remaining and the pepGroup
-						connectGroups(betweenGroup, group);
-						connectGroups(betweenGroup, pepGroup);
+						connectGroups(betweenGroup, group, closures);
+						connectGroups(betweenGroup, pepGroup, closures);
 						
 						// move the accessions to the between group
 						for (IntermediateProtein protein : groupToProteinsMap.get(remGroupId)) {
-							connectProteinToGroup(protein, betweenGroup);
+							connectProteinToGroup(protein, betweenGroup, closures);
 						}
 					}
 				}
@@ -272,15 +304,34 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 	}
 	
 	
+	/**
+	 * Creates a new group with the next ID and puts it into the subGroups.
+	 * 
+	 * @param subGroups
+	 * @param closures
+	 * @return
+	 */
+	private IntermediateGroup createGroup(Map<Integer, IntermediateGroup> subGroups,
+			GroupClosureIndex closures) {
+		IntermediateGroup group = new IntermediateGroup(subGroups.size()+1);
+		subGroups.put(group.getID(), group);
+		closures.addGroup(group);
+		return group;
+	}
+	
+	
 	/**
 	 * Connects the two given groups.
 	 * 
 	 * @param parent
 	 * @param child
+	 * @param closures
 	 */
-	private void connectGroups(IntermediateGroup parent, IntermediateGroup child) {
+	private void connectGroups(IntermediateGroup parent, IntermediateGroup child,
+			GroupClosureIndex closures) {
 		parent.addChild(child);
 		child.addParent(parent);
+		closures.groupsConnected(parent, child);
 	}
 	
 	/**
@@ -306,28 +357,6 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
     }
 	
 	
-	/**
-	 * Returns false if the group has any dbSequences in allDbSequences which
-	 * are not in the given set.
-	 * 
-	 * @param group
-	 * @param proteins
-	 * @return
-	 */
-	private boolean groupHasOnlyTheseInAllProteins(IntermediateGroup group,
-			Set<IntermediateProtein> proteins) {
-		// iterate through the map of the group's allAccessions and look for
-		// accessions not in accessions
-		for (IntermediateProtein protein : group.getAllProteins()) {
-			if (!proteins.contains(protein)) {
-				return false;
-			}
-		}
-		
-		return true;
-	}
-	
-	
 	/**
 	 * Connects the given protein with the given group.
 	 * <p>
@@ -336,15 +365,26 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 	 * 
 	 * @param accession
 	 * @param group
+	 * @param closures
 	 */
-	private void connectProteinToGroup(IntermediateProtein protein, IntermediateGroup group) {
-		if ((protein.getGroup() != null) &&
-				!protein.getGroup().equals(group)) {
-			protein.getGroup().removeProtein(protein);
+	private void connectProteinToGroup(IntermediateProtein protein, IntermediateGroup group,
+			GroupClosureIndex closures) {
+		IntermediateGroup oldGroup = protein.getGroup();
+		if ((oldGroup != null) && !oldGroup.equals(group)) {
+			oldGroup.removeProtein(protein);
+		} else {
+			oldGroup = null;
 		}
 		
 		protein.setGroup(group);
 		group.addProtein(protein);
+		
+		// update the closures of the new group first, which usually keeps the
+		// protein reachable for the old group
+		closures.proteinAdded(group, protein);
+		if (oldGroup != null) {
+			closures.proteinRemoved(oldGroup, protein);
+		}
 	}
 	
 	
@@ -356,14 +396,20 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 	 * The variable remainingSet will be filled with the group's IDs of
 	 * dbSequences, which are not satisfied with the built tree, so their groups
 	 * have other dbSequences which are not in the set of dbSequences.
+	 * <p>
+	 * The group's transitive proteins are compared as bit sets of the
+	 * closures index: a group can build up a subtree, if its proteins are a
+	 * subset of the not yet covered proteins.
 	 * 
 	 * @param proteins
 	 * @param remainingSet
 	 * @param subGroups
+	 * @param closures
 	 * @return
 	 */
 	private Set<Integer> getSubtreeGroups(Set<IntermediateProtein> proteins,
-			Set<Integer> remainingSet, Map<Integer, IntermediateGroup> subGroups) {
+			Set<Integer> remainingSet, Map<Integer, IntermediateGroup> subGroups,
+			GroupClosureIndex closures) {
 		Set<Integer> subTreeSet = new HashSet<Integer>();
 		IntermediateGroup mostGroup;
 		
@@ -376,6 +422,10 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 			}
 		}
 		
+		// the proteins, which are not yet covered by a found group
+		BitSet uncoveredProteins = closures.getProteinBits(proteins);
+		BitSet notUncovered = new BitSet();
+		
 		do {
 			int nrMostGroupDbSequences = 0;
 			mostGroup = null;
@@ -383,21 +433,25 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 			// get the group (in subGroups) with the most dbSequences in its
 			// allAccessions, which are also in the accessions map
 			for (IntermediateGroup group : subGroups.values()) {
-				if (groupHasOnlyTheseInAllProteins(group, proteins)) {
-					Set<IntermediateProtein> allProteins = group.getAllProteins(); 
-					if ((allProteins.size() > nrMostGroupDbSequences) ||
-							((mostGroup == null) && (allProteins.size() > 0))) {
-						nrMostGroupDbSequences = allProteins.size();
+				BitSet allProteins = closures.getClosure(group);
+				
+				notUncovered.clear();
+				notUncovered.or(allProteins);
+				notUncovered.andNot(uncoveredProteins);
+				
+				if (notUncovered.isEmpty()) {
+					int nrAllProteins = allProteins.cardinality();
+					if ((nrAllProteins > nrMostGroupDbSequences) ||
+							((mostGroup == null) && (nrAllProteins > 0))) {
+						nrMostGroupDbSequences = nrAllProteins;
 						mostGroup = group;
 					}
 				}
 			}
 			
-			// remove the accessions of the found group from the accessions set
+			// remove the accessions of the found group from the uncovered ones
 			if (mostGroup != null) {
-				for (IntermediateProtein protein : mostGroup.getAllProteins()) {
-					proteins.remove(protein);
-				}
+				uncoveredProteins.andNot(closures.getClosure(mostGroup));
 				
 				// and add the found ID to the subTreeSet
 				subTreeSet.add(mostGroup.getID());
@@ -406,7 +460,8 @@ public class IntermediateStructureCreatorWorkerThread extends Thread {
 		
 		remainingSet.clear();
 		for (IntermediateProtein protein : proteins) {
-			if (protein.getGroup() != null) {
+			if ((protein.getGroup() != null) &&
+					uncoveredProteins.get(closures.getProteinBit(protein))) {
 				// if there is still an accession in the map, which has an
 				// assigned group, so there were accessions in the group, which
 				// were not in the accessions map -> put it into the remainingSet
@@ -0,0 +1,382 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The bipartite graph of peptides and proteins, which is used to build the
+ * intermediate structure.
+ * <p>
+ * Each peptide and protein gets a dense int index in the order of insertion.
+ * The connections are collected in two growing int arrays and compacted into
+ * compressed sparse rows (CSR): the proteins of peptide p are stored in
+ * {@link #getPeptideAdjacency()} between {@link #getPeptideOffsets()}[p] and
+ * {@link #getPeptideOffsets()}[p+1], sorted ascending and without duplicates.
+ * The transposed rows for the proteins are only created on request.
+ *
+ * @author julian
+ *
+ */
+class PeptideProteinGraph {
+
+	/** the initial capacity of the pending connections */
+	private static final int INITIAL_EDGE_CAPACITY = 1024;
+
+	/** the minimal number of pending connections before they are compacted */
+	private static final int MIN_COMPACTION_SIZE = 1 << 20;
+
+
+	/** mapping from the peptide IDs to the peptide indices */
+	private Map<Comparable, Integer> peptideIndices;
+
+	/** the peptides by their indices */
+	private List<IntermediatePeptide> peptides;
+
+	/** mapping from the protein accessions to the protein indices */
+	private Map<String, Integer> proteinIndices;
+
+	/** the proteins by their indices */
+	private List<IntermediateProtein> proteins;
+
+
+	/** peptide indices of the not yet compacted connections */
+	private int[] pendingPeptides;
+
+	/** protein indices of the not yet compacted connections */
+	private int[] pendingProteins;
+
+	/** the number of not yet compacted connections */
+	private int nrPending;
+
+
+	/** the row offsets of the compacted peptide to proteins rows (size nrPeptides+1) */
+	private int[] peptideOffsets;
+
+	/** the protein indices of the compacted peptide rows */
+	private int[] peptideAdjacency;
+
+	/** the row offsets of the protein to peptides rows, null if not yet created */
+	private int[] proteinOffsets;
+
+	/** the peptide indices of the protein rows, null if not yet created */
+	private int[] proteinAdjacency;
+
+
+	public PeptideProteinGraph() {
+		this.peptideIndices = new HashMap<Comparable, Integer>();
+		this.peptides = new ArrayList<IntermediatePeptide>();
+		this.proteinIndices = new HashMap<String, Integer>();
+		this.proteins = new ArrayList<IntermediateProtein>();
+
+		this.pendingPeptides = new int[INITIAL_EDGE_CAPACITY];
+		this.pendingProteins = new int[INITIAL_EDGE_CAPACITY];
+		this.nrPending = 0;
+
+		this.peptideOffsets = new int[] {0};
+		this.peptideAdjacency = new int[0];
+		this.proteinOffsets = null;
+		this.proteinAdjacency = null;
+	}
+
+
+	/**
+	 * Adds the given peptide to the graph. If a peptide with the same ID is
+	 * already in the graph, it is replaced but keeps its index.
+	 *
+	 * @param peptide
+	 * @return any previous peptide with the same ID or null
+	 */
+	public IntermediatePeptide addPeptide(IntermediatePeptide peptide) {
+		Integer idx = peptideIndices.get(peptide.getID());
+		if (idx != null) {
+			return peptides.set(idx, peptide);
+		}
+
+		peptideIndices.put(peptide.getID(), peptides.size());
+		peptides.add(peptide);
+		return null;
+	}
+
+
+	/**
+	 * Adds the given protein to the graph. If a protein with the same
+	 * accession is already in the graph, it is replaced but keeps its index.
+	 *
+	 * @param protein
+	 * @return any previous protein with the same accession or null
+	 */
+	public IntermediateProtein addProtein(IntermediateProtein protein) {
+		Integer idx = proteinIndices.get(protein.getAccession());
+		if (idx != null) {
+			return proteins.set(idx, protein);
+		}
+
+		proteinIndices.put(protein.getAccession(), proteins.size());
+		proteins.add(protein);
+		return null;
+	}
+
+
+	/**
+	 * Returns the index of the peptide with the given ID or -1, if it is not
+	 * in the graph.
+	 *
+	 * @param peptideID
+	 * @return
+	 */
+	public int getPeptideIndex(Comparable peptideID) {
+		Integer idx = peptideIndices.get(peptideID);
+		return (idx == null) ? -1 : idx;
+	}
+
+
+	/**
+	 * Returns the index of the protein with the given accession or -1, if it
+	 * is not in the graph.
+	 *
+	 * @param accession
+	 * @return
+	 */
+	public int getProteinIndex(String accession) {
+		Integer idx = proteinIndices.get(accession);
+		return (idx == null) ? -1 : idx;
+	}
+
+
+	public IntermediatePeptide getPeptide(int idx) {
+		return peptides.get(idx);
+	}
+
+
+	public IntermediateProtein getProtein(int idx) {
+		return proteins.get(idx);
+	}
+
+
+	public int getNrPeptides() {
+		return peptides.size();
+	}
+
+
+	public int getNrProteins() {
+		return proteins.size();
+	}
+
+
+	/**
+	 * Returns all peptides of the graph, ordered by their indices.
+	 *
+	 * @return
+	 */
+	public List<IntermediatePeptide> getPeptides() {
+		return peptides;
+	}
+
+
+	/**
+	 * Connects the peptide and the protein with the given indices. Duplicate
+	 * connections are removed, when the connections are compacted.
+	 *
+	 * @param peptideIdx
+	 * @param proteinIdx
+	 */
+	public void addConnection(int peptideIdx, int proteinIdx) {
+		if ((nrPending > 0)
+				&& (pendingPeptides[nrPending - 1] == peptideIdx)
+				&& (pendingProteins[nrPending - 1] == proteinIdx)) {
+			// the same connection as before, a common case during the import
+			return;
+		}
+
+		if (nrPending == pendingPeptides.length) {
+			if (nrPending >= Math.max(MIN_COMPACTION_SIZE, peptideAdjacency.length)) {
+				// compacting removes the duplicates and bounds the pending memory
+				compact();
+			} else {
+				int newCapacity = Math.max(INITIAL_EDGE_CAPACITY, pendingPeptides.length * 2);
+				pendingPeptides = Arrays.copyOf(pendingPeptides, newCapacity);
+				pendingProteins = Arrays.copyOf(pendingProteins, newCapacity);
+			}
+		}
+
+		pendingPeptides[nrPending] = peptideIdx;
+		pendingProteins[nrPending] = proteinIdx;
+		nrPending++;
+	}
+
+
+	/**
+	 * Merges the pending connections into the compacted peptide rows.
+	 */
+	public void compact() {
+		if ((nrPending == 0) && (peptideOffsets.length == peptides.size() + 1)) {
+			return;
+		}
+
+		int nrPeptides = peptides.size();
+		int nrCompacted = peptideOffsets[peptideOffsets.length - 1];
+
+		// count the connections per peptide, shifted by one for the offsets
+		int[] offsets = new int[nrPeptides + 1];
+		for (int pepIdx = 0; pepIdx < peptideOffsets.length - 1; pepIdx++) {
+			offsets[pepIdx + 1] = peptideOffsets[pepIdx + 1] - peptideOffsets[pepIdx];
+		}
+		for (int i = 0; i < nrPending; i++) {
+			offsets[pendingPeptides[i] + 1]++;
+		}
+		for (int pepIdx = 0; pepIdx < nrPeptides; pepIdx++) {
+			offsets[pepIdx + 1] += offsets[pepIdx];
+		}
+
+		// fill the rows with the compacted and the pending connections
+		int[] adjacency = new int[nrCompacted + nrPending];
+		int[] positions = Arrays.copyOf(offsets, nrPeptides);
+		for (int pepIdx = 0; pepIdx < peptideOffsets.length - 1; pepIdx++) {
+			int length = peptideOffsets[pepIdx + 1] - peptideOffsets[pepIdx];
+			System.arraycopy(peptideAdjacency, peptideOffsets[pepIdx], adjacency, positions[pepIdx], length);
+			positions[pepIdx] += length;
+		}
+		for (int i = 0; i < nrPending; i++) {
+			adjacency[positions[pendingPeptides[i]]++] = pendingProteins[i];
+		}
+		positions = null;
+
+		// sort each row and remove the duplicates in place
+		int write = 0;
+		int rowStart = 0;
+		for (int pepIdx = 0; pepIdx < nrPeptides; pepIdx++) {
+			int rowEnd = offsets[pepIdx + 1];
+			Arrays.sort(adjacency, rowStart, rowEnd);
+
+			offsets[pepIdx] = write;
+			for (int i = rowStart; i < rowEnd; i++) {
+				if ((i == rowStart) || (adjacency[i] != adjacency[i - 1])) {
+					adjacency[write++] = adjacency[i];
+				}
+			}
+			rowStart = rowEnd;
+		}
+		offsets[nrPeptides] = write;
+
+		peptideOffsets = offsets;
+		peptideAdjacency = (write < adjacency.length) ? Arrays.copyOf(adjacency, write) : adjacency;
+
+		pendingPeptides = new int[INITIAL_EDGE_CAPACITY];
+		pendingProteins = new int[INITIAL_EDGE_CAPACITY];
+		nrPending = 0;
+
+		proteinOffsets = null;
+		proteinAdjacency = null;
+	}
+
+
+	/**
+	 * Returns the number of distinct connections in the graph.
+	 *
+	 * @return
+	 */
+	public int getNrConnections() {
+		compact();
+		return peptideAdjacency.length;
+	}
+
+
+	/**
+	 * Returns the row offsets of the peptides' proteins.
+	 *
+	 * @return
+	 */
+	public int[] getPeptideOffsets() {
+		compact();
+		return peptideOffsets;
+	}
+
+
+	/**
+	 * Returns the protein indices of the peptide rows.
+	 *
+	 * @return
+	 */
+	public int[] getPeptideAdjacency() {
+		compact();
+		return peptideAdjacency;
+	}
+
+
+	/**
+	 * Returns the row offsets of the proteins' peptides. The protein rows are
+	 * created by transposing the peptide rows, if necessary.
+	 *
+	 * @return
+	 */
+	public int[] getProteinOffsets() {
+		compact();
+		if (proteinOffsets == null) {
+			transpose();
+		}
+		return proteinOffsets;
+	}
+
+
+	/**
+	 * Returns the peptide indices of the protein rows, sorted ascending in
+	 * each row.
+	 *
+	 * @return
+	 */
+	public int[] getProteinAdjacency() {
+		compact();
+		if (proteinAdjacency == null) {
+			transpose();
+		}
+		return proteinAdjacency;
+	}
+
+
+	/**
+	 * Creates the protein rows from the compacted peptide rows. As the peptide
+	 * rows are processed in order, the protein rows are sorted as well.
+	 */
+	private void transpose() {
+		int nrProteins = proteins.size();
+
+		int[] offsets = new int[nrProteins + 1];
+		for (int protIdx : peptideAdjacency) {
+			offsets[protIdx + 1]++;
+		}
+		for (int protIdx = 0; protIdx < nrProteins; protIdx++) {
+			offsets[protIdx + 1] += offsets[protIdx];
+		}
+
+		int[] adjacency = new int[peptideAdjacency.length];
+		int[] positions = Arrays.copyOf(offsets, nrProteins);
+		for (int pepIdx = 0; pepIdx < peptideOffsets.length - 1; pepIdx++) {
+			for (int i = peptideOffsets[pepIdx]; i < peptideOffsets[pepIdx + 1]; i++) {
+				adjacency[positions[peptideAdjacency[i]]++] = pepIdx;
+			}
+		}
+
+		proteinOffsets = offsets;
+		proteinAdjacency = adjacency;
+	}
+
+
+	/**
+	 * Releases the connections of the graph, the peptides and proteins are
+	 * kept.
+	 */
+	public void clearConnections() {
+		pendingPeptides = new int[INITIAL_EDGE_CAPACITY];
+		pendingProteins = new int[INITIAL_EDGE_CAPACITY];
+		nrPending = 0;
+
+		peptideOffsets = new int[peptides.size() + 1];
+		peptideAdjacency = new int[0];
+		proteinOffsets = null;
+		proteinAdjacency = null;
+	}
+}
@@ -0,0 +1,187 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import java.util.Arrays;
+
+
+/**
+ * A deduplicating table for the strings, which recur in many objects of the
+ * intermediate structure and across the input files, i.e. peptide sequences,
+ * protein accessions, controller IDs and score accessions.
+ * <p>
+ * Each distinct string is held only once and gets a compact int handle. The
+ * handles are dense, starting at 0, and are valid as long as the table is
+ * used. The strings are stored in an array indexed by the handles and found
+ * by an open addressing hash table of the handles, which needs far less
+ * memory per string than a map with boxed values.
+ * <p>
+ * This class is thread safe, so the concurrently importing files share one
+ * table. Adding and looking up strings is synchronized, getting the string
+ * of a handle is not.
+ *
+ * @author julian
+ *
+ */
+public final class SymbolTable {
+
+	/** the symbols by the handles, replaced when growing */
+	private volatile String[] symbols;
+
+	/** the hash table of the handles + 1, 0 marks an empty bucket */
+	private int[] buckets;
+
+	/** the number of assigned handles */
+	private int nrSymbols;
+
+
+	/** the initial number of buckets, must be a power of two */
+	private static final int INITIAL_BUCKETS = 256;
+
+
+	public SymbolTable() {
+		this.symbols = new String[INITIAL_BUCKETS / 2];
+		this.buckets = new int[INITIAL_BUCKETS];
+		this.nrSymbols = 0;
+	}
+
+
+	/**
+	 * Returns the canonical instance of the given string, which is the first
+	 * added equal string.
+	 *
+	 * @param str
+	 * @return the canonical instance, null for null
+	 */
+	public String intern(String str) {
+		if (str == null) {
+			return null;
+		}
+
+		// the handle must be assigned before the (maybe grown) array is read
+		int handle = getHandle(str);
+		return symbols[handle];
+	}
+
+
+	/**
+	 * Returns the canonical instances of all strings in the array. The array
+	 * itself is changed and returned.
+	 *
+	 * @param strs
+	 * @return
+	 */
+	public String[] intern(String[] strs) {
+		for (int i = 0; i < strs.length; i++) {
+			strs[i] = intern(strs[i]);
+		}
+		return strs;
+	}
+
+
+	/**
+	 * Returns the handle of the given string, a new handle is assigned if the
+	 * string is not yet in the table.
+	 *
+	 * @param str must not be null
+	 * @return
+	 */
+	public synchronized int getHandle(String str) {
+		int bucket = findBucket(str);
+		if (buckets[bucket] > 0) {
+			return buckets[bucket] - 1;
+		}
+
+		int handle = nrSymbols;
+		String[] newSymbols = symbols;
+		if (handle == newSymbols.length) {
+			newSymbols = Arrays.copyOf(newSymbols, 2 * handle);
+		}
+		newSymbols[handle] = str;
+		symbols = newSymbols;
+		nrSymbols++;
+
+		buckets[bucket] = handle + 1;
+		if (2 * nrSymbols > buckets.length) {
+			rehash();
+		}
+		return handle;
+	}
+
+
+	/**
+	 * Returns the handle of the given string or -1, if it is not in the table.
+	 *
+	 * @param str
+	 * @return
+	 */
+	public synchronized int getHandleIfPresent(String str) {
+		if (str == null) {
+			return -1;
+		}
+		return buckets[findBucket(str)] - 1;
+	}
+
+
+	/**
+	 * Returns the bucket of the given string, or the empty bucket where it
+	 * should be inserted.
+	 */
+	private int findBucket(String str) {
+		String[] syms = symbols;
+		int mask = buckets.length - 1;
+		int bucket = spread(str.hashCode()) & mask;
+		while ((buckets[bucket] > 0) && !str.equals(syms[buckets[bucket] - 1])) {
+			bucket = (bucket + 1) & mask;
+		}
+		return bucket;
+	}
+
+
+	/**
+	 * Doubles the number of buckets and re-inserts all handles.
+	 */
+	private void rehash() {
+		String[] syms = symbols;
+		int[] newBuckets = new int[2 * buckets.length];
+		int mask = newBuckets.length - 1;
+
+		for (int handle = 0; handle < nrSymbols; handle++) {
+			int bucket = spread(syms[handle].hashCode()) & mask;
+			while (newBuckets[bucket] > 0) {
+				bucket = (bucket + 1) & mask;
+			}
+			newBuckets[bucket] = handle + 1;
+		}
+		buckets = newBuckets;
+	}
+
+
+	/**
+	 * Spreads the bits of the hash code, as the lower bits of strings with a
+	 * common prefix are not well distributed.
+	 */
+	private static int spread(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+
+	/**
+	 * Returns the string with the given handle.
+	 *
+	 * @param handle
+	 * @return
+	 */
+	public String getSymbol(int handle) {
+		return symbols[handle];
+	}
+
+
+	/**
+	 * Returns the number of strings in the table.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return nrSymbols;
+	}
+}
@@ -0,0 +1,92 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+
+/**
+ * A disjoint-set forest over the indices 0 to n-1, using union by rank and
+ * path halving. This gives a nearly linear runtime for the clustering of the
+ * peptide to protein mappings.
+ * 
+ * @author julian
+ *
+ */
+class UnionFind {
+	
+	/** the parent of each element, a root points to itself */
+	private int[] parents;
+	
+	/** the upper bound of the height of each root's tree */
+	private byte[] ranks;
+	
+	/** the current number of disjoint sets */
+	private int nrSets;
+	
+	
+	/**
+	 * Creates a forest with the given number of elements, each in its own set.
+	 * 
+	 * @param size
+	 */
+	public UnionFind(int size) {
+		parents = new int[size];
+		ranks = new byte[size];
+		
+		for (int i = 0; i < size; i++) {
+			parents[i] = i;
+		}
+		nrSets = size;
+	}
+	
+	
+	/**
+	 * Returns the root of the set containing the given element.
+	 * 
+	 * @param element
+	 * @return
+	 */
+	public int find(int element) {
+		while (parents[element] != element) {
+			parents[element] = parents[parents[element]];
+			element = parents[element];
+		}
+		return element;
+	}
+	
+	
+	/**
+	 * Merges the sets containing the two given elements.
+	 * 
+	 * @param first
+	 * @param second
+	 * @return true, if the elements were in different sets before
+	 */
+	public boolean union(int first, int second) {
+		int firstRoot = find(first);
+		int secondRoot = find(second);
+		
+		if (firstRoot == secondRoot) {
+			return false;
+		}
+		
+		if (ranks[firstRoot] < ranks[secondRoot]) {
+			parents[firstRoot] = secondRoot;
+		} else if (ranks[firstRoot] > ranks[secondRoot]) {
+			parents[secondRoot] = firstRoot;
+		} else {
+			parents[secondRoot] = firstRoot;
+			ranks[firstRoot]++;
+		}
+		
+		nrSets--;
+		return true;
+	}
+	
+	
+	/**
+	 * Returns the number of disjoint sets in the forest.
+	 * 
+	 * @return
+	 */
+	public int getNrSets() {
+		return nrSets;
+	}
+}
@@ -0,0 +1,401 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.fasta;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An indexed store of the protein sequences of a FASTA file, which is mapped
+ * into memory.
+ * <p>
+ * While opening, the file is scanned once and for each entry only the
+ * offsets of its accession and sequence, the number of residues and the hash
+ * of the sequence are kept in arrays. Neither the accessions nor the
+ * sequences are held on the heap: the accessions are found by an open
+ * addressing hash table, which compares them directly with the mapped bytes,
+ * and the sequences are decoded on demand through their
+ * {@link SequenceReference}s. The accession of an entry is the first word of
+ * its header, if an accession occurs several times the first entry is used.
+ * <p>
+ * The file must not be changed while the store is used. This class is thread
+ * safe after its creation.
+ *
+ * @author julian
+ *
+ */
+public class FastaSequenceStore {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(FastaSequenceStore.class);
+
+	/** the number of bits of the offsets in a mapped segment, the segments are 1 GB */
+	private static final int SEGMENT_BITS = 30;
+
+	/** the mask of the offsets in a mapped segment */
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	/** the encoding of the accessions */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	/** the FASTA file */
+	private final File file;
+
+	/** the mapped segments of the file */
+	private final MappedByteBuffer[] segments;
+
+	/** the number of entries */
+	private int nrEntries;
+
+	/** the offsets of the accessions, i.e. after the '>' of the headers */
+	private long[] accessionOffsets;
+
+	/** the lengths of the accessions in bytes */
+	private int[] accessionLengths;
+
+	/** the offsets of the first residues */
+	private long[] sequenceOffsets;
+
+	/** the numbers of bytes of the sequences, including the line breaks */
+	private int[] sequenceByteLengths;
+
+	/** the numbers of residues */
+	private int[] sequenceLengths;
+
+	/** the hashes of the sequences */
+	private long[] sequenceHashes;
+
+	/** the hash table of the entries + 1 by their accessions, 0 marks an empty bucket */
+	private int[] buckets;
+
+
+	/**
+	 * Maps and indexes the given FASTA file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public FastaSequenceStore(File file) throws IOException {
+		this.file = file;
+
+		long start = System.currentTimeMillis();
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			// the mapped buffers stay valid after the channel is closed
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+			for (int i = 0; i < segments.length; i++) {
+				long position = (long) i << SEGMENT_BITS;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(SEGMENT_MASK + 1, size - position));
+			}
+		} finally {
+			in.close();
+		}
+
+		indexEntries();
+		buildBuckets();
+
+		logger.info("indexed " + nrEntries + " sequences of " + file.getAbsolutePath() + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+
+	public File getFile() {
+		return file;
+	}
+
+
+	/**
+	 * Returns the number of indexed sequences.
+	 *
+	 * @return
+	 */
+	public int getNrSequences() {
+		return nrEntries;
+	}
+
+
+	/**
+	 * Returns the reference to the sequence of the protein with the given
+	 * accession.
+	 *
+	 * @param accession
+	 * @return the reference or null, if the accession is not in the file
+	 */
+	public SequenceReference getReference(String accession) {
+		int entry = findEntry(accession.getBytes(UTF8));
+		if (entry < 0) {
+			return null;
+		}
+
+		return new SequenceReference(this, sequenceOffsets[entry], sequenceByteLengths[entry],
+				sequenceLengths[entry], sequenceHashes[entry]);
+	}
+
+
+	/**
+	 * Returns whether the file contains a protein with the given accession.
+	 *
+	 * @param accession
+	 * @return
+	 */
+	public boolean contains(String accession) {
+		return findEntry(accession.getBytes(UTF8)) >= 0;
+	}
+
+
+	/**
+	 * Decodes the residues in the given region of the file.
+	 */
+	String decodeSequence(long offset, int byteLength, int length) {
+		char[] residues = new char[length];
+		int nrResidues = 0;
+		for (long pos = offset; (pos < offset + byteLength) && (nrResidues < length); pos++) {
+			int residue = byteAt(pos) & 0xff;
+			if (isResidue(residue)) {
+				if ((residue >= 'a') && (residue <= 'z')) {
+					residue -= 'a' - 'A';
+				}
+				residues[nrResidues++] = (char) residue;
+			}
+		}
+		return new String(residues, 0, nrResidues);
+	}
+
+
+	/**
+	 * Returns whether the unsigned byte is a residue, i.e. no whitespace or
+	 * control character. Bytes from 0x80 on are residues as well, so the
+	 * indexing and the decoding agree for any encoding of the file.
+	 */
+	private static boolean isResidue(int unsignedByte) {
+		return unsignedByte > ' ';
+	}
+
+
+	private byte byteAt(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+	}
+
+
+	/**
+	 * Scans the file and fills the arrays of the entries.
+	 */
+	private void indexEntries() {
+		int capacity = 1024;
+		accessionOffsets = new long[capacity];
+		accessionLengths = new int[capacity];
+		sequenceOffsets = new long[capacity];
+		sequenceByteLengths = new int[capacity];
+		sequenceLengths = new int[capacity];
+		sequenceHashes = new long[capacity];
+		nrEntries = 0;
+
+		boolean lineStart = true;
+		boolean inHeader = false;
+		int entry = -1;
+		long sequenceEnd = 0;
+
+		for (int segment = 0; segment < segments.length; segment++) {
+			MappedByteBuffer buffer = segments[segment];
+			long base = (long) segment << SEGMENT_BITS;
+			int limit = buffer.limit();
+
+			for (int i = 0; i < limit; i++) {
+				byte b = buffer.get(i);
+
+				if (inHeader) {
+					if ((accessionLengths[entry] < 0) && ((b == ' ') || (b == '\t') || (b == '\r') || (b == '\n'))) {
+						accessionLengths[entry] = (int) (base + i - accessionOffsets[entry]);
+					}
+					if (b == '\n') {
+						inHeader = false;
+						lineStart = true;
+					}
+				} else if (lineStart && (b == '>')) {
+					if (entry >= 0) {
+						finishEntry(entry, sequenceEnd);
+					}
+
+					entry = nrEntries++;
+					if (entry == accessionOffsets.length) {
+						growArrays();
+					}
+					accessionOffsets[entry] = base + i + 1;
+					accessionLengths[entry] = -1;
+					sequenceOffsets[entry] = -1;
+					sequenceLengths[entry] = 0;
+					sequenceHashes[entry] = SequenceReference.initialHash();
+					inHeader = true;
+					lineStart = false;
+				} else {
+					lineStart = (b == '\n');
+					if (isResidue(b & 0xff) && (entry >= 0)) {
+						if (sequenceOffsets[entry] < 0) {
+							sequenceOffsets[entry] = base + i;
+						}
+						sequenceEnd = base + i + 1;
+						sequenceLengths[entry]++;
+						sequenceHashes[entry] = SequenceReference.addToHash(sequenceHashes[entry], b & 0xff);
+					}
+				}
+			}
+		}
+
+		if (entry >= 0) {
+			if (accessionLengths[entry] < 0) {
+				// the file ends in the header
+				accessionLengths[entry] = (int) (getFileSize() - accessionOffsets[entry]);
+			}
+			finishEntry(entry, sequenceEnd);
+		}
+	}
+
+
+	private void finishEntry(int entry, long sequenceEnd) {
+		if (sequenceOffsets[entry] < 0) {
+			sequenceOffsets[entry] = 0;
+			sequenceByteLengths[entry] = 0;
+		} else {
+			sequenceByteLengths[entry] = (int) (sequenceEnd - sequenceOffsets[entry]);
+		}
+	}
+
+
+	private void growArrays() {
+		int capacity = 2 * accessionOffsets.length;
+		accessionOffsets = Arrays.copyOf(accessionOffsets, capacity);
+		accessionLengths = Arrays.copyOf(accessionLengths, capacity);
+		sequenceOffsets = Arrays.copyOf(sequenceOffsets, capacity);
+		sequenceByteLengths = Arrays.copyOf(sequenceByteLengths, capacity);
+		sequenceLengths = Arrays.copyOf(sequenceLengths, capacity);
+		sequenceHashes = Arrays.copyOf(sequenceHashes, capacity);
+	}
+
+
+	private long getFileSize() {
+		long size = 0;
+		for (MappedByteBuffer segment : segments) {
+			size += segment.limit();
+		}
+		return size;
+	}
+
+
+	/**
+	 * Builds the hash table of the accessions, for repeated accessions only
+	 * the first entry is added.
+	 */
+	private void buildBuckets() {
+		int nrBuckets = Integer.highestOneBit(Math.max(16, 2 * nrEntries - 1)) << 1;
+		buckets = new int[nrBuckets];
+		int mask = nrBuckets - 1;
+
+		int nrRepeated = 0;
+		for (int entry = 0; entry < nrEntries; entry++) {
+			int bucket = hashRegion(accessionOffsets[entry], accessionLengths[entry]) & mask;
+			boolean repeated = false;
+			while (buckets[bucket] != 0) {
+				int other = buckets[bucket] - 1;
+				if (regionsEqual(accessionOffsets[entry], accessionLengths[entry],
+						accessionOffsets[other], accessionLengths[other])) {
+					repeated = true;
+					break;
+				}
+				bucket = (bucket + 1) & mask;
+			}
+
+			if (repeated) {
+				nrRepeated++;
+			} else {
+				buckets[bucket] = entry + 1;
+			}
+		}
+
+		if (nrRepeated > 0) {
+			logger.warn(nrRepeated + " accessions occur repeatedly in " + file.getAbsolutePath()
+					+ ", the first entries are used");
+		}
+	}
+
+
+	/**
+	 * Returns the entry of the given accession or -1, if it is not found.
+	 */
+	private int findEntry(byte[] accession) {
+		int mask = buckets.length - 1;
+		int bucket = hashBytes(accession) & mask;
+		while (buckets[bucket] != 0) {
+			int entry = buckets[bucket] - 1;
+			if (regionEquals(accessionOffsets[entry], accessionLengths[entry], accession)) {
+				return entry;
+			}
+			bucket = (bucket + 1) & mask;
+		}
+		return -1;
+	}
+
+
+	private int hashRegion(long offset, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + byteAt(offset + i);
+		}
+		return spread(hash);
+	}
+
+
+	private static int hashBytes(byte[] bytes) {
+		int hash = 0;
+		for (byte b : bytes) {
+			hash = 31 * hash + b;
+		}
+		return spread(hash);
+	}
+
+
+	/**
+	 * Spreads the bits of the hash, as the buckets are selected by the low
+	 * bits.
+	 */
+	private static int spread(int hash) {
+		hash *= 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+
+
+	private boolean regionsEqual(long offset, int length, long otherOffset, int otherLength) {
+		if (length != otherLength) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (byteAt(offset + i) != byteAt(otherOffset + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private boolean regionEquals(long offset, int length, byte[] bytes) {
+		if (length != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (byteAt(offset + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
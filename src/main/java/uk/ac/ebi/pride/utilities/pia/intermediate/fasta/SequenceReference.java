@@ -0,0 +1,156 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.fasta;
+
+
+/**
+ * A reference to a protein sequence in a {@link FastaSequenceStore}, given by
+ * its offset and length in the file. The sequence is decoded on each call of
+ * {@link #getSequence()}, equality checks only compare the lengths and the
+ * hashes of the sequences.
+ *
+ * @author julian
+ *
+ */
+public final class SequenceReference {
+
+	/** the store of the sequence */
+	private final FastaSequenceStore store;
+
+	/** the offset of the first residue in the file */
+	private final long offset;
+
+	/** the number of bytes of the sequence in the file, including the line breaks */
+	private final int byteLength;
+
+	/** the number of residues */
+	private final int length;
+
+	/** the hash of the residues */
+	private final long hash;
+
+
+	/** the offset basis of the 64 bit FNV-1a hash */
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	/** the prime of the 64 bit FNV-1a hash */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+
+	SequenceReference(FastaSequenceStore store, long offset, int byteLength, int length, long hash) {
+		this.store = store;
+		this.offset = offset;
+		this.byteLength = byteLength;
+		this.length = length;
+		this.hash = hash;
+	}
+
+
+	/**
+	 * Decodes the sequence from the store.
+	 *
+	 * @return
+	 */
+	public String getSequence() {
+		return store.decodeSequence(offset, byteLength, length);
+	}
+
+
+	public FastaSequenceStore getStore() {
+		return store;
+	}
+
+
+	/**
+	 * Returns the offset of the first residue in the FASTA file.
+	 *
+	 * @return
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+
+	/**
+	 * Returns the number of residues of the sequence.
+	 *
+	 * @return
+	 */
+	public int getLength() {
+		return length;
+	}
+
+
+	/**
+	 * Returns the hash of the sequence, as computed by
+	 * {@link #computeHash(CharSequence)}.
+	 *
+	 * @return
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+
+	/**
+	 * Checks, whether the referenced sequences are equal by their lengths and
+	 * hashes, without decoding them.
+	 *
+	 * @param other
+	 * @return
+	 */
+	public boolean sequenceEquals(SequenceReference other) {
+		return (other != null) && (length == other.length) && (hash == other.hash);
+	}
+
+
+	/**
+	 * Checks, whether the referenced sequence equals the given sequence by
+	 * their lengths and hashes, without decoding it.
+	 *
+	 * @param sequence
+	 * @return
+	 */
+	public boolean sequenceEquals(String sequence) {
+		return (sequence != null) && (length == sequence.length()) && (hash == computeHash(sequence));
+	}
+
+
+	/**
+	 * Computes the hash of a sequence, which is the 64 bit FNV-1a hash of the
+	 * upper case residues.
+	 *
+	 * @param sequence
+	 * @return
+	 */
+	public static long computeHash(CharSequence sequence) {
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < sequence.length(); i++) {
+			hash = addToHash(hash, sequence.charAt(i));
+		}
+		return hash;
+	}
+
+
+	/**
+	 * Adds the residue to the hash.
+	 */
+	static long addToHash(long hash, int residue) {
+		if ((residue >= 'a') && (residue <= 'z')) {
+			residue -= 'a' - 'A';
+		}
+		return (hash ^ residue) * FNV_PRIME;
+	}
+
+
+	/**
+	 * Returns the initial value of the hash.
+	 */
+	static long initialHash() {
+		return FNV_OFFSET_BASIS;
+	}
+
+
+	@Override
+	public String toString() {
+		return store.getFile().getName() + "@" + offset + ":" + length;
+	}
+}
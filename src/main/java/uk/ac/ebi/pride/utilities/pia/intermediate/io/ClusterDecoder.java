@@ -0,0 +1,312 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.io;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.jmzidml.model.mzidml.UserParam;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateGroup;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.psisupport.CVUtilities;
+
+
+/**
+ * Decodes the clusters of an intermediate file, used by the sequential
+ * {@link IntermediateStructureReader} and the random access
+ * {@link MappedIntermediateStructure}.
+ * <p>
+ * When reading sequentially, the symbols are collected while decoding. For
+ * random access, the symbols of the whole file are known beforehand from the
+ * file's index and the inline definitions are only mapped to the known
+ * instances.
+ *
+ * @author julian
+ *
+ */
+class ClusterDecoder {
+
+	/** the decoded input */
+	private DataInput in;
+
+	/** the version of the decoded file */
+	private int version;
+
+	/** the symbols by their indices */
+	private List<String> symbols;
+
+	/** the known instances of the symbols, null when collecting the symbols */
+	private Map<String, String> knownSymbols;
+
+
+	/**
+	 * Creates a decoder, which collects the symbols while reading
+	 * sequentially.
+	 *
+	 * @param in
+	 * @param version the version of the file
+	 */
+	public ClusterDecoder(DataInput in, int version) {
+		this.in = in;
+		this.version = version;
+		this.symbols = new ArrayList<String>();
+		this.knownSymbols = null;
+	}
+
+
+	/**
+	 * Creates a decoder for random access, which uses the given symbols.
+	 *
+	 * @param in
+	 * @param version the version of the file
+	 * @param symbols all symbols of the file by their indices
+	 * @param knownSymbols the instances of all symbols of the file
+	 */
+	public ClusterDecoder(DataInput in, int version, List<String> symbols,
+			Map<String, String> knownSymbols) {
+		this.in = in;
+		this.version = version;
+		this.symbols = symbols;
+		this.knownSymbols = knownSymbols;
+	}
+
+
+	/**
+	 * Reads one cluster. The groups get the given IDs and treeID before any
+	 * protein or peptide is added, as their hash codes depend on the IDs.
+	 *
+	 * @param firstID the ID of the cluster's first group, the other groups
+	 * get the following IDs
+	 * @param treeID
+	 * @return the groups of the cluster, ordered by their IDs
+	 * @throws IOException
+	 */
+	public List<IntermediateGroup> readCluster(int firstID, Integer treeID) throws IOException {
+		int nrGroups = in.readInt();
+
+		List<IntermediateGroup> groups = new ArrayList<IntermediateGroup>(nrGroups);
+		for (int i = 0; i < nrGroups; i++) {
+			IntermediateGroup group = new IntermediateGroup(firstID + i);
+			group.setTreeID(treeID);
+			groups.add(group);
+		}
+
+		for (IntermediateGroup group : groups) {
+			int nrProteins = in.readInt();
+			for (int i = 0; i < nrProteins; i++) {
+				StoredProtein protein = readProtein();
+				protein.setGroup(group);
+				group.addProtein(protein);
+			}
+
+			int nrPeptides = in.readInt();
+			for (int i = 0; i < nrPeptides; i++) {
+				IntermediatePeptide peptide = readPeptide();
+				peptide.setGroup(group);
+				group.addPeptide(peptide);
+			}
+		}
+
+		for (IntermediateGroup group : groups) {
+			int nrChildren = in.readInt();
+			for (int i = 0; i < nrChildren; i++) {
+				IntermediateGroup child = groups.get(in.readInt());
+				group.addChild(child);
+				child.addParent(group);
+			}
+		}
+
+		return groups;
+	}
+
+
+	private StoredProtein readProtein() throws IOException {
+		String accession = IntermediateFileFormat.readString(in);
+		String sequence = IntermediateFileFormat.readString(in);
+
+		StoredProtein protein = new StoredProtein(accession, sequence);
+		protein.setIsDecoy(IntermediateFileFormat.readBoolean(in));
+		return protein;
+	}
+
+
+	private IntermediatePeptide readPeptide() throws IOException {
+		IntermediatePeptide peptide = new IntermediatePeptide(IntermediateFileFormat.readString(in));
+
+		int nrPSMs = in.readInt();
+		for (int i = 0; i < nrPSMs; i++) {
+			peptide.addPeptideSpectrumMatch(readPSM());
+		}
+
+		return peptide;
+	}
+
+
+	private StoredPeptideSpectrumMatch readPSM() throws IOException {
+		String id = IntermediateFileFormat.readString(in);
+		Long numericID = (version >= 3) ? in.readLong() : null;
+		String controllerID = readSymbol();
+		String spectrumId = IntermediateFileFormat.readString(in);
+		Double experimentalMassToCharge = IntermediateFileFormat.readDouble(in);
+		Double deltaMass = IntermediateFileFormat.readDouble(in);
+		Double retentionTime = IntermediateFileFormat.readDouble(in);
+		Integer charge = IntermediateFileFormat.readInteger(in);
+		Integer missedCleavages = IntermediateFileFormat.readInteger(in);
+		String sequence = IntermediateFileFormat.readString(in);
+
+		int nrScores = in.readInt();
+		String[] scoreAccessions = new String[nrScores];
+		double[] scores = new double[nrScores];
+		for (int i = 0; i < nrScores; i++) {
+			scoreAccessions[i] = readSymbol();
+			scores[i] = in.readDouble();
+		}
+
+		Double fdr = IntermediateFileFormat.readDouble(in);
+		Double qValue = IntermediateFileFormat.readDouble(in);
+		Double fdrScore = IntermediateFileFormat.readDouble(in);
+		Boolean isDecoy = null;
+		Boolean isUnique = null;
+		if (version >= 3) {
+			isDecoy = IntermediateFileFormat.readBoolean(in);
+			isUnique = IntermediateFileFormat.readBoolean(in);
+		}
+
+		int nrModifications = in.readInt();
+		List<Modification> modifications;
+		if (nrModifications > 0) {
+			modifications = new ArrayList<Modification>(nrModifications);
+			for (int i = 0; i < nrModifications; i++) {
+				modifications.add(readModification());
+			}
+		} else {
+			modifications = Collections.emptyList();
+		}
+
+		int nrParams = in.readInt();
+		List<AbstractParam> params;
+		if (nrParams > 0) {
+			params = new ArrayList<AbstractParam>(nrParams);
+			for (int i = 0; i < nrParams; i++) {
+				params.add(readParam());
+			}
+		} else {
+			params = Collections.emptyList();
+		}
+
+		StoredPeptideSpectrumMatch psm = new StoredPeptideSpectrumMatch(id, controllerID,
+				spectrumId, experimentalMassToCharge, deltaMass, retentionTime, charge,
+				missedCleavages, sequence, scoreAccessions, scores, modifications, params);
+		psm.setFDR(fdr);
+		psm.setQValue(qValue);
+		psm.setFDRScore(fdrScore);
+		if (numericID != null) {
+			psm.setNumericID(numericID);
+		}
+		if (isDecoy != null) {
+			psm.setIsDecoy(isDecoy);
+		}
+		psm.setIsUnique(isUnique);
+		return psm;
+	}
+
+
+	private Modification readModification() throws IOException {
+		Modification modification = new Modification();
+
+		modification.setLocation(IntermediateFileFormat.readInteger(in));
+		modification.setAvgMassDelta(IntermediateFileFormat.readDouble(in));
+		modification.setMonoisotopicMassDelta(IntermediateFileFormat.readDouble(in));
+
+		int nrResidues = in.readInt();
+		for (int i = 0; i < nrResidues; i++) {
+			modification.getResidues().add(readSymbol());
+		}
+
+		int nrCvParams = in.readInt();
+		for (int i = 0; i < nrCvParams; i++) {
+			AbstractParam param = readParam();
+			if (!(param instanceof CvParam)) {
+				throw new IOException("invalid param in modification");
+			}
+			modification.getCvParam().add((CvParam) param);
+		}
+
+		return modification;
+	}
+
+
+	private AbstractParam readParam() throws IOException {
+		AbstractParam param;
+
+		byte type = in.readByte();
+		switch (type) {
+		case IntermediateFileFormat.CV_PARAM:
+			CvParam cvParam = new CvParam();
+			cvParam.setAccession(readSymbol());
+			cvParam.setCv(CVUtilities.getByRepresentingName(readSymbol()));
+			param = cvParam;
+			break;
+
+		case IntermediateFileFormat.USER_PARAM:
+			UserParam userParam = new UserParam();
+			userParam.setType(readSymbol());
+			param = userParam;
+			break;
+
+		default:
+			throw new IOException("unknown param type " + type);
+		}
+
+		param.setName(readSymbol());
+		param.setValue(IntermediateFileFormat.readString(in));
+		param.setUnitAccession(readSymbol());
+		param.setUnitName(readSymbol());
+		param.setUnitCv(CVUtilities.getByRepresentingName(readSymbol()));
+
+		return param;
+	}
+
+
+	/**
+	 * Reads a symbol written by the writer, the same symbols are returned as
+	 * the same string instances.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public String readSymbol() throws IOException {
+		int idx = in.readInt();
+
+		if (idx == IntermediateFileFormat.NULL_SYMBOL) {
+			return null;
+		} else if (idx == IntermediateFileFormat.NEW_SYMBOL) {
+			String symbol = IntermediateFileFormat.readString(in);
+			if (knownSymbols == null) {
+				symbols.add(symbol);
+			} else if (knownSymbols.containsKey(symbol)) {
+				symbol = knownSymbols.get(symbol);
+			}
+			return symbol;
+		} else if ((idx < 0) || (idx >= symbols.size())) {
+			throw new IOException("invalid symbol index " + idx);
+		}
+
+		return symbols.get(idx);
+	}
+
+
+	/**
+	 * Returns the symbols by their indices.
+	 *
+	 * @return
+	 */
+	public List<String> getSymbols() {
+		return symbols;
+	}
+}
@@ -0,0 +1,194 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+
+/**
+ * Constants and helpers of the binary intermediate file format, shared by the
+ * {@link IntermediateStructureWriter} and the
+ * {@link IntermediateStructureReader}.
+ * <p>
+ * The file starts with the {@link #MAGIC} number and the {@link #VERSION},
+ * followed by the table of the input files and the clusters. Each cluster
+ * consists of its groups with their direct proteins and peptides (including
+ * the materialized PSMs) and the children of each group given by the
+ * cluster-local index of the child. Recurring short strings like score
+ * accessions and controller IDs are written as symbols, i.e. only their first
+ * occurrence is written as string and all later ones as index.
+ * <p>
+ * Since version 2, the clusters are followed by an index of all symbols and
+ * the offsets and sizes of the clusters, which allows to decode single
+ * clusters without reading the whole file. The last 8 bytes of the file are
+ * the offset of this index.
+ * <p>
+ * Since version 3, each PSM contains its numeric ID after its ID and the
+ * decoy and unique flags after its FDR values. The PSMs of older files get
+ * new numeric IDs and no flags while reading.
+ *
+ * @author julian
+ *
+ */
+final class IntermediateFileFormat {
+
+	/** the magic number at the start of each file, "PIAI" */
+	public static final int MAGIC = 0x50494149;
+
+	/** the version of the format */
+	public static final int VERSION = 3;
+
+	/** the symbol index announcing a new symbol */
+	public static final int NEW_SYMBOL = -1;
+
+	/** the symbol index for null */
+	public static final int NULL_SYMBOL = -2;
+
+	/** param type of a cvParam */
+	public static final byte CV_PARAM = 1;
+
+	/** param type of a userParam */
+	public static final byte USER_PARAM = 2;
+
+	/** the charset of the strings */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	/**
+	 * do not instantiate!
+	 */
+	private IntermediateFileFormat() {
+	}
+
+
+	/**
+	 * Writes the string, which may be null. In contrast to
+	 * {@link DataOutput#writeUTF(String)} strings longer than 65535 bytes are
+	 * allowed (e.g. for protein sequences).
+	 *
+	 * @param out
+	 * @param str
+	 * @throws IOException
+	 */
+	public static void writeString(DataOutput out, String str) throws IOException {
+		if (str == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = str.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutput, String)}.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+
+	/**
+	 * Writes the Double, which may be null.
+	 *
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	public static void writeDouble(DataOutput out, Double value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeDouble(value);
+		}
+	}
+
+
+	/**
+	 * Reads a Double written by {@link #writeDouble(DataOutput, Double)}.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static Double readDouble(DataInput in) throws IOException {
+		if (in.readBoolean()) {
+			return in.readDouble();
+		}
+		return null;
+	}
+
+
+	/**
+	 * Writes the Integer, which may be null.
+	 *
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	public static void writeInteger(DataOutput out, Integer value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeInt(value);
+		}
+	}
+
+
+	/**
+	 * Reads an Integer written by {@link #writeInteger(DataOutput, Integer)}.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static Integer readInteger(DataInput in) throws IOException {
+		if (in.readBoolean()) {
+			return in.readInt();
+		}
+		return null;
+	}
+
+
+	/**
+	 * Writes the Boolean, which may be null.
+	 *
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	public static void writeBoolean(DataOutput out, Boolean value) throws IOException {
+		if (value == null) {
+			out.writeByte(-1);
+		} else {
+			out.writeByte(value ? 1 : 0);
+		}
+	}
+
+
+	/**
+	 * Reads a Boolean written by {@link #writeBoolean(DataOutput, Boolean)}.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static Boolean readBoolean(DataInput in) throws IOException {
+		byte value = in.readByte();
+		if (value < 0) {
+			return null;
+		}
+		return value == 1;
+	}
+}
@@ -0,0 +1,130 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+
+
+/**
+ * Reads an {@link IntermediateStructure} written by the
+ * {@link IntermediateStructureWriter}.
+ * <p>
+ * The proteins and PSMs are restored as {@link StoredProtein}s and
+ * {@link StoredPeptideSpectrumMatch}es, the input files as
+ * {@link StoredImportController}s. The PSMs keep their numeric IDs and their
+ * decoy and unique flags, unless the file was written in a version before 3
+ * of the format. The clusters of the returned structure are frozen. The
+ * clusters get the treeIDs from 1 and the groups the IDs from 0 on, both in
+ * the order they were written.
+ *
+ * @author julian
+ *
+ */
+public class IntermediateStructureReader {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(IntermediateStructureReader.class);
+
+
+	/** the read file */
+	private File file;
+
+	/** the stream of the currently read file */
+	private DataInputStream in;
+
+	/** the decoder of the clusters */
+	private ClusterDecoder decoder;
+
+	/** the input files of the last read structure, mapped by their file IDs */
+	private Map<Integer, DataImportController> inputControllers;
+
+
+	public IntermediateStructureReader(String pathname) {
+		this.file = new File(pathname);
+		this.in = null;
+		this.decoder = null;
+		this.inputControllers = null;
+	}
+
+
+	/**
+	 * Reads the structure and the input files from the file.
+	 *
+	 * @return the read structure
+	 * @throws IOException if the file cannot be read or has an invalid format
+	 */
+	public IntermediateStructure read() throws IOException {
+		logger.debug("reading intermediate structure from " + file.getAbsolutePath());
+		long start = System.currentTimeMillis();
+
+		IntermediateStructure structure = new IntermediateStructure();
+
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != IntermediateFileFormat.MAGIC) {
+				throw new IOException(file.getAbsolutePath() + " is no PIA intermediate file");
+			}
+			int version = in.readInt();
+			if ((version < 1) || (version > IntermediateFileFormat.VERSION)) {
+				throw new IOException("unsupported version " + version + " of the intermediate file "
+						+ file.getAbsolutePath());
+			}
+			decoder = new ClusterDecoder(in, version);
+
+			readInputFiles();
+
+			// the index at the end of the file is not needed for sequential reading
+			int nrClusters = in.readInt();
+			for (int i = 0; i < nrClusters; i++) {
+				structure.addCluster(decoder.readCluster(structure.getNrGroups(),
+						structure.getNrClusters() + 1));
+			}
+		} finally {
+			in.close();
+			in = null;
+			decoder = null;
+		}
+
+		structure.freeze();
+
+		logger.info("intermediate structure read from " + file.getAbsolutePath()
+				+ " in " + (System.currentTimeMillis() - start) + " ms, #clusters "
+				+ structure.getNrClusters());
+		return structure;
+	}
+
+
+	/**
+	 * Returns the input files of the last read structure, mapped by their
+	 * file IDs.
+	 *
+	 * @return
+	 */
+	public Map<Integer, DataImportController> getInputControllers() {
+		return inputControllers;
+	}
+
+
+	private void readInputFiles() throws IOException {
+		int nrFiles = in.readInt();
+		inputControllers = new HashMap<Integer, DataImportController>(nrFiles + 1);
+
+		for (int i = 0; i < nrFiles; i++) {
+			Integer fileID = in.readInt();
+			String controllerID = decoder.readSymbol();
+			String fileName = IntermediateFileFormat.readString(in);
+
+			inputControllers.put(fileID, new StoredImportController(controllerID, fileName));
+		}
+	}
+}
@@ -0,0 +1,420 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Cv;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.jmzidml.model.mzidml.UserParam;
+import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateGroup;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+
+
+/**
+ * Writes an {@link IntermediateStructure} together with the table of its input
+ * files into the binary intermediate file format (see
+ * {@link IntermediateFileFormat}).
+ * <p>
+ * All fields of the PSMs are materialized while writing, so the controllers
+ * must still be open. The clusters are written in the order of their tree IDs
+ * and the groups of each cluster in the order of their IDs. The IDs
+ * themselves are not written, the {@link IntermediateStructureReader} numbers
+ * the clusters and groups densely in this order. So the IDs are only restored
+ * for structures without gaps in their IDs, i.e. not after clusters were
+ * rebuilt by an incremental update.
+ *
+ * @author julian
+ *
+ */
+public class IntermediateStructureWriter {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(IntermediateStructureWriter.class);
+
+
+	/** the written file */
+	private File file;
+
+	/** the stream of the currently written file */
+	private DataOutputStream out;
+
+	/** counts the bytes written to the current file */
+	private CountingOutputStream counter;
+
+	/** the indices of the already written symbols */
+	private Map<String, Integer> symbols;
+
+
+	public IntermediateStructureWriter(String pathname) {
+		this.file = new File(pathname);
+		this.out = null;
+		this.counter = null;
+		this.symbols = null;
+	}
+
+
+	/**
+	 * Writes the structure and the input files into the file.
+	 *
+	 * @param structure the structure to write
+	 * @param inputControllers the input files, mapped by their file IDs
+	 * @throws IOException
+	 */
+	public void write(IntermediateStructure structure,
+			Map<Integer, DataImportController> inputControllers) throws IOException {
+		logger.debug("writing intermediate structure to " + file.getAbsolutePath());
+		long start = System.currentTimeMillis();
+
+		symbols = new HashMap<String, Integer>();
+		counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out = new DataOutputStream(counter);
+		try {
+			out.writeInt(IntermediateFileFormat.MAGIC);
+			out.writeInt(IntermediateFileFormat.VERSION);
+
+			writeInputFiles(inputControllers);
+
+			Map<Integer, Set<IntermediateGroup>> clusters =
+					new TreeMap<Integer, Set<IntermediateGroup>>(structure.getClusters());
+			long[] clusterOffsets = new long[clusters.size()];
+			int[] clusterCounts = new int[3 * clusters.size()];
+
+			out.writeInt(clusters.size());
+			int clusterIdx = 0;
+			for (Set<IntermediateGroup> cluster : clusters.values()) {
+				clusterOffsets[clusterIdx] = counter.getCount();
+				writeCluster(cluster, clusterCounts, 3 * clusterIdx);
+				clusterIdx++;
+			}
+
+			writeIndex(clusterOffsets, clusterCounts);
+		} finally {
+			out.close();
+			out = null;
+			counter = null;
+			symbols = null;
+		}
+
+		logger.info("intermediate structure written to " + file.getAbsolutePath()
+				+ " in " + (System.currentTimeMillis() - start) + " ms, "
+				+ file.length() + " bytes");
+	}
+
+
+	/**
+	 * Writes the table of the input files.
+	 *
+	 * @param inputControllers
+	 * @throws IOException
+	 */
+	private void writeInputFiles(Map<Integer, DataImportController> inputControllers) throws IOException {
+		out.writeInt(inputControllers.size());
+		for (Map.Entry<Integer, DataImportController> controllerIt
+				: new TreeMap<Integer, DataImportController>(inputControllers).entrySet()) {
+			out.writeInt(controllerIt.getKey());
+			writeSymbol(String.valueOf(controllerIt.getValue().getID()));
+			IntermediateFileFormat.writeString(out, controllerIt.getValue().getInputFileName());
+		}
+	}
+
+
+	/**
+	 * Writes the index of the file, i.e. all symbols and the offsets and sizes
+	 * of the clusters, followed by the offset of the index itself.
+	 *
+	 * @param clusterOffsets
+	 * @param clusterCounts the number of groups, peptides and proteins of each
+	 * cluster
+	 * @throws IOException
+	 */
+	private void writeIndex(long[] clusterOffsets, int[] clusterCounts) throws IOException {
+		long indexOffset = counter.getCount();
+
+		String[] symbolArray = new String[symbols.size()];
+		for (Map.Entry<String, Integer> symbolIt : symbols.entrySet()) {
+			symbolArray[symbolIt.getValue()] = symbolIt.getKey();
+		}
+		out.writeInt(symbolArray.length);
+		for (String symbol : symbolArray) {
+			IntermediateFileFormat.writeString(out, symbol);
+		}
+
+		out.writeInt(clusterOffsets.length);
+		for (int i = 0; i < clusterOffsets.length; i++) {
+			out.writeLong(clusterOffsets[i]);
+			out.writeInt(clusterCounts[3 * i]);
+			out.writeInt(clusterCounts[3 * i + 1]);
+			out.writeInt(clusterCounts[3 * i + 2]);
+		}
+
+		out.writeLong(indexOffset);
+	}
+
+
+	/**
+	 * Writes one cluster, i.e. its groups in the order of their IDs, with
+	 * proteins and peptides, followed by the children of each group.
+	 *
+	 * @param cluster
+	 * @param counts the numbers of groups, peptides and proteins of the
+	 * cluster are stored in here
+	 * @param countsIdx the position of the cluster's numbers in counts
+	 * @throws IOException
+	 */
+	private void writeCluster(Set<IntermediateGroup> cluster, int[] counts, int countsIdx)
+			throws IOException {
+		List<IntermediateGroup> groups = new ArrayList<IntermediateGroup>(cluster);
+		Collections.sort(groups, new Comparator<IntermediateGroup>() {
+			@Override
+			public int compare(IntermediateGroup o1, IntermediateGroup o2) {
+				return o1.getID().compareTo(o2.getID());
+			}
+		});
+
+		Map<IntermediateGroup, Integer> localIndices =
+				new IdentityHashMap<IntermediateGroup, Integer>(groups.size());
+		for (IntermediateGroup group : groups) {
+			localIndices.put(group, localIndices.size());
+		}
+
+		counts[countsIdx] = groups.size();
+		counts[countsIdx + 1] = 0;
+		counts[countsIdx + 2] = 0;
+
+		out.writeInt(groups.size());
+		for (IntermediateGroup group : groups) {
+			if (group.getProteins() != null) {
+				counts[countsIdx + 2] += group.getProteins().size();
+				out.writeInt(group.getProteins().size());
+				for (IntermediateProtein protein : group.getProteins()) {
+					writeProtein(protein);
+				}
+			} else {
+				out.writeInt(0);
+			}
+
+			if (group.getPeptides() != null) {
+				counts[countsIdx + 1] += group.getPeptides().size();
+				out.writeInt(group.getPeptides().size());
+				for (IntermediatePeptide peptide : group.getPeptides()) {
+					writePeptide(peptide);
+				}
+			} else {
+				out.writeInt(0);
+			}
+		}
+
+		// the parents are restored from the children
+		for (IntermediateGroup group : groups) {
+			if (group.getChildren() != null) {
+				out.writeInt(group.getChildren().size());
+				for (IntermediateGroup child : group.getChildren()) {
+					out.writeInt(localIndices.get(child));
+				}
+			} else {
+				out.writeInt(0);
+			}
+		}
+	}
+
+
+	private void writeProtein(IntermediateProtein protein) throws IOException {
+		IntermediateFileFormat.writeString(out, protein.getAccession());
+		IntermediateFileFormat.writeString(out, protein.getProteinSequence());
+		IntermediateFileFormat.writeBoolean(out, protein.getIsDecoy());
+	}
+
+
+	private void writePeptide(IntermediatePeptide peptide) throws IOException {
+		IntermediateFileFormat.writeString(out, peptide.getSequence());
+
+		List<IntermediatePeptideSpectrumMatch> psms = peptide.getAllPeptideSpectrumMatches();
+		out.writeInt(psms.size());
+		for (IntermediatePeptideSpectrumMatch psm : psms) {
+			writePSM(psm);
+		}
+	}
+
+
+	private void writePSM(IntermediatePeptideSpectrumMatch psm) throws IOException {
+		IntermediateFileFormat.writeString(out, String.valueOf(psm.getID()));
+		out.writeLong(psm.getNumericID());
+		writeSymbol(String.valueOf(psm.getControllerID()));
+		IntermediateFileFormat.writeString(out, psm.getSpectrumId());
+		IntermediateFileFormat.writeDouble(out, psm.getExperimentalMassToCharge());
+		IntermediateFileFormat.writeDouble(out, psm.getDeltaMass());
+		IntermediateFileFormat.writeDouble(out, psm.getRetentionTime());
+		IntermediateFileFormat.writeInteger(out, psm.getCharge());
+		IntermediateFileFormat.writeInteger(out, psm.getMissedCleavages());
+		IntermediateFileFormat.writeString(out, psm.getSequence());
+
+		// only the base scores with values are written
+		List<String> accessions = new ArrayList<String>();
+		List<Double> values = new ArrayList<Double>();
+		for (String accession : psm.getBaseScoreAccessions()) {
+			Double value = psm.getScore(accession);
+			if (value != null) {
+				accessions.add(accession);
+				values.add(value);
+			}
+		}
+		out.writeInt(accessions.size());
+		for (int i = 0; i < accessions.size(); i++) {
+			writeSymbol(accessions.get(i));
+			out.writeDouble(values.get(i));
+		}
+
+		IntermediateFileFormat.writeDouble(out, psm.getFDR());
+		IntermediateFileFormat.writeDouble(out, psm.getQValue());
+		IntermediateFileFormat.writeDouble(out, psm.getFDRScore());
+		IntermediateFileFormat.writeBoolean(out, psm.getIsDecoyFlag());
+		IntermediateFileFormat.writeBoolean(out, psm.getIsUnique());
+
+		List<Modification> modifications = psm.getModifications();
+		out.writeInt((modifications != null) ? modifications.size() : 0);
+		if (modifications != null) {
+			for (Modification modification : modifications) {
+				writeModification(modification);
+			}
+		}
+
+		List<AbstractParam> params = psm.getParams();
+		out.writeInt((params != null) ? params.size() : 0);
+		if (params != null) {
+			for (AbstractParam param : params) {
+				writeParam(param);
+			}
+		}
+	}
+
+
+	private void writeModification(Modification modification) throws IOException {
+		IntermediateFileFormat.writeInteger(out, modification.getLocation());
+		IntermediateFileFormat.writeDouble(out, modification.getAvgMassDelta());
+		IntermediateFileFormat.writeDouble(out, modification.getMonoisotopicMassDelta());
+
+		out.writeInt(modification.getResidues().size());
+		for (String residue : modification.getResidues()) {
+			writeSymbol(residue);
+		}
+
+		out.writeInt(modification.getCvParam().size());
+		for (CvParam cvParam : modification.getCvParam()) {
+			writeParam(cvParam);
+		}
+	}
+
+
+	/**
+	 * Writes a cvParam or userParam. The CVs are written by their IDs.
+	 *
+	 * @param param
+	 * @throws IOException
+	 */
+	private void writeParam(AbstractParam param) throws IOException {
+		if (param instanceof CvParam) {
+			out.writeByte(IntermediateFileFormat.CV_PARAM);
+			writeSymbol(((CvParam) param).getAccession());
+			writeSymbol(getCvId(((CvParam) param).getCv()));
+		} else if (param instanceof UserParam) {
+			out.writeByte(IntermediateFileFormat.USER_PARAM);
+			writeSymbol(((UserParam) param).getType());
+		} else {
+			throw new IOException("unknown param type " + param.getClass().getCanonicalName());
+		}
+
+		writeSymbol(param.getName());
+		IntermediateFileFormat.writeString(out, param.getValue());
+		writeSymbol(param.getUnitAccession());
+		writeSymbol(param.getUnitName());
+		writeSymbol(getCvId(param.getUnitCv()));
+	}
+
+
+	private static String getCvId(Cv cv) {
+		return (cv != null) ? cv.getId() : null;
+	}
+
+
+	/**
+	 * Writes a recurring string, which may be null. Only the first occurrence
+	 * is written completely, all later ones by its index.
+	 *
+	 * @param symbol
+	 * @throws IOException
+	 */
+	private void writeSymbol(String symbol) throws IOException {
+		if (symbol == null) {
+			out.writeInt(IntermediateFileFormat.NULL_SYMBOL);
+			return;
+		}
+
+		Integer idx = symbols.get(symbol);
+		if (idx != null) {
+			out.writeInt(idx);
+		} else {
+			symbols.put(symbol, symbols.size());
+			out.writeInt(IntermediateFileFormat.NEW_SYMBOL);
+			IntermediateFileFormat.writeString(out, symbol);
+		}
+	}
+
+
+	/**
+	 * An output stream counting the written bytes, as
+	 * {@link DataOutputStream#size()} overflows for files larger than 2 GB.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		/** the number of written bytes */
+		private long count;
+
+
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+			this.count = 0;
+		}
+
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+
+		public long getCount() {
+			return count;
+		}
+	}
+}
@@ -0,0 +1,565 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateGroup;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+
+
+/**
+ * An {@link IntermediateStructure}, whose clusters stay in an intermediate file
+ * written by the {@link IntermediateStructureWriter} and are decoded only when
+ * they are requested.
+ * <p>
+ * The file is mapped into memory by {@link MappedByteBuffer}s and only its
+ * index, i.e. the offsets and sizes of the clusters, is held on the heap. Each
+ * call of {@link #getCluster(Integer)} decodes the cluster anew and the
+ * structure keeps no reference to it, so a decoded cluster is released as
+ * soon as the caller (e.g. an inference worker) is done with it. The map
+ * returned by {@link #getClusters()} decodes the clusters while iterating over
+ * its values. Therefore the peak heap usage depends on the largest clusters
+ * and not on the whole structure.
+ * <p>
+ * As the clusters are decoded anew, any changes of the groups, peptides or
+ * PSMs (e.g. calculated FDR values) are not visible in later requests of the
+ * same cluster. The structure cannot be changed by
+ * {@link #addCluster(Collection)}.
+ *
+ * @author julian
+ *
+ */
+public class MappedIntermediateStructure extends IntermediateStructure {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(MappedIntermediateStructure.class);
+
+	/** the maximal size of one mapped segment of the file */
+	private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+
+	/** the mapped file */
+	private File file;
+
+	/** the opened file */
+	private RandomAccessFile randomAccessFile;
+
+	/** the version of the mapped file */
+	private int version;
+
+	/** the input files, mapped by their file IDs */
+	private Map<Integer, DataImportController> inputControllers;
+
+	/** all symbols of the file by their indices */
+	private List<String> symbols;
+
+	/** the instances of all symbols of the file */
+	private Map<String, String> knownSymbols;
+
+	/** the offsets of the clusters in the file, followed by the offset of the index */
+	private long[] clusterOffsets;
+
+	/** the number of groups, peptides and proteins of each cluster */
+	private int[] clusterCounts;
+
+	/** the ID of the first group of each cluster */
+	private int[] firstGroupIDs;
+
+	/** the total number of groups */
+	private int nrGroups;
+
+	/** the total number of peptides */
+	private int nrPeptides;
+
+	/** the total number of proteins */
+	private int nrProteins;
+
+	/** the mapped segments of the file, each containing complete clusters */
+	private MappedByteBuffer[] segments;
+
+	/** the offsets of the segments in the file */
+	private long[] segmentOffsets;
+
+	/** the segment of each cluster */
+	private int[] clusterSegments;
+
+	/** the lazy view on the clusters */
+	private Map<Integer, Set<IntermediateGroup>> clustersView;
+
+
+	/**
+	 * Opens the given intermediate file and reads its index. The file must be
+	 * written in version 2 or later of the format.
+	 *
+	 * @param pathname
+	 * @throws IOException
+	 */
+	public MappedIntermediateStructure(String pathname) throws IOException {
+		super();
+		this.file = new File(pathname);
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			readHeader(channel);
+			readIndex(channel);
+			mapSegments(channel);
+		} catch (IOException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+
+		this.clustersView = new ClustersView();
+
+		logger.info("mapped intermediate structure " + file.getAbsolutePath() + " with "
+				+ getNrClusters() + " clusters in " + segments.length + " segments");
+	}
+
+
+	/**
+	 * Reads the header and the input files of the file.
+	 */
+	private void readHeader(FileChannel channel) throws IOException {
+		channel.position(0);
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel)));
+
+		if (in.readInt() != IntermediateFileFormat.MAGIC) {
+			throw new IOException(file.getAbsolutePath() + " is no PIA intermediate file");
+		}
+		version = in.readInt();
+		if ((version < 2) || (version > IntermediateFileFormat.VERSION)) {
+			throw new IOException("version " + version + " of the intermediate file "
+					+ file.getAbsolutePath() + " does not support mapping");
+		}
+
+		// the symbols of the input files are given in the index as well
+		ClusterDecoder decoder = new ClusterDecoder(in, version);
+		int nrFiles = in.readInt();
+		inputControllers = new HashMap<Integer, DataImportController>(nrFiles + 1);
+		for (int i = 0; i < nrFiles; i++) {
+			Integer fileID = in.readInt();
+			String controllerID = decoder.readSymbol();
+			String fileName = IntermediateFileFormat.readString(in);
+
+			inputControllers.put(fileID, new StoredImportController(controllerID, fileName));
+		}
+	}
+
+
+	/**
+	 * Reads the index at the end of the file.
+	 */
+	private void readIndex(FileChannel channel) throws IOException {
+		ByteBuffer offsetBuffer = ByteBuffer.allocate(8);
+		channel.position(channel.size() - 8);
+		while (offsetBuffer.hasRemaining()) {
+			if (channel.read(offsetBuffer) < 0) {
+				throw new IOException("unexpected end of file " + file.getAbsolutePath());
+			}
+		}
+		offsetBuffer.flip();
+		long indexOffset = offsetBuffer.getLong();
+
+		channel.position(indexOffset);
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(channel)));
+
+		int nrSymbols = in.readInt();
+		symbols = new ArrayList<String>(nrSymbols);
+		knownSymbols = new HashMap<String, String>(nrSymbols);
+		for (int i = 0; i < nrSymbols; i++) {
+			String symbol = IntermediateFileFormat.readString(in);
+			symbols.add(symbol);
+			knownSymbols.put(symbol, symbol);
+		}
+
+		int nrClusters = in.readInt();
+		clusterOffsets = new long[nrClusters + 1];
+		clusterCounts = new int[3 * nrClusters];
+		firstGroupIDs = new int[nrClusters];
+		nrGroups = 0;
+		nrPeptides = 0;
+		nrProteins = 0;
+		for (int i = 0; i < nrClusters; i++) {
+			clusterOffsets[i] = in.readLong();
+			clusterCounts[3 * i] = in.readInt();
+			clusterCounts[3 * i + 1] = in.readInt();
+			clusterCounts[3 * i + 2] = in.readInt();
+
+			firstGroupIDs[i] = nrGroups;
+			nrGroups += clusterCounts[3 * i];
+			nrPeptides += clusterCounts[3 * i + 1];
+			nrProteins += clusterCounts[3 * i + 2];
+		}
+		clusterOffsets[nrClusters] = indexOffset;
+	}
+
+
+	/**
+	 * Maps the clusters of the file into segments, which contain only
+	 * complete clusters and are smaller than {@link #MAX_SEGMENT_SIZE}.
+	 */
+	private void mapSegments(FileChannel channel) throws IOException {
+		int nrClusters = clusterOffsets.length - 1;
+		List<MappedByteBuffer> segmentList = new ArrayList<MappedByteBuffer>();
+		List<Long> offsetList = new ArrayList<Long>();
+		clusterSegments = new int[nrClusters];
+
+		int first = 0;
+		while (first < nrClusters) {
+			int last = first;
+			while ((last + 1 < nrClusters)
+					&& (clusterOffsets[last + 2] - clusterOffsets[first] <= MAX_SEGMENT_SIZE)) {
+				last++;
+			}
+
+			long size = clusterOffsets[last + 1] - clusterOffsets[first];
+			if (size > MAX_SEGMENT_SIZE) {
+				throw new IOException("cluster " + (first + 1) + " is too large to be mapped");
+			}
+
+			for (int i = first; i <= last; i++) {
+				clusterSegments[i] = segmentList.size();
+			}
+			segmentList.add(channel.map(FileChannel.MapMode.READ_ONLY, clusterOffsets[first], size));
+			offsetList.add(clusterOffsets[first]);
+
+			first = last + 1;
+		}
+
+		segments = segmentList.toArray(new MappedByteBuffer[segmentList.size()]);
+		segmentOffsets = new long[offsetList.size()];
+		for (int i = 0; i < segmentOffsets.length; i++) {
+			segmentOffsets[i] = offsetList.get(i);
+		}
+	}
+
+
+	/**
+	 * Closes the file. The mapped segments are released by the garbage
+	 * collector.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		randomAccessFile.close();
+	}
+
+
+	/**
+	 * Returns the input files of the structure, mapped by their file IDs.
+	 *
+	 * @return
+	 */
+	public Map<Integer, DataImportController> getInputControllers() {
+		return inputControllers;
+	}
+
+
+	/**
+	 * The mapped structure cannot be changed.
+	 *
+	 * @throws UnsupportedOperationException
+	 */
+	@Override
+	public void addCluster(Collection<IntermediateGroup> cluster) {
+		throw new UnsupportedOperationException("a mapped intermediate structure cannot be changed");
+	}
+	
+	
+	/**
+	 * The mapped structure cannot be changed.
+	 *
+	 * @throws UnsupportedOperationException
+	 */
+	@Override
+	public Set<IntermediateGroup> removeCluster(Integer clusterNr) {
+		throw new UnsupportedOperationException("a mapped intermediate structure cannot be changed");
+	}
+
+
+	/**
+	 * Does nothing, as the clusters are frozen while they are decoded.
+	 */
+	@Override
+	public void freeze() {
+		// the clusters are frozen while decoding
+	}
+
+
+	@Override
+	public int getNrClusters() {
+		return clusterOffsets.length - 1;
+	}
+
+
+	/**
+	 * Decodes the cluster given by the clusterNr. The cluster is not kept by
+	 * this structure, i.e. each call returns a newly decoded cluster.
+	 *
+	 * @param clusterNr
+	 * @return the cluster or null, if there is no cluster with this number
+	 */
+	@Override
+	public Set<IntermediateGroup> getCluster(Integer clusterNr) {
+		if ((clusterNr == null) || (clusterNr < 1) || (clusterNr > getNrClusters())) {
+			return null;
+		}
+
+		int idx = clusterNr - 1;
+		int segment = clusterSegments[idx];
+		ByteBuffer buffer = segments[segment].duplicate();
+		buffer.limit((int) (clusterOffsets[idx + 1] - segmentOffsets[segment]));
+		buffer.position((int) (clusterOffsets[idx] - segmentOffsets[segment]));
+
+		List<IntermediateGroup> groups;
+		try {
+			ClusterDecoder decoder = new ClusterDecoder(
+					new DataInputStream(new ByteBufferInputStream(buffer)), version, symbols, knownSymbols);
+			groups = decoder.readCluster(firstGroupIDs[idx], clusterNr);
+		} catch (IOException e) {
+			logger.error("could not decode cluster " + clusterNr + " of " + file.getAbsolutePath(), e);
+			throw new IllegalStateException("could not decode cluster " + clusterNr, e);
+		}
+
+		freezeCluster(groups);
+		return new HashSet<IntermediateGroup>(groups);
+	}
+
+
+	/**
+	 * Returns a view on the clusters, which decodes each cluster when its
+	 * value is requested. The view is unmodifiable.
+	 */
+	@Override
+	public Map<Integer, Set<IntermediateGroup>> getClusters() {
+		return clustersView;
+	}
+
+
+	@Override
+	public int getClusterNrPeptides(Integer clusterNr) {
+		return clusterCounts[3 * (clusterNr - 1) + 1];
+	}
+
+
+	@Override
+	public int getClusterNrProteins(Integer clusterNr) {
+		return clusterCounts[3 * (clusterNr - 1) + 2];
+	}
+
+
+	@Override
+	public int getNrGroups() {
+		return nrGroups;
+	}
+
+
+	@Override
+	public int getNrPeptides() {
+		return nrPeptides;
+	}
+
+
+	@Override
+	public int getNrProteins() {
+		return nrProteins;
+	}
+
+
+	/**
+	 * Returns all PSMs of the structure, which requires decoding all clusters.
+	 * The PSMs keep their peptides and thus the clusters on the heap.
+	 */
+	@Override
+	public List<IntermediatePeptideSpectrumMatch> getAllIntermediatePSMs() {
+		List<IntermediatePeptideSpectrumMatch> psms =
+				new ArrayList<IntermediatePeptideSpectrumMatch>(getNrPeptides());
+
+		for (int clusterNr = 1; clusterNr <= getNrClusters(); clusterNr++) {
+			for (IntermediateGroup group : getCluster(clusterNr)) {
+				if (group.getPeptides() != null) {
+					for (IntermediatePeptide pep : group.getPeptides()) {
+						psms.addAll(pep.getAllPeptideSpectrumMatches());
+					}
+				}
+			}
+		}
+
+		return psms;
+	}
+
+
+	/**
+	 * The unmodifiable view on the clusters, the values are decoded on
+	 * request.
+	 */
+	private class ClustersView extends AbstractMap<Integer, Set<IntermediateGroup>> {
+
+		/** the entries of the clusters */
+		private Set<Map.Entry<Integer, Set<IntermediateGroup>>> entrySet =
+				new AbstractSet<Map.Entry<Integer, Set<IntermediateGroup>>>() {
+			@Override
+			public int size() {
+				return getNrClusters();
+			}
+
+
+			@Override
+			public Iterator<Map.Entry<Integer, Set<IntermediateGroup>>> iterator() {
+				return new Iterator<Map.Entry<Integer, Set<IntermediateGroup>>>() {
+					private int nextClusterNr = 1;
+
+					@Override
+					public boolean hasNext() {
+						return nextClusterNr <= getNrClusters();
+					}
+
+					@Override
+					public Map.Entry<Integer, Set<IntermediateGroup>> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return new ClusterEntry(nextClusterNr++);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException("a mapped intermediate structure cannot be changed");
+					}
+				};
+			}
+		};
+
+
+		@Override
+		public Set<Map.Entry<Integer, Set<IntermediateGroup>>> entrySet() {
+			return entrySet;
+		}
+
+
+		@Override
+		public int size() {
+			return getNrClusters();
+		}
+
+
+		@Override
+		public boolean containsKey(Object key) {
+			return (key instanceof Integer)
+					&& ((Integer) key >= 1) && ((Integer) key <= getNrClusters());
+		}
+
+
+		@Override
+		public Set<IntermediateGroup> get(Object key) {
+			return containsKey(key) ? getCluster((Integer) key) : null;
+		}
+	}
+
+
+	/**
+	 * An entry of the {@link ClustersView}, the cluster is decoded on the
+	 * first request of the value.
+	 */
+	private class ClusterEntry implements Map.Entry<Integer, Set<IntermediateGroup>> {
+
+		private Integer clusterNr;
+
+		private Set<IntermediateGroup> cluster;
+
+
+		public ClusterEntry(Integer clusterNr) {
+			this.clusterNr = clusterNr;
+			this.cluster = null;
+		}
+
+
+		@Override
+		public Integer getKey() {
+			return clusterNr;
+		}
+
+
+		@Override
+		public Set<IntermediateGroup> getValue() {
+			if (cluster == null) {
+				cluster = getCluster(clusterNr);
+			}
+			return cluster;
+		}
+
+
+		@Override
+		public Set<IntermediateGroup> setValue(Set<IntermediateGroup> value) {
+			throw new UnsupportedOperationException("a mapped intermediate structure cannot be changed");
+		}
+	}
+
+
+	/**
+	 * An input stream reading the remaining bytes of a {@link ByteBuffer}.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		private ByteBuffer buffer;
+
+
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+		}
+
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+
+			int nrRead = Math.min(len, buffer.remaining());
+			buffer.get(b, off, nrRead);
+			return nrRead;
+		}
+
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.io;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.ImportFilterStage;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
+
+
+/**
+ * The placeholder of an input file in an intermediate file. It keeps the ID
+ * and file name of the original controller, so that the loaded PSMs can be
+ * assigned to their files, but it cannot import any data.
+ *
+ * @author julian
+ *
+ */
+public class StoredImportController implements DataImportController {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(StoredImportController.class);
+
+	/** the ID of the original controller */
+	private String id;
+
+	/** the input file name of the original controller */
+	private String inputFileName;
+
+
+	public StoredImportController(String id, String inputFileName) {
+		this.id = id;
+		this.inputFileName = inputFileName;
+	}
+
+
+	@Override
+	public String getID() {
+		return id;
+	}
+
+
+	@Override
+	public String getInputFileName() {
+		return inputFileName;
+	}
+
+
+	@Override
+	public void addSpectrumIdentificationsToStructCreator(List<AbstractFilter> filters) {
+		addSpectrumIdentificationsToStructCreator(filters, null);
+	}
+
+
+	@Override
+	public void addSpectrumIdentificationsToStructCreator(List<AbstractFilter> filters, String cacheScoreAccession) {
+		logger.error("the PSMs of " + inputFileName + " are already in the loaded intermediate structure");
+	}
+
+
+	@Override
+	public void addSpectrumIdentificationsToStructCreator(IntermediateStructureCreator structCreator,
+			List<AbstractFilter> filters, String cacheScoreAccession) {
+		addSpectrumIdentificationsToStructCreator(filters, cacheScoreAccession);
+	}
+	
+	
+	/**
+	 * The PSMs are not imported by this controller, so there is no filter
+	 * stage.
+	 */
+	@Override
+	public ImportFilterStage getImportFilterStage() {
+		return null;
+	}
+	
+	
+	/**
+	 * The PSMs are not imported by this controller, so the index is not used.
+	 */
+	@Override
+	public void setFileIndex(int fileIndex) {
+		// nothing to number
+	}
+	
+	
+	/**
+	 * The PSMs are not imported by this controller, so there is no progress.
+	 */
+	@Override
+	public void setProgressTracker(ProgressTracker tracker) {
+		// nothing to track
+	}
+	
+	
+	@Override
+	public void close() {
+		// nothing to close
+	}
+}
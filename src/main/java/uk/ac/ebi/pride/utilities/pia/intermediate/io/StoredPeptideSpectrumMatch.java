@@ -0,0 +1,177 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.CvScore;
+
+
+/**
+ * A PSM with all its fields materialized, i.e. without any connection to the
+ * controller it was imported with. These PSMs are created while loading an
+ * intermediate file.
+ *
+ * @author julian
+ *
+ */
+public class StoredPeptideSpectrumMatch extends IntermediatePeptideSpectrumMatch {
+
+	/** the unique ID of the PSM */
+	private String id;
+
+	/** the ID of the controller, which imported the PSM originally */
+	private String controllerID;
+
+	/** the spectrum ID, may be null */
+	private String spectrumId;
+
+	/** the experimental m/z */
+	private Double experimentalMassToCharge;
+
+	/** the delta mass */
+	private Double deltaMass;
+
+	/** the retention time, may be null */
+	private Double retentionTime;
+
+	/** the charge */
+	private Integer charge;
+
+	/** the missed cleavages, may be null */
+	private Integer missedCleavages;
+
+	/** the sequence */
+	private String sequence;
+
+	/** the modifications */
+	private List<Modification> modifications;
+
+	/** additional cvParams and userParams */
+	private List<AbstractParam> params;
+
+
+	public StoredPeptideSpectrumMatch(String id, String controllerID, String spectrumId,
+			Double experimentalMassToCharge, Double deltaMass, Double retentionTime,
+			Integer charge, Integer missedCleavages, String sequence,
+			String[] scoreAccessions, double[] scores,
+			List<Modification> modifications, List<AbstractParam> params) {
+		super();
+		setBaseScores(scoreAccessions, scores);
+
+		this.id = id;
+		this.controllerID = controllerID;
+		this.spectrumId = spectrumId;
+		this.experimentalMassToCharge = experimentalMassToCharge;
+		this.deltaMass = deltaMass;
+		this.retentionTime = retentionTime;
+		this.charge = charge;
+		this.missedCleavages = missedCleavages;
+		this.sequence = sequence;
+		this.modifications = Collections.unmodifiableList(modifications);
+		this.params = Collections.unmodifiableList(params);
+	}
+
+
+	@Override
+	public String getID() {
+		return id;
+	}
+
+
+	@Override
+	public String getControllerID() {
+		return controllerID;
+	}
+
+
+	@Override
+	public Double getScore(String scoreAccession) {
+		Double score = getBaseScore(scoreAccession);
+		if (score != null) {
+			return score;
+		}
+
+		if (CvScore.PSI_PSM_LEVEL_FDRSCORE.getAccession().equals(scoreAccession)) {
+			return getFDRScore();
+		} else if (CvScore.PSI_PSM_LEVEL_LOCAL_FDR.getAccession().equals(scoreAccession)) {
+			return getFDR();
+		} else if (CvScore.PSI_PSM_LEVEL_Q_VALUE.getAccession().equals(scoreAccession)) {
+			return getQValue();
+		}
+
+		return null;
+	}
+
+
+	@Override
+	public List<String> getBaseScoreAccessions() {
+		String[] scoreAccessions = getBaseScoreAccessionArray();
+		List<String> accessions = new ArrayList<String>(scoreAccessions.length + 3);
+		Collections.addAll(accessions, scoreAccessions);
+		return accessions;
+	}
+
+
+	@Override
+	public String getSpectrumId() {
+		return spectrumId;
+	}
+
+
+	@Override
+	public Double getExperimentalMassToCharge() {
+		return experimentalMassToCharge;
+	}
+
+
+	@Override
+	public Double getDeltaMass() {
+		return deltaMass;
+	}
+
+
+	@Override
+	public Double getRetentionTime() {
+		return retentionTime;
+	}
+
+
+	@Override
+	public Integer getCharge() {
+		return charge;
+	}
+
+
+	@Override
+	public Integer getMissedCleavages() {
+		return missedCleavages;
+	}
+
+
+	@Override
+	public String getSequence() {
+		return sequence;
+	}
+
+
+	/**
+	 * Returns the modifications, the list must not be changed.
+	 */
+	@Override
+	public List<Modification> getModifications() {
+		return modifications;
+	}
+
+
+	/**
+	 * Returns the params, the list must not be changed.
+	 */
+	@Override
+	public List<AbstractParam> getParams() {
+		return params;
+	}
+}
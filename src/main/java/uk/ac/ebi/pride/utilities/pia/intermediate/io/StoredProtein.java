@@ -0,0 +1,54 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.io;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
+import uk.ac.ebi.pride.utilities.pia.intermediate.fasta.SequenceReference;
+
+
+/**
+ * A protein loaded from an intermediate file, holding its accession and
+ * sequence.
+ *
+ * @author julian
+ *
+ */
+public class StoredProtein extends IntermediateProtein {
+
+	/** the accession */
+	private String accession;
+
+	/** the sequence, may be null */
+	private String sequence;
+
+
+	public StoredProtein(String accession, String sequence) {
+		super();
+		this.accession = accession;
+		this.sequence = sequence;
+	}
+
+
+	@Override
+	public String getAccession() {
+		return accession;
+	}
+
+
+	@Override
+	protected String getSourceSequence() {
+		return sequence;
+	}
+	
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The own sequence is released, as the store holds it.
+	 */
+	@Override
+	public void setSequenceReference(SequenceReference sequenceReference) {
+		super.setSequenceReference(sequenceReference);
+		if (sequenceReference != null) {
+			sequence = null;
+		}
+	}
+}
@@ -0,0 +1,942 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.mzidimpl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.jmzidml.model.mzidml.UserParam;
+import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.ImportPipeline;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.intermediate.SymbolTable;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.StoredPeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.StoredProtein;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.ImportFilterStage;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressInputStream;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.CvScore;
+import uk.ac.ebi.pride.utilities.pia.psisupport.CVUtilities;
+import uk.ac.ebi.pride.utilities.term.SearchEngineScoreCvTermReference;
+
+
+/**
+ * Imports an mzIdentML file by streaming it with StAX, without building an
+ * object model of the whole file.
+ * <p>
+ * The file is read in a single pass. As the SequenceCollection precedes the
+ * AnalysisData in mzIdentML, the DBSequences, Peptides and PeptideEvidences
+ * are collected first into lookup tables, which only hold the values needed
+ * for the import and are released afterwards. Each SpectrumIdentificationItem
+ * is checked against the import filters on its raw values and only if it
+ * passes converted into a {@link StoredPeptideSpectrumMatch}, which is added
+ * together with its peptide and proteins to the
+ * {@link IntermediateStructureCreator}.
+ * <p>
+ * All values of the PSMs are copied while parsing, so nothing must be kept
+ * open after the import.
+ * <p>
+ * If pipeline threads are set, the read items are passed to an
+ * {@link ImportPipeline}, which converts and filters them on these threads
+ * and adds them to the creator on its writer thread, while the file is
+ * parsed further. The lookup tables are complete, when the first item is
+ * read, and only read by the pipeline threads.
+ *
+ * @author julian
+ *
+ */
+public class MzIdentMLImportController implements DataImportController {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(MzIdentMLImportController.class);
+
+	/** the accession of the "scan start time" */
+	private static final String SCAN_START_TIME_ACCESSION = "MS:1000016";
+
+	/** the accession of the "retention time" */
+	private static final String RETENTION_TIME_ACCESSION = "MS:1000894";
+
+	/** the accession of the unit "minute" */
+	private static final String MINUTE_UNIT_ACCESSION = "UO:0000031";
+
+	/** the encoding in the XML declaration */
+	private static final Pattern ENCODING_PATTERN = Pattern.compile("^<\\?xml[^>]*encoding=[\"']([^\"']+)[\"']");
+
+	/** the default encoding of XML */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	/** the imported file */
+	private File inputFile;
+
+	/** the associated intermediateStructureCreator */
+	private IntermediateStructureCreator intermediateStructCreator;
+
+	/** the tracker of the import progress, may be null */
+	private ProgressTracker progressTracker;
+
+
+	/** the symbol table of the creator of the current import */
+	private SymbolTable symbols;
+
+	/** the (interned) ID of this controller */
+	private String controllerID;
+
+	/** the index of the file for the numeric PSM IDs of the current import */
+	private int fileIndex;
+
+	/** the index of the file set by {@link #setFileIndex(int)}, negative if not set */
+	private int assignedFileIndex;
+
+	/** the indices of the DBSequences by their IDs */
+	private Map<String, Integer> dbSequenceIndices;
+
+	/** the accessions of the DBSequences */
+	private List<String> dbSequenceAccessions;
+
+	/** the sequences of the DBSequences, null if not given */
+	private List<String> dbSequenceSequences;
+
+	/** the indices of the peptides by their IDs */
+	private Map<String, Integer> peptideIndices;
+
+	/** the sequences of the peptides */
+	private List<String> peptideSequences;
+
+	/** the converted modifications of the peptides */
+	private List<List<Modification>> peptideModifications;
+
+	/** the indices of the PeptideEvidences by their IDs */
+	private Map<String, Integer> evidenceIndices;
+
+	/** the DBSequence indices of the PeptideEvidences */
+	private int[] evidenceDBSequences;
+
+	/** the PeptideEvidences marked as decoy */
+	private BitSet evidenceDecoys;
+
+	/** the shared instances of the score accession arrays */
+	private Map<String, String[]> scoreAccessionArrays;
+
+
+	/** the DBSequences, which were added to the creator in the current import */
+	private BitSet addedDBSequences;
+
+	/** the number of read spectrum identification items in the current import */
+	private int nrSpectrumIdentificationItems;
+
+	/** the number of PSMs passing the filters in the current import */
+	private int nrImportedPSMs;
+
+	/** the filter stage of the last import */
+	private ImportFilterStage filterStage;
+
+	/** the number of threads converting the items in an {@link ImportPipeline}, 0 for no pipeline */
+	private int pipelineThreads;
+
+	/** the capacity of the pipeline in batches */
+	private int pipelineCapacity;
+
+
+	/**
+	 * Creates an import controller for the given mzIdentML file.
+	 *
+	 * @param inputFile
+	 * @param structCreator
+	 */
+	public MzIdentMLImportController(File inputFile, IntermediateStructureCreator structCreator) {
+		this.inputFile = inputFile;
+		this.intermediateStructCreator = structCreator;
+		this.pipelineThreads = 0;
+		this.pipelineCapacity = ImportPipeline.DEFAULT_CAPACITY;
+		this.assignedFileIndex = -1;
+	}
+
+
+	/**
+	 * Checks, whether the given file is an mzIdentML file, i.e. its root
+	 * element is MzIdentML.
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static boolean isValidFormat(File file) {
+		Reader in = null;
+		XMLStreamReader reader = null;
+		try {
+			in = openFile(file, null);
+			reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+					return "MzIdentML".equals(reader.getLocalName());
+				}
+			}
+		} catch (IOException e) {
+			logger.debug("could not read " + file.getAbsolutePath(), e);
+		} catch (XMLStreamException e) {
+			logger.debug(file.getAbsolutePath() + " is no XML file", e);
+		} finally {
+			close(reader, in);
+		}
+		return false;
+	}
+
+
+	/**
+	 * Sets the number of threads, which convert and filter the
+	 * SpectrumIdentificationItems in an {@link ImportPipeline}, while the file
+	 * is parsed and the PSMs are added to the creator on threads of their
+	 * own. With 0 threads, all is done on the calling thread.
+	 *
+	 * @param pipelineThreads
+	 */
+	public void setPipelineThreads(int pipelineThreads) {
+		this.pipelineThreads = Math.max(0, pipelineThreads);
+	}
+
+
+	public int getPipelineThreads() {
+		return pipelineThreads;
+	}
+
+
+	/**
+	 * Sets the maximal number of batches of items in the pipeline, which
+	 * bounds its memory.
+	 *
+	 * @param pipelineCapacity
+	 */
+	public void setPipelineCapacity(int pipelineCapacity) {
+		this.pipelineCapacity = Math.max(1, pipelineCapacity);
+	}
+
+
+	public int getPipelineCapacity() {
+		return pipelineCapacity;
+	}
+
+
+	@Override
+	public String getID() {
+		return inputFile.getAbsolutePath();
+	}
+
+
+	@Override
+	public String getInputFileName() {
+		return inputFile.getAbsolutePath();
+	}
+
+
+	@Override
+	public void addSpectrumIdentificationsToStructCreator(List<AbstractFilter> filters) {
+		addSpectrumIdentificationsToStructCreator(filters, null);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * All scores of the PSMs are stored anyway, so no extra caching is needed
+	 * and the cacheScoreAccession is ignored.
+	 */
+	@Override
+	public void addSpectrumIdentificationsToStructCreator(List<AbstractFilter> filters, String cacheScoreAccession) {
+		addSpectrumIdentificationsToStructCreator(intermediateStructCreator, filters, cacheScoreAccession);
+	}
+
+
+	@Override
+	public void addSpectrumIdentificationsToStructCreator(IntermediateStructureCreator structCreator,
+			List<AbstractFilter> filters, String cacheScoreAccession) {
+		logger.info("start streaming the data from " + inputFile.getAbsolutePath());
+		long start = System.currentTimeMillis();
+
+		initializeLookupTables(structCreator.getSymbolTable());
+		filterStage = new ImportFilterStage(filters);
+		ImportPipeline<SpectrumItem, SpectrumItem> pipeline = (pipelineThreads > 0) ?
+				createPipeline(structCreator, filters) : null;
+
+		Reader in = null;
+		XMLStreamReader reader = null;
+		try {
+			if (progressTracker != null) {
+				progressTracker.addTotalBytes(inputFile.length());
+			}
+			in = openFile(inputFile, progressTracker);
+			reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+
+				String name = reader.getLocalName();
+				if ("DBSequence".equals(name)) {
+					readDBSequence(reader);
+				} else if ("Peptide".equals(name)) {
+					readPeptide(reader);
+				} else if ("PeptideEvidence".equals(name)) {
+					readPeptideEvidence(reader);
+				} else if ("SpectrumIdentificationResult".equals(name)) {
+					readSpectrumIdentificationResult(reader, structCreator, pipeline);
+				}
+			}
+		} catch (IOException e) {
+			logger.error("could not read " + inputFile.getAbsolutePath(), e);
+		} catch (XMLStreamException e) {
+			logger.error("error while parsing " + inputFile.getAbsolutePath(), e);
+		} finally {
+			close(reader, in);
+			try {
+				if (pipeline != null) {
+					// waits for the items still in the pipeline
+					pipeline.finish();
+					filterStage = pipeline.getFilterStage();
+				}
+			} finally {
+				logger.info(nrImportedPSMs + " of " + nrSpectrumIdentificationItems
+						+ " spectrum identification items imported from " + inputFile.getAbsolutePath()
+						+ " in " + (System.currentTimeMillis() - start) + " ms");
+				releaseLookupTables();
+			}
+		}
+	}
+
+
+	@Override
+	public ImportFilterStage getImportFilterStage() {
+		return filterStage;
+	}
+
+
+	@Override
+	public void setFileIndex(int fileIndex) {
+		this.assignedFileIndex = fileIndex;
+	}
+
+
+	@Override
+	public void setProgressTracker(ProgressTracker tracker) {
+		this.progressTracker = tracker;
+	}
+
+
+	@Override
+	public void close() {
+		// the file is closed after each import
+	}
+
+
+	private void initializeLookupTables(SymbolTable symbolTable) {
+		symbols = symbolTable;
+		controllerID = symbols.intern(getID());
+		fileIndex = (assignedFileIndex >= 0) ? assignedFileIndex : symbols.getHandle(controllerID);
+		dbSequenceIndices = new HashMap<String, Integer>();
+		dbSequenceAccessions = new ArrayList<String>();
+		dbSequenceSequences = new ArrayList<String>();
+		peptideIndices = new HashMap<String, Integer>();
+		peptideSequences = new ArrayList<String>();
+		peptideModifications = new ArrayList<List<Modification>>();
+		evidenceIndices = new HashMap<String, Integer>();
+		evidenceDBSequences = new int[1024];
+		evidenceDecoys = new BitSet();
+		scoreAccessionArrays = new HashMap<String, String[]>();
+
+		addedDBSequences = new BitSet();
+		nrSpectrumIdentificationItems = 0;
+		nrImportedPSMs = 0;
+	}
+
+
+	private void releaseLookupTables() {
+		symbols = null;
+		controllerID = null;
+		dbSequenceIndices = null;
+		dbSequenceAccessions = null;
+		dbSequenceSequences = null;
+		peptideIndices = null;
+		peptideSequences = null;
+		peptideModifications = null;
+		evidenceIndices = null;
+		evidenceDBSequences = null;
+		evidenceDecoys = null;
+		scoreAccessionArrays = null;
+		addedDBSequences = null;
+	}
+
+
+	/**
+	 * Reads the DBSequence at the current position into the lookup table.
+	 */
+	private void readDBSequence(XMLStreamReader reader) throws XMLStreamException {
+		String id = reader.getAttributeValue(null, "id");
+		String accession = symbols.intern(reader.getAttributeValue(null, "accession"));
+		String sequence = null;
+
+		while (nextChildElement(reader)) {
+			if ("Seq".equals(reader.getLocalName())) {
+				sequence = reader.getElementText().trim();
+				if (sequence.length() == 0) {
+					sequence = null;
+				}
+			} else {
+				skipElement(reader);
+			}
+		}
+
+		dbSequenceIndices.put(id, dbSequenceAccessions.size());
+		dbSequenceAccessions.add(accession);
+		dbSequenceSequences.add(sequence);
+	}
+
+
+	/**
+	 * Reads the Peptide at the current position into the lookup table.
+	 */
+	private void readPeptide(XMLStreamReader reader) throws XMLStreamException {
+		String id = reader.getAttributeValue(null, "id");
+		String sequence = null;
+		List<Modification> modifications = null;
+
+		while (nextChildElement(reader)) {
+			String name = reader.getLocalName();
+			if ("PeptideSequence".equals(name)) {
+				sequence = symbols.intern(reader.getElementText().trim());
+			} else if ("Modification".equals(name)) {
+				if (modifications == null) {
+					modifications = new ArrayList<Modification>(2);
+				}
+				modifications.add(readModification(reader));
+			} else {
+				skipElement(reader);
+			}
+		}
+
+		peptideIndices.put(id, peptideSequences.size());
+		peptideSequences.add(sequence);
+		peptideModifications.add((modifications != null) ?
+				Collections.unmodifiableList(modifications) : Collections.<Modification>emptyList());
+	}
+
+
+	private Modification readModification(XMLStreamReader reader) throws XMLStreamException {
+		Modification modification = new Modification();
+
+		String value = reader.getAttributeValue(null, "location");
+		if (value != null) {
+			modification.setLocation(Integer.parseInt(value));
+		}
+		value = reader.getAttributeValue(null, "avgMassDelta");
+		if (value != null) {
+			modification.setAvgMassDelta(Double.parseDouble(value));
+		}
+		value = reader.getAttributeValue(null, "monoisotopicMassDelta");
+		if (value != null) {
+			modification.setMonoisotopicMassDelta(Double.parseDouble(value));
+		}
+		value = reader.getAttributeValue(null, "residues");
+		if (value != null) {
+			modification.getResidues().addAll(Arrays.asList(value.trim().split("\\s+")));
+		}
+
+		while (nextChildElement(reader)) {
+			if ("cvParam".equals(reader.getLocalName())) {
+				modification.getCvParam().add(readCvParam(reader));
+			} else {
+				skipElement(reader);
+			}
+		}
+
+		return modification;
+	}
+
+
+	/**
+	 * Reads the PeptideEvidence at the current position into the lookup
+	 * table.
+	 */
+	private void readPeptideEvidence(XMLStreamReader reader) throws XMLStreamException {
+		String id = reader.getAttributeValue(null, "id");
+		Integer dbSequenceIdx = dbSequenceIndices.get(reader.getAttributeValue(null, "dBSequence_ref"));
+		boolean isDecoy = Boolean.parseBoolean(reader.getAttributeValue(null, "isDecoy"));
+		skipElement(reader);
+
+		if (dbSequenceIdx == null) {
+			logger.warn("PeptideEvidence " + id + " references an unknown DBSequence");
+			return;
+		}
+
+		int idx = evidenceIndices.size();
+		if (idx == evidenceDBSequences.length) {
+			evidenceDBSequences = Arrays.copyOf(evidenceDBSequences, 2 * idx);
+		}
+		evidenceDBSequences[idx] = dbSequenceIdx;
+		evidenceDecoys.set(idx, isDecoy);
+		evidenceIndices.put(id, idx);
+	}
+
+
+	/**
+	 * Reads the SpectrumIdentificationResult at the current position and adds
+	 * the PSMs of its items, which pass the filters, to the creator. If the
+	 * pipeline is given, the items are passed to it instead.
+	 */
+	private void readSpectrumIdentificationResult(XMLStreamReader reader,
+			IntermediateStructureCreator structCreator, ImportPipeline<SpectrumItem, SpectrumItem> pipeline)
+			throws XMLStreamException {
+		String spectrumID = reader.getAttributeValue(null, "spectrumID");
+		Double retentionTime = null;
+
+		// the cvParams of the result follow its items
+		List<SpectrumItem> items = new ArrayList<SpectrumItem>(1);
+		int nrReadItems = nrSpectrumIdentificationItems;
+		while (nextChildElement(reader)) {
+			String name = reader.getLocalName();
+			if ("SpectrumIdentificationItem".equals(name)) {
+				SpectrumItem item = readSpectrumIdentificationItem(reader);
+				if (item != null) {
+					items.add(item);
+				}
+			} else if ("cvParam".equals(name)) {
+				CvParam param = readCvParam(reader);
+				if ((SCAN_START_TIME_ACCESSION.equals(param.getAccession())
+						|| RETENTION_TIME_ACCESSION.equals(param.getAccession()))
+						&& (param.getValue() != null)) {
+					retentionTime = Double.parseDouble(param.getValue());
+					if (MINUTE_UNIT_ACCESSION.equals(param.getUnitAccession())) {
+						retentionTime *= 60.0;
+					}
+				}
+			} else {
+				skipElement(reader);
+			}
+		}
+
+		for (SpectrumItem item : items) {
+			item.spectrumID = spectrumID;
+			item.retentionTime = retentionTime;
+
+			if (pipeline != null) {
+				pipeline.put(item);
+			} else if (createPSM(item, filterStage)) {
+				addItemToStructCreator(item, structCreator);
+			}
+		}
+
+		if (progressTracker != null) {
+			progressTracker.advance(nrSpectrumIdentificationItems - nrReadItems);
+		}
+	}
+
+
+	/**
+	 * Reads the SpectrumIdentificationItem at the current position, returns
+	 * null if it references unknown data.
+	 */
+	private SpectrumItem readSpectrumIdentificationItem(XMLStreamReader reader) throws XMLStreamException {
+		nrSpectrumIdentificationItems++;
+
+		SpectrumItem item = new SpectrumItem();
+		item.ordinal = nrSpectrumIdentificationItems - 1;
+		item.id = reader.getAttributeValue(null, "id");
+		item.charge = Integer.parseInt(reader.getAttributeValue(null, "chargeState"));
+		item.experimentalMassToCharge = Double.parseDouble(reader.getAttributeValue(null, "experimentalMassToCharge"));
+		String calculatedMassToCharge = reader.getAttributeValue(null, "calculatedMassToCharge");
+		item.deltaMass = (calculatedMassToCharge != null) ?
+				item.experimentalMassToCharge - Double.parseDouble(calculatedMassToCharge) : null;
+		Integer peptideIdx = peptideIndices.get(reader.getAttributeValue(null, "peptide_ref"));
+
+		int[] evidences = new int[1];
+		int nrEvidences = 0;
+		List<String> scoreAccessions = new ArrayList<String>();
+		List<Double> scores = new ArrayList<Double>();
+		List<AbstractParam> params = new ArrayList<AbstractParam>();
+
+		while (nextChildElement(reader)) {
+			String name = reader.getLocalName();
+			if ("PeptideEvidenceRef".equals(name)) {
+				String ref = reader.getAttributeValue(null, "peptideEvidence_ref");
+				skipElement(reader);
+
+				Integer evidenceIdx = evidenceIndices.get(ref);
+				if (evidenceIdx != null) {
+					if (nrEvidences == evidences.length) {
+						evidences = Arrays.copyOf(evidences, 2 * nrEvidences);
+					}
+					evidences[nrEvidences++] = evidenceIdx;
+				} else {
+					logger.warn("SpectrumIdentificationItem " + item.id + " references the unknown PeptideEvidence " + ref);
+				}
+			} else if ("cvParam".equals(name)) {
+				CvParam param = readCvParam(reader);
+				if (isScore(param)) {
+					scoreAccessions.add(param.getAccession());
+					scores.add(Double.parseDouble(param.getValue()));
+				} else {
+					params.add(param);
+				}
+			} else if ("userParam".equals(name)) {
+				params.add(readUserParam(reader));
+			} else {
+				skipElement(reader);
+			}
+		}
+
+		if ((peptideIdx == null) || (nrEvidences == 0)) {
+			logger.warn("SpectrumIdentificationItem " + item.id + " has no known peptide or protein, it is skipped");
+			return null;
+		}
+
+		item.peptideIdx = peptideIdx;
+		item.evidences = Arrays.copyOf(evidences, nrEvidences);
+		item.scoreAccessions = getScoreAccessionArray(scoreAccessions);
+		item.scores = new double[scores.size()];
+		for (int i = 0; i < item.scores.length; i++) {
+			item.scores[i] = scores.get(i);
+		}
+		item.params = params.isEmpty() ?
+				Collections.<AbstractParam>emptyList() : params;
+
+		return item;
+	}
+
+
+	/**
+	 * Creates the pipeline of the import, which converts the items by
+	 * {@link #createPSM(SpectrumItem, ImportFilterStage)} and writes them by
+	 * {@link #addItemToStructCreator(SpectrumItem, IntermediateStructureCreator)}.
+	 */
+	private ImportPipeline<SpectrumItem, SpectrumItem> createPipeline(
+			final IntermediateStructureCreator structCreator, List<AbstractFilter> filters) {
+		return new ImportPipeline<SpectrumItem, SpectrumItem>(inputFile.getName(), pipelineThreads,
+				pipelineCapacity, filters,
+				new ImportPipeline.RecordConverter<SpectrumItem, SpectrumItem>() {
+					@Override
+					public SpectrumItem convert(SpectrumItem item, ImportFilterStage stage) {
+						return createPSM(item, stage) ? item : null;
+					}
+				},
+				new ImportPipeline.RecordWriter<SpectrumItem>() {
+					@Override
+					public void write(SpectrumItem item) {
+						addItemToStructCreator(item, structCreator);
+					}
+				});
+	}
+
+
+	/**
+	 * Creates the PSM of the item, if it passes the filters on raw values, and
+	 * checks it against the other filters. This may be called concurrently
+	 * for different items.
+	 *
+	 * @return whether the created PSM passes the filters
+	 */
+	private boolean createPSM(SpectrumItem item, ImportFilterStage stage) {
+		if (!stage.isEmpty() && !stage.satisfiesRawFilters(item)) {
+			return false;
+		}
+
+		StoredPeptideSpectrumMatch psm = new StoredPeptideSpectrumMatch(controllerID + ":" + item.id, controllerID,
+				item.spectrumID, item.experimentalMassToCharge, item.deltaMass, item.retentionTime, item.charge,
+				null, peptideSequences.get(item.peptideIdx), item.scoreAccessions, item.scores,
+				peptideModifications.get(item.peptideIdx), item.params);
+		psm.setNumericID(IntermediatePeptideSpectrumMatch.computeNumericID(fileIndex, item.ordinal));
+
+		if (!stage.isEmpty() && !stage.satisfiesPSMFilters(psm)) {
+			return false;
+		}
+		item.psm = psm;
+		return true;
+	}
+
+
+	/**
+	 * Adds the created PSM of the item to the creator, together with its
+	 * peptide, proteins and the connections.
+	 */
+	private void addItemToStructCreator(SpectrumItem item, IntermediateStructureCreator structCreator) {
+		nrImportedPSMs++;
+		String sequence = peptideSequences.get(item.peptideIdx);
+
+		Comparable pepID = IntermediatePeptide.computeID(sequence);
+		IntermediatePeptide peptide = structCreator.getPeptide(pepID);
+		if (peptide == null) {
+			peptide = new IntermediatePeptide(sequence);
+			structCreator.addPeptide(peptide);
+		}
+		peptide.addPeptideSpectrumMatch(item.psm);
+
+		for (int evidenceIdx : item.evidences) {
+			int dbSequenceIdx = evidenceDBSequences[evidenceIdx];
+			String accession = dbSequenceAccessions.get(dbSequenceIdx);
+
+			if (!addedDBSequences.get(dbSequenceIdx)) {
+				// add the protein or its information only once per import
+				StoredProtein protein = new StoredProtein(accession, dbSequenceSequences.get(dbSequenceIdx));
+				if (evidenceDecoys.get(evidenceIdx)) {
+					protein.setIsDecoy(true);
+				}
+
+				if (!structCreator.proteinsContains(accession)) {
+					structCreator.addProtein(protein);
+				} else {
+					structCreator.addProteinInformation(accession, protein);
+				}
+				addedDBSequences.set(dbSequenceIdx);
+			}
+
+			structCreator.addPeptideToProteinConnection(pepID, accession);
+		}
+	}
+
+
+	/**
+	 * Returns whether the cvParam is a known score with a value.
+	 */
+	private static boolean isScore(CvParam param) {
+		if (param.getValue() == null) {
+			return false;
+		}
+
+		if (!CvScore.hasAccession(param.getAccession())
+				&& (SearchEngineScoreCvTermReference.getSearchEngineScoreParamByAccession(param.getAccession()) == null)) {
+			return false;
+		}
+
+		try {
+			Double.parseDouble(param.getValue());
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+
+	/**
+	 * Returns the shared instance of the array of the given score accessions.
+	 */
+	private String[] getScoreAccessionArray(List<String> accessions) {
+		String key = accessions.toString();
+
+		String[] array = scoreAccessionArrays.get(key);
+		if (array == null) {
+			array = symbols.intern(accessions.toArray(new String[accessions.size()]));
+			scoreAccessionArrays.put(key, array);
+		}
+		return array;
+	}
+
+
+	private static CvParam readCvParam(XMLStreamReader reader) throws XMLStreamException {
+		CvParam param = new CvParam();
+		param.setAccession(reader.getAttributeValue(null, "accession"));
+		param.setCv(CVUtilities.getByRepresentingName(reader.getAttributeValue(null, "cvRef")));
+		readParamValues(reader, param);
+		return param;
+	}
+
+
+	private static UserParam readUserParam(XMLStreamReader reader) throws XMLStreamException {
+		UserParam param = new UserParam();
+		param.setType(reader.getAttributeValue(null, "type"));
+		readParamValues(reader, param);
+		return param;
+	}
+
+
+	/**
+	 * Reads the name, value and unit of the param and skips its content.
+	 */
+	private static void readParamValues(XMLStreamReader reader, AbstractParam param) throws XMLStreamException {
+		param.setName(reader.getAttributeValue(null, "name"));
+		param.setValue(reader.getAttributeValue(null, "value"));
+		param.setUnitAccession(reader.getAttributeValue(null, "unitAccession"));
+		param.setUnitName(reader.getAttributeValue(null, "unitName"));
+		param.setUnitCv(CVUtilities.getByRepresentingName(reader.getAttributeValue(null, "unitCvRef")));
+		skipElement(reader);
+	}
+
+
+	/**
+	 * Moves to the next child element of the current element.
+	 *
+	 * @return true, if the reader is on the start of a child element, false
+	 * if the end of the current element is reached
+	 */
+	private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Skips the element at the current position including its content, the
+	 * reader is on the element's end afterwards.
+	 */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while ((depth > 0) && reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+
+	/**
+	 * Opens the file with the encoding given in its XML declaration. Java
+	 * names of encodings (like "Cp1252"), which are written by some
+	 * exporters, are not accepted by the StAX parser itself.
+	 *
+	 * @param file
+	 * @param tracker the tracker of the read bytes, may be null
+	 * @return
+	 * @throws IOException
+	 */
+	private static Reader openFile(File file, ProgressTracker tracker) throws IOException {
+		InputStream fileIn = new FileInputStream(file);
+		if (tracker != null) {
+			fileIn = new ProgressInputStream(fileIn, tracker);
+		}
+		InputStream in = new BufferedInputStream(fileIn, 1 << 16);
+
+		Charset charset = UTF8;
+		try {
+			byte[] declaration = new byte[256];
+			in.mark(declaration.length);
+			int length = in.read(declaration);
+			in.reset();
+
+			if (length > 0) {
+				Matcher matcher = ENCODING_PATTERN.matcher(new String(declaration, 0, length, "ISO-8859-1"));
+				if (matcher.find() && Charset.isSupported(matcher.group(1))) {
+					charset = Charset.forName(matcher.group(1));
+				}
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+
+		return new InputStreamReader(in, charset);
+	}
+
+
+	private static void close(XMLStreamReader reader, Closeable in) {
+		try {
+			if (reader != null) {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			logger.warn("could not close the XML reader", e);
+		}
+
+		try {
+			if (in != null) {
+				in.close();
+			}
+		} catch (IOException e) {
+			logger.warn("could not close the input stream", e);
+		}
+	}
+
+
+	/**
+	 * The values of a SpectrumIdentificationItem and, after they are read,
+	 * of its SpectrumIdentificationResult. These are also the raw values for
+	 * the import filters.
+	 */
+	private class SpectrumItem implements ImportFilterStage.PSMValues {
+		int ordinal;
+		String id;
+		String spectrumID;
+		Double retentionTime;
+		int charge;
+		double experimentalMassToCharge;
+		Double deltaMass;
+		int peptideIdx;
+		int[] evidences;
+		String[] scoreAccessions;
+		double[] scores;
+		List<AbstractParam> params;
+		StoredPeptideSpectrumMatch psm;
+
+
+		@Override
+		public Double getScore(String scoreAccession) {
+			for (int i = 0; i < scoreAccessions.length; i++) {
+				if (scoreAccessions[i].equals(scoreAccession)) {
+					return scores[i];
+				}
+			}
+			return null;
+		}
+
+
+		@Override
+		public Integer getCharge() {
+			return charge;
+		}
+
+
+		@Override
+		public Boolean getIsDecoy() {
+			for (int evidenceIdx : evidences) {
+				if (!evidenceDecoys.get(evidenceIdx)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+
+		@Override
+		public List<String> getAccessions() {
+			List<String> accessions = new ArrayList<String>(evidences.length);
+			for (int evidenceIdx : evidences) {
+				accessions.add(dbSequenceAccessions.get(evidenceDBSequences[evidenceIdx]));
+			}
+			return accessions;
+		}
+	}
+}
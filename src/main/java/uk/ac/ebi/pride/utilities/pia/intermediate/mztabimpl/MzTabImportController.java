@@ -0,0 +1,938 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.mztabimpl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.ImportPipeline;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.intermediate.SymbolTable;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.StoredPeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.StoredProtein;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.ImportFilterStage;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressInputStream;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
+import uk.ac.ebi.pride.utilities.pia.psisupport.CVUtilities;
+
+
+/**
+ * Imports the PSM section of an mzTab file by streaming it line by line,
+ * without building a model of the whole file.
+ * <p>
+ * The lines are split by a {@link TabLineSplitter}, which parses the needed
+ * fields directly from its buffer. From the metadata, only the search engine
+ * scores of the PSMs and the names of the modifications are read, all other
+ * sections are skipped. As mzTab repeats a PSM in one row for each of its
+ * proteins, consecutive rows with the same PSM_ID are combined into one
+ * {@link StoredPeptideSpectrumMatch}. It is checked against the import
+ * filters on its raw values before it is created.
+ * <p>
+ * The modifications of the PSM rows give no mass deltas, except for CHEMMOD
+ * modifications, so only their accessions and positions are known.
+ * <p>
+ * If pipeline threads are set, the read PSMs are passed to an
+ * {@link ImportPipeline}, which creates and filters them on these threads
+ * and adds them to the creator on its writer thread, while the file is read
+ * further.
+ *
+ * @author julian
+ *
+ */
+public class MzTabImportController implements DataImportController {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(MzTabImportController.class);
+
+	/** the prefix of metadata lines */
+	private static final String METADATA_PREFIX = "MTD\t";
+
+	/** the prefix of the PSM header line */
+	private static final String PSM_HEADER_PREFIX = "PSH\t";
+
+	/** the prefix of PSM lines */
+	private static final String PSM_PREFIX = "PSM\t";
+
+	/** the column of the decoy flag, as written by PRIDE and PIA */
+	private static final String DECOY_COLUMN = "opt_global_cv_MS:1002217_decoy_peptide";
+
+	/** the metadata of the PSM scores */
+	private static final Pattern SCORE_METADATA_PATTERN = Pattern.compile("^psm_search_engine_score\\[(\\d+)\\]$");
+
+	/** the metadata of the modifications */
+	private static final Pattern MODIFICATION_METADATA_PATTERN = Pattern.compile("^(fixed|variable)_mod\\[\\d+\\]$");
+
+	/** the score columns of the PSM section */
+	private static final Pattern SCORE_COLUMN_PATTERN = Pattern.compile("^search_engine_score\\[(\\d+)\\]$");
+
+	/** the prefix of modifications given by their mass */
+	private static final String CHEMMOD_PREFIX = "CHEMMOD:";
+
+	/** the number of PSM rows after which the progress is advanced */
+	private static final int PROGRESS_ROWS = 1024;
+
+	/** the encoding of mzTab */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	/** the imported file */
+	private File inputFile;
+
+	/** the associated intermediateStructureCreator */
+	private IntermediateStructureCreator intermediateStructCreator;
+
+	/** the tracker of the import progress, may be null */
+	private ProgressTracker progressTracker;
+
+	/** the filter stage of the last import */
+	private ImportFilterStage filterStage;
+
+	/** the number of threads creating the PSMs in an {@link ImportPipeline}, 0 for no pipeline */
+	private int pipelineThreads;
+
+	/** the capacity of the pipeline in batches */
+	private int pipelineCapacity;
+
+
+	/** the symbol table of the creator of the current import */
+	private SymbolTable symbols;
+
+	/** the (interned) ID of this controller */
+	private String controllerID;
+
+	/** the index of the file for the numeric PSM IDs of the current import */
+	private int fileIndex;
+
+	/** the index of the file set by {@link #setFileIndex(int)}, negative if not set */
+	private int assignedFileIndex;
+
+	/** the accessions of the PSM scores by their index in the metadata */
+	private Map<Integer, String> scoreAccessions;
+
+	/** the names of the modifications by their accessions */
+	private Map<String, String> modificationNames;
+
+	/** the column of the sequence, -1 before the header is read */
+	private int sequenceColumn;
+
+	/** the column of the PSM_ID */
+	private int psmIDColumn;
+
+	/** the column of the protein accession */
+	private int accessionColumn;
+
+	/** the column of the modifications, -1 if not given */
+	private int modificationsColumn;
+
+	/** the column of the retention time, -1 if not given */
+	private int retentionTimeColumn;
+
+	/** the column of the charge, -1 if not given */
+	private int chargeColumn;
+
+	/** the column of the experimental m/z, -1 if not given */
+	private int expMassToChargeColumn;
+
+	/** the column of the calculated m/z, -1 if not given */
+	private int calcMassToChargeColumn;
+
+	/** the column of the spectra reference, -1 if not given */
+	private int spectraRefColumn;
+
+	/** the column of the decoy flag, -1 if not given */
+	private int decoyColumn;
+
+	/** the columns of the scores with a known accession */
+	private int[] scoreColumns;
+
+	/** the accessions of the score columns */
+	private String[] scoreColumnAccessions;
+
+	/** the shared instances of the score accession arrays, by the bit mask of the given score columns */
+	private Map<Integer, String[]> scoreAccessionArrays;
+
+	/** the shared modification lists, by the sequence and the modifications column */
+	private ConcurrentMap<String, List<Modification>> modificationLists;
+
+	/** the buffer of the scores of the current PSM */
+	private double[] scoreValues;
+
+	/** the proteins (by their symbol handles), which were added to the creator in the current import */
+	private BitSet addedProteins;
+
+	/** the number of read PSM rows in the current import */
+	private long nrPSMRows;
+
+	/** the number of read PSMs in the current import */
+	private int nrPSMs;
+
+	/** the number of PSMs passing the filters in the current import */
+	private int nrImportedPSMs;
+
+	/** the ordinals of the PSM_IDs, which are no integers, as the rows of a
+	 * PSM need not be consecutive */
+	private Map<String, Integer> nonIntegerOrdinals;
+
+
+	/**
+	 * Creates an import controller for the given mzTab file.
+	 *
+	 * @param inputFile
+	 * @param structCreator
+	 */
+	public MzTabImportController(File inputFile, IntermediateStructureCreator structCreator) {
+		this.inputFile = inputFile;
+		this.intermediateStructCreator = structCreator;
+		this.pipelineThreads = 0;
+		this.pipelineCapacity = ImportPipeline.DEFAULT_CAPACITY;
+		this.assignedFileIndex = -1;
+	}
+
+
+	/**
+	 * Checks, whether the given file is an mzTab file, i.e. its first line,
+	 * which is no comment, is a metadata line.
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static boolean isValidFormat(File file) {
+		TabLineSplitter splitter = null;
+		try {
+			splitter = new TabLineSplitter(openFile(file, null));
+			while (splitter.nextLine()) {
+				splitter.split();
+				if (!splitter.lineStartsWith("COM") && !splitter.isNull(0)) {
+					return splitter.lineStartsWith(METADATA_PREFIX);
+				}
+			}
+		} catch (IOException e) {
+			logger.debug("could not read " + file.getAbsolutePath(), e);
+		} finally {
+			close(splitter);
+		}
+		return false;
+	}
+
+
+	/**
+	 * Sets the number of threads, which create and filter the PSMs in an
+	 * {@link ImportPipeline}, while the file is read and the PSMs are added
+	 * to the creator on threads of their own. With 0 threads, all is done on
+	 * the calling thread.
+	 *
+	 * @param pipelineThreads
+	 */
+	public void setPipelineThreads(int pipelineThreads) {
+		this.pipelineThreads = Math.max(0, pipelineThreads);
+	}
+
+
+	public int getPipelineThreads() {
+		return pipelineThreads;
+	}
+
+
+	/**
+	 * Sets the maximal number of batches of PSMs in the pipeline, which
+	 * bounds its memory.
+	 *
+	 * @param pipelineCapacity
+	 */
+	public void setPipelineCapacity(int pipelineCapacity) {
+		this.pipelineCapacity = Math.max(1, pipelineCapacity);
+	}
+
+
+	public int getPipelineCapacity() {
+		return pipelineCapacity;
+	}
+
+
+	@Override
+	public String getID() {
+		return inputFile.getAbsolutePath();
+	}
+
+
+	@Override
+	public String getInputFileName() {
+		return inputFile.getAbsolutePath();
+	}
+
+
+	@Override
+	public void addSpectrumIdentificationsToStructCreator(List<AbstractFilter> filters) {
+		addSpectrumIdentificationsToStructCreator(filters, null);
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * All scores of the PSMs are stored anyway, so no extra caching is needed
+	 * and the cacheScoreAccession is ignored.
+	 */
+	@Override
+	public void addSpectrumIdentificationsToStructCreator(List<AbstractFilter> filters, String cacheScoreAccession) {
+		addSpectrumIdentificationsToStructCreator(intermediateStructCreator, filters, cacheScoreAccession);
+	}
+
+
+	@Override
+	public void addSpectrumIdentificationsToStructCreator(IntermediateStructureCreator structCreator,
+			List<AbstractFilter> filters, String cacheScoreAccession) {
+		logger.info("start streaming the PSMs from " + inputFile.getAbsolutePath());
+		long start = System.currentTimeMillis();
+
+		initializeImport(structCreator.getSymbolTable());
+		filterStage = new ImportFilterStage(filters);
+		ImportPipeline<PSMRows, PSMRows> pipeline = (pipelineThreads > 0) ?
+				createPipeline(structCreator, filters) : null;
+
+		TabLineSplitter splitter = null;
+		try {
+			if (progressTracker != null) {
+				progressTracker.addTotalBytes(inputFile.length());
+			}
+			splitter = new TabLineSplitter(openFile(inputFile, progressTracker));
+
+			// the rows of the current PSM are collected, until its PSM_ID changes
+			PSMRows psmRows = null;
+			long reportedRows = 0;
+			while (splitter.nextLine()) {
+				if (splitter.lineStartsWith(PSM_PREFIX)) {
+					if (sequenceColumn < 0) {
+						logger.error("PSM line " + splitter.getLineNumber() + " precedes the PSM header in "
+								+ inputFile.getAbsolutePath());
+						break;
+					}
+
+					splitter.split();
+					nrPSMRows++;
+					if ((psmRows != null) && splitter.fieldEquals(psmIDColumn, psmRows.psmID)) {
+						psmRows.addProteinRow(splitter);
+					} else {
+						if (psmRows != null) {
+							addPSM(psmRows, structCreator, pipeline);
+						}
+						psmRows = new PSMRows(splitter);
+					}
+
+					if ((progressTracker != null) && (nrPSMRows - reportedRows == PROGRESS_ROWS)) {
+						progressTracker.advance(PROGRESS_ROWS);
+						reportedRows = nrPSMRows;
+					}
+				} else if (splitter.lineStartsWith(METADATA_PREFIX)) {
+					readMetadata(splitter);
+				} else if (splitter.lineStartsWith(PSM_HEADER_PREFIX)) {
+					if (!readPSMHeader(splitter)) {
+						break;
+					}
+				}
+			}
+
+			if (psmRows != null) {
+				addPSM(psmRows, structCreator, pipeline);
+			}
+			if (progressTracker != null) {
+				progressTracker.advance(nrPSMRows - reportedRows);
+			}
+		} catch (IOException e) {
+			logger.error("could not read " + inputFile.getAbsolutePath(), e);
+		} catch (NumberFormatException e) {
+			logger.error("invalid number in line " + splitter.getLineNumber() + " of "
+					+ inputFile.getAbsolutePath(), e);
+		} finally {
+			close(splitter);
+			try {
+				if (pipeline != null) {
+					// waits for the PSMs still in the pipeline
+					pipeline.finish();
+					filterStage = pipeline.getFilterStage();
+				}
+			} finally {
+				logger.info(nrImportedPSMs + " of " + nrPSMs + " PSMs (" + nrPSMRows + " rows) imported from "
+						+ inputFile.getAbsolutePath() + " in " + (System.currentTimeMillis() - start) + " ms");
+				releaseImport();
+			}
+		}
+	}
+
+
+	@Override
+	public ImportFilterStage getImportFilterStage() {
+		return filterStage;
+	}
+
+
+	@Override
+	public void setFileIndex(int fileIndex) {
+		this.assignedFileIndex = fileIndex;
+	}
+
+
+	@Override
+	public void setProgressTracker(ProgressTracker tracker) {
+		this.progressTracker = tracker;
+	}
+
+
+	@Override
+	public void close() {
+		// the file is closed after each import
+	}
+
+
+	private void initializeImport(SymbolTable symbolTable) {
+		symbols = symbolTable;
+		controllerID = symbols.intern(getID());
+		fileIndex = (assignedFileIndex >= 0) ? assignedFileIndex : symbols.getHandle(controllerID);
+		scoreAccessions = new HashMap<Integer, String>();
+		modificationNames = new HashMap<String, String>();
+		sequenceColumn = -1;
+		scoreAccessionArrays = new HashMap<Integer, String[]>();
+		modificationLists = new ConcurrentHashMap<String, List<Modification>>();
+		scoreValues = new double[Integer.SIZE];
+
+		addedProteins = new BitSet();
+		nrPSMRows = 0;
+		nrPSMs = 0;
+		nrImportedPSMs = 0;
+		nonIntegerOrdinals = new HashMap<String, Integer>();
+	}
+
+
+	private void releaseImport() {
+		symbols = null;
+		controllerID = null;
+		scoreAccessions = null;
+		modificationNames = null;
+		scoreColumns = null;
+		scoreColumnAccessions = null;
+		scoreAccessionArrays = null;
+		modificationLists = null;
+		scoreValues = null;
+		addedProteins = null;
+		nonIntegerOrdinals = null;
+	}
+
+
+	/**
+	 * Reads the scores and modifications from the metadata line.
+	 */
+	private void readMetadata(TabLineSplitter splitter) {
+		splitter.split();
+		String key = splitter.getString(1);
+
+		Matcher matcher = SCORE_METADATA_PATTERN.matcher(key);
+		if (matcher.matches()) {
+			String[] param = parseParam(splitter.getString(2));
+			if (param != null) {
+				scoreAccessions.put(Integer.parseInt(matcher.group(1)), symbols.intern(param[1]));
+			}
+		} else if (MODIFICATION_METADATA_PATTERN.matcher(key).matches()) {
+			String[] param = parseParam(splitter.getString(2));
+			if ((param != null) && (param[2].length() > 0)) {
+				modificationNames.put(param[1], param[2]);
+			}
+		}
+	}
+
+
+	/**
+	 * Reads the columns from the PSM header.
+	 *
+	 * @return false, if a required column is missing
+	 */
+	private boolean readPSMHeader(TabLineSplitter splitter) {
+		int nrColumns = splitter.split();
+
+		Map<String, Integer> columns = new HashMap<String, Integer>(2 * nrColumns);
+		List<Integer> scoreColumnList = new ArrayList<Integer>();
+		List<String> scoreAccessionList = new ArrayList<String>();
+		for (int column = 1; column < nrColumns; column++) {
+			String name = splitter.getString(column);
+			columns.put(name, column);
+
+			Matcher matcher = SCORE_COLUMN_PATTERN.matcher(name);
+			if (matcher.matches()) {
+				String accession = scoreAccessions.get(Integer.parseInt(matcher.group(1)));
+				if (accession == null) {
+					logger.warn("no psm_search_engine_score in the metadata for " + name + ", it is skipped");
+				} else if (scoreColumnList.size() == Integer.SIZE - 1) {
+					logger.warn("too many score columns, " + name + " is skipped");
+				} else {
+					scoreColumnList.add(column);
+					scoreAccessionList.add(accession);
+				}
+			}
+		}
+
+		if (!columns.containsKey("sequence") || !columns.containsKey("PSM_ID")
+				|| !columns.containsKey("accession")) {
+			logger.error("the PSM header of " + inputFile.getAbsolutePath()
+					+ " misses the sequence, PSM_ID or accession column");
+			return false;
+		}
+
+		sequenceColumn = columns.get("sequence");
+		psmIDColumn = columns.get("PSM_ID");
+		accessionColumn = columns.get("accession");
+		modificationsColumn = getColumn(columns, "modifications");
+		retentionTimeColumn = getColumn(columns, "retention_time");
+		chargeColumn = getColumn(columns, "charge");
+		expMassToChargeColumn = getColumn(columns, "exp_mass_to_charge");
+		calcMassToChargeColumn = getColumn(columns, "calc_mass_to_charge");
+		spectraRefColumn = getColumn(columns, "spectra_ref");
+		decoyColumn = getColumn(columns, DECOY_COLUMN);
+
+		scoreColumns = new int[scoreColumnList.size()];
+		for (int i = 0; i < scoreColumns.length; i++) {
+			scoreColumns[i] = scoreColumnList.get(i);
+		}
+		scoreColumnAccessions = scoreAccessionList.toArray(new String[scoreAccessionList.size()]);
+		return true;
+	}
+
+
+	private static int getColumn(Map<String, Integer> columns, String name) {
+		Integer column = columns.get(name);
+		return (column != null) ? column : -1;
+	}
+
+
+	/**
+	 * Creates the pipeline of the import, which converts the PSM rows by
+	 * {@link #createPSM(PSMRows, ImportFilterStage)} and writes them by
+	 * {@link #addPSMToStructCreator(PSMRows, IntermediateStructureCreator)}.
+	 */
+	private ImportPipeline<PSMRows, PSMRows> createPipeline(final IntermediateStructureCreator structCreator,
+			List<AbstractFilter> filters) {
+		return new ImportPipeline<PSMRows, PSMRows>(inputFile.getName(), pipelineThreads, pipelineCapacity,
+				filters,
+				new ImportPipeline.RecordConverter<PSMRows, PSMRows>() {
+					@Override
+					public PSMRows convert(PSMRows psmRows, ImportFilterStage stage) {
+						return createPSM(psmRows, stage) ? psmRows : null;
+					}
+				},
+				new ImportPipeline.RecordWriter<PSMRows>() {
+					@Override
+					public void write(PSMRows psmRows) {
+						addPSMToStructCreator(psmRows, structCreator);
+					}
+				});
+	}
+
+
+	/**
+	 * Passes the rows of a read PSM on to the pipeline or, without pipeline,
+	 * creates the PSM and adds it to the creator directly.
+	 */
+	private void addPSM(PSMRows psmRows, IntermediateStructureCreator structCreator,
+			ImportPipeline<PSMRows, PSMRows> pipeline) {
+		nrPSMs++;
+		if (pipeline != null) {
+			pipeline.put(psmRows);
+		} else if (createPSM(psmRows, filterStage)) {
+			addPSMToStructCreator(psmRows, structCreator);
+		}
+	}
+
+
+	/**
+	 * Creates the PSM of the collected rows, if they pass the filters on raw
+	 * values, and checks it against the other filters. This may be called
+	 * concurrently for different PSMs.
+	 *
+	 * @return whether the created PSM passes the filters
+	 */
+	private boolean createPSM(PSMRows psmRows, ImportFilterStage stage) {
+		if (!stage.isEmpty() && !stage.satisfiesRawFilters(psmRows)) {
+			return false;
+		}
+
+		Double deltaMass = ((psmRows.expMassToCharge != null) && (psmRows.calcMassToCharge != null)) ?
+				psmRows.expMassToCharge - psmRows.calcMassToCharge : null;
+
+		StoredPeptideSpectrumMatch psm = new StoredPeptideSpectrumMatch(controllerID + ":" + psmRows.psmID,
+				controllerID, psmRows.spectraRef, psmRows.expMassToCharge, deltaMass, psmRows.retentionTime,
+				psmRows.charge, null, psmRows.sequence, psmRows.scoreAccessions, psmRows.scores,
+				getModifications(psmRows.sequence, psmRows.modifications),
+				Collections.<AbstractParam>emptyList());
+		psm.setNumericID(IntermediatePeptideSpectrumMatch.computeNumericID(fileIndex, psmRows.ordinal));
+
+		if (!stage.isEmpty() && !stage.satisfiesPSMFilters(psm)) {
+			return false;
+		}
+		psmRows.psm = psm;
+		return true;
+	}
+
+
+	/**
+	 * Adds the created PSM of the rows to the creator, together with its
+	 * peptide, proteins and the connections.
+	 */
+	private void addPSMToStructCreator(PSMRows psmRows, IntermediateStructureCreator structCreator) {
+		nrImportedPSMs++;
+
+		Comparable pepID = IntermediatePeptide.computeID(psmRows.sequence);
+		IntermediatePeptide peptide = structCreator.getPeptide(pepID);
+		if (peptide == null) {
+			peptide = new IntermediatePeptide(psmRows.sequence);
+			structCreator.addPeptide(peptide);
+		}
+		peptide.addPeptideSpectrumMatch(psmRows.psm);
+
+		for (int i = 0; i < psmRows.accessions.size(); i++) {
+			String accession = psmRows.accessions.get(i);
+			int handle = symbols.getHandle(accession);
+
+			if (!addedProteins.get(handle)) {
+				// add the protein or its information only once per import
+				StoredProtein protein = new StoredProtein(accession, null);
+				if (psmRows.decoyRows.get(i)) {
+					protein.setIsDecoy(true);
+				}
+
+				if (!structCreator.proteinsContains(accession)) {
+					structCreator.addProtein(protein);
+				} else {
+					structCreator.addProteinInformation(accession, protein);
+				}
+				addedProteins.set(handle);
+			}
+
+			structCreator.addPeptideToProteinConnection(pepID, accession);
+		}
+	}
+
+
+	/**
+	 * Returns the shared instance of the score accessions of the score columns
+	 * in the given bit mask.
+	 */
+	private String[] getScoreAccessionArray(int columnMask) {
+		String[] array = scoreAccessionArrays.get(columnMask);
+		if (array == null) {
+			array = new String[Integer.bitCount(columnMask)];
+			int idx = 0;
+			for (int i = 0; i < scoreColumnAccessions.length; i++) {
+				if ((columnMask & (1 << i)) != 0) {
+					array[idx++] = scoreColumnAccessions[i];
+				}
+			}
+			scoreAccessionArrays.put(columnMask, array);
+		}
+		return array;
+	}
+
+
+	/**
+	 * Returns the shared list of the modifications given in the mzTab format
+	 * for the sequence. This may be called concurrently.
+	 */
+	private List<Modification> getModifications(String sequence, String modificationsValue) {
+		if (modificationsValue == null) {
+			return Collections.emptyList();
+		}
+
+		String key = sequence + '\t' + modificationsValue;
+		List<Modification> modifications = modificationLists.get(key);
+		if (modifications == null) {
+			modifications = Collections.unmodifiableList(parseModifications(sequence, modificationsValue));
+			List<Modification> known = modificationLists.putIfAbsent(key, modifications);
+			if (known != null) {
+				modifications = known;
+			}
+		}
+		return modifications;
+	}
+
+
+	/**
+	 * Parses the modifications given in the mzTab format, like
+	 * "3-UNIMOD:4,5|6-MOD:00412,8-CHEMMOD:+15.995". Of ambiguous positions
+	 * the first one is taken, the position parameters and neutral losses are
+	 * skipped.
+	 */
+	private List<Modification> parseModifications(String sequence, String modificationsValue) {
+		List<Modification> modifications = new ArrayList<Modification>(2);
+
+		for (String value : splitOutsideBrackets(modificationsValue, ',')) {
+			value = value.trim();
+			if ((value.length() == 0) || (value.charAt(0) == '[')) {
+				// a neutral loss without modification
+				continue;
+			}
+
+			// the positions consist of digits, "|" and parameters in brackets
+			int idx = 0;
+			while ((idx < value.length())
+					&& (Character.isDigit(value.charAt(idx)) || (value.charAt(idx) == '|')
+							|| (value.charAt(idx) == '['))) {
+				if (value.charAt(idx) == '[') {
+					idx = value.indexOf(']', idx);
+					if (idx < 0) {
+						idx = value.length() - 1;
+					}
+				}
+				idx++;
+			}
+
+			Modification modification = new Modification();
+			String accession = value;
+			if ((idx > 0) && (idx < value.length()) && (value.charAt(idx) == '-')) {
+				accession = value.substring(idx + 1);
+
+				int digits = 0;
+				while (Character.isDigit(value.charAt(digits))) {
+					digits++;
+				}
+				if (digits > 0) {
+					int location = Integer.parseInt(value.substring(0, digits));
+					modification.setLocation(location);
+					if ((location > 0) && (location <= sequence.length())) {
+						modification.getResidues().add(String.valueOf(sequence.charAt(location - 1)));
+					}
+				}
+			}
+			accession = splitOutsideBrackets(accession, '|').get(0).trim();
+
+			if (accession.startsWith(CHEMMOD_PREFIX)) {
+				try {
+					modification.setMonoisotopicMassDelta(
+							Double.parseDouble(accession.substring(CHEMMOD_PREFIX.length())));
+				} catch (NumberFormatException e) {
+					logger.warn("could not parse the mass of " + accession);
+				}
+			} else {
+				CvParam param = new CvParam();
+				param.setAccession(symbols.intern(accession));
+				param.setName(modificationNames.get(accession));
+				if (accession.startsWith("UNIMOD:")) {
+					param.setCv(CVUtilities.CVs.unimodCV);
+				}
+				modification.getCvParam().add(param);
+			}
+
+			modifications.add(modification);
+		}
+
+		return modifications;
+	}
+
+
+	/**
+	 * Splits the value at the separators, which are not in brackets.
+	 */
+	private static List<String> splitOutsideBrackets(String value, char separator) {
+		List<String> parts = new ArrayList<String>(2);
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '[') {
+				depth++;
+			} else if ((c == ']') && (depth > 0)) {
+				depth--;
+			} else if ((c == separator) && (depth == 0)) {
+				parts.add(value.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(value.substring(start));
+		return parts;
+	}
+
+
+	/**
+	 * Parses a parameter in the mzTab format, like
+	 * "[MS, MS:1001330, X!Tandem:expect, ]".
+	 *
+	 * @return the CV label, accession, name and value or null, if the
+	 * parameter has no accession
+	 */
+	private static String[] parseParam(String param) {
+		param = param.trim();
+		if (param.startsWith("[") && param.endsWith("]")) {
+			param = param.substring(1, param.length() - 1);
+		}
+
+		String[] values = param.split(",", 4);
+		if ((values.length < 2) || (values[1].trim().length() == 0)) {
+			return null;
+		}
+
+		String[] parsed = new String[] {"", "", "", ""};
+		for (int i = 0; i < values.length; i++) {
+			parsed[i] = values[i].trim();
+		}
+		return parsed;
+	}
+
+
+	/**
+	 * Opens the file as UTF-8, which is the encoding of mzTab.
+	 *
+	 * @param file
+	 * @param tracker the tracker of the read bytes, may be null
+	 * @return
+	 * @throws IOException
+	 */
+	private static InputStreamReader openFile(File file, ProgressTracker tracker) throws IOException {
+		InputStream fileIn = new FileInputStream(file);
+		if (tracker != null) {
+			fileIn = new ProgressInputStream(fileIn, tracker);
+		}
+		return new InputStreamReader(new BufferedInputStream(fileIn, 1 << 16), UTF8);
+	}
+
+
+	private static void close(TabLineSplitter splitter) {
+		try {
+			if (splitter != null) {
+				splitter.close();
+			}
+		} catch (IOException e) {
+			logger.warn("could not close the input stream", e);
+		}
+	}
+
+
+	/**
+	 * The values of the rows of a PSM, one row for each protein. These are
+	 * also the raw values for the import filters.
+	 */
+	private class PSMRows implements ImportFilterStage.PSMValues {
+		String psmID;
+		int ordinal;
+		String sequence;
+		String modifications;
+		Integer charge;
+		Double expMassToCharge;
+		Double calcMassToCharge;
+		Double retentionTime;
+		String spectraRef;
+		String[] scoreAccessions;
+		double[] scores;
+		List<String> accessions = new ArrayList<String>(1);
+		BitSet decoyRows = new BitSet();
+		StoredPeptideSpectrumMatch psm;
+
+
+		/**
+		 * Starts a new PSM with the values of the current row.
+		 */
+		PSMRows(TabLineSplitter splitter) {
+			psmID = splitter.getString(psmIDColumn);
+			ordinal = splitter.getNonNegativeInt(psmIDColumn);
+			if (ordinal < 0) {
+				// the non-integer IDs get negative ordinals, which do not clash with the integer IDs
+				Integer nonIntegerOrdinal = nonIntegerOrdinals.get(psmID);
+				if (nonIntegerOrdinal == null) {
+					nonIntegerOrdinal = -1 - nonIntegerOrdinals.size();
+					nonIntegerOrdinals.put(psmID, nonIntegerOrdinal);
+				}
+				ordinal = nonIntegerOrdinal;
+			}
+
+			sequence = symbols.intern(splitter.getString(sequenceColumn));
+			// "0" marks a PSM without modifications
+			modifications = ((modificationsColumn < 0) || splitter.isNull(modificationsColumn)
+					|| splitter.fieldEquals(modificationsColumn, "0")) ?
+					null : splitter.getString(modificationsColumn);
+			charge = ((chargeColumn < 0) || splitter.isNull(chargeColumn)) ?
+					null : splitter.getInt(chargeColumn);
+			expMassToCharge = getDouble(splitter, expMassToChargeColumn);
+			calcMassToCharge = getDouble(splitter, calcMassToChargeColumn);
+			retentionTime = getDouble(splitter, retentionTimeColumn);
+			spectraRef = ((spectraRefColumn < 0) || splitter.isNull(spectraRefColumn)) ?
+					null : splitter.getString(spectraRefColumn);
+
+			int columnMask = 0;
+			int nrScores = 0;
+			for (int i = 0; i < scoreColumns.length; i++) {
+				if (!splitter.isNull(scoreColumns[i])) {
+					scoreValues[nrScores++] = splitter.getDouble(scoreColumns[i]);
+					columnMask |= 1 << i;
+				}
+			}
+			scoreAccessions = getScoreAccessionArray(columnMask);
+			scores = Arrays.copyOf(scoreValues, nrScores);
+
+			addProteinRow(splitter);
+		}
+
+
+		/**
+		 * Adds the protein of the current row.
+		 */
+		void addProteinRow(TabLineSplitter splitter) {
+			if (decoyColumn >= 0) {
+				decoyRows.set(accessions.size(), splitter.fieldEquals(decoyColumn, "1"));
+			}
+			accessions.add(symbols.intern(splitter.getString(accessionColumn)));
+		}
+
+
+		private Double getDouble(TabLineSplitter splitter, int column) {
+			return ((column < 0) || splitter.isNull(column)) ? null : splitter.getDouble(column);
+		}
+
+
+		@Override
+		public Double getScore(String scoreAccession) {
+			for (int i = 0; i < scoreAccessions.length; i++) {
+				if (scoreAccessions[i].equals(scoreAccession)) {
+					return scores[i];
+				}
+			}
+			return null;
+		}
+
+
+		@Override
+		public Integer getCharge() {
+			return charge;
+		}
+
+
+		@Override
+		public Boolean getIsDecoy() {
+			return decoyRows.cardinality() == accessions.size();
+		}
+
+
+		@Override
+		public List<String> getAccessions() {
+			return accessions;
+		}
+	}
+}
@@ -0,0 +1,385 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.mztabimpl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+
+/**
+ * Reads the lines of a tab separated file into a reused buffer and splits
+ * them into fields without copying. The fields are only given by their
+ * offsets in the buffer, strings are created on request and numbers are
+ * parsed directly from the buffer.
+ * <p>
+ * The current line is only valid until the next call of {@link #nextLine()}.
+ * Fields beyond the end of a line are treated as empty.
+ *
+ * @author julian
+ *
+ */
+final class TabLineSplitter implements Closeable {
+
+	/** the read characters */
+	private final Reader in;
+
+	/** the buffer of the current line and the characters read ahead */
+	private char[] buffer;
+
+	/** the end of the read characters in the buffer */
+	private int dataEnd;
+
+	/** the start of the next line in the buffer */
+	private int nextStart;
+
+	/** whether the end of the input is reached */
+	private boolean endOfInput;
+
+	/** the start of the current line */
+	private int lineStart;
+
+	/** the end of the current line, without the line break */
+	private int lineEnd;
+
+	/** the number of the current line, starting at 1 */
+	private long lineNumber;
+
+	/** the starts of the fields, the start of the field after the last one is the line's end + 1 */
+	private int[] fieldStarts;
+
+	/** the number of fields of the current line, -1 if it is not split */
+	private int nrFields;
+
+
+	/** the initial size of the buffer, it grows for longer lines */
+	private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+	/** the largest mantissa, which is exactly representable as a double */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/** the powers of ten, which are exactly representable as a double */
+	private static final double[] POWERS_OF_TEN = new double[] {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+
+	TabLineSplitter(Reader in) {
+		this.in = in;
+		this.buffer = new char[INITIAL_BUFFER_SIZE];
+		this.dataEnd = 0;
+		this.nextStart = 0;
+		this.endOfInput = false;
+		this.lineNumber = 0;
+		this.fieldStarts = new int[64];
+		this.nrFields = -1;
+	}
+
+
+	/**
+	 * Moves to the next line.
+	 *
+	 * @return false, if the end of the input is reached
+	 * @throws IOException
+	 */
+	boolean nextLine() throws IOException {
+		nrFields = -1;
+
+		int scan = nextStart;
+		while (true) {
+			for (; scan < dataEnd; scan++) {
+				if (buffer[scan] == '\n') {
+					setLine(nextStart, scan);
+					nextStart = scan + 1;
+					return true;
+				}
+			}
+
+			if (endOfInput) {
+				if (nextStart < dataEnd) {
+					// the last line has no line break
+					setLine(nextStart, dataEnd);
+					nextStart = dataEnd;
+					return true;
+				}
+				return false;
+			}
+
+			// move the incomplete line to the start and read further
+			if (nextStart > 0) {
+				System.arraycopy(buffer, nextStart, buffer, 0, dataEnd - nextStart);
+				dataEnd -= nextStart;
+				scan -= nextStart;
+				nextStart = 0;
+			}
+			if (dataEnd == buffer.length) {
+				buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+			}
+
+			int nrRead = in.read(buffer, dataEnd, buffer.length - dataEnd);
+			if (nrRead < 0) {
+				endOfInput = true;
+			} else {
+				dataEnd += nrRead;
+			}
+		}
+	}
+
+
+	private void setLine(int start, int end) {
+		lineStart = start;
+		lineEnd = ((end > start) && (buffer[end - 1] == '\r')) ? end - 1 : end;
+		lineNumber++;
+	}
+
+
+	/**
+	 * Returns the number of the current line, starting at 1.
+	 *
+	 * @return
+	 */
+	long getLineNumber() {
+		return lineNumber;
+	}
+
+
+	/**
+	 * Returns whether the current line starts with the given prefix. This
+	 * does not need the line to be split.
+	 *
+	 * @param prefix
+	 * @return
+	 */
+	boolean lineStartsWith(String prefix) {
+		if (lineEnd - lineStart < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (buffer[lineStart + i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Splits the current line at the tabs.
+	 *
+	 * @return the number of fields
+	 */
+	int split() {
+		fieldStarts[0] = lineStart;
+		nrFields = 1;
+		for (int i = lineStart; i < lineEnd; i++) {
+			if (buffer[i] == '\t') {
+				if (nrFields + 1 >= fieldStarts.length) {
+					fieldStarts = Arrays.copyOf(fieldStarts, 2 * fieldStarts.length);
+				}
+				fieldStarts[nrFields++] = i + 1;
+			}
+		}
+		fieldStarts[nrFields] = lineEnd + 1;
+		return nrFields;
+	}
+
+
+	private int fieldStart(int field) {
+		return (field < nrFields) ? fieldStarts[field] : lineEnd;
+	}
+
+
+	private int fieldEnd(int field) {
+		return (field < nrFields) ? fieldStarts[field + 1] - 1 : lineEnd;
+	}
+
+
+	/**
+	 * Returns whether the field equals the given string.
+	 *
+	 * @param field
+	 * @param str
+	 * @return
+	 */
+	boolean fieldEquals(int field, String str) {
+		int start = fieldStart(field);
+		if (fieldEnd(field) - start != str.length()) {
+			return false;
+		}
+		for (int i = 0; i < str.length(); i++) {
+			if (buffer[start + i] != str.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns whether the field is empty or "null".
+	 *
+	 * @param field
+	 * @return
+	 */
+	boolean isNull(int field) {
+		return (fieldStart(field) == fieldEnd(field)) || fieldEquals(field, "null");
+	}
+
+
+	/**
+	 * Returns the field as a new string.
+	 *
+	 * @param field
+	 * @return
+	 */
+	String getString(int field) {
+		int start = fieldStart(field);
+		return new String(buffer, start, fieldEnd(field) - start);
+	}
+
+
+	/**
+	 * Returns the field as a non-negative int, or -1 if it is no plain
+	 * non-negative int.
+	 *
+	 * @param field
+	 * @return
+	 */
+	int getNonNegativeInt(int field) {
+		int start = fieldStart(field);
+		int end = fieldEnd(field);
+		if ((start == end) || (end - start > 10)) {
+			return -1;
+		}
+
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			char c = buffer[i];
+			if ((c < '0') || (c > '9')) {
+				return -1;
+			}
+			value = 10 * value + (c - '0');
+		}
+		return (value <= Integer.MAX_VALUE) ? (int) value : -1;
+	}
+
+
+	/**
+	 * Parses the field as an int. Of several values separated by "|", the
+	 * first one is parsed.
+	 *
+	 * @param field
+	 * @return
+	 * @throws NumberFormatException if the field is no int
+	 */
+	int getInt(int field) {
+		int start = fieldStart(field);
+		int end = valueEnd(start, fieldEnd(field));
+
+		int i = start;
+		boolean negative = false;
+		if ((i < end) && ((buffer[i] == '-') || (buffer[i] == '+'))) {
+			negative = (buffer[i] == '-');
+			i++;
+		}
+		if ((i == end) || (end - i > 9)) {
+			return Integer.parseInt(new String(buffer, start, end - start).trim());
+		}
+
+		int value = 0;
+		for (; i < end; i++) {
+			char c = buffer[i];
+			if ((c < '0') || (c > '9')) {
+				return Integer.parseInt(new String(buffer, start, end - start).trim());
+			}
+			value = 10 * value + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+
+	/**
+	 * Parses the field as a double. Of several values separated by "|", the
+	 * first one is parsed. Plain decimal numbers are parsed directly from the
+	 * buffer with the same result as {@link Double#parseDouble(String)},
+	 * only exponents, long mantissas and the special values need a string.
+	 *
+	 * @param field
+	 * @return
+	 * @throws NumberFormatException if the field is no number
+	 */
+	double getDouble(int field) {
+		int start = fieldStart(field);
+		int end = valueEnd(start, fieldEnd(field));
+
+		int i = start;
+		boolean negative = false;
+		if ((i < end) && ((buffer[i] == '-') || (buffer[i] == '+'))) {
+			negative = (buffer[i] == '-');
+			i++;
+		}
+
+		long mantissa = 0;
+		int nrDigits = 0;
+		int fractionDigits = 0;
+		boolean inFraction = false;
+		for (; i < end; i++) {
+			char c = buffer[i];
+			if ((c >= '0') && (c <= '9')) {
+				mantissa = 10 * mantissa + (c - '0');
+				if (mantissa > MAX_EXACT_MANTISSA) {
+					return parseDoubleString(start, end);
+				}
+				nrDigits++;
+				if (inFraction) {
+					fractionDigits++;
+				}
+			} else if ((c == '.') && !inFraction) {
+				inFraction = true;
+			} else {
+				return parseDoubleString(start, end);
+			}
+		}
+		if ((nrDigits == 0) || (fractionDigits >= POWERS_OF_TEN.length)) {
+			return parseDoubleString(start, end);
+		}
+
+		// both values are exact, so the division is correctly rounded
+		double value = mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+
+
+	/**
+	 * Parses the given range by {@link Double#parseDouble(String)}, also
+	 * accepting "INF" and "-INF" of mzTab.
+	 */
+	private double parseDoubleString(int start, int end) {
+		String value = new String(buffer, start, end - start).trim();
+		if ("INF".equals(value)) {
+			return Double.POSITIVE_INFINITY;
+		} else if ("-INF".equals(value)) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return Double.parseDouble(value);
+	}
+
+
+	/**
+	 * Returns the end of the first of several values separated by "|".
+	 */
+	private int valueEnd(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buffer[i] == '|') {
+				return i;
+			}
+		}
+		return end;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,113 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.prideimpl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.pride.utilities.pia.intermediate.SymbolTable;
+
+
+/**
+ * Interns the values of materialized PSMs, which recur in many PSMs of an
+ * import, i.e. the peptide sequences, the arrays of score accessions and the
+ * lists of modifications. Equal values are returned as the same instances, so
+ * they are held only once in memory. The strings are interned by the
+ * {@link SymbolTable} of the structure creator, so they are shared with the
+ * other imported files.
+ * <p>
+ * This class is thread safe, the chunks of a concurrent import share one
+ * cache.
+ *
+ * @author julian
+ *
+ */
+final class MaterializationCache {
+
+	/** the table interning the strings */
+	private SymbolTable symbols;
+
+	/** the interned score accession arrays, keyed by their joined accessions */
+	private Map<String, String[]> scoreAccessions;
+
+	/** the interned modification lists, keyed by their descriptions */
+	private Map<String, List<Modification>> modifications;
+
+
+	public MaterializationCache(SymbolTable symbols) {
+		this.symbols = symbols;
+		this.scoreAccessions = new HashMap<String, String[]>();
+		this.modifications = new HashMap<String, List<Modification>>();
+	}
+
+
+	/**
+	 * Returns the interned instance of the string.
+	 *
+	 * @param str
+	 * @return
+	 */
+	public String intern(String str) {
+		return symbols.intern(str);
+	}
+
+
+	/**
+	 * Returns the interned instance of the score accessions array.
+	 *
+	 * @param accessions
+	 * @return
+	 */
+	public synchronized String[] intern(String[] accessions) {
+		String key = Arrays.toString(accessions);
+
+		String[] interned = scoreAccessions.get(key);
+		if (interned == null) {
+			interned = new String[accessions.length];
+			for (int i = 0; i < accessions.length; i++) {
+				interned[i] = intern(accessions[i]);
+			}
+			scoreAccessions.put(key, interned);
+		}
+		return interned;
+	}
+
+
+	/**
+	 * Returns the interned, unmodifiable instance of the modifications list.
+	 * Two lists are considered equal, if all their modifications have the
+	 * same locations, mass deltas, residues and cvParams.
+	 *
+	 * @param mods
+	 * @return
+	 */
+	public synchronized List<Modification> intern(List<Modification> mods) {
+		if (mods.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		StringBuilder keySB = new StringBuilder();
+		for (Modification mod : mods) {
+			keySB.append(mod.getLocation()).append('|')
+					.append(mod.getAvgMassDelta()).append('|')
+					.append(mod.getMonoisotopicMassDelta()).append('|')
+					.append(mod.getResidues()).append('|');
+			for (CvParam param : mod.getCvParam()) {
+				keySB.append(param.getAccession()).append('=')
+						.append(param.getValue()).append(',');
+			}
+			keySB.append(';');
+		}
+		String key = keySB.toString();
+
+		List<Modification> interned = modifications.get(key);
+		if (interned == null) {
+			interned = Collections.unmodifiableList(mods);
+			modifications.put(key, interned);
+		}
+		return interned;
+	}
+}
@@ -0,0 +1,93 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.prideimpl;
+
+import java.util.List;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+
+
+/**
+ * Immutable copy of the values of a PRIDE spectrum identification, which are
+ * needed by a {@link PrideIntermediatePeptideSpectrumMatch} after the
+ * {@link uk.ac.ebi.pride.utilities.data.controller.DataAccessController} is
+ * closed.
+ * <p>
+ * The masses are stored as primitives (NaN for not given values), the scores
+ * are held by the PSM itself. The lists of modifications are shared between
+ * the PSMs of one import via the {@link MaterializationCache}, so they must
+ * not be changed.
+ *
+ * @author julian
+ *
+ */
+final class MaterializedSpectrumIdentification {
+
+	/** the spectrum identification's ID */
+	private final Comparable id;
+
+	/** the peptide sequence */
+	private final String sequence;
+
+	/** the charge state */
+	private final int charge;
+
+	/** the experimental m/z */
+	private final double experimentalMassToCharge;
+
+	/** the calculated m/z */
+	private final double calculatedMassToCharge;
+
+	/** the converted modifications (shared between PSMs) */
+	private final List<Modification> modifications;
+
+	/** the converted params */
+	private final List<AbstractParam> params;
+
+
+	public MaterializedSpectrumIdentification(Comparable id, String sequence, int charge,
+			double experimentalMassToCharge, double calculatedMassToCharge,
+			List<Modification> modifications, List<AbstractParam> params) {
+		this.id = id;
+		this.sequence = sequence;
+		this.charge = charge;
+		this.experimentalMassToCharge = experimentalMassToCharge;
+		this.calculatedMassToCharge = calculatedMassToCharge;
+		this.modifications = modifications;
+		this.params = params;
+	}
+
+
+	public Comparable getId() {
+		return id;
+	}
+
+
+	public String getSequence() {
+		return sequence;
+	}
+
+
+	public int getCharge() {
+		return charge;
+	}
+
+
+	public double getExperimentalMassToCharge() {
+		return experimentalMassToCharge;
+	}
+
+
+	public double getCalculatedMassToCharge() {
+		return calculatedMassToCharge;
+	}
+
+
+	public List<Modification> getModifications() {
+		return modifications;
+	}
+
+
+	public List<AbstractParam> getParams() {
+		return params;
+	}
+}
@@ -1,7 +1,11 @@
 package uk.ac.ebi.pride.utilities.pia.intermediate.prideimpl;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,13 +13,18 @@ import org.slf4j.LoggerFactory;
 import uk.ac.ebi.pride.utilities.data.controller.DataAccessController;
 import uk.ac.ebi.pride.utilities.data.controller.impl.ControllerImpl.MzIdentMLControllerImpl;
 import uk.ac.ebi.pride.utilities.data.controller.impl.ControllerImpl.PrideXmlControllerImpl;
+import uk.ac.ebi.pride.utilities.data.core.SpectrumIdentification;
+import uk.ac.ebi.pride.utilities.pia.intermediate.ClusterScheduler;
+import uk.ac.ebi.pride.utilities.pia.intermediate.ClusterScheduler.ClusterProcessor;
 import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
-import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.intermediate.SymbolTable;
 import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
-import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterUtilities;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.ImportFilterStage;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
+import uk.ac.ebi.pride.utilities.term.SearchEngineScoreCvTermReference;
 
 
 public class PrideImportController implements DataImportController {
@@ -35,6 +44,39 @@ public class PrideImportController implements DataImportController {
 	/** the associated intermediateStructureCreator */
 	private IntermediateStructureCreator intermediateStructCreator;
 	
+	/** whether the PSMs and proteins are detached from the controller while importing */
+	private boolean materializePSMs;
+	
+	/** the cache for the recurring values of materialized PSMs */
+	private MaterializationCache materializationCache;
+	
+	/** the filter stage of the last import */
+	private ImportFilterStage filterStage;
+	
+	/** the tracker of the import progress, may be null */
+	private ProgressTracker progressTracker;
+	
+	/** the ordinals of the spectrum identifications for the numeric PSM IDs,
+	 * as they are imported once per protein. The ordinals are released after
+	 * each import of all proteins. */
+	private Map<Comparable, Integer> psmOrdinals;
+	
+	/** the next assigned ordinal */
+	private int nextOrdinal;
+	
+	/** the number of threads importing chunks of the proteins concurrently */
+	private int importThreads;
+	
+	/** the index of the file for the numeric PSM IDs, negative if not set */
+	private int assignedFileIndex;
+	
+	
+	/** the number of chunks per thread for the concurrent import */
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	/** the minimal number of proteins in a chunk of the concurrent import */
+	private static final int MIN_CHUNK_SIZE = 100;
+	
 	
 	/**
 	 * Creates an import controller for the given file type.
@@ -74,6 +116,7 @@ public class PrideImportController implements DataImportController {
 		this.controller = controller;
 		this.inputFileName = controller.getName();
 		this.intermediateStructCreator = structCreator;
+		initializeImport();
 	}
 	
 	
@@ -101,9 +144,30 @@ public class PrideImportController implements DataImportController {
         openedController = true;
         inputFileName = inputFile.getAbsolutePath();
         this.intermediateStructCreator = structCreator;
+        initializeImport();
     }
 	
 	
+	/**
+	 * Initializes the import settings and the PSM ordinals.
+	 */
+	private void initializeImport() {
+		this.importThreads = 1;
+		this.assignedFileIndex = -1;
+		releaseOrdinals();
+	}
+	
+	
+	/**
+	 * Releases the ordinals of the spectrum identifications, the next import
+	 * assigns them anew from 0.
+	 */
+	private void releaseOrdinals() {
+		this.psmOrdinals = new HashMap<Comparable, Integer>();
+		this.nextOrdinal = 0;
+	}
+	
+	
 	@Override
 	public String getID() {
 		return controller.getUid();
@@ -125,8 +189,82 @@ public class PrideImportController implements DataImportController {
 	}
 	
 	
+	/**
+	 * Sets whether the imported PSMs and proteins are materialized, i.e. all
+	 * their values are read once during the import. Materialized PSMs do not
+	 * access the controller anymore, which therefore may be closed after the
+	 * intermediate structure is built.
+	 * 
+	 * @param materializePSMs
+	 */
+	public void setMaterializePSMs(boolean materializePSMs) {
+		this.materializePSMs = materializePSMs;
+	}
+	
+	
+	/**
+	 * Returns whether the imported PSMs and proteins are materialized.
+	 * @return
+	 */
+	public boolean getMaterializePSMs() {
+		return materializePSMs;
+	}
+	
+	
+	/**
+	 * Sets the number of threads, which import chunks of the proteins of
+	 * the controller concurrently. Each chunk is imported into its own
+	 * staging {@link IntermediateStructureCreator} and the chunks are merged
+	 * in the order of the proteins afterwards. The ordinals of the numeric PSM
+	 * IDs are assigned in the order of the proteins before, so the result is
+	 * the same as for the sequential import.
+	 * <p>
+	 * The {@link DataAccessController} is not required to allow concurrent
+	 * reading, so it is read by one thread at a time and only the conversion
+	 * of the read values runs concurrently. Therefore the PSMs and proteins
+	 * of a concurrent import are always materialized. By default, the
+	 * proteins are imported by one thread.
+	 * 
+	 * @param importThreads
+	 */
+	public void setImportThreads(int importThreads) {
+		this.importThreads = Math.max(1, importThreads);
+	}
+	
+	
+	/**
+	 * Returns the number of threads importing chunks of the proteins
+	 * concurrently.
+	 * 
+	 * @return
+	 */
+	public int getImportThreads() {
+		return importThreads;
+	}
+	
+	
+	@Override
+	public ImportFilterStage getImportFilterStage() {
+		return filterStage;
+	}
+	
+	
+	@Override
+	public void setFileIndex(int fileIndex) {
+		this.assignedFileIndex = fileIndex;
+	}
+	
+	
+	@Override
+	public void setProgressTracker(ProgressTracker tracker) {
+		this.progressTracker = tracker;
+	}
+	
+	
 	@Override
 	public void close() {
+		// the ordinals may be left by imports of single proteins
+		releaseOrdinals();
 		if (openedController) {
 			controller.close();
 		}
@@ -141,18 +279,120 @@ public class PrideImportController implements DataImportController {
 	
 	@Override
 	public void addSpectrumIdentificationsToStructCreator(List<AbstractFilter> filters, String cacheScoreAccession) {
+		addSpectrumIdentificationsToStructCreator(intermediateStructCreator, filters, cacheScoreAccession);
+	}
+	
+	
+	@Override
+	public void addSpectrumIdentificationsToStructCreator(IntermediateStructureCreator structCreator,
+			List<AbstractFilter> filters, String cacheScoreAccession) {
 		int nrProteins = controller.getNumberOfProteins();
 		
 		logger.info("start importing data from the controller, " + nrProteins +
 				" proteins to go");
 		
-		int processedProtIDs = 0;
-		for (Comparable proteinId : controller.getProteinIds()) {
-			addProteinsSpectrumIdentificationsToStructCreator(proteinId, filters, cacheScoreAccession);
-
-			processedProtIDs++;
-			if (((processedProtIDs % 1000) == 0) && (processedProtIDs > 1)) {
-				logger.info("processed proteins " + processedProtIDs + " / " + nrProteins);
+		filterStage = new ImportFilterStage(filters);
+		try {
+			if ((importThreads > 1) && (nrProteins >= 2 * MIN_CHUNK_SIZE)) {
+				addChunksToStructCreator(structCreator, filters, cacheScoreAccession);
+				return;
+			}
+			
+			int processedProtIDs = 0;
+			for (Comparable proteinId : controller.getProteinIds()) {
+				addProteinsSpectrumIdentificationsToStructCreator(structCreator, proteinId, filterStage, cacheScoreAccession);
+				
+				processedProtIDs++;
+				if (((processedProtIDs % 1000) == 0) && (processedProtIDs > 1)) {
+					logger.info("processed proteins " + processedProtIDs + " / " + nrProteins);
+				}
+			}
+		} finally {
+			// the ordinals are only needed while the proteins are imported
+			releaseOrdinals();
+		}
+	}
+	
+	
+	/**
+	 * Imports the proteins in chunks concurrently. Each chunk is imported
+	 * into its own staging creator with its own filter stage, the staging
+	 * creators are merged into the given creator in the order of the chunks.
+	 * The ordinals of all spectrum identifications are assigned before the
+	 * chunks are imported, see {@link #assignOrdinals(List)}.
+	 * 
+	 * @param structCreator
+	 * @param filters
+	 * @param cacheScoreAccession
+	 */
+	private void addChunksToStructCreator(final IntermediateStructureCreator structCreator,
+			final List<AbstractFilter> filters, final String cacheScoreAccession) {
+		final List<Comparable> proteinIds = new ArrayList<Comparable>(controller.getProteinIds());
+		int nrChunks = Math.min(importThreads * CHUNKS_PER_THREAD,
+				(proteinIds.size() + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+		
+		final int[] chunkStarts = new int[nrChunks + 1];
+		List<Integer> chunkNrs = new ArrayList<Integer>(nrChunks);
+		long[] costs = new long[nrChunks];
+		for (int chunk = 0; chunk < nrChunks; chunk++) {
+			chunkStarts[chunk + 1] = (int) ((long) proteinIds.size() * (chunk + 1) / nrChunks);
+			chunkNrs.add(chunk);
+			costs[chunk] = chunkStarts[chunk + 1] - chunkStarts[chunk];
+		}
+		
+		logger.info("importing " + proteinIds.size() + " proteins in " + nrChunks
+				+ " chunks using " + importThreads + " threads");
+		long start = System.currentTimeMillis();
+		
+		// the shared values must exist before the threads start
+		assignOrdinals(proteinIds);
+		if (materializationCache == null) {
+			materializationCache = new MaterializationCache(structCreator.getSymbolTable());
+		}
+		final int fileIndex = getFileIndex(structCreator.getSymbolTable());
+		
+		final IntermediateStructureCreator[] stagingCreators = new IntermediateStructureCreator[nrChunks];
+		final ImportFilterStage[] chunkStages = new ImportFilterStage[nrChunks];
+		ClusterScheduler<Integer> scheduler = new ClusterScheduler<Integer>("protein import", importThreads);
+		scheduler.process(chunkNrs, costs, new ClusterProcessor<Integer>() {
+			@Override
+			public void processCluster(Integer chunk) {
+				IntermediateStructureCreator stagingCreator =
+						new IntermediateStructureCreator(1, structCreator.getSymbolTable());
+				stagingCreator.setSequenceStore(structCreator.getSequenceStore());
+				ImportFilterStage chunkStage = new ImportFilterStage(filters);
+				for (Comparable proteinId : proteinIds.subList(chunkStarts[chunk], chunkStarts[chunk + 1])) {
+					addReadProteinToStructCreator(stagingCreator, proteinId, fileIndex,
+							chunkStage, cacheScoreAccession);
+				}
+				stagingCreators[chunk] = stagingCreator;
+				chunkStages[chunk] = chunkStage;
+			}
+		});
+		
+		// merge in the order of the proteins for deterministic results
+		for (int chunk = 0; chunk < nrChunks; chunk++) {
+			structCreator.mergeStagingCreator(stagingCreators[chunk]);
+			filterStage.addCounts(chunkStages[chunk]);
+			stagingCreators[chunk] = null;
+		}
+		
+		logger.info(proteinIds.size() + " proteins imported in " + (System.currentTimeMillis() - start) + " ms");
+	}
+	
+	
+	/**
+	 * Assigns the ordinals of all spectrum identifications in the order of
+	 * the proteins and their peptides, as the sequential import does. The
+	 * chunks only read the ordinals, so the numeric PSM IDs do not depend on
+	 * the order in which the threads import the chunks.
+	 * 
+	 * @param proteinIds
+	 */
+	private void assignOrdinals(List<Comparable> proteinIds) {
+		for (Comparable proteinId : proteinIds) {
+			for (Comparable peptideId : controller.getPeptideIds(proteinId)) {
+				getOrdinal(controller.getPeptideByIndex(proteinId, peptideId).getSpectrumIdentification().getId());
 			}
 		}
 	}
@@ -160,7 +400,8 @@ public class PrideImportController implements DataImportController {
 	
 	/**
 	 * Adds the spectrum identifications of a single protein to the structure
-	 * creator.
+	 * creator. The filter stage afterwards holds the rejections of this
+	 * protein only.
 	 * 
 	 * @param proteinId
 	 * @param structCreator
@@ -168,43 +409,247 @@ public class PrideImportController implements DataImportController {
 	 */
 	public String addProteinsSpectrumIdentificationsToStructCreator(Comparable proteinId,
 			List<AbstractFilter> filters, String cacheScoreAccession) {
+		filterStage = new ImportFilterStage(filters);
+		return addProteinsSpectrumIdentificationsToStructCreator(intermediateStructCreator,
+				proteinId, filterStage, cacheScoreAccession);
+	}
+	
+	
+	/**
+	 * Adds the spectrum identifications of a single protein to the given
+	 * structure creator. The filters on raw values are checked before the PSM
+	 * is created.
+	 * 
+	 * @param structCreator
+	 * @param proteinId
+	 * @return the protein accession of the inserted protein
+	 */
+	private String addProteinsSpectrumIdentificationsToStructCreator(IntermediateStructureCreator structCreator,
+			Comparable proteinId, ImportFilterStage filterStage, String cacheScoreAccession) {
 		// create the protein, add it later (when there is a filtered PSM)
-		IntermediateProtein protein = new PrideIntermediateProtein(controller, proteinId);
+		SymbolTable symbols = structCreator.getSymbolTable();
+		PrideIntermediateProtein protein = new PrideIntermediateProtein(controller, proteinId);
+		protein.internValues(symbols);
+		if (materializePSMs) {
+			protein.materialize();
+			if (materializationCache == null) {
+				materializationCache = new MaterializationCache(symbols);
+			}
+		}
+		
+		SpectrumIdentificationValues rawValues = filterStage.isEmpty() ?
+				null : new SpectrumIdentificationValues(protein);
+		
+		int fileIndex = getFileIndex(symbols);
 		
+		int nrSpectrumIdentifications = 0;
 		for (Comparable peptideId : controller.getPeptideIds(proteinId)) {
+			nrSpectrumIdentifications++;
+			if (rawValues != null) {
+				rawValues.specIdent =
+						controller.getPeptideByIndex(proteinId, peptideId).getSpectrumIdentification();
+				// the ordinals are given to all spectrum identifications, also the filtered ones
+				getOrdinal(rawValues.specIdent.getId());
+				if (!filterStage.satisfiesRawFilters(rawValues)) {
+					continue;
+				}
+			}
+			
 			// add the peptides
-			IntermediatePeptideSpectrumMatch psm =
+			PrideIntermediatePeptideSpectrumMatch psm =
 					new PrideIntermediatePeptideSpectrumMatch(controller, proteinId, peptideId, cacheScoreAccession);
+			psm.internValues(symbols);
+			if (materializePSMs) {
+				psm.materialize(materializationCache);
+			}
+			psm.setNumericID(IntermediatePeptideSpectrumMatch.computeNumericID(fileIndex,
+					getOrdinal(psm.getSpectrumIdentificationID())));
+			
+			if (filterStage.isEmpty() || filterStage.satisfiesPSMFilters(psm)) {
+				addPSMToStructCreator(structCreator, protein, psm);
+			}
+		}
+		
+		if (progressTracker != null) {
+			progressTracker.advance(nrSpectrumIdentifications);
+		}
+		return protein.getAccession();
+	}
+	
+	
+	/**
+	 * Adds the spectrum identifications of a single protein to the staging
+	 * creator of a chunk. The values of the protein and its PSMs are read and
+	 * materialized while holding the lock of the controller, so only one
+	 * thread reads the controller at a time. The filtering and the conversion
+	 * into the structure do not access the controller and run concurrently.
+	 * 
+	 * @param structCreator
+	 * @param proteinId
+	 * @param fileIndex
+	 * @param filterStage
+	 * @param cacheScoreAccession
+	 */
+	private void addReadProteinToStructCreator(IntermediateStructureCreator structCreator,
+			Comparable proteinId, int fileIndex, ImportFilterStage filterStage, String cacheScoreAccession) {
+		PrideIntermediateProtein protein;
+		List<PrideIntermediatePeptideSpectrumMatch> psms = new ArrayList<PrideIntermediatePeptideSpectrumMatch>();
+		int nrSpectrumIdentifications = 0;
+		
+		synchronized (controller) {
+			protein = new PrideIntermediateProtein(controller, proteinId);
+			protein.materialize();
+			
+			SpectrumIdentificationValues rawValues = filterStage.isEmpty() ?
+					null : new SpectrumIdentificationValues(protein);
 			
-			if ((filters == null) || (filters.size() == 0) || (FilterUtilities.satisfiesFilterList(psm, filters))) {
-				// add the protein (only, if any PSM passes filters)
-				String proteinAccession = protein.getAccession();
-				if (!intermediateStructCreator.proteinsContains(proteinAccession)) {
-					intermediateStructCreator.addProtein(protein);
-				} else {
-					intermediateStructCreator.addProteinInformation(proteinAccession, protein);
+			for (Comparable peptideId : controller.getPeptideIds(proteinId)) {
+				nrSpectrumIdentifications++;
+				if (rawValues != null) {
+					rawValues.specIdent =
+							controller.getPeptideByIndex(proteinId, peptideId).getSpectrumIdentification();
+					if (!filterStage.satisfiesRawFilters(rawValues)) {
+						continue;
+					}
 				}
 				
-				String pepSequence = psm.getSequence();
-				Comparable pepID = IntermediatePeptide.computeID(pepSequence);
-				
-				IntermediatePeptide peptide;
-				if (intermediateStructCreator.peptidesContains(pepID)) {
-					peptide = intermediateStructCreator.getPeptide(pepID);
-				} else {
-					peptide = new IntermediatePeptide(pepSequence);
-					intermediateStructCreator.addPeptide(peptide);
+				PrideIntermediatePeptideSpectrumMatch psm =
+						new PrideIntermediatePeptideSpectrumMatch(controller, proteinId, peptideId, cacheScoreAccession);
+				psm.materialize(materializationCache);
+				psms.add(psm);
+			}
+		}
+		
+		SymbolTable symbols = structCreator.getSymbolTable();
+		protein.internValues(symbols);
+		for (PrideIntermediatePeptideSpectrumMatch psm : psms) {
+			psm.internValues(symbols);
+			psm.setNumericID(IntermediatePeptideSpectrumMatch.computeNumericID(fileIndex,
+					getOrdinal(psm.getSpectrumIdentificationID())));
+			
+			if (filterStage.isEmpty() || filterStage.satisfiesPSMFilters(psm)) {
+				addPSMToStructCreator(structCreator, protein, psm);
+			}
+		}
+		
+		if (progressTracker != null) {
+			progressTracker.advance(nrSpectrumIdentifications);
+		}
+	}
+	
+	
+	/**
+	 * Adds the PSM, which passed the filters, together with its peptide and
+	 * the protein to the structure creator.
+	 * 
+	 * @param structCreator
+	 * @param protein
+	 * @param psm
+	 */
+	private void addPSMToStructCreator(IntermediateStructureCreator structCreator,
+			PrideIntermediateProtein protein, PrideIntermediatePeptideSpectrumMatch psm) {
+		// add the protein (only, if any PSM passes filters)
+		String proteinAccession = protein.getAccession();
+		if (!structCreator.proteinsContains(proteinAccession)) {
+			structCreator.addProtein(protein);
+		} else {
+			structCreator.addProteinInformation(proteinAccession, protein);
+		}
+		
+		String pepSequence = structCreator.getSymbolTable().intern(psm.getSequence());
+		Comparable pepID = IntermediatePeptide.computeID(pepSequence);
+		
+		IntermediatePeptide peptide;
+		if (structCreator.peptidesContains(pepID)) {
+			peptide = structCreator.getPeptide(pepID);
+		} else {
+			peptide = new IntermediatePeptide(pepSequence);
+			structCreator.addPeptide(peptide);
+		}
+		
+		// add the PSM to the peptide (if it does not already exist)
+		peptide.addPeptideSpectrumMatch(psm);
+		
+		// connect the peptide and protein
+		structCreator.addPeptideToProteinConnection(pepID, proteinAccession);
+	}
+	
+	
+	/**
+	 * Returns the index of the file for the numeric PSM IDs, which is either
+	 * set by {@link #setFileIndex(int)} or the handle of the controller's ID.
+	 */
+	private int getFileIndex(SymbolTable symbols) {
+		return (assignedFileIndex >= 0) ?
+				assignedFileIndex : symbols.getHandle(symbols.intern(getID()));
+	}
+	
+	
+	/**
+	 * Returns the ordinal of the spectrum identification with the given ID, a
+	 * new one is assigned on the first call. During a concurrent import, all
+	 * ordinals are assigned before the chunks start, which then only read
+	 * them.
+	 */
+	private int getOrdinal(Comparable specIdentID) {
+		Integer ordinal = psmOrdinals.get(specIdentID);
+		if (ordinal == null) {
+			ordinal = nextOrdinal++;
+			psmOrdinals.put(specIdentID, ordinal);
+		}
+		return ordinal;
+	}
+	
+	
+	/**
+	 * The raw values of a spectrum identification for the import filters.
+	 * The PSM is imported for one protein at a time, so only this protein is
+	 * considered for the accessions and the decoy state.
+	 */
+	private static class SpectrumIdentificationValues implements ImportFilterStage.PSMValues {
+		/** the current spectrum identification */
+		SpectrumIdentification specIdent;
+		
+		/** the protein, for which the PSMs are imported */
+		PrideIntermediateProtein protein;
+		
+		
+		public SpectrumIdentificationValues(PrideIntermediateProtein protein) {
+			this.protein = protein;
+		}
+		
+		
+		@Override
+		public Double getScore(String scoreAccession) {
+			SearchEngineScoreCvTermReference cvTermRef =
+					SearchEngineScoreCvTermReference.getSearchEngineScoreParamByAccession(scoreAccession);
+			if (cvTermRef != null) {
+				List<Number> scores = specIdent.getScore().getScores(cvTermRef);
+				if ((scores != null) && (scores.size() > 0) && (scores.get(0) != null)) {
+					return scores.get(0).doubleValue();
 				}
-				
-				// add the PSM to the peptide (if it does not already exist)
-				peptide.addPeptideSpectrumMatch(psm);
-				
-				// connect the peptide and protein
-				intermediateStructCreator.addPeptideToProteinConnection(pepID, proteinAccession);
 			}
+			return null;
 		}
 		
-		return protein.getAccession();
+		
+		@Override
+		public Integer getCharge() {
+			return specIdent.getChargeState();
+		}
+		
+		
+		@Override
+		public Boolean getIsDecoy() {
+			// an un-flagged protein indicates a target
+			return (protein.getIsDecoy() != null) ? protein.getIsDecoy() : false;
+		}
+		
+		
+		@Override
+		public List<String> getAccessions() {
+			return Collections.singletonList(protein.getAccession());
+		}
 	}
 	
 	
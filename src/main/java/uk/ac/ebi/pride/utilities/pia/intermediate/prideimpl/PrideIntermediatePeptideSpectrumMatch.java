@@ -1,19 +1,30 @@
 package uk.ac.ebi.pride.utilities.pia.intermediate.prideimpl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
 import uk.ac.ebi.jmzidml.model.mzidml.Modification;
 import uk.ac.ebi.pride.utilities.data.controller.DataAccessController;
+import uk.ac.ebi.pride.utilities.data.core.Peptide;
 import uk.ac.ebi.pride.utilities.data.core.SpectrumIdentification;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.SymbolTable;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.CvScore;
 import uk.ac.ebi.pride.utilities.term.SearchEngineScoreCvTermReference;
 
 
 /**
  * Representation of a peptide spectrum match in the intermediate structure.
+ * <p>
+ * By default, all values are read lazily from the PRIDE
+ * {@link DataAccessController}, which must be kept open as long as the PSM is
+ * used. Only the base scores are read once on creation and are held in the
+ * score slots of the PSM. After calling
+ * {@link #materialize(MaterializationCache)}, all other values are held in a
+ * compact copy and the controller is no longer accessed.
  * 
  * @author julian
  *
@@ -23,20 +34,20 @@ public class PrideIntermediatePeptideSpectrumMatch extends IntermediatePeptideSp
 	/** a unique ID (cached on the first accession) */
 	private String id;
 	
-	/** the used PRIDE dataAccessController */
+	/** the used PRIDE dataAccessController, null after materialization */
 	private DataAccessController controller;
 	
+	/** the ID of the controller */
+	private String controllerID;
+	
 	/** the protein ID for accession by a PRIDE dataAccessController */
 	private Comparable proteinID;
 	
 	/** the peptide ID for accession by a PRIDE dataAccessController */
 	private Comparable peptideID;
 	
-	/** the accession of a cached score */
-	private String cachedScoreAccession;
-	
-	/** the value of a cached score */
-	private Double cachedScore;
+	/** the materialized values, null while reading lazily from the controller */
+	private MaterializedSpectrumIdentification materialized;
 	
 	
 	public PrideIntermediatePeptideSpectrumMatch(DataAccessController controller,
@@ -46,8 +57,10 @@ public class PrideIntermediatePeptideSpectrumMatch extends IntermediatePeptideSp
 	
 	
 	/**
-	 * creates a new PRIDE intermediate PSM and caches the score given by the
-	 * accession (this requires some mor memory, but is much faster)
+	 * creates a new PRIDE intermediate PSM.
+	 * <p>
+	 * All base scores are read on creation, so the cacheScoreAccession is not
+	 * needed anymore and only kept for compatibility.
 	 * 
 	 * @param controller
 	 * @param proteinID
@@ -60,35 +73,123 @@ public class PrideIntermediatePeptideSpectrumMatch extends IntermediatePeptideSp
 		
 		this.id = null;
 		this.controller = controller;
+		this.controllerID = controller.getUid();
 		this.proteinID = proteinID;
 		this.peptideID = peptideID;
+		this.materialized = null;
 		
-		// get the score and cache it
-		if (cacheScoreAccession != null) {
-			Double score = getScore(cacheScoreAccession);
-			if (score != null) {
-				this.cachedScore = score;
-				this.cachedScoreAccession = cacheScoreAccession;
+		readBaseScores(getSpectrumIdentification());
+	}
+	
+	
+	/**
+	 * Reads all given scores of the spectrum identification into the base
+	 * scores.
+	 * 
+	 * @param specIdent
+	 */
+	private void readBaseScores(SpectrumIdentification specIdent) {
+		List<SearchEngineScoreCvTermReference> cvTerms =
+				specIdent.getScore().getSearchEngineScoreCvTermReferenceWithValues();
+		String[] scoreAccessions = new String[cvTerms.size()];
+		double[] scores = new double[cvTerms.size()];
+		int nrScores = 0;
+		for (SearchEngineScoreCvTermReference cvTerm : cvTerms) {
+			List<Number> values = specIdent.getScore().getScores(cvTerm);
+			if ((values != null) && (values.size() > 0) && (values.get(0) != null)) {
+				scoreAccessions[nrScores] = cvTerm.getAccession();
+				scores[nrScores] = values.get(0).doubleValue();
+				nrScores++;
 			}
-		} else {
-			this.cachedScore = null;
-			this.cachedScoreAccession = null;
 		}
+		if (nrScores < scoreAccessions.length) {
+			scoreAccessions = Arrays.copyOf(scoreAccessions, nrScores);
+			scores = Arrays.copyOf(scores, nrScores);
+		}
+		
+		setBaseScores(scoreAccessions, scores);
+	}
+	
+	
+	/**
+	 * Replaces the controller ID and the score accessions by their canonical
+	 * instances in the symbol table.
+	 * 
+	 * @param symbols
+	 */
+	void internValues(SymbolTable symbols) {
+		controllerID = symbols.intern(controllerID);
+		symbols.intern(getBaseScoreAccessionArray());
+	}
+	
+	
+	/**
+	 * Reads all values of the PSM once from the controller into a compact,
+	 * immutable copy. Afterwards the controller is not accessed anymore by
+	 * this PSM and may be closed.
+	 * 
+	 * @param cache the cache interning the recurring values of the import
+	 */
+	void materialize(MaterializationCache cache) {
+		if (materialized != null) {
+			return;
+		}
+		
+		Peptide peptide = controller.getPeptideByIndex(proteinID, peptideID);
+		SpectrumIdentification specIdent = peptide.getSpectrumIdentification();
+		
+		List<AbstractParam> params = convertParams(specIdent);
+		params = params.isEmpty() ?
+				Collections.<AbstractParam>emptyList() : Collections.unmodifiableList(params);
+		
+		materialized = new MaterializedSpectrumIdentification(specIdent.getId(),
+				cache.intern(peptide.getSequence()), specIdent.getChargeState(),
+				specIdent.getExperimentalMassToCharge(), specIdent.getCalculatedMassToCharge(),
+				cache.intern(convertModifications(peptide)), params);
+		setBaseScoreAccessions(cache.intern(getBaseScoreAccessionArray()));
+		
+		controllerID = cache.intern(controllerID);
+		controller = null;
+		proteinID = null;
+		peptideID = null;
+	}
+	
+	
+	/**
+	 * Returns whether the values of this PSM are materialized, i.e. the
+	 * controller is no longer needed.
+	 * 
+	 * @return
+	 */
+	public boolean isMaterialized() {
+		return materialized != null;
 	}
 	
 	
 	@Override
 	public String getID() {
 		if (id == null) {
-			id = getControllerID() + ":" + getSpectrumIdentification().getId();
+			id = getControllerID() + ":" + getSpectrumIdentificationID();
 		}
 		return id;
 	}
 	
 	
+	/**
+	 * Returns the ID of the spectrum identification in the controller, which
+	 * is the same for all proteins of the spectrum identification.
+	 * 
+	 * @return
+	 */
+	Comparable getSpectrumIdentificationID() {
+		return (materialized != null) ?
+				materialized.getId() : getSpectrumIdentification().getId();
+	}
+	
+	
 	@Override
 	public String getControllerID() {
-		return controller.getUid();
+		return controllerID;
 	}
 	
 	
@@ -104,39 +205,25 @@ public class PrideIntermediatePeptideSpectrumMatch extends IntermediatePeptideSp
 	
 	@Override
 	public Double getScore(String scoreAccession) {
-		if ((cachedScoreAccession != null) && (cachedScoreAccession.equals(scoreAccession))) {
-			return cachedScore;
+		Double score = getBaseScore(scoreAccession);
+		if (score != null) {
+			return score;
 		} else if (CvScore.PSI_PSM_LEVEL_FDRSCORE.getAccession().equals(scoreAccession)) {
 			return getFDRScore();
 		} else if (CvScore.PSI_PSM_LEVEL_LOCAL_FDR.getAccession().equals(scoreAccession)) {
 			return getFDR();
 		} else if (CvScore.PSI_PSM_LEVEL_Q_VALUE.getAccession().equals(scoreAccession)) {
 			return getQValue();
-		} else {
-            SearchEngineScoreCvTermReference cvTermRef = SearchEngineScoreCvTermReference.getSearchEngineScoreParamByAccession(scoreAccession);
-			if (cvTermRef != null) {
-				List<Number> scores = 
-						getSpectrumIdentification().getScore().getScores(cvTermRef);
-				
-				if (scores.size() > 0) {
-					return scores.get(0).doubleValue();
-				}
-			}
-			
-			return null;
 		}
+		
+		return null;
 	}
 	
 	
 	@Override
 	public List<String> getBaseScoreAccessions() {
 		List<String> scoreAccessions = new ArrayList<String>();
-		
-		for (SearchEngineScoreCvTermReference cvTerm
-				: getSpectrumIdentification().getScore().getSearchEngineScoreCvTermReferenceWithValues()) {
-			scoreAccessions.add(cvTerm.getAccession());
-		}
-		
+		Collections.addAll(scoreAccessions, getBaseScoreAccessionArray());
 		return scoreAccessions;
 	}
 	
@@ -150,12 +237,19 @@ public class PrideIntermediatePeptideSpectrumMatch extends IntermediatePeptideSp
 	
 	@Override
 	public Double getExperimentalMassToCharge() {
+		if (materialized != null) {
+			return materialized.getExperimentalMassToCharge();
+		}
 		return getSpectrumIdentification().getExperimentalMassToCharge();
 	}
 	
 	
 	@Override
 	public Double getDeltaMass() {
+		if (materialized != null) {
+			return materialized.getExperimentalMassToCharge()
+					- materialized.getCalculatedMassToCharge();
+		}
 		return getSpectrumIdentification().getExperimentalMassToCharge() - 
 				getSpectrumIdentification().getCalculatedMassToCharge();
 	}
@@ -170,6 +264,9 @@ public class PrideIntermediatePeptideSpectrumMatch extends IntermediatePeptideSp
 
 	@Override
 	public Integer getCharge() {
+		if (materialized != null) {
+			return materialized.getCharge();
+		}
 		return getSpectrumIdentification().getChargeState();
 	}
 	
@@ -183,16 +280,34 @@ public class PrideIntermediatePeptideSpectrumMatch extends IntermediatePeptideSp
 	
 	@Override
 	public String getSequence() {
+		if (materialized != null) {
+			return materialized.getSequence();
+		}
 		return controller.getPeptideByIndex(proteinID, peptideID).getSequence();
 	}
 	
 	
 	@Override
 	public List<Modification> getModifications() {
+		if (materialized != null) {
+			return materialized.getModifications();
+		}
+		return convertModifications(controller.getPeptideByIndex(proteinID, peptideID));
+	}
+	
+	
+	/**
+	 * Converts the modifications of the PRIDE peptide into mzIdentML
+	 * modifications.
+	 * 
+	 * @param peptide
+	 * @return
+	 */
+	private static List<Modification> convertModifications(Peptide peptide) {
 		List<Modification> modifications = new ArrayList<Modification>();
 		
 		for (uk.ac.ebi.pride.utilities.data.core.Modification prideMod
-				: controller.getPeptideByIndex(proteinID, peptideID).getModifications()) {
+				: peptide.getModifications()) {
 			Modification mod = new Modification();
 			
 			Double massDelta = null;
@@ -244,10 +359,25 @@ public class PrideIntermediatePeptideSpectrumMatch extends IntermediatePeptideSp
 	
 	@Override
 	public List<AbstractParam> getParams() {
+		if (materialized != null) {
+			return materialized.getParams();
+		}
+		return convertParams(getSpectrumIdentification());
+	}
+	
+	
+	/**
+	 * Converts the cvParams and userParams of the PRIDE spectrum
+	 * identification.
+	 * 
+	 * @param specIdent
+	 * @return
+	 */
+	private static List<AbstractParam> convertParams(SpectrumIdentification specIdent) {
 		List<AbstractParam> params = new ArrayList<AbstractParam>();
 		
-		params.addAll(PrideUtilities.convertCvParams(getSpectrumIdentification().getCvParams()));
-		params.addAll(PrideUtilities.convertUserParams(getSpectrumIdentification().getUserParams()));
+		params.addAll(PrideUtilities.convertCvParams(specIdent.getCvParams()));
+		params.addAll(PrideUtilities.convertUserParams(specIdent.getUserParams()));
 		
 		return params;
 	}
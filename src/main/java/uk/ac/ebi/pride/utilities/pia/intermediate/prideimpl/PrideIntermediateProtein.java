@@ -1,8 +1,11 @@
 package uk.ac.ebi.pride.utilities.pia.intermediate.prideimpl;
 
 import uk.ac.ebi.pride.utilities.data.controller.DataAccessController;
+import uk.ac.ebi.pride.utilities.data.core.DBSequence;
 import uk.ac.ebi.pride.utilities.data.core.Protein;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
+import uk.ac.ebi.pride.utilities.pia.intermediate.SymbolTable;
+import uk.ac.ebi.pride.utilities.pia.intermediate.fasta.SequenceReference;
 
 
 /**
@@ -19,6 +22,9 @@ public class PrideIntermediateProtein extends IntermediateProtein {
 	
 	private String accession;
 	
+	/** the sequence, only set after materialization */
+	private String sequence;
+	
 	
 	/**
 	 * Basic constructor, only initializes the representative
@@ -31,6 +37,43 @@ public class PrideIntermediateProtein extends IntermediateProtein {
 		this.controller = controller;
 		this.proteinID = proteinID;
 		this.accession = controller.getProteinAccession(proteinID);
+		this.sequence = null;
+	}
+	
+	
+	/**
+	 * Replaces the accession by its canonical instance in the symbol table.
+	 * 
+	 * @param symbols
+	 */
+	void internValues(SymbolTable symbols) {
+		accession = symbols.intern(accession);
+	}
+	
+	
+	/**
+	 * Reads the sequence once from the controller and detaches the protein
+	 * from it, so the controller may be closed afterwards. The complete PRIDE
+	 * protein is no longer available then.
+	 */
+	void materialize() {
+		if (controller == null) {
+			return;
+		}
+		
+		DBSequence dbSequence = controller.getProteinSequence(proteinID);
+		sequence = (dbSequence != null) ? dbSequence.getSequence() : null;
+		controller = null;
+	}
+	
+	
+	/**
+	 * Returns whether the protein is detached from the controller.
+	 * 
+	 * @return
+	 */
+	public boolean isMaterialized() {
+		return controller == null;
 	}
 	
 	
@@ -41,8 +84,26 @@ public class PrideIntermediateProtein extends IntermediateProtein {
 	
 	
 	@Override
-	public String getProteinSequence() {
-		return controller.getProteinSequence(proteinID).getSequence();
+	protected String getSourceSequence() {
+		if (controller == null) {
+			return sequence;
+		}
+		DBSequence dbSequence = controller.getProteinSequence(proteinID);
+		return (dbSequence != null) ? dbSequence.getSequence() : null;
+	}
+	
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The materialized sequence is released, as the store holds it.
+	 */
+	@Override
+	public void setSequenceReference(SequenceReference sequenceReference) {
+		super.setSequenceReference(sequenceReference);
+		if (sequenceReference != null) {
+			sequence = null;
+		}
 	}
 	
 	
@@ -56,10 +117,14 @@ public class PrideIntermediateProtein extends IntermediateProtein {
 	
 	
 	/**
-	 * Getter for the complete PRIDE protein
+	 * Getter for the complete PRIDE protein, returns null if the protein is
+	 * materialized
 	 * @return
 	 */
 	public Protein getPrideProtein() {
+		if (controller == null) {
+			return null;
+		}
 		return controller.getProteinById(proteinID);
 	}
 }
@@ -1,7 +1,10 @@
 package uk.ac.ebi.pride.utilities.pia.modeller;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -10,14 +13,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.ebi.pride.utilities.data.controller.DataAccessController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.ClusterScheduler;
+import uk.ac.ebi.pride.utilities.pia.intermediate.ClusterScheduler.ClusterProcessor;
 import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.ImportPipeline;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.intermediate.SymbolTable;
+import uk.ac.ebi.pride.utilities.pia.intermediate.fasta.FastaSequenceStore;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.IntermediateStructureReader;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.IntermediateStructureWriter;
+import uk.ac.ebi.pride.utilities.pia.intermediate.mzidimpl.MzIdentMLImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.mztabimpl.MzTabImportController;
 import uk.ac.ebi.pride.utilities.pia.intermediate.prideimpl.PrideImportController;
 import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.ImportFilterStage;
 import uk.ac.ebi.pride.utilities.pia.modeller.protein.ProteinModeller;
 import uk.ac.ebi.pride.utilities.pia.modeller.psm.PSMModeller;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressListener;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressListener.Stage;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressReporter;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
 
 
 /**
@@ -44,6 +61,18 @@ public class PIAModeller {
 	/** whether to look for unknown CVs in the online OBO */
 	private boolean oboLookup;
 	
+	/** whether the PSMs of PRIDE controllers are materialized while importing */
+	private boolean materializePSMs;
+	
+	/** whether mzIdentML files are streamed instead of opened by a PRIDE controller */
+	private boolean streamMzIdentML;
+	
+	/** the number of threads importing the proteins of each PRIDE controller */
+	private int importThreadsPerFile;
+	
+	/** the number of threads converting the PSMs in the import pipeline of streamed files, 0 for no pipeline */
+	private int importPipelineThreads;
+	
 	
 	/** the PSM modeller */
 	private PSMModeller psmModeller;
@@ -52,12 +81,20 @@ public class PIAModeller {
 	private ProteinModeller proteinModeller;
 	
 	
-	/** the intermediate structure creator, not used when loading from intermediate file */
+	/** the intermediate structure creator, after the structure is built or
+	 * loaded it collects the data of further files, which are added to it */
 	private IntermediateStructureCreator structCreator;
 	
 	/** the intermediate structure, either loaded or created */
 	private IntermediateStructure intermediateStructure;
 	
+	/** the reporter of the progress of all stages */
+	private ProgressReporter progressReporter;
+	
+	/** added to the file indices of added files, so they differ from the
+	 * file indices of the loaded PSMs */
+	private int fileIndexOffset;
+	
 	
 	
 	/**
@@ -75,7 +112,9 @@ public class PIAModeller {
 	 */
 	public PIAModeller(int nrThreads, boolean oboLookup) {
 		this.allowedThreads = nrThreads;
+		this.progressReporter = new ProgressReporter();
 		this.structCreator = new IntermediateStructureCreator(allowedThreads);
+		this.structCreator.setProgressReporter(progressReporter);
 		
 		this.inputControllers = new HashMap<Integer, DataImportController>();
 		
@@ -87,6 +126,11 @@ public class PIAModeller {
 		this.proteinModeller = null;
 		
 		this.oboLookup = oboLookup;
+		this.materializePSMs = false;
+		this.streamMzIdentML = false;
+		this.importThreadsPerFile = 1;
+		this.importPipelineThreads = 0;
+		this.fileIndexOffset = 0;
 	}
 	
 	
@@ -106,14 +150,35 @@ public class PIAModeller {
 	public PIAModeller(String pathname, int nrThreads, boolean oboLookup) {
 		this(nrThreads, oboLookup);
 		
-		// the struct creator is not needed for a loaded file
-		this.structCreator = null;
+		IntermediateStructureReader reader = new IntermediateStructureReader(pathname);
+		try {
+			intermediateStructure = reader.read();
+			inputControllers = reader.getInputControllers();
+			
+			// the symbol table is new, so the handles may be used by the loaded PSMs
+			for (IntermediatePeptideSpectrumMatch psm : intermediateStructure.getAllIntermediatePSMs()) {
+				if (psm.getNumericID() >= 0) {
+					fileIndexOffset = Math.max(fileIndexOffset, (int) (psm.getNumericID() >>> 32) + 1);
+				}
+			}
+		} catch (IOException e) {
+			logger.error("could not load the intermediate structure from " + pathname, e);
+			this.inputControllers = null;
+			this.psmModeller = null;
+			this.proteinModeller = null;
+			this.intermediateStructure = null;
+			return;
+		}
 		
-		// TODO: load the structure and set everything correctly
-		this.inputControllers = null;
-		this.psmModeller = null;
-		this.proteinModeller = null;
-		this.intermediateStructure = null;
+		// initialize the PSM modeller
+		logger.debug("initializing PSM modeller");
+		initializePSMModeller();
+		
+		// initialize the protein modeller
+		proteinModeller = new ProteinModeller(intermediateStructure, allowedThreads);
+		proteinModeller.setProgressReporter(progressReporter);
+		
+		logger.debug("intermediate structure loaded, #clusters " + intermediateStructure.getNrClusters());
 	}
 	
 	
@@ -121,6 +186,10 @@ public class PIAModeller {
 	 * As some controllers should be closed, do this here.
 	 */
 	public void close() {
+		if (inputControllers == null) {
+			return;
+		}
+		
 		// close the inputControllers
 		for (DataImportController controller : inputControllers.values()) {
 			controller.close();
@@ -128,30 +197,153 @@ public class PIAModeller {
 	}
 	
 	
+	/**
+	 * Sets whether the PSMs and proteins imported by PRIDE controllers are
+	 * materialized, i.e. read once into compact copies. The controllers can
+	 * then be closed directly after {@link #buildIntermediateStructure()},
+	 * while the PSM and protein modellers keep working. This affects only
+	 * files and controllers added after the call.
+	 * 
+	 * @param materializePSMs
+	 */
+	public void setMaterializePSMs(boolean materializePSMs) {
+		this.materializePSMs = materializePSMs;
+	}
+	
+	
+	/**
+	 * Returns whether the PSMs of PRIDE controllers are materialized while
+	 * importing.
+	 * 
+	 * @return
+	 */
+	public boolean getMaterializePSMs() {
+		return materializePSMs;
+	}
+	
+	
+	/**
+	 * Sets the FASTA file, in which the sequences of the proteins are looked
+	 * up. The file is mapped into memory and indexed, the proteins of the
+	 * files imported afterwards only reference their sequences in it. The
+	 * proteins already in the intermediate structure are not changed.
+	 * 
+	 * @param pathname
+	 * @throws IOException if the FASTA file cannot be read
+	 */
+	public void setFastaFile(String pathname) throws IOException {
+		structCreator.setSequenceStore(new FastaSequenceStore(new File(pathname)));
+	}
+	
+	
+	/**
+	 * Sets the number of threads, which import the proteins of each PRIDE
+	 * controller concurrently. The controllers must allow concurrent reading.
+	 * This affects only files and controllers added after the call.
+	 * 
+	 * @param importThreadsPerFile
+	 * @see PrideImportController#setImportThreads(int)
+	 */
+	public void setImportThreadsPerFile(int importThreadsPerFile) {
+		this.importThreadsPerFile = Math.max(1, importThreadsPerFile);
+	}
+	
+	
+	/**
+	 * Returns the number of threads importing the proteins of each PRIDE
+	 * controller.
+	 * 
+	 * @return
+	 */
+	public int getImportThreadsPerFile() {
+		return importThreadsPerFile;
+	}
+	
+	
+	/**
+	 * Sets the number of threads, which convert and filter the PSMs of
+	 * streamed mzTab and mzIdentML files in an import pipeline, while the
+	 * file is read and the PSMs are added on threads of their own. With 0
+	 * threads, the files are imported without pipeline. This affects only
+	 * files added after the call.
+	 * 
+	 * @param importPipelineThreads
+	 * @see ImportPipeline
+	 */
+	public void setImportPipelineThreads(int importPipelineThreads) {
+		this.importPipelineThreads = Math.max(0, importPipelineThreads);
+	}
+	
+	
+	/**
+	 * Returns the number of threads converting the PSMs in the import
+	 * pipeline of streamed files.
+	 * 
+	 * @return
+	 */
+	public int getImportPipelineThreads() {
+		return importPipelineThreads;
+	}
+	
+	
+	/**
+	 * Sets whether mzIdentML files added by {@link #addFile(String)} are
+	 * streamed by a {@link MzIdentMLImportController} instead of being opened
+	 * by a PRIDE controller. Streaming needs much less memory and time, as no
+	 * object model of the file is built, but the PRIDE proteins are not
+	 * available afterwards.
+	 * 
+	 * @param streamMzIdentML
+	 */
+	public void setStreamMzIdentML(boolean streamMzIdentML) {
+		this.streamMzIdentML = streamMzIdentML;
+	}
+	
+	
+	/**
+	 * Returns whether mzIdentML files are streamed while importing.
+	 * 
+	 * @return
+	 */
+	public boolean getStreamMzIdentML() {
+		return streamMzIdentML;
+	}
+	
+	
 	/**
 	 * Adds a file to the input files.
 	 * <p>
-	 * This must be called before the intermediate structure is created.
+	 * The data of files added after the intermediate structure is created or
+	 * loaded is added to it by the next call of
+	 * {@link #buildIntermediateStructure()}.
 	 * 
 	 * @param pathname
 	 * @return the ID of the file
 	 */
 	public Integer addFile(String pathname) {
-		if (structCreator == null) {
-			logger.error("the intermediate structure is already created, no more files can be added");
-			return null;
-		}
-		
 		File inputFile = new File(pathname);
 		
 		logger.debug("adding " + inputFile.getAbsolutePath() + " to files");
 		
-		DataImportController importController = new PrideImportController(inputFile, structCreator);
+		DataImportController importController;
+		if (MzTabImportController.isValidFormat(inputFile)) {
+			MzTabImportController mzTabImportController = new MzTabImportController(inputFile, structCreator);
+			mzTabImportController.setPipelineThreads(importPipelineThreads);
+			importController = mzTabImportController;
+		} else if (streamMzIdentML && MzIdentMLImportController.isValidFormat(inputFile)) {
+			MzIdentMLImportController mzIdentMLImportController =
+					new MzIdentMLImportController(inputFile, structCreator);
+			mzIdentMLImportController.setPipelineThreads(importPipelineThreads);
+			importController = mzIdentMLImportController;
+		} else {
+			PrideImportController prideImportController = new PrideImportController(inputFile, structCreator);
+			prideImportController.setMaterializePSMs(materializePSMs);
+			prideImportController.setImportThreads(importThreadsPerFile);
+			importController = prideImportController;
+		}
 		// TODO: add the import from other file types and controllers
 		
-		Integer fileID = inputControllers.size()+1;
-        inputControllers.put(fileID, importController);
-		return fileID;
+		return addInputController(importController);
 	}
 	
 	
@@ -163,16 +355,32 @@ public class PIAModeller {
 	 * @return
 	 */
 	public Integer addPrideControllerAsInput(DataAccessController controller) {
-		if (structCreator == null) {
-			logger.error("the intermediate structure is already created, no more files can be added");
-			return null;
-		}
-		
 		logger.debug("adding pride controller \"" + controller.getName() +  "\" to files");
-		DataImportController importController = new PrideImportController(controller, structCreator);
+		PrideImportController importController = new PrideImportController(controller, structCreator);
+		importController.setMaterializePSMs(materializePSMs);
+		importController.setImportThreads(importThreadsPerFile);
+		
+		return addInputController(importController);
+	}
+	
+	
+	/**
+	 * Adds the controller to the input controllers. The controller's ID is
+	 * interned in the order of the file IDs and its handle is the file index
+	 * of the numeric PSM IDs, so the numeric IDs do not depend on the order
+	 * in which the files are imported. After loading a structure, the file
+	 * indices are moved beyond the ones of the loaded PSMs.
+	 * 
+	 * @param importController
+	 * @return the ID of the file
+	 */
+	private Integer addInputController(DataImportController importController) {
+		SymbolTable symbols = structCreator.getSymbolTable();
+		importController.setFileIndex(
+				fileIndexOffset + symbols.getHandle(symbols.intern(importController.getID().toString())));
 		
 		Integer fileID = inputControllers.size()+1;
-        inputControllers.put(fileID, importController);
+		inputControllers.put(fileID, importController);
 		return fileID;
 	}
 	
@@ -182,7 +390,8 @@ public class PIAModeller {
 	 * structure creator. Filtering is ok, if the used inference methods
 	 * are not interfered by it.
 	 * <p>
-	 * This must be called before the intermediate structure is created.
+	 * If the intermediate structure is already created or loaded, the PSMs
+	 * are added to it by the next call of {@link #buildIntermediateStructure()}.
 	 * 
 	 * @param pathname
 	 * @return the ID of the file
@@ -200,7 +409,8 @@ public class PIAModeller {
 	 * Additionally, for the given score accession the scores will be cached
 	 * for fast access, if the controller supports it.
 	 * <p>
-	 * This must be called before the intermediate structure is created.
+	 * If the intermediate structure is already created or loaded, the PSMs
+	 * are added to it by the next call of {@link #buildIntermediateStructure()}.
 	 * 
 	 * @param pathname
 	 * @return the ID of the file
@@ -252,38 +462,177 @@ public class PIAModeller {
 	 * @param fileID
 	 */
 	public void importDataFromFile(Integer fileID, List<AbstractFilter> filters, String cacheScoreAccession) {
-		if (structCreator == null) {
-			logger.error("the intermediate structure is already created, no more files can be added");
+		DataImportController controller = inputControllers.get(fileID);
+		ProgressTracker tracker = progressReporter.startStage(Stage.IMPORT,
+				controller.getInputFileName(), -1);
+		controller.setProgressTracker(tracker);
+		try {
+			// the creator is given explicitly, as it is replaced after building
+			controller.addSpectrumIdentificationsToStructCreator(structCreator, filters, cacheScoreAccession);
+		} finally {
+			controller.setProgressTracker(null);
+			tracker.finish();
+		}
+	}
+	
+	
+	/**
+	 * Adds the files to the input files and imports their filtered PSMs
+	 * concurrently, see {@link #importDataFromFiles(List, List, String)}.
+	 * 
+	 * @param pathnames
+	 * @param filters
+	 * @param cacheScoreAccession
+	 * @return the IDs of the files, in the order of the given pathnames
+	 */
+	public List<Integer> addFilesAndImportSpectra(List<String> pathnames, List<AbstractFilter> filters,
+			String cacheScoreAccession) {
+		List<Integer> fileIDs = new ArrayList<Integer>(pathnames.size());
+		for (String pathname : pathnames) {
+			fileIDs.add(addFile(pathname));
+		}
+		
+		importDataFromFiles(fileIDs, filters, cacheScoreAccession);
+		return fileIDs;
+	}
+	
+	
+	/**
+	 * Imports the filtered PSMs of several files concurrently, using up to
+	 * the allowed number of threads. Each file is parsed into its own staging
+	 * {@link IntermediateStructureCreator}, the largest files first. After
+	 * all files are parsed, the staging creators are merged in the order of
+	 * the given file IDs. The numeric PSM IDs are based on the file indices
+	 * set when the files were added, so the result is the same as importing
+	 * the files one after another by
+	 * {@link #importDataFromFile(Integer, List, String)}.
+	 * 
+	 * @param fileIDs
+	 * @param filters
+	 * @param cacheScoreAccession
+	 */
+	public void importDataFromFiles(final List<Integer> fileIDs, final List<AbstractFilter> filters,
+			final String cacheScoreAccession) {
+		if ((fileIDs.size() < 2) || (allowedThreads < 2)) {
+			for (Integer fileID : fileIDs) {
+				importDataFromFile(fileID, filters, cacheScoreAccession);
+			}
 			return;
 		}
 		
-		inputControllers.get(fileID).addSpectrumIdentificationsToStructCreator(filters, cacheScoreAccession);
+		logger.info("importing " + fileIDs.size() + " files using " + allowedThreads + " threads");
+		long start = System.currentTimeMillis();
+		
+		// the positions in fileIDs are processed, the file sizes are the costs
+		List<Integer> positions = new ArrayList<Integer>(fileIDs.size());
+		long[] costs = new long[fileIDs.size()];
+		for (int pos = 0; pos < fileIDs.size(); pos++) {
+			positions.add(pos);
+			String fileName = inputControllers.get(fileIDs.get(pos)).getInputFileName();
+			costs[pos] = (fileName != null) ? Math.max(1, new File(fileName).length()) : 1;
+		}
+		
+		final IntermediateStructureCreator[] stagingCreators = new IntermediateStructureCreator[fileIDs.size()];
+		final ProgressTracker tracker = progressReporter.startStage(Stage.IMPORT,
+				fileIDs.size() + " files", -1);
+		try {
+			ClusterScheduler<Integer> scheduler = new ClusterScheduler<Integer>("file import", allowedThreads);
+			scheduler.process(positions, costs, new ClusterProcessor<Integer>() {
+				@Override
+				public void processCluster(Integer pos) {
+					IntermediateStructureCreator stagingCreator =
+							new IntermediateStructureCreator(1, structCreator.getSymbolTable());
+					stagingCreator.setSequenceStore(structCreator.getSequenceStore());
+					DataImportController controller = inputControllers.get(fileIDs.get(pos));
+					controller.setProgressTracker(tracker);
+					try {
+						controller.addSpectrumIdentificationsToStructCreator(
+								stagingCreator, filters, cacheScoreAccession);
+					} finally {
+						controller.setProgressTracker(null);
+					}
+					stagingCreators[pos] = stagingCreator;
+				}
+			});
+			
+			// merge in the given order for deterministic results
+			for (int pos = 0; pos < stagingCreators.length; pos++) {
+				structCreator.mergeStagingCreator(stagingCreators[pos]);
+				stagingCreators[pos] = null;
+			}
+		} finally {
+			tracker.finish();
+		}
+		
+		logger.info(fileIDs.size() + " files imported in " + (System.currentTimeMillis() - start) + " ms");
+	}
+	
+	
+	/**
+	 * Returns the numbers of PSMs rejected by each import filter, summed over
+	 * the last imports of all input files. A PSM is counted only for the
+	 * first filter rejecting it.
+	 * 
+	 * @return the rejections by the filters, in the order they were given
+	 */
+	public Map<AbstractFilter, Long> getImportFilterRejections() {
+		Map<AbstractFilter, Long> rejections = new LinkedHashMap<AbstractFilter, Long>();
+		if (inputControllers == null) {
+			return rejections;
+		}
+		
+		for (DataImportController controller : inputControllers.values()) {
+			ImportFilterStage filterStage = controller.getImportFilterStage();
+			if (filterStage == null) {
+				continue;
+			}
+			
+			for (Map.Entry<AbstractFilter, Long> countIt : filterStage.getRejectionCounts().entrySet()) {
+				Long count = rejections.get(countIt.getKey());
+				rejections.put(countIt.getKey(),
+						(count != null) ? count + countIt.getValue() : countIt.getValue());
+			}
+		}
+		
+		return rejections;
 	}
 	
 	
 	/**
 	 * This method builds the intermediate structure with the data of the input
-	 * files. The function can be called only once for a {@link #PIAModeller()},
-	 * after all files are added.
+	 * files.
+	 * <p>
+	 * If the structure was already built or loaded, the data imported since
+	 * then is added to it: only the clusters sharing peptides or proteins with
+	 * the new data are rebuilt, all other clusters are kept unchanged. The
+	 * groups are the same as if all files were imported before the first
+	 * build, independent of the order the files were added. The PSM and
+	 * protein modellers are initialized anew in either case, as e.g. the FDR
+	 * depends on all PSMs.
 	 * 
 	 * @return
 	 */
 	public IntermediateStructure buildIntermediateStructure() {
 		logger.debug("starting buildIntermediateStructure");
 		
-		if (intermediateStructure != null) {
-			logger.warn("There is already an intermediate structure created!");
+		if (intermediateStructure == null) {
+			intermediateStructure = structCreator.buildIntermediateStructure();
+		} else if (structCreator.getNrPeptides() > 0) {
+			logger.info("adding the new data to the intermediate structure");
+			if (structCreator.addToIntermediateStructure(intermediateStructure) == null) {
+				return null;
+			}
+		} else {
+			logger.warn("There is already an intermediate structure created and no new data!");
+			return intermediateStructure;
 		}
 		
-		if (structCreator == null) {
-			logger.error("The intermediate structure cannot be created, the creator is null!");
+		if (intermediateStructure == null) {
 			return null;
 		}
 		
-		intermediateStructure =
-				structCreator.buildIntermediateStructure();
-        
-		structCreator = null;
+		// the data of further files is collected by a new creator
+		structCreator = structCreator.createIncrementCreator();
 		
 		// initialize the PSM modeller
 		logger.debug("initializing PSM modeller");
@@ -291,18 +640,46 @@ public class PIAModeller {
 		
 		// initialize the protein modeller
 		proteinModeller = new ProteinModeller(intermediateStructure, allowedThreads);
+		proteinModeller.setProgressReporter(progressReporter);
 		
 		logger.debug("buildIntermediateStructure done, #clusters " + intermediateStructure.getNrClusters());
 		return intermediateStructure;
 	}
 	
 	
+	/**
+	 * Saves the intermediate structure together with the information of the
+	 * input files into the given file, which can be loaded again by
+	 * {@link #PIAModeller(String)}. The PSMs are materialized while saving, so
+	 * the input controllers must not be closed before.
+	 * 
+	 * @param pathname
+	 * @return true, if the structure was saved
+	 */
+	public boolean saveIntermediateStructure(String pathname) {
+		if (intermediateStructure == null) {
+			logger.error("there is no intermediate structure to save");
+			return false;
+		}
+		
+		try {
+			new IntermediateStructureWriter(pathname).write(intermediateStructure, inputControllers);
+		} catch (IOException e) {
+			logger.error("could not save the intermediate structure to " + pathname, e);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	
 	/**
 	 * This method initializes the PSM modeller with the PSMs. The method must
 	 * be called after the intermediate structure is built or loaded from file.
 	 */
 	private void initializePSMModeller() {
 		psmModeller = new PSMModeller(inputControllers.size(), oboLookup);
+		psmModeller.setProgressReporter(progressReporter);
 		
 		// get a mapping from the controllerIDs to the internal fileIDs
 		Map<Comparable, Integer> controllerIDtoFileID =
@@ -338,6 +715,47 @@ public class PIAModeller {
 	}
 	
 	
+	/**
+	 * Sets the reporter, to which the progress of all following stages is
+	 * reported, i.e. the import, clustering, structure building, FDR
+	 * calculation and protein inference.
+	 * 
+	 * @param reporter
+	 */
+	public void setProgressReporter(ProgressReporter reporter) {
+		this.progressReporter = reporter;
+		structCreator.setProgressReporter(reporter);
+		if (psmModeller != null) {
+			psmModeller.setProgressReporter(reporter);
+		}
+		if (proteinModeller != null) {
+			proteinModeller.setProgressReporter(reporter);
+		}
+	}
+	
+	
+	/**
+	 * Sets a listener for the progress of all following stages, see
+	 * {@link #setProgressReporter(ProgressReporter)}.
+	 * 
+	 * @param listener
+	 */
+	public void setProgressListener(ProgressListener listener) {
+		setProgressReporter(new ProgressReporter(listener));
+	}
+	
+	
+	/**
+	 * Returns the reporter of the progress, which also holds the timings of
+	 * the finished stages.
+	 * 
+	 * @return
+	 */
+	public ProgressReporter getProgressReporter() {
+		return progressReporter;
+	}
+	
+	
 	/**
 	 * Returns the {@link DataImportController} of the given file.
 	 * 
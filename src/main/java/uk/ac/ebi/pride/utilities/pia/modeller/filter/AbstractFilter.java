@@ -137,6 +137,20 @@ public abstract class AbstractFilter {
 			objValue = doFileRefinement(objValue);
 		}
 		
+		return satisfiesFilterValue(objValue);
+	}
+	
+	
+	/**
+	 * compares the given value (as returned by {@link #getObjectsValue(Object)})
+	 * and the filter value with the filter comparator and thus returns,
+	 * whether the value satisfies the filter. This allows filtering on values,
+	 * which are not (yet) wrapped in an object of the filtered class.
+	 * 
+	 * @param objValue
+	 * @return
+	 */
+	public boolean satisfiesFilterValue(Object objValue) {
 		if (objValue != null) {
 			
 			switch (getFilterType()) {
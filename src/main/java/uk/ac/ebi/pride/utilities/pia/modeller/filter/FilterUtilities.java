@@ -29,24 +29,21 @@ public final class FilterUtilities {
     
 	/**
 	 * Checks whether all the filters in the given List are satisfied for the
-	 * given object.
+	 * given object. The evaluation stops at the first failing filter.
 	 * 
 	 * @param item
-	 * @param fileID
 	 * @param filters
 	 * @return
 	 */
 	public static boolean satisfiesFilterList(Object item,
 			List<AbstractFilter> filters) {
-		boolean satisfiesAllFilters = true;
-		
 		for (AbstractFilter filter : filters) {
-			if (filter.supportsClass(item)) {
-				satisfiesAllFilters &= filter.satisfiesFilter(item);
+			if (filter.supportsClass(item) && !filter.satisfiesFilter(item)) {
+				return false;
 			}
 		}
 		
-		return satisfiesAllFilters;
+		return true;
 	}
     
 	
@@ -0,0 +1,333 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMAccessionsFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMChargeFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMDecoyFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMScoreFilter;
+
+
+/**
+ * Applies the PSM filters while importing.
+ * <p>
+ * The cheap filters (score, charge, decoy and accessions) are evaluated on the
+ * raw values given by the importer via {@link PSMValues}, before any PSM
+ * object is created. All other filters are evaluated on the created PSM. The
+ * evaluation stops at the first failing filter and the filters are
+ * periodically reordered by their measured rejection rate, so the most
+ * selective filters are evaluated first.
+ * <p>
+ * For each filter the number of rejected PSMs is counted. As the evaluation
+ * stops at the first failing filter, a PSM is counted only for the first
+ * filter rejecting it.
+ * <p>
+ * This class is not thread safe, each import uses its own stage. The chunks
+ * of a concurrent import use a stage each and sum up their counts by
+ * {@link #addCounts(ImportFilterStage)}.
+ *
+ * @author julian
+ *
+ */
+public class ImportFilterStage {
+
+	/** the filters in the given order */
+	private AbstractFilter[] filters;
+
+	/** the kind of raw value of each filter, null for filters on the PSM */
+	private RawValue[] rawValues;
+
+	/** the indices of the filters on raw values, in evaluation order */
+	private Integer[] rawOrder;
+
+	/** the indices of the filters on created PSMs, in evaluation order */
+	private Integer[] psmOrder;
+
+	/** the number of evaluations of each filter */
+	private long[] nrEvaluated;
+
+	/** the number of rejections by each filter */
+	private long[] nrRejected;
+
+	/** the number of PSMs checked by this stage */
+	private long nrChecked;
+
+	/** the number of PSMs rejected by this stage */
+	private long nrRejectedPSMs;
+
+
+	/** the number of checked PSMs after which the filters are reordered */
+	private static final int REORDER_INTERVAL = 1024;
+
+
+	/**
+	 * Creates a stage for the given filters, filters not supporting PSMs are
+	 * passed.
+	 *
+	 * @param filters may be null
+	 */
+	public ImportFilterStage(List<AbstractFilter> filters) {
+		this.filters = (filters != null) ?
+				filters.toArray(new AbstractFilter[filters.size()]) : new AbstractFilter[0];
+		this.rawValues = new RawValue[this.filters.length];
+		this.nrEvaluated = new long[this.filters.length];
+		this.nrRejected = new long[this.filters.length];
+
+		List<Integer> rawIndices = new ArrayList<Integer>();
+		List<Integer> psmIndices = new ArrayList<Integer>();
+		for (int i = 0; i < this.filters.length; i++) {
+			rawValues[i] = RawValue.getRawValue(this.filters[i]);
+			if (rawValues[i] != null) {
+				rawIndices.add(i);
+			} else {
+				psmIndices.add(i);
+			}
+		}
+		this.rawOrder = rawIndices.toArray(new Integer[rawIndices.size()]);
+		this.psmOrder = psmIndices.toArray(new Integer[psmIndices.size()]);
+
+		this.nrChecked = 0;
+		this.nrRejectedPSMs = 0;
+	}
+
+
+	/**
+	 * Returns whether this stage has no filters at all, i.e. every PSM passes.
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return filters.length == 0;
+	}
+
+
+	/**
+	 * Checks the filters on raw values for the PSM given by its values. This
+	 * should be called before the PSM is created, if false is returned the
+	 * PSM can be dropped.
+	 *
+	 * @param values
+	 * @return
+	 */
+	public boolean satisfiesRawFilters(PSMValues values) {
+		nrChecked++;
+		if ((nrChecked % REORDER_INTERVAL) == 0) {
+			reorder(rawOrder);
+			reorder(psmOrder);
+		}
+
+		for (int idx : rawOrder) {
+			nrEvaluated[idx]++;
+			if (!filters[idx].satisfiesFilterValue(rawValues[idx].getValue(filters[idx], values))) {
+				nrRejected[idx]++;
+				nrRejectedPSMs++;
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Checks the remaining filters on the created PSM, which passed
+	 * {@link #satisfiesRawFilters(PSMValues)} before.
+	 *
+	 * @param psm
+	 * @return
+	 */
+	public boolean satisfiesPSMFilters(IntermediatePeptideSpectrumMatch psm) {
+		for (int idx : psmOrder) {
+			nrEvaluated[idx]++;
+			if (filters[idx].supportsClass(psm) && !filters[idx].satisfiesFilter(psm)) {
+				nrRejected[idx]++;
+				nrRejectedPSMs++;
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Sorts the given filter indices by the rejection rate of the filters,
+	 * highest first.
+	 */
+	private void reorder(Integer[] order) {
+		if (order.length < 2) {
+			return;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(getRejectionRate(o2), getRejectionRate(o1));
+			}
+		});
+	}
+
+
+	/**
+	 * Returns the fraction of rejected PSMs of all PSMs evaluated by the
+	 * filter with the given index.
+	 */
+	private double getRejectionRate(int idx) {
+		if (nrEvaluated[idx] == 0) {
+			// not yet evaluated filters are assumed to be selective
+			return 1.0;
+		}
+		return (double) nrRejected[idx] / nrEvaluated[idx];
+	}
+
+
+	/**
+	 * Returns the number of PSMs rejected by each filter, in the order the
+	 * filters were given.
+	 *
+	 * @return
+	 */
+	public Map<AbstractFilter, Long> getRejectionCounts() {
+		Map<AbstractFilter, Long> counts = new LinkedHashMap<AbstractFilter, Long>(filters.length);
+		for (int i = 0; i < filters.length; i++) {
+			counts.put(filters[i], nrRejected[i]);
+		}
+		return counts;
+	}
+
+
+	/**
+	 * Returns the number of PSMs checked by this stage.
+	 *
+	 * @return
+	 */
+	public long getNrChecked() {
+		return nrChecked;
+	}
+
+
+	/**
+	 * Returns the number of PSMs rejected by any filter of this stage.
+	 *
+	 * @return
+	 */
+	public long getNrRejected() {
+		return nrRejectedPSMs;
+	}
+
+
+	/**
+	 * Adds the counts of the other stage, which must have been created for the
+	 * same filters, to the counts of this stage.
+	 *
+	 * @param other
+	 */
+	public void addCounts(ImportFilterStage other) {
+		if (!Arrays.equals(filters, other.filters)) {
+			throw new IllegalArgumentException("the stages have different filters");
+		}
+
+		for (int i = 0; i < filters.length; i++) {
+			nrEvaluated[i] += other.nrEvaluated[i];
+			nrRejected[i] += other.nrRejected[i];
+		}
+		nrChecked += other.nrChecked;
+		nrRejectedPSMs += other.nrRejectedPSMs;
+	}
+
+
+	/**
+	 * The raw values of a PSM, as they are known by the importer before the
+	 * PSM object is created.
+	 *
+	 * @author julian
+	 *
+	 */
+	public interface PSMValues {
+
+		/**
+		 * Returns the value of the score with the given accession or null, if
+		 * the PSM has no such score.
+		 */
+		public Double getScore(String scoreAccession);
+
+
+		/**
+		 * Returns the charge of the PSM.
+		 */
+		public Integer getCharge();
+
+
+		/**
+		 * Returns whether the PSM is a decoy, i.e. whether all its proteins
+		 * are decoys.
+		 */
+		public Boolean getIsDecoy();
+
+
+		/**
+		 * Returns the accessions of the proteins of the PSM.
+		 */
+		public List<String> getAccessions();
+	}
+
+
+	/**
+	 * The kinds of raw values, on which filters are evaluated.
+	 */
+	private enum RawValue {
+		SCORE {
+			@Override
+			public Object getValue(AbstractFilter filter, PSMValues values) {
+				return values.getScore(((PSMScoreFilter) filter).getScoreAccession());
+			}
+		},
+		CHARGE {
+			@Override
+			public Object getValue(AbstractFilter filter, PSMValues values) {
+				return values.getCharge();
+			}
+		},
+		DECOY {
+			@Override
+			public Object getValue(AbstractFilter filter, PSMValues values) {
+				return values.getIsDecoy();
+			}
+		},
+		ACCESSIONS {
+			@Override
+			public Object getValue(AbstractFilter filter, PSMValues values) {
+				return values.getAccessions();
+			}
+		},
+		;
+
+
+		/**
+		 * Returns the value, on which the given filter is evaluated.
+		 */
+		public abstract Object getValue(AbstractFilter filter, PSMValues values);
+
+
+		/**
+		 * Returns the kind of raw value, on which the given filter can be
+		 * evaluated, or null if it needs the PSM object.
+		 */
+		public static RawValue getRawValue(AbstractFilter filter) {
+			if (filter instanceof PSMScoreFilter) {
+				return (((PSMScoreFilter) filter).getScoreAccession() != null) ? SCORE : null;
+			} else if (filter instanceof PSMChargeFilter) {
+				return CHARGE;
+			} else if (filter instanceof PSMDecoyFilter) {
+				return DECOY;
+			} else if (filter instanceof PSMAccessionsFilter) {
+				return ACCESSIONS;
+			}
+			return null;
+		}
+	}
+}
@@ -96,6 +96,17 @@ public class PSMScoreFilter extends AbstractFilter {
 	}
 	
 	
+	/**
+	 * Returns the accession of the filtered score, null if the score is not
+	 * known.
+	 * 
+	 * @return
+	 */
+	public String getScoreAccession() {
+		return cvAccession;
+	}
+	
+	
 	@Override
 	public Object getObjectsValue(Object o) {
 		if (o instanceof IntermediatePeptideSpectrumMatch) {
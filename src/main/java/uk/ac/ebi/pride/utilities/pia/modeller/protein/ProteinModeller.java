@@ -10,9 +10,11 @@ import org.slf4j.LoggerFactory;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
 import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
 import uk.ac.ebi.pride.utilities.pia.modeller.protein.inference.AbstractProteinInference;
+import uk.ac.ebi.pride.utilities.pia.modeller.protein.inference.BatchProteinInference;
 import uk.ac.ebi.pride.utilities.pia.modeller.protein.inference.InferenceProteinGroup;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoring;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoring;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressReporter;
 
 
 /**
@@ -36,6 +38,9 @@ public class ProteinModeller {
 	/** the inferred proteins */
 	private List<InferenceProteinGroup> inferredProteins; 
 	
+	/** the reporter of the inference progress */
+	private ProgressReporter progressReporter;
+	
 	/** the peptide scoring used for protein inference */
 	private PeptideScoring usedPeptideScoring;
 	
@@ -55,6 +60,7 @@ public class ProteinModeller {
 		this.intermediateStructure = intermediateStructure;
 		this.allowedThreads = allowedThreads;
 		this.inferredProteins = null;
+		this.progressReporter = new ProgressReporter();
 		
 		this.usedPeptideScoring = null;
 		this.usedProteinScoring = null;
@@ -63,6 +69,17 @@ public class ProteinModeller {
 	}
 	
 	
+	/**
+	 * Sets the reporter of the inference progress, the items are the
+	 * clusters of the intermediate structure.
+	 * 
+	 * @param reporter
+	 */
+	public void setProgressReporter(ProgressReporter reporter) {
+		this.progressReporter = reporter;
+	}
+	
+	
 	/**
 	 * Runs the protein inference with the given settings and stores the protein
 	 * groups in a list, which can be returned by {@link #getInferredProteins()}
@@ -76,20 +93,14 @@ public class ProteinModeller {
 	public void infereProteins(PeptideScoring peptideScoring, ProteinScoring proteinScoring,
 			Class<? extends AbstractProteinInference> proteinInferenceClass, List<AbstractFilter> filters,
 			boolean considerModifications) {
-		AbstractProteinInference proteinInference;
-		
-		try {
-			Constructor<? extends AbstractProteinInference> constructor =
-					proteinInferenceClass.getConstructor(
-							IntermediateStructure.class, PeptideScoring.class, ProteinScoring.class, List.class, Integer.class);
-			
-			proteinInference = constructor.newInstance(intermediateStructure, peptideScoring, proteinScoring, filters, allowedThreads);
-		} catch (Exception ex) {
-			logger.error("Could not initialize protein inference for " + proteinInferenceClass.getCanonicalName(), ex);
+		AbstractProteinInference proteinInference =
+				createProteinInference(peptideScoring, proteinScoring, proteinInferenceClass, filters);
+		if (proteinInference == null) {
 			inferredProteins = null;
 			return;
 		}
 		
+		proteinInference.setProgressReporter(progressReporter);
 		inferredProteins = proteinInference.calculateInference(considerModifications);
 		
 		usedPeptideScoring = peptideScoring;
@@ -101,6 +112,61 @@ public class ProteinModeller {
 	}
 	
 	
+	/**
+	 * Runs the protein inferences with all the given settings in one pass over
+	 * the clusters and returns their protein groups, in the order of the
+	 * configurations. Filter evaluations, which are common to several
+	 * configurations, are shared. For each configuration, the same protein
+	 * groups are reported as by
+	 * {@link #infereProteins(PeptideScoring, ProteinScoring, Class, List, boolean)},
+	 * but ordered by the clusters.
+	 * <p>
+	 * The results are not stored as the inferred proteins of this modeller.
+	 * 
+	 * @param configurations
+	 * @return the protein groups of each configuration, or null, if any
+	 * inference could not be initialized
+	 */
+	public List<List<InferenceProteinGroup>> infereProteins(List<InferenceConfiguration> configurations) {
+		BatchProteinInference batchInference = new BatchProteinInference(intermediateStructure, allowedThreads);
+		batchInference.setProgressReporter(progressReporter);
+		
+		for (InferenceConfiguration configuration : configurations) {
+			AbstractProteinInference proteinInference = createProteinInference(
+					configuration.getPeptideScoring(), configuration.getProteinScoring(),
+					configuration.getProteinInferenceClass(), configuration.getFilters());
+			if (proteinInference == null) {
+				return null;
+			}
+			
+			batchInference.addInference(proteinInference, configuration.getConsiderModifications());
+		}
+		
+		return batchInference.calculateInferences();
+	}
+	
+	
+	/**
+	 * Creates the protein inference of the given class for the structure.
+	 * 
+	 * @return the inference or null, if it could not be initialized
+	 */
+	private AbstractProteinInference createProteinInference(PeptideScoring peptideScoring,
+			ProteinScoring proteinScoring, Class<? extends AbstractProteinInference> proteinInferenceClass,
+			List<AbstractFilter> filters) {
+		try {
+			Constructor<? extends AbstractProteinInference> constructor =
+					proteinInferenceClass.getConstructor(
+							IntermediateStructure.class, PeptideScoring.class, ProteinScoring.class, List.class, Integer.class);
+			
+			return constructor.newInstance(intermediateStructure, peptideScoring, proteinScoring, filters, allowedThreads);
+		} catch (Exception ex) {
+			logger.error("Could not initialize protein inference for " + proteinInferenceClass.getCanonicalName(), ex);
+			return null;
+		}
+	}
+	
+	
 	/**
 	 * Returns a list of the inferred protein groups. These protein groups must
 	 * be calculated by {@link #infereProteins(PeptideScoring, ProteinScoring, Class, List, boolean)}
@@ -115,4 +181,65 @@ public class ProteinModeller {
 			return null;
 		}
 	}
-}
\ No newline at end of file
+	
+	
+	/**
+	 * The settings of one protein inference run.
+	 * 
+	 * @author julian
+	 *
+	 */
+	public static class InferenceConfiguration {
+		
+		/** the peptide scoring */
+		private PeptideScoring peptideScoring;
+		
+		/** the protein scoring */
+		private ProteinScoring proteinScoring;
+		
+		/** the class of the inference */
+		private Class<? extends AbstractProteinInference> proteinInferenceClass;
+		
+		/** the inference filters */
+		private List<AbstractFilter> filters;
+		
+		/** whether modifications are considered */
+		private boolean considerModifications;
+		
+		
+		public InferenceConfiguration(PeptideScoring peptideScoring, ProteinScoring proteinScoring,
+				Class<? extends AbstractProteinInference> proteinInferenceClass, List<AbstractFilter> filters,
+				boolean considerModifications) {
+			this.peptideScoring = peptideScoring;
+			this.proteinScoring = proteinScoring;
+			this.proteinInferenceClass = proteinInferenceClass;
+			this.filters = filters;
+			this.considerModifications = considerModifications;
+		}
+		
+		
+		public PeptideScoring getPeptideScoring() {
+			return peptideScoring;
+		}
+		
+		
+		public ProteinScoring getProteinScoring() {
+			return proteinScoring;
+		}
+		
+		
+		public Class<? extends AbstractProteinInference> getProteinInferenceClass() {
+			return proteinInferenceClass;
+		}
+		
+		
+		public List<AbstractFilter> getFilters() {
+			return filters;
+		}
+		
+		
+		public boolean getConsiderModifications() {
+			return considerModifications;
+		}
+	}
+}
@@ -12,9 +12,14 @@ import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
 import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterUtilities;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoring;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoring;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressListener.Stage;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressReporter;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -54,6 +59,12 @@ public abstract class AbstractProteinInference {
 
 	/** the PIA intermediate structure */
 	protected IntermediateStructure intermediateStructure;
+	
+	/** the reporter of the inference progress */
+	protected ProgressReporter progressReporter;
+	
+	/** the progress of the current (or last) inference run, null before the first run */
+	private volatile ProgressTracker progressTracker;
     
 	/** round to two decimals */
 	private static final DecimalFormat roundTwoDecimals = new DecimalFormat("#.##");
@@ -77,6 +88,8 @@ public abstract class AbstractProteinInference {
 		this.peptideScoring = peptideScoring;
 		this.proteinScoring = proteinScoring;
 		this.allowedThreads = nrThreads;
+		this.progressReporter = new ProgressReporter();
+		this.progressTracker = null;
 		logger.debug("starting inference with following filters: " + filters);
 	}
 	
@@ -94,6 +107,20 @@ public abstract class AbstractProteinInference {
     		boolean considerModifications);
     
     
+	/**
+	 * Infers the protein groups of the given cluster only, without changing
+	 * the state of this inference. This is used to run several inferences in
+	 * one pass over the clusters, see {@link BatchProteinInference}.
+	 * 
+	 * @param cluster
+	 * @param considerModifications
+	 * @param cache the cache shared by the inferences of the cluster, may be null
+	 * @return the reported protein groups of the cluster
+	 */
+	protected abstract List<InferenceProteinGroup> inferCluster(Set<IntermediateGroup> cluster,
+			boolean considerModifications, ClusterInferenceCache cache);
+    
+    
 	/**
 	 * This method creates a Map from the groups' IDs to the associated
 	 * {@link IntermediatePeptide}s, which satisfy the currently set filters.
@@ -123,14 +150,46 @@ public abstract class AbstractProteinInference {
 	 * This method creates a Map from the groups' IDs to the associated
 	 * {@link IntermediatePeptide}s of the given cluster, which satisfy the
 	 * currently set filters.
+	 * <p>
+	 * The returned peptides are views of the peptides in the intermediate
+	 * structure, which are filtered and scored for this run only. So the
+	 * structure is not changed and may be used by concurrent runs.
 	 * 
 	 * @param considerModifications
 	 * @return
 	 */
 	public Map<Integer, Set<IntermediatePeptide>> createClustersFilteredPeptidesMap(
 			Set<IntermediateGroup> cluster, boolean considerModifications) {
+		return createClustersFilteredPeptidesMap(cluster, considerModifications, null);
+	}
+	
+	
+	/**
+	 * Creates the Map from the groups' IDs to the filtered peptides of the
+	 * given cluster like {@link #createClustersFilteredPeptidesMap(Set, boolean)}.
+	 * If a cache is given, the filter results and the map itself are shared
+	 * with the other inferences using this cache, so the returned map must not
+	 * be changed.
+	 * 
+	 * @param cluster
+	 * @param considerModifications
+	 * @param cache the cache of the cluster, may be null
+	 * @return
+	 */
+	protected Map<Integer, Set<IntermediatePeptide>> createClustersFilteredPeptidesMap(
+			Set<IntermediateGroup> cluster, boolean considerModifications, ClusterInferenceCache cache) {
+		List<Object> settings = null;
+		if (cache != null) {
+			// the peptide filters and scoring are the same for equal settings
+			settings = Arrays.<Object>asList(considerModifications, peptideScoring, filters.toString());
+			Map<Integer, Set<IntermediatePeptide>> cachedMap = cache.getFilteredPeptidesMap(settings);
+			if (cachedMap != null) {
+				return cachedMap;
+			}
+		}
+		
 		Map<Integer, Set<IntermediatePeptide>> groupIdToPeptides =
-				new HashMap<Integer, Set<IntermediatePeptide>>(intermediateStructure.getNrGroups() / 2);
+				new HashMap<Integer, Set<IntermediatePeptide>>(cluster.size());
 		
 		for (IntermediateGroup group : cluster) {
 			
@@ -144,25 +203,33 @@ public abstract class AbstractProteinInference {
 					new HashMap<Comparable, IntermediatePeptide>();
 			
 			for (IntermediatePeptide pep : group.getPeptides()) {
+				BitSet passingPositions = (cache != null) ?
+						cache.getPassingPositions(pep, filters) : pep.getPassingPositions(filters);
+				
 				if (!considerModifications) {
-					// use the same IntermediatePeptide as in the intermediate structure
-					groupsPepsMap.put(pep.getSequence(), pep);
-					pep.filterPSMs(filters);
+					// use a filtered view of the IntermediatePeptide in the intermediate structure
+					groupsPepsMap.put(pep.getSequence(), pep.createView(passingPositions));
 				} else {
-					for (IntermediatePeptideSpectrumMatch psm : pep.getAllPeptideSpectrumMatches()) {
-						if (FilterUtilities.satisfiesFilterList(psm, filters)) {
-							// all filters on PSM level are satisfied -> use this PSM
-							Comparable pepID = getPSMKey(psm, true);
-							
-							// get the peptide of this PSM
-							IntermediatePeptide psmsPeptide = groupsPepsMap.get(pepID);
-							if (psmsPeptide == null) {
-								// no peptide for the pepID in the map yet
-								psmsPeptide = new IntermediatePeptide(pep.getSequence());
-								groupsPepsMap.put(pepID, psmsPeptide);
-							}
-							psmsPeptide.addPeptideSpectrumMatch(psm);
+					// the positions of the PSMs for each modified peptide
+					Map<Comparable, BitSet> pepIdToPositions = new HashMap<Comparable, BitSet>();
+					List<IntermediatePeptideSpectrumMatch> psms = pep.getAllPeptideSpectrumMatches();
+					
+					for (int position = passingPositions.nextSetBit(0); position >= 0;
+							position = passingPositions.nextSetBit(position + 1)) {
+						// all filters on PSM level are satisfied -> use this PSM
+						Comparable pepID = getPSMKey(psms.get(position), true);
+						
+						BitSet positions = pepIdToPositions.get(pepID);
+						if (positions == null) {
+							// no peptide for the pepID in the map yet
+							positions = new BitSet(psms.size());
+							pepIdToPositions.put(pepID, positions);
 						}
+						positions.set(position);
+					}
+					
+					for (Map.Entry<Comparable, BitSet> pepIdIt : pepIdToPositions.entrySet()) {
+						groupsPepsMap.put(pepIdIt.getKey(), pep.createView(pepIdIt.getValue()));
 					}
 				}
 			}
@@ -182,10 +249,34 @@ public abstract class AbstractProteinInference {
 			groupIdToPeptides.put(group.getID(), groupsPeptides);
 		}
 		
+		if (cache != null) {
+			cache.putFilteredPeptidesMap(settings, groupIdToPeptides);
+		}
 		return groupIdToPeptides;
 	}
 	
 	
+	/**
+	 * Estimates the costs of the inference for each cluster by the number of
+	 * peptides times the number of proteins in the cluster.
+	 * 
+	 * @param structure
+	 * @param clusterNrs
+	 * @return
+	 */
+	protected static long[] estimateClusterCosts(IntermediateStructure structure, List<Integer> clusterNrs) {
+		long[] costs = new long[clusterNrs.size()];
+		
+		for (int i = 0; i < costs.length; i++) {
+			long nrPeptides = structure.getClusterNrPeptides(clusterNrs.get(i));
+			long nrProteins = structure.getClusterNrProteins(clusterNrs.get(i));
+			costs[i] = nrPeptides * nrProteins;
+		}
+		
+		return costs;
+	}
+	
+	
 	/**
 	 * Tests for the given group, if it has any direct {@link IntermediatePeptide}s,
 	 * in the given Map. This Map should by created by 
@@ -234,8 +325,8 @@ public abstract class AbstractProteinInference {
 	 */
 	static public final Comparable getPeptideKey(IntermediatePeptide peptide, boolean considerModifications) {
 		if (considerModifications) {
-			// return one of the PSMs' keys
-			return getPSMKey(peptide.getAllPeptideSpectrumMatches().get(0), true);
+			// return one of the (passing) PSMs' keys
+			return getPSMKey(peptide.getPeptideSpectrumMatches().get(0), true);
 		} else {
 			// just return the sequence
 			return peptide.getSequence();
@@ -282,13 +373,42 @@ public abstract class AbstractProteinInference {
 	}
 	
 	
+	/**
+	 * Sets the reporter, to which the progress of the following inference
+	 * runs is reported.
+	 * 
+	 * @param reporter
+	 */
+	public void setProgressReporter(ProgressReporter reporter) {
+		this.progressReporter = reporter;
+	}
+	
+	
+	/**
+	 * Starts the tracking of an inference run, the items are the clusters of
+	 * the intermediate structure. This should be called by the
+	 * implementations at the start of
+	 * {@link #calculateInference(boolean)}.
+	 * 
+	 * @return the tracker of the run
+	 */
+	protected ProgressTracker startProgress() {
+		progressTracker = progressReporter.startStage(Stage.INFERENCE, getName(),
+				intermediateStructure.getNrClusters());
+		return progressTracker;
+	}
+	
+	
     /**
 	 * If polling of inference is performed, return the current state of the
-	 * progress (between 0 and 100 progress in percent, &lt;0 inference aborted,
-	 * &gt;100 inference is done).
+	 * progress (between 0 and 100 progress in percent, 100 when the
+	 * inference is done).
 	 * @return
 	 */
-	public abstract Long getProgressValue();
+	public Long getProgressValue() {
+		ProgressTracker tracker = progressTracker;
+		return (tracker != null) ? tracker.getPercent() : 0L;
+	}
 	
 	
 	/**
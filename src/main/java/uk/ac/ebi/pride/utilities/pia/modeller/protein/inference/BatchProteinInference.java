@@ -0,0 +1,170 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.protein.inference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.ClusterScheduler;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateGroup;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressListener.Stage;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressReporter;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
+
+
+/**
+ * Runs several protein inferences on the same {@link IntermediateStructure}
+ * in one pass over its clusters, e.g. for a sweep over the settings of the
+ * inference.
+ * <p>
+ * Each cluster is fetched only once and then inferred by all inferences one
+ * after another. The inferences of a cluster share the evaluations of equal
+ * filters and the filtered and scored peptides for equal filter and peptide
+ * scoring settings, see {@link ClusterInferenceCache}. The protein groups of
+ * each inference are ordered by the cluster numbers.
+ *
+ * @author julian
+ *
+ */
+public class BatchProteinInference {
+
+	/** the logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(BatchProteinInference.class);
+
+	/** the human readable name of the batch inference */
+	protected static final String name = "Batch Inference";
+
+	/** the structure, on which all inferences run */
+	private IntermediateStructure intermediateStructure;
+
+	/** the inferences to run */
+	private List<AbstractProteinInference> inferences;
+
+	/** whether modifications are considered, for each inference */
+	private List<Boolean> considerModifications;
+
+	/** the number of allowed threads (smaller 1 = all available)*/
+	private int allowedThreads;
+
+	/** the reporter of the inference progress */
+	private ProgressReporter progressReporter;
+
+
+	public BatchProteinInference(IntermediateStructure intermediateStructure, Integer nrThreads) {
+		this.intermediateStructure = intermediateStructure;
+		this.inferences = new ArrayList<AbstractProteinInference>();
+		this.considerModifications = new ArrayList<Boolean>();
+		this.allowedThreads = nrThreads;
+		this.progressReporter = new ProgressReporter();
+	}
+
+
+	/**
+	 * Adds an inference to the batch. It must be created for the structure of
+	 * the batch, its own number of threads is not used.
+	 *
+	 * @param inference
+	 * @param considerModifications
+	 */
+	public void addInference(AbstractProteinInference inference, boolean considerModifications) {
+		if (inference.intermediateStructure != intermediateStructure) {
+			throw new IllegalArgumentException("The inference " + inference.getName()
+					+ " is created for another intermediate structure");
+		}
+
+		inferences.add(inference);
+		this.considerModifications.add(considerModifications);
+	}
+
+
+	/**
+	 * Sets the reporter, to which the progress of the batch is reported. The
+	 * items are the clusters of the intermediate structure.
+	 *
+	 * @param reporter
+	 */
+	public void setProgressReporter(ProgressReporter reporter) {
+		this.progressReporter = reporter;
+	}
+
+
+	/**
+	 * Runs all added inferences and returns their protein groups, in the order
+	 * in which the inferences were added.
+	 *
+	 * @return
+	 */
+	public List<List<InferenceProteinGroup>> calculateInferences() {
+		ProgressTracker tracker = progressReporter.startStage(Stage.INFERENCE, name,
+				intermediateStructure.getNrClusters());
+		logger.info(name + " of " + inferences.size() + " inferences started, using "
+				+ allowedThreads + " threads");
+
+		// the clusters are reported in the order of their numbers
+		final List<Integer> clusterNrs =
+				new ArrayList<Integer>(intermediateStructure.getClusters().keySet());
+		Collections.sort(clusterNrs);
+
+		List<Integer> positions = new ArrayList<Integer>(clusterNrs.size());
+		for (int pos = 0; pos < clusterNrs.size(); pos++) {
+			positions.add(pos);
+		}
+
+		// each cluster's protein groups of all inferences are written only into its own slot
+		final AtomicReferenceArray<List<List<InferenceProteinGroup>>> clusterProteinGroups =
+				new AtomicReferenceArray<List<List<InferenceProteinGroup>>>(clusterNrs.size());
+
+		// process the clusters, the largest first
+		try {
+			ClusterScheduler<Integer> scheduler =
+					new ClusterScheduler<Integer>(name, allowedThreads);
+			scheduler.process(positions,
+					AbstractProteinInference.estimateClusterCosts(intermediateStructure, clusterNrs),
+					new ClusterScheduler.ClusterProcessor<Integer>() {
+						@Override
+						public void processCluster(Integer pos) {
+							clusterProteinGroups.set(pos,
+									inferCluster(intermediateStructure.getCluster(clusterNrs.get(pos))));
+						}
+					}, tracker);
+		} finally {
+			tracker.finish();
+		}
+
+		List<List<InferenceProteinGroup>> proteinGroups =
+				new ArrayList<List<InferenceProteinGroup>>(inferences.size());
+		for (int i = 0; i < inferences.size(); i++) {
+			List<InferenceProteinGroup> inferenceGroups = new ArrayList<InferenceProteinGroup>();
+			for (int pos = 0; pos < clusterProteinGroups.length(); pos++) {
+				inferenceGroups.addAll(clusterProteinGroups.get(pos).get(i));
+			}
+			proteinGroups.add(inferenceGroups);
+		}
+
+		logger.info(name + " done");
+		return proteinGroups;
+	}
+
+
+	/**
+	 * Infers the given cluster with all inferences, sharing one cache.
+	 *
+	 * @param cluster
+	 * @return the protein groups of the cluster for each inference
+	 */
+	private List<List<InferenceProteinGroup>> inferCluster(Set<IntermediateGroup> cluster) {
+		ClusterInferenceCache cache = new ClusterInferenceCache();
+
+		List<List<InferenceProteinGroup>> proteinGroups =
+				new ArrayList<List<InferenceProteinGroup>>(inferences.size());
+		for (int i = 0; i < inferences.size(); i++) {
+			proteinGroups.add(inferences.get(i).inferCluster(cluster, considerModifications.get(i), cache));
+		}
+		return proteinGroups;
+	}
+}
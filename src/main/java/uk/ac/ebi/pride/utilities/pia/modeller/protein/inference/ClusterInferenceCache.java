@@ -0,0 +1,106 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.protein.inference;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+
+
+/**
+ * The filtering results of one cluster, which are shared by several
+ * inferences processing this cluster one after another, see
+ * {@link BatchProteinInference}.
+ * <p>
+ * Each filter is evaluated only once on the PSMs of a peptide, filters with
+ * the same string representation (i.e. type, comparator and value) are
+ * considered equal. The filtered and scored peptides of the groups are
+ * shared by the inferences with equal filters, the same peptide scoring and
+ * the same handling of modifications.
+ * <p>
+ * A cache is used by a single thread only.
+ *
+ * @author julian
+ *
+ */
+public final class ClusterInferenceCache {
+
+	/** the positions of the passing PSMs of each peptide, mapped by the filters */
+	private Map<IntermediatePeptide, Map<String, BitSet>> peptidesPassingPositions;
+
+	/** the filtered peptides of the groups, mapped by the settings */
+	private Map<List<Object>, Map<Integer, Set<IntermediatePeptide>>> filteredPeptidesMaps;
+
+
+	ClusterInferenceCache() {
+		this.peptidesPassingPositions = new IdentityHashMap<IntermediatePeptide, Map<String, BitSet>>();
+		this.filteredPeptidesMaps = new HashMap<List<Object>, Map<Integer, Set<IntermediatePeptide>>>();
+	}
+
+
+	/**
+	 * Returns the positions of the PSMs of the peptide, which pass all the
+	 * given filters. The returned set may be changed.
+	 *
+	 * @param peptide
+	 * @param filters
+	 * @return
+	 */
+	BitSet getPassingPositions(IntermediatePeptide peptide, List<AbstractFilter> filters) {
+		if (filters.isEmpty()) {
+			return peptide.getPassingPositions(filters);
+		}
+
+		Map<String, BitSet> filtersPositions = peptidesPassingPositions.get(peptide);
+		if (filtersPositions == null) {
+			filtersPositions = new HashMap<String, BitSet>();
+			peptidesPassingPositions.put(peptide, filtersPositions);
+		}
+
+		BitSet passing = null;
+		for (AbstractFilter filter : filters) {
+			String filterKey = filter.getClass().getName() + " " + filter.toString();
+			BitSet filterPositions = filtersPositions.get(filterKey);
+			if (filterPositions == null) {
+				filterPositions = peptide.getPassingPositions(Collections.singletonList(filter));
+				filtersPositions.put(filterKey, filterPositions);
+			}
+
+			if (passing == null) {
+				passing = (BitSet) filterPositions.clone();
+			} else {
+				passing.and(filterPositions);
+			}
+		}
+		return passing;
+	}
+
+
+	/**
+	 * Returns the filtered peptides of the groups, which were created with
+	 * the given settings before, or null.
+	 *
+	 * @param settings
+	 * @return
+	 */
+	Map<Integer, Set<IntermediatePeptide>> getFilteredPeptidesMap(List<Object> settings) {
+		return filteredPeptidesMaps.get(settings);
+	}
+
+
+	/**
+	 * Stores the filtered peptides of the groups for the given settings. The
+	 * map must not be changed afterwards.
+	 *
+	 * @param settings
+	 * @param groupIdToPeptides
+	 */
+	void putFilteredPeptidesMap(List<Object> settings, Map<Integer, Set<IntermediatePeptide>> groupIdToPeptides) {
+		filteredPeptidesMaps.put(settings, groupIdToPeptides);
+	}
+}
@@ -1,18 +1,19 @@
 package uk.ac.ebi.pride.utilities.pia.modeller.protein.inference;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.ebi.pride.utilities.pia.intermediate.ClusterScheduler;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateGroup;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
 import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoring;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoring;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
 
 
 
@@ -46,16 +47,6 @@ public class OccamsRazorInference extends AbstractProteinInference {
 	/** the machine readable name of the filter */
 	protected static final String shortName = "inference_occams_razor";
 	
-	/** the progress of the inference */
-	private Double progress;
-	
-	/** variable to calculate the progress faster*/
-	private Double progressStep;
-	
-	
-	/** this iterator iterates over the mapping from the tree ID to its groups*/
-	private Iterator<Set<IntermediateGroup>> clustersIterator;
-	
 	/** this list holds the reported proteins */
 	private List<InferenceProteinGroup> reportProteinGroups;
 	
@@ -64,8 +55,6 @@ public class OccamsRazorInference extends AbstractProteinInference {
 			PeptideScoring peptideScoring, ProteinScoring proteinScoring,
 			List<AbstractFilter> filters, Integer nrThreads) {
 		super(intermediateStructure, peptideScoring, proteinScoring, filters, nrThreads);
-		
-		this.progress = 0.0;
 	}
 	
 	/*
@@ -141,66 +130,39 @@ public class OccamsRazorInference extends AbstractProteinInference {
 	
 	@Override
 	public List<InferenceProteinGroup> calculateInference( boolean considerModifications) {
-		
-		progress = 0.0;
+		ProgressTracker tracker = startProgress();
 		logger.info(name + " calculateInference started...");
 		
-		// initialize the cluster iterator
-		clustersIterator = intermediateStructure.getClusters().values().iterator();
-		
 		// initialize the reported list
 		reportProteinGroups = new ArrayList<InferenceProteinGroup>();
 		
-		// the number of threads used for the inference
-		List<OccamsRazorWorkerThread> threads =
-				new ArrayList<OccamsRazorWorkerThread>(allowedThreads);
 		logger.info("using " + allowedThreads + " threads for inference");
 		
-		// initialize and start  the worker threads
-		progressStep = 89.0 / intermediateStructure.getNrClusters();
-		for (int i=0; i < allowedThreads; i++) {
-			OccamsRazorWorkerThread workerThread =
-								new OccamsRazorWorkerThread(i+1,
-										this,
-										filters,
-										considerModifications);
-			
-			threads.add(workerThread);
-			workerThread.start();
-		}
-		
-		progress += 10.0;
-		
-		// wait for the threads to finish
-		for (OccamsRazorWorkerThread workerThread : threads) {
-			try {
-				workerThread.join();
-			} catch (InterruptedException e) {
-				// TODO: make better error/exception
-				logger.error("thread got interrupted!");
-				e.printStackTrace();
-			}
+		// the clusters are only fetched by the workers, as they might be loaded lazily
+		List<Integer> clusterNrs =
+				new ArrayList<Integer>(intermediateStructure.getClusters().keySet());
+		
+		// process the clusters, the largest first
+		try {
+			ClusterScheduler<Integer> scheduler =
+					new ClusterScheduler<Integer>(name, allowedThreads);
+			scheduler.process(clusterNrs, estimateClusterCosts(intermediateStructure, clusterNrs),
+					new OccamsRazorWorker(this, intermediateStructure, filters, considerModifications),
+					tracker);
+		} finally {
+			tracker.finish();
 		}
 		
-		progress = 100.0;
 		logger.info(name + " calculateInference done");
 		return reportProteinGroups;
 	}
 	
 	
-	/**
-	 * Returns the next cluster in the intermediate structure null, if no more
-	 * clusters are available.
-	 * 
-	 * @return
-	 */
-	public synchronized Set<IntermediateGroup> getNextCluster() {
-		if (clustersIterator != null) {
-			if (clustersIterator.hasNext()) {
-				return clustersIterator.next();
-			}
-		}
-		return null;
+	@Override
+	protected List<InferenceProteinGroup> inferCluster(Set<IntermediateGroup> cluster,
+			boolean considerModifications, ClusterInferenceCache cache) {
+		return new OccamsRazorWorker(this, intermediateStructure, filters, considerModifications)
+				.inferCluster(cluster, cache);
 	}
 	
 	
@@ -211,7 +173,6 @@ public class OccamsRazorInference extends AbstractProteinInference {
 	 */
 	public synchronized void addToReports(List<InferenceProteinGroup> proteinGroups) {
 		reportProteinGroups.addAll(proteinGroups);
-		progress += progressStep;
 	}
 	
 	
@@ -225,10 +186,4 @@ public class OccamsRazorInference extends AbstractProteinInference {
 	public String getShortName() {
 		return shortName;
 	}
-	
-	
-	@Override
-	public Long getProgressValue() {
-		return progress.longValue();
-	}
 }
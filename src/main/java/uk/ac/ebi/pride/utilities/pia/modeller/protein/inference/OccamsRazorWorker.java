@@ -0,0 +1,395 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.protein.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.ClusterScheduler;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateGroup;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterUtilities;
+
+
+
+/**
+ * The worker of the {@link OccamsRazorInference}, which infers the proteins of
+ * one cluster at a time. It is called by the {@link ClusterScheduler}.
+ * 
+ * @author julian
+ *
+ */
+public class OccamsRazorWorker implements ClusterScheduler.ClusterProcessor<Integer> {
+	
+	/** the caller of this worker */
+	private OccamsRazorInference parent;
+	
+	/** the structure, from which the clusters are fetched */
+	private IntermediateStructure intermediateStructure;
+	
+	/** the applied inference filters */
+	private List<AbstractFilter> filters;
+	
+	/** whether modifications are considered while inferring the peptides */
+	private boolean considerModifications;
+	
+	
+	public OccamsRazorWorker(OccamsRazorInference parent,
+			IntermediateStructure intermediateStructure,
+			List<AbstractFilter> filters,
+			boolean considerModifications) {
+		this.parent = parent;
+		this.intermediateStructure = intermediateStructure;
+		this.filters = filters;
+		this.considerModifications = considerModifications;
+	}
+	
+	
+	/**
+	 * Fetches the cluster given by its number from the structure and infers
+	 * its proteins. The cluster is not referenced after the inference, so it
+	 * can be released by lazily loading structures.
+	 */
+	@Override
+	public void processCluster(Integer clusterNr) {
+		List<InferenceProteinGroup> reportProteins =
+				inferCluster(intermediateStructure.getCluster(clusterNr), null);
+		
+		if (reportProteins.size() > 0) {
+			parent.addToReports(reportProteins);
+		}
+	}
+	
+	
+	/**
+	 * Do the protein inference on the cluster
+	 * 
+	 * @param cluster
+	 * @param cache the cache shared with other inferences of the cluster, may be null
+	 * @return the reported protein groups
+	 */
+	List<InferenceProteinGroup> inferCluster(Set<IntermediateGroup> cluster, ClusterInferenceCache cache) {
+		// create the filtered report peptides mapping from the groups' IDs
+		Map<Integer, Set<IntermediatePeptide>> groupIdToReportPeptides =
+				parent.createClustersFilteredPeptidesMap(cluster, considerModifications, cache);
+		
+		// the map of actually reported proteins
+		List<InferenceProteinGroup> proteins =
+				new ArrayList<InferenceProteinGroup>(groupIdToReportPeptides.size());
+		
+		// maps from the proteinGroup IDs to the peptide keys 
+		Map<String, Set<Comparable>> proteinIDsToPeptideIDs = new HashMap<String, Set<Comparable>>();
+		
+		// create for each group, which has at least one peptide and protein, a protein group
+		for (IntermediateGroup group : cluster) {
+			
+			if ((group.getProteins() == null) ||
+					(group.getProteins().size() == 0) ||
+					!parent.groupHasReportPeptides(group, groupIdToReportPeptides)) {
+				// this group has no proteins or no peptides, skip it
+				continue;
+			}
+			
+			// collect the peptides
+			Set<IntermediatePeptide> interPeptides = new HashSet<IntermediatePeptide>();
+			
+			if (groupIdToReportPeptides.containsKey(group.getID())) {
+				interPeptides.addAll(groupIdToReportPeptides.get(group.getID()));
+			}
+			for (IntermediateGroup pepGroup : group.getAllPeptideChildren()) {
+				interPeptides.addAll(
+						groupIdToReportPeptides.get(pepGroup.getID()));
+			}
+			
+			// look for an existing proteinGroup with same peptides
+			boolean addedToExistingGroup = false;
+			if ((filters != null ) && (filters.size() > 0)) {
+				for (InferenceProteinGroup existingGroup : proteins) {
+					
+					if (existingGroup.getPeptides().equals(interPeptides)) {
+						// add the proteins
+						for (IntermediateProtein protein : group.getProteins()) {
+							existingGroup.addProtein(protein);
+						}
+						
+						addedToExistingGroup = true;
+						break;
+					}
+				}
+			}
+			
+			// no existing group with same PSMs -> create new group
+			if (!addedToExistingGroup) {
+				String proteinGroupID = parent.createProteinAmbiguityGroupID(group);
+				InferenceProteinGroup proteinGroup = new InferenceProteinGroup(proteinGroupID, considerModifications);
+				
+				// add the proteins
+				for (IntermediateProtein protein : group.getProteins()) {
+					proteinGroup.addProtein(protein);
+				}
+				
+				// add the peptides
+				proteinGroup.addPeptides(interPeptides);
+				
+				// and add a peptide mapping
+				Set<Comparable> peptides =
+						new HashSet<Comparable>(interPeptides.size());
+				
+				for (IntermediatePeptide peptide : interPeptides) {
+					peptides.add(parent.getPeptideKey(peptide, considerModifications));
+				}
+				
+				// calculate the protein's score
+				parent.proteinScoring.calculateProteinScore(proteinGroup);
+				
+				proteinIDsToPeptideIDs.put(proteinGroupID, peptides);
+				proteins.add(proteinGroup);
+			}
+		}
+		
+		if (proteins.size() < 1) {
+			// no proteins could be created (e.g. due to filters?) 
+			return new ArrayList<InferenceProteinGroup>(0);
+		}
+		
+		// remove proteins, not passing the filters
+		if ((filters != null ) && (filters.size() > 0)) {
+			Iterator<InferenceProteinGroup> proteinIterator = proteins.iterator();
+			
+			while (proteinIterator.hasNext()) {
+				InferenceProteinGroup proteinGroup = proteinIterator.next();
+				if (!FilterUtilities.satisfiesFilterList(proteinGroup, filters)) {
+					proteinIterator.remove();
+				}
+			}
+		}
+		
+		// this will be the returned list of proteins
+		List<InferenceProteinGroup> reportProteins =
+				new ArrayList<InferenceProteinGroup>(proteins.size());
+		
+		// the still unreported proteins
+		HashMap<String, InferenceProteinGroup> unreportedProteins =
+				new HashMap<String, InferenceProteinGroup>(proteins.size());
+		
+		for (InferenceProteinGroup protein : proteins) {
+			// add all proteins, which passed the filter, into the map of unreported proteins
+			unreportedProteins.put(protein.getID(), protein);
+		}
+		
+		
+		// check proteins for sub-proteins and intersections. this cannot be
+		// done before, because all proteins have to be built beforehand
+		Map<String, Set<InferenceProteinGroup>> proteinIDsToSubproteins =
+				new HashMap<String, Set<InferenceProteinGroup>>(groupIdToReportPeptides.size());
+		
+		Set<InferenceProteinGroup> isSubProtein = new HashSet<InferenceProteinGroup>();
+		
+		// only the proteins sharing peptides are compared, found by the inverted index
+		ProteinPeptideIndex peptideIndex = new ProteinPeptideIndex(proteins, proteinIDsToPeptideIDs);
+		
+		// the peptides explained by the reported proteins and the number of
+		// not yet explained peptides of each protein
+		boolean[] reportedPeptides = new boolean[peptideIndex.getNrPeptides()];
+		int[] nrUnreportedPeptides = new int[proteins.size()];
+		for (int protIdx = 0; protIdx < proteins.size(); protIdx++) {
+			nrUnreportedPeptides[protIdx] = peptideIndex.getNrPeptides(protIdx);
+		}
+		
+		// the last protein, with which each protein was compared
+		int[] comparedWith = new int[proteins.size()];
+		Arrays.fill(comparedWith, -1);
+		
+		for (int protIdx = 0; protIdx < proteins.size(); protIdx++) {
+			InferenceProteinGroup protein = proteins.get(protIdx);
+			int nrPeptides = peptideIndex.getNrPeptides(protIdx);
+			
+			Set<InferenceProteinGroup> subProteins = new HashSet<InferenceProteinGroup>();
+			proteinIDsToSubproteins.put(protein.getID(), subProteins);
+			
+			boolean hasIntersectingProteins = false;
+			boolean thisIsASubProtein = false;
+			
+			// compare to the other proteins sharing any peptide
+			for (int pepIdx : peptideIndex.getPeptides(protIdx)) {
+				for (int comparisonIdx : peptideIndex.getProteins(pepIdx)) {
+					if ((comparisonIdx == protIdx) || (comparedWith[comparisonIdx] == protIdx)) {
+						// don't compare with same protein or twice
+						continue;
+					}
+					comparedWith[comparisonIdx] = protIdx;
+					
+					int nrShared = peptideIndex.getNrSharedPeptides(protIdx, comparisonIdx);
+					
+					// there are only intersections now, as the check for samesets was already done
+					if (nrShared == peptideIndex.getNrPeptides(comparisonIdx)) {
+						// the complete comparisonProtein is in protein
+						subProteins.add(proteins.get(comparisonIdx));
+					} else if (nrShared == nrPeptides) {
+						// the complete proteinID is in subProtID
+						isSubProtein.add(protein);
+						thisIsASubProtein = true;
+					} else {
+						// subProtID intersects proteinID somehow
+						hasIntersectingProteins = true;
+					}
+				}
+			}
+			
+			if (!hasIntersectingProteins && !thisIsASubProtein) {
+				// this protein is no subProtein and has no intersections (but
+				// maybe subProteins) -> report this protein immediately
+				// proteins with intersecting other proteins are reported later
+				reportProteins.add(protein);
+				markPeptidesReported(protIdx, peptideIndex, reportedPeptides, nrUnreportedPeptides);
+				
+				unreportedProteins.remove(protein.getID());
+				
+				// add the subproteins
+				for (InferenceProteinGroup subProtein : subProteins) {
+					protein.addSubgroup(subProtein);
+					unreportedProteins.remove(subProtein.getID());
+				}
+			}
+		}
+		
+		// report all the proteins ordered by which explains the most new
+		// peptides. The keys of the queued candidates are only updated, when
+		// they are polled: as the numbers of new peptides only decrease, a
+		// polled candidate with an up-to-date key explains the most peptides.
+		PriorityQueue<ReportCandidate> candidates =
+				new PriorityQueue<ReportCandidate>(Math.max(1, unreportedProteins.size()));
+		for (int protIdx = 0; protIdx < proteins.size(); protIdx++) {
+			InferenceProteinGroup protein = proteins.get(protIdx);
+			if (unreportedProteins.containsKey(protein.getID()) && !isSubProtein.contains(protein)) {
+				// subproteins are reported indirectly with their "parents", skip here
+				candidates.add(new ReportCandidate(protIdx, nrUnreportedPeptides[protIdx]));
+			}
+		}
+		
+		while (!candidates.isEmpty()) {
+			ReportCandidate candidate = candidates.poll();
+			if (!unreportedProteins.containsKey(proteins.get(candidate.protIdx).getID())) {
+				// reported in the meantime
+				continue;
+			}
+			
+			if (candidate.nrNewPeptides != nrUnreportedPeptides[candidate.protIdx]) {
+				// outdated key, queue again
+				candidate.nrNewPeptides = nrUnreportedPeptides[candidate.protIdx];
+				candidates.add(candidate);
+				continue;
+			}
+			
+			// other groups explaining exactly the same new peptides are to be reported as well
+			List<Integer> groupsWithMostPeptides = new ArrayList<Integer>();
+			groupsWithMostPeptides.add(candidate.protIdx);
+			
+			if (candidate.nrNewPeptides > 0) {
+				int[] newPeptides = new int[candidate.nrNewPeptides];
+				int i = 0;
+				for (int pepIdx : peptideIndex.getPeptides(candidate.protIdx)) {
+					if (!reportedPeptides[pepIdx]) {
+						newPeptides[i++] = pepIdx;
+					}
+				}
+				
+				// these groups must contain any of the new peptides
+				for (int otherIdx : peptideIndex.getProteins(newPeptides[0])) {
+					InferenceProteinGroup other = proteins.get(otherIdx);
+					if ((otherIdx != candidate.protIdx) &&
+							(nrUnreportedPeptides[otherIdx] == newPeptides.length) &&
+							unreportedProteins.containsKey(other.getID()) &&
+							!isSubProtein.contains(other) &&
+							peptideIndex.containsPeptides(otherIdx, newPeptides)) {
+						groupsWithMostPeptides.add(otherIdx);
+					}
+				}
+			} else {
+				// no candidate explains any new peptides, report all remaining
+				for (ReportCandidate other : candidates) {
+					if (unreportedProteins.containsKey(proteins.get(other.protIdx).getID())) {
+						groupsWithMostPeptides.add(other.protIdx);
+					}
+				}
+				candidates.clear();
+			}
+			
+			for (Integer protIdx : groupsWithMostPeptides) {
+				InferenceProteinGroup protein = proteins.get(protIdx);
+				reportProteins.add(protein);
+				markPeptidesReported(protIdx, peptideIndex, reportedPeptides, nrUnreportedPeptides);
+				
+				unreportedProteins.remove(protein.getID());
+				
+				// add the subproteins
+				for (InferenceProteinGroup subProtein : proteinIDsToSubproteins.get(protein.getID())) {
+					protein.addSubgroup(subProtein);
+					unreportedProteins.remove(subProtein.getID());
+				}
+			}
+		}
+		
+		return reportProteins;
+	}
+	
+	
+	/**
+	 * Marks the peptides of the given protein as reported and decreases the
+	 * numbers of unreported peptides of all proteins sharing them.
+	 * 
+	 * @param protIdx
+	 * @param peptideIndex
+	 * @param reportedPeptides
+	 * @param nrUnreportedPeptides
+	 */
+	private static void markPeptidesReported(int protIdx, ProteinPeptideIndex peptideIndex,
+			boolean[] reportedPeptides, int[] nrUnreportedPeptides) {
+		for (int pepIdx : peptideIndex.getPeptides(protIdx)) {
+			if (!reportedPeptides[pepIdx]) {
+				reportedPeptides[pepIdx] = true;
+				for (int otherIdx : peptideIndex.getProteins(pepIdx)) {
+					nrUnreportedPeptides[otherIdx]--;
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * A protein waiting to be reported, keyed by the number of peptides it
+	 * explains additionally. Candidates with more new peptides come first,
+	 * equal ones in the order of the proteins.
+	 */
+	private static class ReportCandidate implements Comparable<ReportCandidate> {
+		
+		/** the index of the protein */
+		private final int protIdx;
+		
+		/** the number of new peptides, when the candidate was queued */
+		private int nrNewPeptides;
+		
+		
+		public ReportCandidate(int protIdx, int nrNewPeptides) {
+			this.protIdx = protIdx;
+			this.nrNewPeptides = nrNewPeptides;
+		}
+		
+		
+		@Override
+		public int compareTo(ReportCandidate other) {
+			if (nrNewPeptides != other.nrNewPeptides) {
+				return (nrNewPeptides > other.nrNewPeptides) ? -1 : 1;
+			}
+			return (protIdx < other.protIdx) ? -1 : ((protIdx == other.protIdx) ? 0 : 1);
+		}
+	}
+}
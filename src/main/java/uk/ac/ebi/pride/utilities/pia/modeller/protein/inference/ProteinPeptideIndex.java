@@ -0,0 +1,206 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.protein.inference;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A cluster-local index of the peptides of the protein groups, which are
+ * candidates for reporting by the {@link OccamsRazorWorker}.
+ * <p>
+ * Each peptide key of the cluster gets a bit, each protein group a dense bit
+ * set of its peptides, stored in the words of a long array. Additionally, an
+ * inverted index gives for each peptide the protein groups containing it, so
+ * only the protein groups actually sharing peptides need to be compared.
+ * <p>
+ * The protein groups are referenced by their positions in the list given on
+ * creation.
+ *
+ * @author julian
+ *
+ */
+class ProteinPeptideIndex {
+
+	/** the dense peptide bits of the protein groups */
+	private long[][] peptideBits;
+
+	/** the number of peptides of the protein groups */
+	private int[] nrPeptides;
+
+	/** the peptide bits of the protein groups as sorted lists */
+	private int[][] proteinPeptides;
+
+	/** the protein groups of each peptide, i.e. the inverted index */
+	private int[][] peptideProteins;
+
+
+	/**
+	 * Indexes the peptides of the given protein groups.
+	 *
+	 * @param proteins the protein groups
+	 * @param proteinIDsToPeptideIDs the peptide keys of the protein groups,
+	 * mapped by the groups' IDs
+	 */
+	public ProteinPeptideIndex(List<InferenceProteinGroup> proteins,
+			Map<String, Set<Comparable>> proteinIDsToPeptideIDs) {
+		int nrProteins = proteins.size();
+		Map<Comparable, Integer> peptideIndices = new HashMap<Comparable, Integer>();
+
+		proteinPeptides = new int[nrProteins][];
+		nrPeptides = new int[nrProteins];
+		for (int protIdx = 0; protIdx < nrProteins; protIdx++) {
+			Set<Comparable> peptideIDs = proteinIDsToPeptideIDs.get(proteins.get(protIdx).getID());
+			int[] peptides = new int[peptideIDs.size()];
+			int i = 0;
+			for (Comparable peptideID : peptideIDs) {
+				Integer pepIdx = peptideIndices.get(peptideID);
+				if (pepIdx == null) {
+					pepIdx = peptideIndices.size();
+					peptideIndices.put(peptideID, pepIdx);
+				}
+				peptides[i++] = pepIdx;
+			}
+			Arrays.sort(peptides);
+			proteinPeptides[protIdx] = peptides;
+			nrPeptides[protIdx] = peptides.length;
+		}
+
+		int nrWords = (peptideIndices.size() + 63) >>> 6;
+		peptideBits = new long[nrProteins][];
+		int[] nrPeptideProteins = new int[peptideIndices.size()];
+		for (int protIdx = 0; protIdx < nrProteins; protIdx++) {
+			long[] bits = new long[nrWords];
+			for (int pepIdx : proteinPeptides[protIdx]) {
+				bits[pepIdx >>> 6] |= 1L << pepIdx;
+				nrPeptideProteins[pepIdx]++;
+			}
+			peptideBits[protIdx] = bits;
+		}
+
+		peptideProteins = new int[peptideIndices.size()][];
+		for (int pepIdx = 0; pepIdx < peptideProteins.length; pepIdx++) {
+			peptideProteins[pepIdx] = new int[nrPeptideProteins[pepIdx]];
+			nrPeptideProteins[pepIdx] = 0;
+		}
+		for (int protIdx = 0; protIdx < nrProteins; protIdx++) {
+			for (int pepIdx : proteinPeptides[protIdx]) {
+				peptideProteins[pepIdx][nrPeptideProteins[pepIdx]++] = protIdx;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the number of indexed protein groups.
+	 *
+	 * @return
+	 */
+	public int getNrProteins() {
+		return peptideBits.length;
+	}
+
+
+	/**
+	 * Returns the number of distinct peptides of all protein groups.
+	 *
+	 * @return
+	 */
+	public int getNrPeptides() {
+		return peptideProteins.length;
+	}
+
+
+	/**
+	 * Returns the number of peptides of the given protein group.
+	 *
+	 * @param protIdx
+	 * @return
+	 */
+	public int getNrPeptides(int protIdx) {
+		return nrPeptides[protIdx];
+	}
+
+
+	/**
+	 * Returns the sorted peptide bits of the given protein group. The array
+	 * must not be changed.
+	 *
+	 * @param protIdx
+	 * @return
+	 */
+	public int[] getPeptides(int protIdx) {
+		return proteinPeptides[protIdx];
+	}
+
+
+	/**
+	 * Returns the protein groups containing the given peptide, in ascending
+	 * order. The array must not be changed.
+	 *
+	 * @param pepIdx
+	 * @return
+	 */
+	public int[] getProteins(int pepIdx) {
+		return peptideProteins[pepIdx];
+	}
+
+
+	/**
+	 * Returns the dense peptide bits of the given protein group. The array
+	 * must not be changed.
+	 *
+	 * @param protIdx
+	 * @return
+	 */
+	public long[] getPeptideBits(int protIdx) {
+		return peptideBits[protIdx];
+	}
+
+
+	/**
+	 * Returns the number of peptides shared by the given protein groups. Only
+	 * the words between the first and last peptide of the first group are
+	 * compared.
+	 *
+	 * @param protIdx
+	 * @param otherIdx
+	 * @return
+	 */
+	public int getNrSharedPeptides(int protIdx, int otherIdx) {
+		int[] peptides = proteinPeptides[protIdx];
+		if (peptides.length == 0) {
+			return 0;
+		}
+
+		long[] bits = peptideBits[protIdx];
+		long[] otherBits = peptideBits[otherIdx];
+
+		int nrShared = 0;
+		int lastWord = peptides[peptides.length - 1] >>> 6;
+		for (int i = peptides[0] >>> 6; i <= lastWord; i++) {
+			nrShared += Long.bitCount(bits[i] & otherBits[i]);
+		}
+		return nrShared;
+	}
+	
+	
+	/**
+	 * Returns whether the given protein group contains all the given peptides.
+	 *
+	 * @param protIdx
+	 * @param peptides
+	 * @return
+	 */
+	public boolean containsPeptides(int protIdx, int[] peptides) {
+		long[] bits = peptideBits[protIdx];
+		for (int pepIdx : peptides) {
+			if ((bits[pepIdx >>> 6] & (1L << pepIdx)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,15 +1,20 @@
 package uk.ac.ebi.pride.utilities.pia.modeller.protein.inference;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.ebi.pride.utilities.pia.intermediate.ClusterScheduler;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateGroup;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
@@ -18,6 +23,7 @@ import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
 import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterUtilities;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoring;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoring;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
 
 
 
@@ -26,6 +32,10 @@ import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoring;
  * <p>
  * This is similar to distinguish proteins simply by their peptides and report
  * every possible set and subset.
+ * <p>
+ * The clusters are inferred concurrently, each only with its own state. The
+ * protein groups are reported ordered by the cluster numbers and within a
+ * cluster by the IDs of the groups, independent of the number of threads.
  * 
  * @author julian
  *
@@ -41,15 +51,10 @@ public class ReportAllInference extends AbstractProteinInference {
 	/** the machine readable name of the filter */
 	protected static final String shortName = "inference_report_all";
 	
-	/** the progress of the inference */
-	private Double progress;
-	
-	
 	public ReportAllInference(IntermediateStructure intermediateStructure,
 			PeptideScoring peptideScoring, ProteinScoring proteinScoring,
 			List<AbstractFilter> filters, Integer nrThreads) {
 		super(intermediateStructure, peptideScoring, proteinScoring, filters, nrThreads);
-		this.progress = 0.0;
 	}
 	
 	/*
@@ -75,166 +80,220 @@ public class ReportAllInference extends AbstractProteinInference {
 	*/
 	
 	@Override
-	public List<InferenceProteinGroup> calculateInference(boolean considerModifications) {
-		progress = 0.0;
+	public List<InferenceProteinGroup> calculateInference(final boolean considerModifications) {
+		ProgressTracker tracker = startProgress();
 		logger.info("calculateInference started...");
 		/*
 		logger.info("scoring: " + getScoring().getName() + " with " + 
 				getScoring().getScoreSetting().getValue() + ", " +
 				getScoring().getPSMForScoringSetting().getValue());
 		*/
+		logger.info("using " + allowedThreads + " threads for inference");
 		
-		// all the PSMs of the groups, including the PSMs in groups' children
-		Map<Integer, Set<IntermediatePeptide>> groupsAllPeptides =
-				new HashMap<Integer, Set<IntermediatePeptide>>(intermediateStructure.getNrGroups());
+		// the clusters are reported in the order of their numbers
+		final List<Integer> clusterNrs =
+				new ArrayList<Integer>(intermediateStructure.getClusters().keySet());
+		Collections.sort(clusterNrs);
 		
-		// maps from the groups' IDs to the groups  with equal PSMs after filtering
-		Map<Integer, Set<IntermediateGroup>> sameSets = null;
+		List<Integer> positions = new ArrayList<Integer>(clusterNrs.size());
+		for (int pos = 0; pos < clusterNrs.size(); pos++) {
+			positions.add(pos);
+		}
+		
+		// each cluster's protein groups are written only into its own slot
+		final AtomicReferenceArray<List<InferenceProteinGroup>> clusterProteinGroups =
+				new AtomicReferenceArray<List<InferenceProteinGroup>>(clusterNrs.size());
+		
+		// process the clusters, the largest first
+		try {
+			ClusterScheduler<Integer> scheduler =
+					new ClusterScheduler<Integer>(name, allowedThreads);
+			scheduler.process(positions, estimateClusterCosts(intermediateStructure, clusterNrs),
+					new ClusterScheduler.ClusterProcessor<Integer>() {
+						@Override
+						public void processCluster(Integer pos) {
+							clusterProteinGroups.set(pos, inferCluster(
+									intermediateStructure.getCluster(clusterNrs.get(pos)),
+									considerModifications, null));
+						}
+					}, tracker);
+		} finally {
+			tracker.finish();
+		}
 		
 		// the finally returned list of protein groups
 		List<InferenceProteinGroup> proteinGroups = new ArrayList<InferenceProteinGroup>();
+		for (int pos = 0; pos < clusterProteinGroups.length(); pos++) {
+			proteinGroups.addAll(clusterProteinGroups.get(pos));
+		}
 		
-		for (Set<IntermediateGroup> cluster : intermediateStructure.getClusters().values()) {
-			
-			// maps from the groups' IDs to the peptides, which should be reported
-			Map<Integer, Set<IntermediatePeptide>> groupIdToReportPeptides =
-				createClustersFilteredPeptidesMap(cluster, considerModifications);
-			
-			Double progressStep = 89.0 / intermediateStructure.getNrClusters() / cluster.size();
-			Set<IntermediateGroup> clusterReportGroups = new HashSet<IntermediateGroup>(cluster.size());
-			
-			// put every group with direct accessions into the report map map
-			for (IntermediateGroup group : cluster) {
-				if (((group.getProteins() != null) && (group.getProteins().size() > 0)) &&
-						groupHasReportPeptides(group, groupIdToReportPeptides)) {
-					// report this group
-					clusterReportGroups.add(group);
-					
-					// get the peptides of this group
-					Set<IntermediatePeptide> allPeptidesSet = new HashSet<IntermediatePeptide>();
-					groupsAllPeptides.put(group.getID(), allPeptidesSet);
-					
-					// add the direct peptides
-					if (groupIdToReportPeptides.containsKey(group.getID())) {
-						for (IntermediatePeptide peptide : groupIdToReportPeptides.get(group.getID())) {
-							allPeptidesSet.add(peptide);
-						}
+		logger.info("calculateInference done.");
+		return proteinGroups;
+	}
+	
+	
+	/**
+	 * Creates the protein groups of a single cluster, sorted by the IDs of
+	 * the reported groups. Only the peptides of the cluster are filtered, so
+	 * several clusters can be processed concurrently.
+	 * 
+	 * @param cluster
+	 * @param considerModifications
+	 * @param cache
+	 * @return
+	 */
+	@Override
+	protected List<InferenceProteinGroup> inferCluster(Set<IntermediateGroup> cluster,
+			boolean considerModifications, ClusterInferenceCache cache) {
+		// the groups are processed ordered by their IDs
+		List<IntermediateGroup> sortedGroups = new ArrayList<IntermediateGroup>(cluster);
+		Collections.sort(sortedGroups, new Comparator<IntermediateGroup>() {
+			@Override
+			public int compare(IntermediateGroup o1, IntermediateGroup o2) {
+				return o1.getID().compareTo(o2.getID());
+			}
+		});
+		
+		// maps from the groups' IDs to the peptides, which should be reported
+		Map<Integer, Set<IntermediatePeptide>> groupIdToReportPeptides =
+			createClustersFilteredPeptidesMap(cluster, considerModifications, cache);
+		
+		// all the peptides of the reported groups, including the peptides in groups' children
+		Map<Integer, Set<IntermediatePeptide>> groupsAllPeptides =
+				new TreeMap<Integer, Set<IntermediatePeptide>>();
+		
+		List<IntermediateGroup> clusterReportGroups = new ArrayList<IntermediateGroup>(cluster.size());
+		
+		// put every group with direct accessions into the report map map
+		for (IntermediateGroup group : sortedGroups) {
+			if (((group.getProteins() != null) && (group.getProteins().size() > 0)) &&
+					groupHasReportPeptides(group, groupIdToReportPeptides)) {
+				// report this group
+				clusterReportGroups.add(group);
+				
+				// get the peptides of this group
+				Set<IntermediatePeptide> allPeptidesSet = new HashSet<IntermediatePeptide>();
+				groupsAllPeptides.put(group.getID(), allPeptidesSet);
+				
+				// add the direct peptides
+				if (groupIdToReportPeptides.containsKey(group.getID())) {
+					for (IntermediatePeptide peptide : groupIdToReportPeptides.get(group.getID())) {
+						allPeptidesSet.add(peptide);
 					}
-					
-					// add childrens' peptides
-					for (IntermediateGroup pepGroup : group.getAllPeptideChildren()) {
-						if (groupIdToReportPeptides.containsKey(pepGroup.getID())) {
-							for (IntermediatePeptide peptide : groupIdToReportPeptides.get(pepGroup.getID())) {
-								allPeptidesSet.add(peptide);
-							}
+				}
+				
+				// add childrens' peptides
+				for (IntermediateGroup pepGroup : group.getAllPeptideChildren()) {
+					if (groupIdToReportPeptides.containsKey(pepGroup.getID())) {
+						for (IntermediatePeptide peptide : groupIdToReportPeptides.get(pepGroup.getID())) {
+							allPeptidesSet.add(peptide);
 						}
 					}
 				}
-				
-				progress += progressStep;
 			}
+		}
+		
+		// maps from the groups' IDs to the groups  with equal PSMs after filtering
+		Map<Integer, Set<IntermediateGroup>> sameSets = null;
+		
+		// check for sameSets (if there were active filters)
+		if ((filters != null ) && (filters.size() > 0)) {
 			
-			// check for sameSets (if there were active filters)
-			if ((filters != null ) && (filters.size() > 0)) {
-				
-				sameSets = new HashMap<Integer, Set<IntermediateGroup>>(groupsAllPeptides.size());
-				Set<Integer> newReportGroupIDs = new HashSet<Integer>(clusterReportGroups.size());
+			sameSets = new HashMap<Integer, Set<IntermediateGroup>>(groupsAllPeptides.size());
+			Set<Integer> newReportGroupIDs = new HashSet<Integer>(clusterReportGroups.size());
+			
+			for (Map.Entry<Integer, Set<IntermediatePeptide>> gIt : groupsAllPeptides.entrySet()) {
+				// every group gets a sameSet
+				Set<IntermediateGroup> sameSet = sameSets.get(gIt.getKey()); 
+				if (sameSet == null) {
+					sameSet = new HashSet<IntermediateGroup>();
+					sameSets.put(gIt.getKey(), sameSet);
+				}
 				
-				for (Map.Entry<Integer, Set<IntermediatePeptide>> gIt : groupsAllPeptides.entrySet()) {
-					// every group gets a sameSet
-					Set<IntermediateGroup> sameSet = sameSets.get(gIt.getKey()); 
-					if (sameSet == null) {
-						sameSet = new HashSet<IntermediateGroup>();
-						sameSets.put(gIt.getKey(), sameSet);
+				// check against the other report groups
+				for (IntermediateGroup checkGroup : clusterReportGroups) {
+					if (gIt.getKey().equals(checkGroup.getID())) {
+						// don't check against self
+						continue;
 					}
 					
-					// check against the other report groups
-					for (IntermediateGroup checkGroup : clusterReportGroups) {
-						if (gIt.getKey().equals(checkGroup.getID())) {
-							// don't check against self
-							continue;
-						}
+					if (gIt.getValue().equals(groupsAllPeptides.get(checkGroup.getID()))) {
+						// ReportPeptides are the same in checkSet and grIt
+						sameSet.add(checkGroup);
 						
-						if (gIt.getValue().equals(groupsAllPeptides.get(checkGroup.getID()))) {
-							// ReportPeptides are the same in checkSet and grIt
-							sameSet.add(checkGroup);
-							
-							// if checkID's group had a sameSet before, merge the sameSets
-							Set<IntermediateGroup> checkSameSet = sameSets.get(checkGroup.getID());
-							if (checkSameSet != null) {
-								sameSet.addAll(checkSameSet);
-							}
-							sameSets.put(checkGroup.getID(), sameSet);
+						// if checkID's group had a sameSet before, merge the sameSets
+						Set<IntermediateGroup> checkSameSet = sameSets.get(checkGroup.getID());
+						if (checkSameSet != null) {
+							sameSet.addAll(checkSameSet);
 						}
-					}
-					
-					// check, if any of the sameSet is already in the newReportGroups 
-					boolean anySameInReportGroups = false;
-					
-					for (IntermediateGroup sameGroup : sameSet) {
-						if (newReportGroupIDs.contains(sameGroup.getID())) {
-							anySameInReportGroups = true;
-							break;
-						}
-					}
-					
-					if (!anySameInReportGroups) {
-						// no sameGroup in reportGroups yet, put this one in
-						newReportGroupIDs.add(gIt.getKey());
+						sameSets.put(checkGroup.getID(), sameSet);
 					}
 				}
 				
-				Set<IntermediateGroup> newReportGroups = new HashSet<IntermediateGroup>(newReportGroupIDs.size());
-				for (IntermediateGroup group : clusterReportGroups) {
-					if (newReportGroupIDs.contains(group.getID())) {
-						newReportGroups.add(group);
+				// check, if any of the sameSet is already in the newReportGroups 
+				boolean anySameInReportGroups = false;
+				
+				for (IntermediateGroup sameGroup : sameSet) {
+					if (newReportGroupIDs.contains(sameGroup.getID())) {
+						anySameInReportGroups = true;
+						break;
 					}
 				}
-				clusterReportGroups = newReportGroups;
+				
+				if (!anySameInReportGroups) {
+					// no sameGroup in reportGroups yet, put this one in
+					newReportGroupIDs.add(gIt.getKey());
+				}
 			}
 			
-			// now create the proteins from the groups, which are in clusterReportGroups
+			List<IntermediateGroup> newReportGroups = new ArrayList<IntermediateGroup>(newReportGroupIDs.size());
 			for (IntermediateGroup group : clusterReportGroups) {
-				InferenceProteinGroup proteinGroup =
-						new InferenceProteinGroup(createProteinAmbiguityGroupID(group), considerModifications);
-				
-				// add the proteins to the group
-				for (IntermediateProtein interProt : group.getProteins()) {
-					proteinGroup.addProtein(interProt);
+				if (newReportGroupIDs.contains(group.getID())) {
+					newReportGroups.add(group);
 				}
-				
-				if (sameSets != null) {
-					for (IntermediateGroup sameGroup : sameSets.get(group.getID())) {
-						if (sameGroup.getID().equals(group.getID())) {
-							continue;
-						}
-						
-						for (IntermediateProtein interProt : sameGroup.getProteins()) {
-							proteinGroup.addProtein(interProt);
-						}
+			}
+			clusterReportGroups = newReportGroups;
+		}
+		
+		// now create the proteins from the groups, which are in clusterReportGroups
+		List<InferenceProteinGroup> proteinGroups =
+				new ArrayList<InferenceProteinGroup>(clusterReportGroups.size());
+		for (IntermediateGroup group : clusterReportGroups) {
+			InferenceProteinGroup proteinGroup =
+					new InferenceProteinGroup(createProteinAmbiguityGroupID(group), considerModifications);
+			
+			// add the proteins to the group
+			for (IntermediateProtein interProt : group.getProteins()) {
+				proteinGroup.addProtein(interProt);
+			}
+			
+			if (sameSets != null) {
+				for (IntermediateGroup sameGroup : sameSets.get(group.getID())) {
+					if (sameGroup.getID().equals(group.getID())) {
+						continue;
+					}
+					
+					for (IntermediateProtein interProt : sameGroup.getProteins()) {
+						proteinGroup.addProtein(interProt);
 					}
 				}
-				
-				for (IntermediatePeptide interPeptide : groupsAllPeptides.get(group.getID())) {
-					// peptides are already filtered in createClustersFilteredPeptidesMap
-					proteinGroup.addPeptide(interPeptide);
-				}
-				
-				if (proteinScoring != null) {
-					proteinScoring.calculateProteinScore(proteinGroup);
-				}
-				
-				if (FilterUtilities.satisfiesFilterList(proteinGroup, filters)) {
-					// add only proteinGroups, which satisfy the filtering
-					proteinGroups.add(proteinGroup);
-				}
 			}
 			
-			progress += 10.0 / intermediateStructure.getNrClusters();
+			for (IntermediatePeptide interPeptide : groupsAllPeptides.get(group.getID())) {
+				// peptides are already filtered in createClustersFilteredPeptidesMap
+				proteinGroup.addPeptide(interPeptide);
+			}
+			
+			if (proteinScoring != null) {
+				proteinScoring.calculateProteinScore(proteinGroup);
+			}
+			
+			if (FilterUtilities.satisfiesFilterList(proteinGroup, filters)) {
+				// add only proteinGroups, which satisfy the filtering
+				proteinGroups.add(proteinGroup);
+			}
 		}
 		
-		logger.info("calculateInference done.");
-		progress = 100.0;
 		return proteinGroups;
 	}
 	
@@ -249,9 +308,4 @@ public class ReportAllInference extends AbstractProteinInference {
 	public String getShortName() {
 		return shortName;
 	}
-
-	@Override
-	public Long getProgressValue() {
-		return progress.longValue();
-	}
 }
\ No newline at end of file
@@ -16,6 +16,9 @@ import uk.ac.ebi.pride.utilities.pia.modeller.fdr.FDRUtilities;
 import uk.ac.ebi.pride.utilities.pia.modeller.filter.protein.ProteinAccessionFilter;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.CvScore;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.psm.IntermediatePSMComparator;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressListener.Stage;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressReporter;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressTracker;
 
 
 
@@ -47,6 +50,9 @@ public class PSMModeller {
 	/** whether to look for unknown CVs in the online OBO */
 	private boolean oboLookup;
 	
+	/** the reporter of the FDR calculation progress */
+	private ProgressReporter progressReporter;
+	
 	
 	public PSMModeller(Integer nrFiles, boolean oboLookup) {
 		filePSMs = new HashMap<Integer, List<IntermediatePeptideSpectrumMatch>>(nrFiles + 1);
@@ -55,6 +61,18 @@ public class PSMModeller {
 		decoyFilter = null;
 		
 		this.oboLookup = oboLookup;
+		this.progressReporter = new ProgressReporter();
+	}
+	
+	
+	/**
+	 * Sets the reporter of the FDR calculation progress, the items are the
+	 * PSMs.
+	 * 
+	 * @param reporter
+	 */
+	public void setProgressReporter(ProgressReporter reporter) {
+		this.progressReporter = reporter;
 	}
 	
 	
@@ -191,6 +209,21 @@ public class PSMModeller {
 	 * Calculates the FDR of the PSMs for the file selected by its ID
 	 */
 	public void calculateFDR(Integer fileID) {
+		ProgressTracker tracker = progressReporter.startStage(Stage.FDR,
+				"file " + fileID, getNrPSMs(fileID));
+		try {
+			calculateFDR(fileID, tracker);
+		} finally {
+			tracker.finish();
+		}
+	}
+	
+	
+	/**
+	 * Calculates the FDR of the PSMs for the file selected by its ID and
+	 * advances the tracker by the PSMs of the file.
+	 */
+	private void calculateFDR(Integer fileID, ProgressTracker tracker) {
 		List<IntermediatePeptideSpectrumMatch> psms = getFilesPSMs(fileID);
 		String fdrScoreAccession = getFdrScoreAccession(fileID);
 		
@@ -204,6 +237,7 @@ public class PSMModeller {
 		
 		FDRUtilities.calculateFDRScore(psms,  fdrScoreAccession, oboLookup);
 		logger.info("FDR Score calculated");
+		tracker.advance(psms.size());
 	}
 	
 	
@@ -211,8 +245,18 @@ public class PSMModeller {
 	 * Calculates the FDR of the PSMs for all files
 	 */
 	public void calculateAllFDR() {
-		for (Integer fileID : filePSMs.keySet()) {
-			calculateFDR(fileID);
+		long nrPSMs = 0;
+		for (List<IntermediatePeptideSpectrumMatch> psms : filePSMs.values()) {
+			nrPSMs += psms.size();
+		}
+		
+		ProgressTracker tracker = progressReporter.startStage(Stage.FDR, "all files", nrPSMs);
+		try {
+			for (Integer fileID : filePSMs.keySet()) {
+				calculateFDR(fileID, tracker);
+			}
+		} finally {
+			tracker.finish();
 		}
 	}
 }
@@ -0,0 +1,121 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.scores;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Maps each score accession to a small int slot. The PSMs store the values of
+ * their scores in arrays indexed by these slots, so a score is accessed by an
+ * array read instead of looking up the accession.
+ * <p>
+ * The slots are assigned on the first request of an accession and are valid
+ * for the whole runtime. The slots of the calculated PSM scores are fixed.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author julian
+ *
+ */
+public final class ScoreRegistry {
+
+	/** the slot of the PSM level FDRScore */
+	public static final int FDR_SCORE_SLOT = 0;
+
+	/** the slot of the PSM level local FDR */
+	public static final int LOCAL_FDR_SLOT = 1;
+
+	/** the slot of the PSM level q-value */
+	public static final int Q_VALUE_SLOT = 2;
+
+
+	/** the slots by the accessions */
+	private static final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+
+	/** the accessions by the slots, replaced when growing */
+	private static volatile String[] accessions = new String[0];
+
+	/** the number of assigned slots */
+	private static int nrSlots = 0;
+
+
+	static {
+		getSlot(CvScore.PSI_PSM_LEVEL_FDRSCORE.getAccession());
+		getSlot(CvScore.PSI_PSM_LEVEL_LOCAL_FDR.getAccession());
+		getSlot(CvScore.PSI_PSM_LEVEL_Q_VALUE.getAccession());
+	}
+
+
+	/**
+	 * do not instantiate!
+	 */
+	private ScoreRegistry() {
+	}
+
+
+	/**
+	 * Returns the slot of the given score accession, a new slot is assigned
+	 * if the accession has none yet.
+	 *
+	 * @param accession
+	 * @return
+	 */
+	public static int getSlot(String accession) {
+		Integer slot = slots.get(accession);
+		if (slot != null) {
+			return slot;
+		}
+
+		synchronized (slots) {
+			slot = slots.get(accession);
+			if (slot == null) {
+				slot = nrSlots++;
+
+				String[] newAccessions = Arrays.copyOf(accessions, nrSlots);
+				newAccessions[slot] = accession;
+				accessions = newAccessions;
+
+				slots.put(accession, slot);
+			}
+		}
+		return slot;
+	}
+
+
+	/**
+	 * Returns the slot of the given score accession or -1, if no slot is
+	 * assigned to it yet (i.e. no PSM has a value for this score).
+	 *
+	 * @param accession
+	 * @return
+	 */
+	public static int getSlotIfAssigned(String accession) {
+		if (accession == null) {
+			return -1;
+		}
+
+		Integer slot = slots.get(accession);
+		return (slot != null) ? slot : -1;
+	}
+
+
+	/**
+	 * Returns the accession of the score with the given slot.
+	 *
+	 * @param slot
+	 * @return
+	 */
+	public static String getAccession(int slot) {
+		return accessions[slot];
+	}
+
+
+	/**
+	 * Returns the number of assigned slots.
+	 *
+	 * @return
+	 */
+	public static int getNrSlots() {
+		return accessions.length;
+	}
+}
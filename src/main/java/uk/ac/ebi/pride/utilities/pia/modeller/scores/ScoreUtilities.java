@@ -79,4 +79,27 @@ public class ScoreUtilities {
 			}
 		}
 	}
+	
+	
+	/**
+	 * Compares the primitive values of two scores, NaN marks a not given score
+	 * and is always considered worse than anything else.
+	 * 
+	 * @param score1
+	 * @param score2
+	 * @param higherScoreBetter
+	 * @return
+	 */
+	public static int compareValues(double score1, double score2, boolean higherScoreBetter) {
+		boolean nan1 = Double.isNaN(score1);
+		boolean nan2 = Double.isNaN(score2);
+		
+		if (nan1 || nan2) {
+			return (nan1 == nan2) ? 0 : (nan1 ? 1 : -1);
+		} else if (higherScoreBetter) {
+			return -Double.compare(score1, score2);
+		} else {
+			return Double.compare(score1, score2);
+		}
+	}
 }
@@ -0,0 +1,199 @@
+package uk.ac.ebi.pride.utilities.pia.progress;
+
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressListener.Stage;
+
+
+/**
+ * An immutable snapshot of the progress of a stage, as it is given to the
+ * {@link ProgressListener}.
+ *
+ * @author julian
+ *
+ */
+public class ProgressEvent {
+
+	/** the stage */
+	private final Stage stage;
+
+	/** the name of the work in the stage */
+	private final String name;
+
+	/** the number of processed items */
+	private final long itemsDone;
+
+	/** the total number of items, -1 if unknown */
+	private final long totalItems;
+
+	/** the number of read bytes */
+	private final long bytesRead;
+
+	/** the total number of bytes to read, -1 if unknown */
+	private final long totalBytes;
+
+	/** the nanoseconds since the start of the stage */
+	private final long elapsedNanos;
+
+	/** the nanoseconds since the last progress */
+	private final long nanosSinceProgress;
+
+	/** whether the stage is finished */
+	private final boolean finished;
+
+
+	public ProgressEvent(Stage stage, String name, long itemsDone, long totalItems,
+			long bytesRead, long totalBytes, long elapsedNanos, long nanosSinceProgress,
+			boolean finished) {
+		this.stage = stage;
+		this.name = name;
+		this.itemsDone = itemsDone;
+		this.totalItems = totalItems;
+		this.bytesRead = bytesRead;
+		this.totalBytes = totalBytes;
+		this.elapsedNanos = elapsedNanos;
+		this.nanosSinceProgress = nanosSinceProgress;
+		this.finished = finished;
+	}
+
+
+	public Stage getStage() {
+		return stage;
+	}
+
+
+	public String getName() {
+		return name;
+	}
+
+
+	public long getItemsDone() {
+		return itemsDone;
+	}
+
+
+	/**
+	 * Returns the total number of items or -1, if it is not (yet) known.
+	 *
+	 * @return
+	 */
+	public long getTotalItems() {
+		return totalItems;
+	}
+
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+
+	/**
+	 * Returns the total number of bytes to read or -1, if it is not known.
+	 *
+	 * @return
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+
+	/**
+	 * Returns the time since the start of the stage, in nanoseconds.
+	 *
+	 * @return
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+
+	/**
+	 * Returns the time since the last processed item or read bytes, in
+	 * nanoseconds. This detects stalled stages.
+	 *
+	 * @return
+	 */
+	public long getNanosSinceProgress() {
+		return nanosSinceProgress;
+	}
+
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+
+	/**
+	 * Returns the processed items per second since the start of the stage.
+	 *
+	 * @return
+	 */
+	public double getItemsPerSecond() {
+		return (elapsedNanos > 0) ? itemsDone * 1e9 / elapsedNanos : 0.0;
+	}
+
+
+	/**
+	 * Returns the read bytes per second since the start of the stage.
+	 *
+	 * @return
+	 */
+	public double getBytesPerSecond() {
+		return (elapsedNanos > 0) ? bytesRead * 1e9 / elapsedNanos : 0.0;
+	}
+
+
+	/**
+	 * Returns the done fraction of the stage, between 0 and 1. It is computed
+	 * by the items, if their total is known, otherwise by the bytes. If
+	 * neither total is known, NaN is returned.
+	 *
+	 * @return
+	 */
+	public double getFraction() {
+		if (finished) {
+			return 1.0;
+		} else if (totalItems > 0) {
+			return Math.min(1.0, (double) itemsDone / totalItems);
+		} else if (totalBytes > 0) {
+			return Math.min(1.0, (double) bytesRead / totalBytes);
+		}
+		return Double.NaN;
+	}
+
+
+	/**
+	 * Estimates the remaining nanoseconds of the stage by the rate so far, or
+	 * returns -1 if no estimate is possible yet.
+	 *
+	 * @return
+	 */
+	public long getEstimatedRemainingNanos() {
+		double fraction = getFraction();
+		if (Double.isNaN(fraction) || (fraction <= 0.0)) {
+			return -1;
+		}
+		return (long) (elapsedNanos * (1.0 - fraction) / fraction);
+	}
+
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(stage).append(" ").append(name).append(": ").append(itemsDone);
+		if (totalItems >= 0) {
+			sb.append("/").append(totalItems);
+		}
+		sb.append(" items");
+		if (bytesRead > 0) {
+			sb.append(", ").append(bytesRead);
+			if (totalBytes >= 0) {
+				sb.append("/").append(totalBytes);
+			}
+			sb.append(" bytes");
+		}
+		sb.append(", ").append(elapsedNanos / 1000000).append(" ms");
+		if (finished) {
+			sb.append(", finished");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,61 @@
+package uk.ac.ebi.pride.utilities.pia.progress;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * An input stream, which adds the read bytes to a {@link ProgressTracker}.
+ *
+ * @author julian
+ *
+ */
+public class ProgressInputStream extends FilterInputStream {
+
+	/** the tracker of the read bytes */
+	private ProgressTracker tracker;
+
+
+	public ProgressInputStream(InputStream in, ProgressTracker tracker) {
+		super(in);
+		this.tracker = tracker;
+	}
+
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			tracker.addBytesRead(1);
+		}
+		return b;
+	}
+
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int nrRead = super.read(b, off, len);
+		if (nrRead > 0) {
+			tracker.addBytesRead(nrRead);
+		}
+		return nrRead;
+	}
+
+
+	@Override
+	public long skip(long n) throws IOException {
+		long nrSkipped = super.skip(n);
+		if (nrSkipped > 0) {
+			tracker.addBytesRead(nrSkipped);
+		}
+		return nrSkipped;
+	}
+
+
+	@Override
+	public boolean markSupported() {
+		// re-read bytes would be counted twice
+		return false;
+	}
+}
@@ -0,0 +1,62 @@
+package uk.ac.ebi.pride.utilities.pia.progress;
+
+
+/**
+ * A callback for the progress of the stages of a PIA run, i.e. the import,
+ * the clustering, the building of the intermediate structure, the FDR
+ * calculation and the protein inference.
+ * <p>
+ * The methods are called by the threads doing the work, possibly several at
+ * once, so implementations must be thread safe and should return quickly.
+ * The updates are throttled by the {@link ProgressReporter}.
+ *
+ * @author julian
+ *
+ */
+public interface ProgressListener {
+
+	/**
+	 * Called when a stage is started.
+	 *
+	 * @param event the progress at the start of the stage
+	 */
+	public void stageStarted(ProgressEvent event);
+
+
+	/**
+	 * Called periodically while a stage makes progress.
+	 *
+	 * @param event the current progress of the stage
+	 */
+	public void progressUpdated(ProgressEvent event);
+
+
+	/**
+	 * Called when a stage is finished.
+	 *
+	 * @param event the final progress of the stage
+	 */
+	public void stageFinished(ProgressEvent event);
+
+
+	/**
+	 * The stages of a PIA run.
+	 */
+	public enum Stage {
+		/** importing the input files, the items are the PSMs */
+		IMPORT,
+
+		/** clustering the peptides and proteins, the items are the peptides */
+		CLUSTERING,
+
+		/** building the groups of the intermediate structure, the items are the clusters */
+		STRUCTURE_BUILDING,
+
+		/** calculating the PSM level FDR, the items are the PSMs */
+		FDR,
+
+		/** the protein inference, the items are the clusters */
+		INFERENCE,
+		;
+	}
+}
@@ -0,0 +1,151 @@
+package uk.ac.ebi.pride.utilities.pia.progress;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressListener.Stage;
+
+
+/**
+ * Creates the {@link ProgressTracker}s of the stages of a PIA run, passes
+ * their progress to the {@link ProgressListener} and sums up the time spent
+ * in each stage.
+ * <p>
+ * A reporter without a listener still tracks the progress and the timings,
+ * which can be polled.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author julian
+ *
+ */
+public class ProgressReporter {
+
+	/** the listener, may be null */
+	private final ProgressListener listener;
+
+	/** the minimal time between two progress updates of a tracker */
+	private final long notifyIntervalNanos;
+
+	/** the summed up nanoseconds of the finished runs of each stage */
+	private final Map<Stage, Long> stageNanos;
+
+	/** the trackers of the last started run of each stage */
+	private final Map<Stage, ProgressTracker> lastTrackers;
+
+
+	/** the default minimal time between two progress updates */
+	public static final long DEFAULT_NOTIFY_INTERVAL_MILLIS = 500;
+
+
+	/**
+	 * Creates a reporter without a listener.
+	 */
+	public ProgressReporter() {
+		this(null);
+	}
+
+
+	/**
+	 * Creates a reporter for the given listener with the default notification
+	 * interval.
+	 *
+	 * @param listener may be null
+	 */
+	public ProgressReporter(ProgressListener listener) {
+		this(listener, DEFAULT_NOTIFY_INTERVAL_MILLIS);
+	}
+
+
+	/**
+	 * Creates a reporter for the given listener.
+	 *
+	 * @param listener may be null
+	 * @param notifyIntervalMillis the minimal time between two progress
+	 * updates of a stage
+	 */
+	public ProgressReporter(ProgressListener listener, long notifyIntervalMillis) {
+		this.listener = listener;
+		this.notifyIntervalNanos = Math.max(0, notifyIntervalMillis) * 1000000L;
+		this.stageNanos = new EnumMap<Stage, Long>(Stage.class);
+		this.lastTrackers = new EnumMap<Stage, ProgressTracker>(Stage.class);
+	}
+
+
+	/**
+	 * Starts a run of the given stage and notifies the listener.
+	 *
+	 * @param stage
+	 * @param name the name of the work, e.g. the file or inference method
+	 * @param totalItems the total number of items, -1 if unknown
+	 * @return the tracker of the run
+	 */
+	public ProgressTracker startStage(Stage stage, String name, long totalItems) {
+		ProgressTracker tracker = new ProgressTracker(this, stage, name, totalItems);
+		synchronized (lastTrackers) {
+			lastTrackers.put(stage, tracker);
+		}
+
+		if (listener != null) {
+			listener.stageStarted(tracker.getSnapshot());
+		}
+		return tracker;
+	}
+
+
+	/**
+	 * Called by the tracker, when its run is finished.
+	 */
+	void stageFinished(ProgressTracker tracker, ProgressEvent event) {
+		synchronized (stageNanos) {
+			Long nanos = stageNanos.get(tracker.getStage());
+			stageNanos.put(tracker.getStage(),
+					((nanos != null) ? nanos : 0L) + event.getElapsedNanos());
+		}
+
+		if (listener != null) {
+			listener.stageFinished(event);
+		}
+	}
+
+
+	/**
+	 * Returns the summed up nanoseconds of all finished runs of each stage.
+	 *
+	 * @return
+	 */
+	public Map<Stage, Long> getStageNanos() {
+		synchronized (stageNanos) {
+			return new EnumMap<Stage, Long>(stageNanos);
+		}
+	}
+
+
+	/**
+	 * Returns the tracker of the last started run of the given stage or null,
+	 * if the stage was not started yet. This allows to poll the progress.
+	 *
+	 * @param stage
+	 * @return
+	 */
+	public ProgressTracker getLastTracker(Stage stage) {
+		synchronized (lastTrackers) {
+			return lastTrackers.get(stage);
+		}
+	}
+
+
+	public ProgressListener getListener() {
+		return listener;
+	}
+
+
+	boolean hasListener() {
+		return listener != null;
+	}
+
+
+	long getNotifyIntervalNanos() {
+		return notifyIntervalNanos;
+	}
+}
@@ -0,0 +1,218 @@
+package uk.ac.ebi.pride.utilities.pia.progress;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressListener.Stage;
+
+
+/**
+ * Tracks the progress of one run of a stage. Trackers are created by
+ * {@link ProgressReporter#startStage(Stage, String, long)}.
+ * <p>
+ * This class is thread safe, the worker threads of a stage advance the same
+ * tracker. Advancing only updates atomic counters and reads the clock, the
+ * listener is notified at most once per notification interval.
+ *
+ * @author julian
+ *
+ */
+public class ProgressTracker {
+
+	/** the reporter, which created this tracker */
+	private final ProgressReporter reporter;
+
+	/** the tracked stage */
+	private final Stage stage;
+
+	/** the name of the work in the stage */
+	private final String name;
+
+	/** the number of processed items */
+	private final AtomicLong itemsDone;
+
+	/** the total number of items, -1 if unknown */
+	private final AtomicLong totalItems;
+
+	/** the number of read bytes */
+	private final AtomicLong bytesRead;
+
+	/** the total number of bytes to read, -1 if unknown */
+	private final AtomicLong totalBytes;
+
+	/** the time of the start */
+	private final long startNanos;
+
+	/** the time of the last progress */
+	private volatile long lastProgressNanos;
+
+	/** the time, after which the listener is notified next */
+	private final AtomicLong nextNotifyNanos;
+
+	/** the time of the finish, only valid if finished */
+	private volatile long finishNanos;
+
+	/** whether the stage is finished */
+	private final AtomicBoolean finished;
+
+
+	ProgressTracker(ProgressReporter reporter, Stage stage, String name, long totalItems) {
+		this.reporter = reporter;
+		this.stage = stage;
+		this.name = name;
+		this.itemsDone = new AtomicLong(0);
+		this.totalItems = new AtomicLong((totalItems < 0) ? -1 : totalItems);
+		this.bytesRead = new AtomicLong(0);
+		this.totalBytes = new AtomicLong(-1);
+		this.startNanos = System.nanoTime();
+		this.lastProgressNanos = startNanos;
+		this.nextNotifyNanos = new AtomicLong(startNanos + reporter.getNotifyIntervalNanos());
+		this.finishNanos = startNanos;
+		this.finished = new AtomicBoolean(false);
+	}
+
+
+	public Stage getStage() {
+		return stage;
+	}
+
+
+	public String getName() {
+		return name;
+	}
+
+
+	/**
+	 * Advances the progress by one item.
+	 */
+	public void advance() {
+		advance(1);
+	}
+
+
+	/**
+	 * Advances the progress by the given number of items.
+	 *
+	 * @param items
+	 */
+	public void advance(long items) {
+		itemsDone.addAndGet(items);
+		progressMade();
+	}
+
+
+	/**
+	 * Adds the given number of read bytes.
+	 *
+	 * @param bytes
+	 */
+	public void addBytesRead(long bytes) {
+		bytesRead.addAndGet(bytes);
+		progressMade();
+	}
+
+
+	/**
+	 * Adds the given number to the total items, e.g. when the number of items
+	 * of a further file is known.
+	 *
+	 * @param items
+	 */
+	public void addTotalItems(long items) {
+		addToTotal(totalItems, items);
+	}
+
+
+	/**
+	 * Adds the given number to the total bytes, e.g. when a further file is
+	 * started.
+	 *
+	 * @param bytes
+	 */
+	public void addTotalBytes(long bytes) {
+		addToTotal(totalBytes, bytes);
+	}
+
+
+	/**
+	 * Adds to a total, which is -1 while it is unknown.
+	 */
+	private static void addToTotal(AtomicLong total, long value) {
+		long current;
+		do {
+			current = total.get();
+		} while (!total.compareAndSet(current, Math.max(current, 0) + value));
+	}
+
+
+	/**
+	 * Records the time of the progress and notifies the listener, if the
+	 * notification interval has passed.
+	 */
+	private void progressMade() {
+		long now = System.nanoTime();
+		lastProgressNanos = now;
+
+		long nextNotify = nextNotifyNanos.get();
+		if ((now - nextNotify >= 0) && reporter.hasListener()
+				&& nextNotifyNanos.compareAndSet(nextNotify, now + reporter.getNotifyIntervalNanos())) {
+			reporter.getListener().progressUpdated(getSnapshot(now));
+		}
+	}
+
+
+	/**
+	 * Finishes the stage and notifies the listener. Further calls are ignored.
+	 */
+	public synchronized void finish() {
+		if (!finished.get()) {
+			// the finish time must be visible, before the stage is seen as finished
+			finishNanos = System.nanoTime();
+			finished.set(true);
+			reporter.stageFinished(this, getSnapshot());
+		}
+	}
+
+
+	public boolean isFinished() {
+		return finished.get();
+	}
+
+
+	/**
+	 * Returns the current progress.
+	 *
+	 * @return
+	 */
+	public ProgressEvent getSnapshot() {
+		return getSnapshot(System.nanoTime());
+	}
+
+
+	private ProgressEvent getSnapshot(long now) {
+		boolean isFinished = finished.get();
+		long end = isFinished ? finishNanos : now;
+		return new ProgressEvent(stage, name, itemsDone.get(), totalItems.get(),
+				bytesRead.get(), totalBytes.get(), end - startNanos,
+				Math.max(0, end - lastProgressNanos), isFinished);
+	}
+
+
+	/**
+	 * Returns the progress in percent, between 0 and 100. While the stage is
+	 * running, at most 99 is returned.
+	 *
+	 * @return
+	 */
+	public long getPercent() {
+		if (finished.get()) {
+			return 100;
+		}
+
+		double fraction = getSnapshot().getFraction();
+		if (Double.isNaN(fraction)) {
+			return 0;
+		}
+		return Math.min(99, (long) (fraction * 100));
+	}
+}
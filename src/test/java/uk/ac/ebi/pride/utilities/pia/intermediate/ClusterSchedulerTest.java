@@ -0,0 +1,70 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+
+public class ClusterSchedulerTest {
+	
+	@Test
+	public void processesEachClusterOnce() {
+		int nrClusters = 10000;
+		List<Integer> clusters = new ArrayList<Integer>(nrClusters);
+		long[] costs = new long[nrClusters];
+		for (int i = 0; i < nrClusters; i++) {
+			clusters.add(i);
+			costs[i] = (i % 100 == 0) ? 1000 : 1;
+		}
+		
+		final AtomicIntegerArray processed = new AtomicIntegerArray(nrClusters);
+		ClusterScheduler<Integer> scheduler = new ClusterScheduler<Integer>("test", 4);
+		scheduler.process(clusters, costs, new ClusterScheduler.ClusterProcessor<Integer>() {
+			@Override
+			public void processCluster(Integer cluster) {
+				processed.incrementAndGet(cluster);
+			}
+		});
+		
+		for (int i = 0; i < nrClusters; i++) {
+			assertEquals(1, processed.get(i));
+		}
+		
+		int nrProcessed = 0;
+		for (int i = 0; i < 4; i++) {
+			nrProcessed += scheduler.getProcessedClusters()[i];
+			assertTrue(scheduler.getBusyNanos()[i] >= 0);
+			assertTrue(scheduler.getIdleNanos()[i] >= 0);
+		}
+		assertEquals(nrClusters, nrProcessed);
+	}
+	
+	
+	@Test
+	public void largestClustersFirst() {
+		List<Integer> clusters = new ArrayList<Integer>();
+		long[] costs = new long[] {1, 50, 3, 50, 1000, 2};
+		for (int i = 0; i < costs.length; i++) {
+			clusters.add(i);
+		}
+		
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		ClusterScheduler<Integer> scheduler = new ClusterScheduler<Integer>("test", 1);
+		scheduler.process(clusters, costs, new ClusterScheduler.ClusterProcessor<Integer>() {
+			@Override
+			public void processCluster(Integer cluster) {
+				order.add(cluster);
+			}
+		});
+		
+		List<Integer> expected = new ArrayList<Integer>();
+		Collections.addAll(expected, 4, 1, 3, 2, 5, 0);
+		assertEquals(expected, order);
+	}
+}
@@ -0,0 +1,118 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreatorTest.SyntheticProtein;
+
+
+public class IntermediateGroupTest {
+	
+	/** the groups of a small cluster: 1 -> 3, 2 -> 3, 2 -> 4, 3 -> 5 */
+	private List<IntermediateGroup> groups;
+	
+	
+	@Before
+	public void setUp() {
+		groups = new ArrayList<IntermediateGroup>();
+		for (int id = 1; id <= 5; id++) {
+			groups.add(new IntermediateGroup(id));
+		}
+		
+		connect(1, 3);
+		connect(2, 3);
+		connect(2, 4);
+		connect(3, 5);
+		
+		groups.get(0).addProtein(new SyntheticProtein("PROT_1"));
+		groups.get(1).addProtein(new SyntheticProtein("PROT_2"));
+		groups.get(1).addProtein(new SyntheticProtein("PROT_3"));
+		groups.get(2).addProtein(new SyntheticProtein("PROT_4"));
+		
+		groups.get(2).addPeptide(new IntermediatePeptide("PEPTIDEA"));
+		groups.get(3).addPeptide(new IntermediatePeptide("PEPTIDEB"));
+		groups.get(4).addPeptide(new IntermediatePeptide("PEPTIDEC"));
+		groups.get(4).addPeptide(new IntermediatePeptide("PEPTIDED"));
+	}
+	
+	
+	private void connect(int parentID, int childID) {
+		IntermediateGroup parent = groups.get(parentID - 1);
+		IntermediateGroup child = groups.get(childID - 1);
+		parent.addChild(child);
+		child.addParent(parent);
+	}
+	
+	
+	@Test
+	public void frozenClosuresEqualComputedOnes() {
+		List<Set<IntermediateProtein>> allProteins = new ArrayList<Set<IntermediateProtein>>();
+		List<Set<IntermediateGroup>> allChildren = new ArrayList<Set<IntermediateGroup>>();
+		List<Set<IntermediateGroup>> allPeptideChildren = new ArrayList<Set<IntermediateGroup>>();
+		List<Set<IntermediatePeptide>> allPeptides = new ArrayList<Set<IntermediatePeptide>>();
+		for (IntermediateGroup group : groups) {
+			assertFalse(group.isFrozen());
+			allProteins.add(group.getAllProteins());
+			allChildren.add(group.getAllChildren());
+			allPeptideChildren.add(group.getAllPeptideChildren());
+			allPeptides.add(group.getAllPeptides());
+		}
+		
+		assertEquals(4, allProteins.get(4).size());
+		assertEquals(3, allChildren.get(1).size());
+		assertEquals(4, allPeptides.get(1).size());
+		
+		ClusterClosures.freeze(groups);
+		
+		for (int i = 0; i < groups.size(); i++) {
+			IntermediateGroup group = groups.get(i);
+			assertTrue(group.isFrozen());
+			
+			assertEquals(allProteins.get(i), new HashSet<IntermediateProtein>(group.getAllProteins()));
+			assertEquals(allChildren.get(i), new HashSet<IntermediateGroup>(group.getAllChildren()));
+			assertEquals(allPeptideChildren.get(i), new HashSet<IntermediateGroup>(group.getAllPeptideChildren()));
+			assertEquals(allPeptides.get(i), new HashSet<IntermediatePeptide>(group.getAllPeptides()));
+			
+			for (IntermediateProtein protein : allProteins.get(i)) {
+				assertTrue(group.getAllProteins().contains(protein));
+			}
+			
+			// the same cached set is returned on each call
+			assertSame(group.getAllProteins(), group.getAllProteins());
+			assertSame(group.getAllPeptideChildren(), group.getAllPeptideChildren());
+		}
+	}
+	
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void frozenClosuresAreUnmodifiable() {
+		ClusterClosures.freeze(groups);
+		groups.get(4).getAllProteins().clear();
+	}
+	
+	
+	@Test
+	public void changeInvalidatesCluster() {
+		ClusterClosures.freeze(groups);
+		Set<IntermediateProtein> frozenProteins = groups.get(4).getAllProteins();
+		
+		groups.get(0).addProtein(new SyntheticProtein("PROT_5"));
+		
+		for (IntermediateGroup group : groups) {
+			assertFalse(group.isFrozen());
+		}
+		assertNotSame(frozenProteins, groups.get(4).getAllProteins());
+		assertEquals(5, groups.get(4).getAllProteins().size());
+	}
+}
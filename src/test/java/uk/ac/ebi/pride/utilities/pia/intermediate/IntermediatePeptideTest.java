@@ -0,0 +1,179 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.StoredPeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterComparator;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMChargeFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.ScoringItemType;
+
+
+public class IntermediatePeptideTest {
+
+	@Test
+	public void psmsAreIdentifiedByNumericIDs() {
+		// more PSMs than are searched linearly
+		IntermediatePeptide peptide = new IntermediatePeptide("PEPTIDE");
+		for (int ordinal = 0; ordinal < 100; ordinal++) {
+			assertTrue(peptide.addPeptideSpectrumMatch(createPSM(3, ordinal, 2 + (ordinal % 2))));
+		}
+
+		// the same PSMs from another import are not added again
+		for (int ordinal = 0; ordinal < 100; ordinal++) {
+			assertFalse(peptide.addPeptideSpectrumMatch(createPSM(3, ordinal, 2 + (ordinal % 2))));
+		}
+		assertTrue(peptide.addPeptideSpectrumMatch(createPSM(4, 0, 2)));
+		assertEquals(101, peptide.getNumberOfPeptideSpectrumMatches().intValue());
+
+		// PSMs without assigned IDs are all distinct
+		IntermediatePeptide unassigned = new IntermediatePeptide("PEPTIDE");
+		for (int i = 0; i < 20; i++) {
+			assertTrue(unassigned.addPeptideSpectrumMatch(createPSM(-1, i, 2)));
+		}
+		assertEquals(20, unassigned.getNumberOfPeptideSpectrumMatches().intValue());
+	}
+
+
+	@Test
+	public void filteringAndScoringFollowThePSMs() {
+		IntermediatePeptide peptide = new IntermediatePeptide("PEPTIDE");
+		List<IntermediatePeptideSpectrumMatch> psms = new ArrayList<IntermediatePeptideSpectrumMatch>();
+		for (int ordinal = 0; ordinal < 30; ordinal++) {
+			psms.add(createPSM(1, ordinal, 2 + (ordinal % 3)));
+			peptide.addPeptideSpectrumMatch(psms.get(ordinal));
+		}
+
+		List<AbstractFilter> filters = new ArrayList<AbstractFilter>();
+		filters.add(new PSMChargeFilter(FilterComparator.equal, 2, false));
+		peptide.filterPSMs(filters);
+		assertEquals(10, peptide.getNumberOfPeptideSpectrumMatches().intValue());
+		for (IntermediatePeptideSpectrumMatch psm : peptide.getPeptideSpectrumMatches()) {
+			assertEquals(2, psm.getCharge().intValue());
+		}
+
+		// added PSMs pass the filter
+		peptide.addPeptideSpectrumMatch(createPSM(1, 30, 4));
+		assertEquals(11, peptide.getNumberOfPeptideSpectrumMatches().intValue());
+
+		peptide.setPSMsScoringType(psms.get(3), ScoringItemType.FULL_SCORING);
+		peptide.setPSMsScoringType(psms.get(6), ScoringItemType.SHARED_SCORING);
+		assertEquals(ScoringItemType.FULL_SCORING, peptide.getPSMsScoringType(createPSM(1, 3, 2)));
+		assertEquals(ScoringItemType.SHARED_SCORING, peptide.getPSMsScoringType(psms.get(6)));
+		assertEquals(ScoringItemType.NOT_SCORING, peptide.getPSMsScoringType(psms.get(9)));
+		assertEquals(ScoringItemType.NOT_SCORING, peptide.getPSMsScoringType(createPSM(1, 30, 4)));
+		assertEquals(1, peptide.getPSMsWithScoringType(ScoringItemType.FULL_SCORING).size());
+
+		peptide.removeAllScoringInformation();
+		assertEquals(ScoringItemType.NOT_SCORING, peptide.getPSMsScoringType(psms.get(3)));
+	}
+
+
+	@Test
+	public void viewsAreFilteredAndScoredIndependently() {
+		IntermediatePeptide peptide = new IntermediatePeptide("PEPTIDE");
+		List<IntermediatePeptideSpectrumMatch> psms = new ArrayList<IntermediatePeptideSpectrumMatch>();
+		for (int ordinal = 0; ordinal < 30; ordinal++) {
+			psms.add(createPSM(1, ordinal, 2 + (ordinal % 3)));
+			peptide.addPeptideSpectrumMatch(psms.get(ordinal));
+		}
+
+		List<AbstractFilter> chargeTwo = new ArrayList<AbstractFilter>();
+		chargeTwo.add(new PSMChargeFilter(FilterComparator.equal, 2, false));
+		List<AbstractFilter> chargeThree = new ArrayList<AbstractFilter>();
+		chargeThree.add(new PSMChargeFilter(FilterComparator.equal, 3, false));
+
+		IntermediatePeptide viewTwo = peptide.createFilteredView(chargeTwo);
+		IntermediatePeptide viewThree = peptide.createFilteredView(chargeThree);
+		assertEquals(10, viewTwo.getNumberOfPeptideSpectrumMatches().intValue());
+		assertEquals(10, viewThree.getNumberOfPeptideSpectrumMatches().intValue());
+		for (IntermediatePeptideSpectrumMatch psm : viewThree.getPeptideSpectrumMatches()) {
+			assertEquals(3, psm.getCharge().intValue());
+		}
+		assertFalse(viewTwo.equals(viewThree));
+
+		viewTwo.setScore(1.0);
+		viewTwo.setPSMsScoringType(psms.get(3), ScoringItemType.FULL_SCORING);
+		assertEquals(ScoringItemType.NOT_SCORING, viewThree.getPSMsScoringType(psms.get(3)));
+
+		// the peptide itself is neither filtered nor scored
+		assertEquals(30, peptide.getNumberOfPeptideSpectrumMatches().intValue());
+		assertTrue(peptide.getScore().isNaN());
+		assertEquals(ScoringItemType.NOT_SCORING, peptide.getPSMsScoringType(psms.get(3)));
+		assertTrue(psms.get(3).getPeptide() == peptide);
+
+		try {
+			viewTwo.addPeptideSpectrumMatch(createPSM(1, 30, 2));
+			fail("PSMs must not be added to a view");
+		} catch (UnsupportedOperationException e) {
+			assertEquals(30, peptide.getNumberOfPeptideSpectrumMatches().intValue());
+		}
+	}
+
+
+	@Test
+	public void peptidesAreEqualByTheirPassingPSMs() {
+		// the same PSMs in another order, e.g. of a read in structure
+		IntermediatePeptide peptide = new IntermediatePeptide("PEPTIDE");
+		IntermediatePeptide reversed = new IntermediatePeptide("PEPTIDE");
+		for (int ordinal = 0; ordinal < 30; ordinal++) {
+			peptide.addPeptideSpectrumMatch(createPSM(1, ordinal, 2 + (ordinal % 3)));
+			reversed.addPeptideSpectrumMatch(createPSM(1, 29 - ordinal, 2 + ((29 - ordinal) % 3)));
+		}
+		assertEquals(peptide, reversed);
+		assertEquals(peptide.hashCode(), reversed.hashCode());
+
+		List<AbstractFilter> chargeTwo = new ArrayList<AbstractFilter>();
+		chargeTwo.add(new PSMChargeFilter(FilterComparator.equal, 2, false));
+		List<AbstractFilter> chargeThree = new ArrayList<AbstractFilter>();
+		chargeThree.add(new PSMChargeFilter(FilterComparator.equal, 3, false));
+
+		// views of the same peptide and of the reordered peptide
+		IntermediatePeptide viewTwo = peptide.createFilteredView(chargeTwo);
+		assertEquals(viewTwo, peptide.createFilteredView(chargeTwo));
+		assertEquals(viewTwo, reversed.createFilteredView(chargeTwo));
+		assertEquals(viewTwo.hashCode(), reversed.createFilteredView(chargeTwo).hashCode());
+		assertFalse(viewTwo.equals(reversed.createFilteredView(chargeThree)));
+		assertFalse(viewTwo.equals(peptide));
+
+		// the hash code does not change by filtering
+		int hashCode = peptide.hashCode();
+		peptide.filterPSMs(chargeTwo);
+		assertEquals(hashCode, peptide.hashCode());
+
+		// another peptide with an equal number of PSMs
+		IntermediatePeptide other = new IntermediatePeptide("PEPTIDE");
+		for (int ordinal = 1; ordinal <= 30; ordinal++) {
+			other.addPeptideSpectrumMatch(createPSM(1, ordinal, 2 + (ordinal % 3)));
+		}
+		assertFalse(reversed.equals(other));
+	}
+
+
+	/**
+	 * Creates a PSM with the numeric ID of the given file index and ordinal,
+	 * or with an unassigned ID for a negative file index.
+	 */
+	private static IntermediatePeptideSpectrumMatch createPSM(int fileIndex, int ordinal, int charge) {
+		String controllerID = "file" + fileIndex;
+		IntermediatePeptideSpectrumMatch psm = new StoredPeptideSpectrumMatch(controllerID + ":SII_" + ordinal,
+				controllerID, "spectrum" + ordinal, 500.0, 0.0, null, charge, null, "PEPTIDE",
+				new String[0], new double[0],
+				Collections.<Modification>emptyList(), Collections.<AbstractParam>emptyList());
+		if (fileIndex >= 0) {
+			psm.setNumericID(IntermediatePeptideSpectrumMatch.computeNumericID(fileIndex, ordinal));
+		}
+		return psm;
+	}
+}
@@ -0,0 +1,454 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator.ClusteringMethod;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.StoredPeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.prideimpl.PrideImportController;
+
+
+public class IntermediateStructureCreatorTest {
+	
+	/** logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(IntermediateStructureCreatorTest.class);
+	
+	/** the number of repetitions for each timed clustering */
+	private static final int NR_REPETITIONS = 5;
+	
+	
+	@Test
+	public void clusteringOfSyntheticData() {
+		IntermediateStructureCreator creator = createSyntheticCreator(50000, 150000, 3, 42);
+		
+		compareClusteringMethods(creator, "synthetic data");
+	}
+	
+	
+	@Test
+	public void structureOfSyntheticData() {
+		IntermediateStructure iterativeStructure = null;
+		
+		for (ClusteringMethod method : ClusteringMethod.values()) {
+			IntermediateStructureCreator creator = createSyntheticCreator(5000, 15000, 3, 42);
+			creator.setClusteringMethod(method);
+			IntermediateStructure structure = creator.buildIntermediateStructure();
+			
+			if (iterativeStructure == null) {
+				iterativeStructure = structure;
+			} else {
+				assertEquals(iterativeStructure.getNrClusters(), structure.getNrClusters());
+				assertEquals(iterativeStructure.getNrGroups(), structure.getNrGroups());
+			}
+		}
+	}
+	
+	
+	@Test
+	public void mergedStagingCreatorsEqualSequentialImport() {
+		IntermediateStructureCreator sequential = new IntermediateStructureCreator(1);
+		IntermediateStructureCreator merged = new IntermediateStructureCreator(1);
+		
+		for (int file = 0; file < 3; file++) {
+			addSyntheticFile(sequential, 2000, 6000, file);
+			
+			IntermediateStructureCreator staging = new IntermediateStructureCreator(1);
+			addSyntheticFile(staging, 2000, 6000, file);
+			merged.mergeStagingCreator(staging);
+		}
+		
+		assertEquals(sequential.getNrProteins(), merged.getNrProteins());
+		assertEquals(sequential.getNrPeptides(), merged.getNrPeptides());
+		assertEquals(sequential.getNrSpectrumIdentifications(), merged.getNrSpectrumIdentifications());
+		
+		PeptideProteinGraph sequentialGraph = sequential.getGraph();
+		PeptideProteinGraph mergedGraph = merged.getGraph();
+		for (int idx = 0; idx < sequential.getNrProteins(); idx++) {
+			assertEquals(sequentialGraph.getProtein(idx).getAccession(), mergedGraph.getProtein(idx).getAccession());
+		}
+		for (int idx = 0; idx < sequential.getNrPeptides(); idx++) {
+			assertEquals(sequentialGraph.getPeptide(idx).getID(), mergedGraph.getPeptide(idx).getID());
+		}
+		assertTrue(Arrays.equals(sequentialGraph.getPeptideOffsets(), mergedGraph.getPeptideOffsets()));
+		assertTrue(Arrays.equals(sequentialGraph.getPeptideAdjacency(), mergedGraph.getPeptideAdjacency()));
+		
+		IntermediateStructure sequentialStructure = sequential.buildIntermediateStructure();
+		IntermediateStructure mergedStructure = merged.buildIntermediateStructure();
+		assertEquals(sequentialStructure.getNrClusters(), mergedStructure.getNrClusters());
+		assertEquals(sequentialStructure.getNrGroups(), mergedStructure.getNrGroups());
+	}
+	
+	
+	@Test
+	public void incrementalAdditionEqualsFullBuild() {
+		IntermediateStructureCreator full = new IntermediateStructureCreator(1);
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		for (int file = 0; file < 2; file++) {
+			addSyntheticFile(full, 20000, 6000, file);
+			addSyntheticFile(creator, 20000, 6000, file);
+		}
+		
+		IntermediateStructure structure = creator.buildIntermediateStructure();
+		Map<Integer, Set<IntermediateGroup>> oldClusters =
+				new HashMap<Integer, Set<IntermediateGroup>>(structure.getClusters());
+		
+		IntermediateStructureCreator increment = creator.createIncrementCreator();
+		addSyntheticFile(full, 20000, 6000, 2);
+		addSyntheticFile(increment, 20000, 6000, 2);
+		
+		IntermediateStructure fullStructure = full.buildIntermediateStructure();
+		assertSame(structure, increment.addToIntermediateStructure(structure));
+		
+		assertEquals(fullStructure.getNrClusters(), structure.getNrClusters());
+		assertEquals(fullStructure.getNrPeptides(), structure.getNrPeptides());
+		assertEquals(fullStructure.getNrProteins(), structure.getNrProteins());
+		assertEquals(fullStructure.getAllIntermediatePSMs().size(), structure.getAllIntermediatePSMs().size());
+		assertEquals(getClusterPeptideIDs(fullStructure), getClusterPeptideIDs(structure));
+		assertEquals(getGroupDescriptions(fullStructure), getGroupDescriptions(structure));
+		
+		// the untouched clusters are kept as they are
+		int nrKept = 0;
+		for (Map.Entry<Integer, Set<IntermediateGroup>> clusterIt : oldClusters.entrySet()) {
+			Set<IntermediateGroup> cluster = structure.getCluster(clusterIt.getKey());
+			if (cluster != null) {
+				assertSame(clusterIt.getValue(), cluster);
+				nrKept++;
+			}
+		}
+		assertTrue((nrKept > 0) && (nrKept < oldClusters.size()));
+	}
+	
+	
+	@Test
+	public void clusteringOfTestFiles() throws Exception {
+		String[] fileNames = new String[] {
+				"55merge_tandem.mzid",
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_05].mzid",
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_08].mzid",
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_B[Node_05].mzid"};
+		
+		for (String fileName : fileNames) {
+			URL url = IntermediateStructureCreatorTest.class.getClassLoader().getResource(fileName);
+			File inputFile = new File(url.toURI());
+			
+			IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+			PrideImportController importController = new PrideImportController(inputFile, creator);
+			importController.addSpectrumIdentificationsToStructCreator(null);
+			
+			compareClusteringMethods(creator, fileName);
+			
+			importController.close();
+		}
+	}
+	
+	
+	@Test
+	public void heapPerConnection() {
+		int nrConnections = Integer.getInteger("pia.benchmark.connections", 1000000);
+		int nrPeptides = nrConnections / 2;
+		int nrProteins = nrConnections / 10;
+		Random random = new Random(42);
+		
+		Comparable[] peptideIDs = new Comparable[nrPeptides];
+		for (int i = 0; i < nrPeptides; i++) {
+			peptideIDs[i] = "PEPTIDE" + i;
+		}
+		String[] accessions = new String[nrProteins];
+		for (int i = 0; i < nrProteins; i++) {
+			accessions[i] = "PROT_" + i;
+		}
+		int[] connections = new int[2 * nrConnections];
+		for (int i = 0; i < nrConnections; i++) {
+			connections[2 * i] = random.nextInt(nrPeptides);
+			connections[2 * i + 1] = random.nextInt(nrProteins);
+		}
+		
+		// the nested maps, which were used before the graph
+		long before = usedHeap();
+		Map<Comparable, Set<String>> peptidesToProteins = new HashMap<Comparable, Set<String>>();
+		Map<String, Set<Comparable>> proteinsToPeptides = new HashMap<String, Set<Comparable>>();
+		for (int i = 0; i < nrConnections; i++) {
+			Comparable pepID = peptideIDs[connections[2 * i]];
+			String accession = accessions[connections[2 * i + 1]];
+			
+			Set<String> protAccessions = peptidesToProteins.get(pepID);
+			if (protAccessions == null) {
+				protAccessions = new HashSet<String>();
+				peptidesToProteins.put(pepID, protAccessions);
+			}
+			protAccessions.add(accession);
+			
+			Set<Comparable> pepIDs = proteinsToPeptides.get(accession);
+			if (pepIDs == null) {
+				pepIDs = new HashSet<Comparable>();
+				proteinsToPeptides.put(accession, pepIDs);
+			}
+			pepIDs.add(pepID);
+		}
+		long mapsHeap = usedHeap() - before;
+		int nrMapConnections = 0;
+		for (Set<String> protAccessions : peptidesToProteins.values()) {
+			nrMapConnections += protAccessions.size();
+		}
+		peptidesToProteins = null;
+		proteinsToPeptides = null;
+		
+		// the compacted graph with both directions
+		before = usedHeap();
+		PeptideProteinGraph graph = new PeptideProteinGraph();
+		for (int i = 0; i < nrPeptides; i++) {
+			graph.addPeptide(new IntermediatePeptide(peptideIDs[i].toString()));
+		}
+		for (int i = 0; i < nrProteins; i++) {
+			graph.addProtein(new SyntheticProtein(accessions[i]));
+		}
+		long nodesHeap = usedHeap() - before;
+		for (int i = 0; i < nrConnections; i++) {
+			graph.addConnection(connections[2 * i], connections[2 * i + 1]);
+		}
+		graph.getProteinAdjacency();
+		long graphHeap = usedHeap() - before - nodesHeap;
+		
+		assertEquals(nrMapConnections, graph.getNrConnections());
+		
+		logger.info(nrMapConnections + " connections: nested maps "
+				+ ((double) mapsHeap / nrMapConnections) + " bytes per connection, graph "
+				+ ((double) graphHeap / nrMapConnections) + " bytes per connection");
+	}
+	
+	
+	/**
+	 * Returns the IDs of the peptides of each cluster of the structure.
+	 */
+	private static Set<Set<Comparable>> getClusterPeptideIDs(IntermediateStructure structure) {
+		Set<Set<Comparable>> clusterPeptideIDs = new HashSet<Set<Comparable>>();
+		for (Set<IntermediateGroup> cluster : structure.getClusters().values()) {
+			Set<Comparable> peptideIDs = new HashSet<Comparable>();
+			for (IntermediateGroup group : cluster) {
+				if (group.getPeptides() != null) {
+					for (IntermediatePeptide peptide : group.getPeptides()) {
+						peptideIDs.add(peptide.getID());
+					}
+				}
+			}
+			clusterPeptideIDs.add(peptideIDs);
+		}
+		return clusterPeptideIDs;
+	}
+	
+	
+	/**
+	 * Returns a description of each group of the structure, which does not
+	 * depend on the group IDs: the group's direct and transitive peptides and
+	 * proteins and the same for each of its children. The descriptions are
+	 * sorted, so two structures have equal descriptions, if their groups are
+	 * equal one by one.
+	 */
+	private static List<String> getGroupDescriptions(IntermediateStructure structure) {
+		List<String> descriptions = new ArrayList<String>();
+		for (Set<IntermediateGroup> cluster : structure.getClusters().values()) {
+			for (IntermediateGroup group : cluster) {
+				Set<String> children = new TreeSet<String>();
+				if (group.getChildren() != null) {
+					for (IntermediateGroup child : group.getChildren()) {
+						children.add(describeGroup(child));
+					}
+				}
+				descriptions.add(describeGroup(group) + " children " + children);
+			}
+		}
+		Collections.sort(descriptions);
+		return descriptions;
+	}
+	
+	
+	/**
+	 * Describes the group by its direct and transitive peptides and proteins.
+	 */
+	private static String describeGroup(IntermediateGroup group) {
+		Set<String> peptides = new TreeSet<String>();
+		if (group.getPeptides() != null) {
+			for (IntermediatePeptide peptide : group.getPeptides()) {
+				peptides.add(peptide.getID().toString());
+			}
+		}
+		Set<String> allPeptides = new TreeSet<String>();
+		for (IntermediatePeptide peptide : group.getAllPeptides()) {
+			allPeptides.add(peptide.getID().toString());
+		}
+		Set<String> proteins = new TreeSet<String>();
+		if (group.getProteins() != null) {
+			for (IntermediateProtein protein : group.getProteins()) {
+				proteins.add(protein.getAccession());
+			}
+		}
+		Set<String> allProteins = new TreeSet<String>();
+		for (IntermediateProtein protein : group.getAllProteins()) {
+			allProteins.add(protein.getAccession());
+		}
+		return peptides + " " + proteins + " " + allPeptides + " " + allProteins;
+	}
+	
+	
+	/**
+	 * Returns the currently used heap after requesting a garbage collection.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	
+	/**
+	 * Clusters the data of the creator with all methods, checks that the
+	 * clusters are the same and logs the runtimes.
+	 * 
+	 * @param creator
+	 * @param dataName
+	 */
+	private void compareClusteringMethods(IntermediateStructureCreator creator, String dataName) {
+		List<int[]> iterativeClusters = creator.createClusterList(ClusteringMethod.ITERATIVE);
+		List<int[]> unionFindClusters = creator.createClusterList(ClusteringMethod.UNION_FIND);
+		
+		assertTrue("no clusters created for " + dataName, iterativeClusters.size() > 0);
+		assertEquals("different number of clusters for " + dataName,
+				iterativeClusters.size(), unionFindClusters.size());
+		for (int i = 0; i < iterativeClusters.size(); i++) {
+			assertTrue("different clusters for " + dataName,
+					Arrays.equals(iterativeClusters.get(i), unionFindClusters.get(i)));
+		}
+		
+		long iterativeTime = timeClustering(creator, ClusteringMethod.ITERATIVE);
+		long unionFindTime = timeClustering(creator, ClusteringMethod.UNION_FIND);
+		
+		logger.info(dataName + ": " + iterativeClusters.size() + " clusters, iterative "
+				+ (iterativeTime / 1000000.0) + " ms, union-find " + (unionFindTime / 1000000.0)
+				+ " ms, speedup " + ((double) iterativeTime / unionFindTime));
+	}
+	
+	
+	/**
+	 * Returns the mean time in nanoseconds to cluster the creator's data with
+	 * the given method.
+	 */
+	private long timeClustering(IntermediateStructureCreator creator, ClusteringMethod method) {
+		// warm up
+		creator.createClusterList(method);
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < NR_REPETITIONS; i++) {
+			List<int[]> clusters = creator.createClusterList(method);
+			assertTrue(clusters.size() > 0);
+		}
+		return (System.nanoTime() - start) / NR_REPETITIONS;
+	}
+	
+	
+	/**
+	 * Creates a structure creator with random peptide to protein connections.
+	 * Most peptides are connected to only one protein, some are shared between
+	 * up to maxShared proteins.
+	 */
+	static IntermediateStructureCreator createSyntheticCreator(int nrProteins, int nrPeptides,
+			int maxShared, long seed) {
+		Random random = new Random(seed);
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		
+		for (int i = 0; i < nrProteins; i++) {
+			creator.addProtein(new SyntheticProtein("PROT_" + i));
+		}
+		
+		for (int i = 0; i < nrPeptides; i++) {
+			IntermediatePeptide peptide = new IntermediatePeptide("PEPTIDE" + i);
+			creator.addPeptide(peptide);
+			
+			int nrShared = (random.nextInt(10) == 0) ? 1 + random.nextInt(maxShared) : 1;
+			for (int j = 0; j < nrShared; j++) {
+				creator.addPeptideToProteinConnection(peptide.getID(), "PROT_" + random.nextInt(nrProteins));
+			}
+		}
+		
+		return creator;
+	}
+	
+	
+	/**
+	 * Adds the data of a synthetic input file to the creator, like an import
+	 * controller would do. The files share part of their proteins and
+	 * peptides, each PSM is specific for its file.
+	 */
+	private static void addSyntheticFile(IntermediateStructureCreator creator, int nrProteins,
+			int nrPeptides, int fileNr) {
+		Random random = new Random(fileNr);
+		
+		for (int i = 0; i < nrPeptides; i++) {
+			String accession = "PROT_" + random.nextInt(nrProteins);
+			if (!creator.proteinsContains(accession)) {
+				creator.addProtein(new SyntheticProtein(accession));
+			}
+			
+			String sequence = "PEPTIDE" + random.nextInt(nrPeptides);
+			Comparable pepID = IntermediatePeptide.computeID(sequence);
+			IntermediatePeptide peptide = creator.getPeptide(pepID);
+			if (peptide == null) {
+				peptide = new IntermediatePeptide(sequence);
+				creator.addPeptide(peptide);
+			}
+			peptide.addPeptideSpectrumMatch(new StoredPeptideSpectrumMatch("file" + fileNr + ":" + i,
+					"file" + fileNr, null, null, null, null, null, null, sequence,
+					new String[0], new double[0], Collections.<Modification>emptyList(),
+					Collections.<AbstractParam>emptyList()));
+			
+			creator.addPeptideToProteinConnection(pepID, accession);
+		}
+	}
+	
+	
+	/**
+	 * A simple protein without any further information than its accession.
+	 */
+	static class SyntheticProtein extends IntermediateProtein {
+		
+		private String accession;
+		
+		
+		public SyntheticProtein(String accession) {
+			this.accession = accession;
+		}
+		
+		
+		@Override
+		public String getAccession() {
+			return accession;
+		}
+		
+		
+		@Override
+		public String getProteinSequence() {
+			return null;
+		}
+	}
+}
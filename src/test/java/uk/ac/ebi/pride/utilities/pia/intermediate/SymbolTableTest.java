@@ -0,0 +1,68 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+public class SymbolTableTest {
+
+	@Test
+	public void equalStringsAreInternedOnce() {
+		SymbolTable symbols = new SymbolTable();
+
+		List<String> canonical = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			canonical.add(symbols.intern("PEPTIDE" + i));
+		}
+
+		for (int i = 0; i < 1000; i++) {
+			String str = new String("PEPTIDE" + i);
+			assertSame(canonical.get(i), symbols.intern(str));
+			assertEquals(i, symbols.getHandle(str));
+			assertSame(canonical.get(i), symbols.getSymbol(i));
+		}
+
+		assertEquals(1000, symbols.size());
+		assertEquals(-1, symbols.getHandleIfPresent("unknown"));
+		assertNull(symbols.intern((String) null));
+	}
+
+
+	@Test
+	public void concurrentInterningGivesOneHandlePerString() throws Exception {
+		final SymbolTable symbols = new SymbolTable();
+		final String[][] interned = new String[4][];
+
+		Thread[] threads = new Thread[interned.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int threadNr = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					interned[threadNr] = new String[5000];
+					for (int i = 0; i < 5000; i++) {
+						interned[threadNr][i] = symbols.intern(new String("ACC_" + i));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(5000, symbols.size());
+		for (int i = 0; i < 5000; i++) {
+			for (int t = 1; t < interned.length; t++) {
+				assertSame(interned[0][i], interned[t][i]);
+			}
+			assertSame(interned[0][i], symbols.getSymbol(symbols.getHandle("ACC_" + i)));
+		}
+	}
+}
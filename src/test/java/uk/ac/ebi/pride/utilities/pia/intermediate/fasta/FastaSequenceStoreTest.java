@@ -0,0 +1,126 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.fasta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.StoredProtein;
+
+
+public class FastaSequenceStoreTest {
+
+	private File file;
+
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("pia-sequences", ".fasta");
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(">sp|P14209|CD99_HUMAN CD99 antigen OS=Homo sapiens\n");
+			out.write("MARAAWRLAA\nLLLLGLLAG\n\n");
+			out.write(">P2\r\n");
+			out.write("pepTIDEK\r\n");
+			out.write(">EMPTY no sequence\n");
+			out.write(">P2 repeated accession\n");
+			out.write("AAAA\n");
+			out.write(">LAST\n");
+			out.write("KLMN");
+		} finally {
+			out.close();
+		}
+	}
+
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+
+	@Test
+	public void sequencesAreReferenced() throws IOException {
+		FastaSequenceStore store = new FastaSequenceStore(file);
+		assertEquals(5, store.getNrSequences());
+
+		SequenceReference reference = store.getReference("sp|P14209|CD99_HUMAN");
+		assertNotNull(reference);
+		assertEquals("MARAAWRLAALLLLGLLAG", reference.getSequence());
+		assertEquals(19, reference.getLength());
+		assertTrue(reference.sequenceEquals("MARAAWRLAALLLLGLLAG"));
+		assertFalse(reference.sequenceEquals("MARAAWRLAALLLLGLLAA"));
+
+		// the first entry of a repeated accession is used, line breaks and case are ignored
+		reference = store.getReference("P2");
+		assertEquals("PEPTIDEK", reference.getSequence());
+		assertEquals(SequenceReference.computeHash("PEPTIDEK"), reference.getHash());
+		assertTrue(reference.sequenceEquals(store.getReference("P2")));
+
+		assertEquals("", store.getReference("EMPTY").getSequence());
+		assertEquals("KLMN", store.getReference("LAST").getSequence());
+		assertNull(store.getReference("P14209"));
+		assertFalse(store.contains("CD99"));
+	}
+
+
+	@Test
+	public void nonAsciiBytesAreResidues() throws IOException {
+		// the ISO-8859-1 byte 0xE9 is a residue for the index and the decoding
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(">LATIN1\nPEP\u00e9K\n>NEXT\nKLMN\n".getBytes("ISO-8859-1"));
+		} finally {
+			out.close();
+		}
+
+		FastaSequenceStore store = new FastaSequenceStore(file);
+		assertEquals(2, store.getNrSequences());
+
+		SequenceReference reference = store.getReference("LATIN1");
+		assertEquals(5, reference.getLength());
+		assertEquals("PEP\u00e9K", reference.getSequence());
+		assertEquals(SequenceReference.computeHash("PEP\u00e9K"), reference.getHash());
+		assertTrue(reference.sequenceEquals("PEP\u00e9K"));
+		assertEquals("KLMN", store.getReference("NEXT").getSequence());
+	}
+
+
+	@Test
+	public void proteinsReferenceTheirSequences() throws IOException {
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		creator.setSequenceStore(new FastaSequenceStore(file));
+
+		StoredProtein protein = new StoredProtein("P2", "PEPTIDEK");
+		creator.addProtein(protein);
+		assertNotNull(protein.getSequenceReference());
+		assertEquals("PEPTIDEK", protein.getProteinSequence());
+
+		// a protein without a sequence takes the one of a later file
+		IntermediateProtein withoutSequence = new StoredProtein("UNKNOWN", null);
+		creator.addProtein(withoutSequence);
+		assertNull(withoutSequence.getProteinSequence());
+		creator.addProteinInformation("UNKNOWN", new StoredProtein("UNKNOWN", "KLMN"));
+		assertEquals("KLMN", withoutSequence.getProteinSequence());
+
+		creator.addProteinInformation("P2", new StoredProtein("P2", "PEPTIDEK"));
+		assertSame(protein, creator.getProtein("P2"));
+		assertTrue(protein.sequenceEquals(new StoredProtein("P2", "PEPTIDEK")));
+		assertFalse(protein.sequenceEquals(new StoredProtein("P2", "PEPTIDER")));
+	}
+}
@@ -0,0 +1,385 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.jmzidml.model.mzidml.UserParam;
+import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateGroup;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+
+
+public class IntermediateStructureIOTest {
+
+	private static final String SCORE_ACCESSION = "MS:1002052";
+
+	private File file;
+
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("pia-intermediate", ".bin");
+	}
+
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+
+	@Test
+	public void writtenStructureIsReadIdentically() throws IOException {
+		IntermediateStructure structure = createStructure(300, 900, 4, 42);
+
+		Map<Integer, DataImportController> controllers = new HashMap<Integer, DataImportController>();
+		controllers.put(1, new StoredImportController("controller1", "file1.mzid"));
+		controllers.put(2, new StoredImportController("controller2", "file2.mzid"));
+
+		new IntermediateStructureWriter(file.getAbsolutePath()).write(structure, controllers);
+
+		IntermediateStructureReader reader = new IntermediateStructureReader(file.getAbsolutePath());
+		IntermediateStructure loaded = reader.read();
+
+		assertEquals(2, reader.getInputControllers().size());
+		assertEquals("controller2", reader.getInputControllers().get(2).getID());
+		assertEquals("file2.mzid", reader.getInputControllers().get(2).getInputFileName());
+
+		assertEquals(structure.getNrClusters(), loaded.getNrClusters());
+		assertEquals(structure.getNrGroups(), loaded.getNrGroups());
+		assertEquals(structure.getNrPeptides(), loaded.getNrPeptides());
+		assertEquals(structure.getNrProteins(), loaded.getNrProteins());
+		assertEquals(structure.getAllIntermediatePSMs().size(), loaded.getAllIntermediatePSMs().size());
+		assertEquals(describePSMs(structure), describePSMs(loaded));
+
+		Map<Integer, IntermediateGroup> groups = getGroupsByID(structure);
+		Map<Integer, IntermediateGroup> loadedGroups = getGroupsByID(loaded);
+		assertEquals(groups.keySet(), loadedGroups.keySet());
+
+		for (Map.Entry<Integer, IntermediateGroup> groupIt : groups.entrySet()) {
+			IntermediateGroup group = groupIt.getValue();
+			IntermediateGroup loadedGroup = loadedGroups.get(groupIt.getKey());
+
+			assertTrue(loadedGroup.isFrozen());
+			assertEquals(group.getTreeID(), loadedGroup.getTreeID());
+			assertEquals(getIDs(group.getChildren()), getIDs(loadedGroup.getChildren()));
+			assertEquals(getIDs(group.getParents()), getIDs(loadedGroup.getParents()));
+			assertEquals(getAccessions(group.getAllProteins()), getAccessions(loadedGroup.getAllProteins()));
+			assertEquals(getSequences(group.getAllPeptides()), getSequences(loadedGroup.getAllPeptides()));
+		}
+
+		for (IntermediatePeptideSpectrumMatch psm : loaded.getAllIntermediatePSMs()) {
+			assertNotNull(psm.getPeptide());
+			assertEquals(psm.getSequence(), psm.getPeptide().getSequence());
+			assertEquals(Double.valueOf(psm.getSequence().length()), psm.getScore(SCORE_ACCESSION));
+			assertEquals(Collections.singletonList(SCORE_ACCESSION), psm.getBaseScoreAccessions());
+			assertEquals(Double.valueOf(0.01), psm.getQValue());
+
+			assertEquals(1, psm.getModifications().size());
+			Modification mod = psm.getModifications().get(0);
+			assertEquals(Integer.valueOf(1), mod.getLocation());
+			assertEquals(Double.valueOf(15.994915), mod.getMonoisotopicMassDelta());
+			assertEquals("M", mod.getResidues().get(0));
+			assertEquals("UNIMOD:35", mod.getCvParam().get(0).getAccession());
+
+			assertEquals(1, psm.getParams().size());
+			assertTrue(psm.getParams().get(0) instanceof UserParam);
+			assertEquals("scan number(s)", psm.getParams().get(0).getName());
+		}
+	}
+
+
+	@Test
+	public void mappedStructureDecodesClustersOnRequest() throws IOException {
+		IntermediateStructure structure = createStructure(300, 900, 4, 7);
+		new IntermediateStructureWriter(file.getAbsolutePath()).write(structure,
+				new HashMap<Integer, DataImportController>());
+
+		MappedIntermediateStructure mapped = new MappedIntermediateStructure(file.getAbsolutePath());
+		try {
+			assertEquals(structure.getNrClusters(), mapped.getNrClusters());
+			assertEquals(structure.getNrGroups(), mapped.getNrGroups());
+			assertEquals(structure.getNrPeptides(), mapped.getNrPeptides());
+			assertEquals(structure.getNrProteins(), mapped.getNrProteins());
+			assertEquals(structure.getClusters().keySet(), mapped.getClusters().keySet());
+
+			Map<Integer, IntermediateGroup> groups = getGroupsByID(structure);
+			for (Map.Entry<Integer, Set<IntermediateGroup>> clusterIt : mapped.getClusters().entrySet()) {
+				Integer clusterNr = clusterIt.getKey();
+				assertEquals(structure.getClusterNrPeptides(clusterNr), mapped.getClusterNrPeptides(clusterNr));
+				assertEquals(structure.getClusterNrProteins(clusterNr), mapped.getClusterNrProteins(clusterNr));
+				assertEquals(structure.getCluster(clusterNr).size(), clusterIt.getValue().size());
+				assertEquals(describePSMs(structure.getCluster(clusterNr)), describePSMs(clusterIt.getValue()));
+
+				for (IntermediateGroup mappedGroup : clusterIt.getValue()) {
+					IntermediateGroup group = groups.get(mappedGroup.getID());
+
+					assertTrue(mappedGroup.isFrozen());
+					assertEquals(clusterNr, mappedGroup.getTreeID());
+					assertEquals(group.getTreeID(), mappedGroup.getTreeID());
+					assertEquals(getIDs(group.getChildren()), getIDs(mappedGroup.getChildren()));
+					assertEquals(getAccessions(group.getAllProteins()), getAccessions(mappedGroup.getAllProteins()));
+					assertEquals(getSequences(group.getAllPeptides()), getSequences(mappedGroup.getAllPeptides()));
+				}
+			}
+
+			// the clusters are decoded anew for each request
+			assertNotSame(mapped.getCluster(1), mapped.getCluster(1));
+			assertNull(mapped.getCluster(mapped.getNrClusters() + 1));
+		} finally {
+			mapped.close();
+		}
+	}
+
+
+	@Test
+	public void incrementallyUpdatedStructureIsReadRenumbered() throws IOException {
+		IntermediateStructureCreator creator = createCreator(300, 900, 4, 42);
+		IntermediateStructure structure = creator.buildIntermediateStructure();
+
+		// connect new peptides to some of the proteins, which rebuilds their clusters
+		Random random = new Random(43);
+		IntermediateStructureCreator increment = creator.createIncrementCreator();
+		for (int i = 0; i < 50; i++) {
+			int proteinNr = random.nextInt(300);
+			String accession = "PROT_" + proteinNr;
+			if (!increment.proteinsContains(accession)) {
+				StoredProtein protein = new StoredProtein(accession, (proteinNr % 2 == 0) ? "MPEPTIDEK" : null);
+				protein.setIsDecoy(proteinNr % 10 == 0);
+				increment.addProtein(protein);
+			}
+
+			IntermediatePeptide peptide = new IntermediatePeptide("MPEPTIDE" + (900 + i));
+			IntermediatePeptideSpectrumMatch psm = createPSM(peptide.getSequence(), "controller3", 900 + i);
+			psm.setQValue(0.01);
+			peptide.addPeptideSpectrumMatch(psm);
+			increment.addPeptide(peptide);
+			increment.addPeptideToProteinConnection(peptide.getID(), accession);
+		}
+		increment.addToIntermediateStructure(structure);
+
+		// the rebuilt clusters leave gaps in the IDs
+		Map<Integer, IntermediateGroup> groups = getGroupsByID(structure);
+		assertTrue(Collections.max(groups.keySet()) >= structure.getNrGroups());
+		assertTrue(Collections.max(structure.getClusters().keySet()) > structure.getNrClusters());
+
+		new IntermediateStructureWriter(file.getAbsolutePath()).write(structure,
+				new HashMap<Integer, DataImportController>());
+		IntermediateStructure loaded = new IntermediateStructureReader(file.getAbsolutePath()).read();
+
+		assertEquals(structure.getNrClusters(), loaded.getNrClusters());
+		assertEquals(structure.getNrGroups(), loaded.getNrGroups());
+		assertEquals(structure.getNrPeptides(), loaded.getNrPeptides());
+		assertEquals(structure.getNrProteins(), loaded.getNrProteins());
+
+		// the clusters and groups are numbered densely in the order of their IDs
+		Map<Integer, Integer> loadedIDs = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> loadedTreeIDs = new HashMap<Integer, Integer>();
+		for (Integer treeID : new TreeSet<Integer>(structure.getClusters().keySet())) {
+			loadedTreeIDs.put(treeID, loadedTreeIDs.size() + 1);
+			for (Integer groupID : getIDs(structure.getCluster(treeID))) {
+				loadedIDs.put(groupID, loadedIDs.size());
+			}
+		}
+
+		Map<Integer, IntermediateGroup> loadedGroups = getGroupsByID(loaded);
+		assertEquals(new TreeSet<Integer>(loadedIDs.values()), loadedGroups.keySet());
+		for (Map.Entry<Integer, IntermediateGroup> groupIt : groups.entrySet()) {
+			IntermediateGroup group = groupIt.getValue();
+			IntermediateGroup loadedGroup = loadedGroups.get(loadedIDs.get(groupIt.getKey()));
+
+			assertEquals(loadedTreeIDs.get(group.getTreeID()), loadedGroup.getTreeID());
+			assertEquals(getLoadedIDs(group.getChildren(), loadedIDs), getIDs(loadedGroup.getChildren()));
+			assertEquals(getLoadedIDs(group.getParents(), loadedIDs), getIDs(loadedGroup.getParents()));
+			assertEquals(getAccessions(group.getAllProteins()), getAccessions(loadedGroup.getAllProteins()));
+			assertEquals(getSequences(group.getAllPeptides()), getSequences(loadedGroup.getAllPeptides()));
+		}
+	}
+
+
+	@Test(expected=IOException.class)
+	public void invalidFileIsRejected() throws IOException {
+		new IntermediateStructureReader(file.getAbsolutePath()).read();
+	}
+
+
+	/**
+	 * Creates a structure with random peptide to protein connections and one
+	 * PSM per peptide.
+	 */
+	private static IntermediateStructure createStructure(int nrProteins, int nrPeptides,
+			int maxShared, long seed) {
+		return createCreator(nrProteins, nrPeptides, maxShared, seed).buildIntermediateStructure();
+	}
+
+
+	/**
+	 * Creates a structure creator with the data of {@link #createStructure(int, int, int, long)}.
+	 */
+	private static IntermediateStructureCreator createCreator(int nrProteins, int nrPeptides,
+			int maxShared, long seed) {
+		Random random = new Random(seed);
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(2);
+
+		for (int i = 0; i < nrProteins; i++) {
+			StoredProtein protein = new StoredProtein("PROT_" + i, (i % 2 == 0) ? "MPEPTIDEK" : null);
+			protein.setIsDecoy(i % 10 == 0);
+			creator.addProtein(protein);
+		}
+
+		for (int i = 0; i < nrPeptides; i++) {
+			IntermediatePeptide peptide = new IntermediatePeptide("MPEPTIDE" + i);
+
+			IntermediatePeptideSpectrumMatch psm = createPSM(peptide.getSequence(), "controller" + (1 + i % 2), i);
+			psm.setNumericID(IntermediatePeptideSpectrumMatch.computeNumericID(1 + i % 2, i));
+			psm.setQValue(0.01);
+			if (i % 5 == 0) {
+				// the decoy flag of the PSM overrides the decoy state of the proteins
+				psm.setIsDecoy(i % 3 == 0);
+			}
+			peptide.addPeptideSpectrumMatch(psm);
+			creator.addPeptide(peptide);
+
+			int nrShared = (random.nextInt(10) == 0) ? 1 + random.nextInt(maxShared) : 1;
+			for (int j = 0; j < nrShared; j++) {
+				creator.addPeptideToProteinConnection(peptide.getID(), "PROT_" + random.nextInt(nrProteins));
+			}
+		}
+
+		return creator;
+	}
+
+
+	private static IntermediatePeptideSpectrumMatch createPSM(String sequence, String controllerID, int nr) {
+		Modification mod = new Modification();
+		mod.setLocation(1);
+		mod.setMonoisotopicMassDelta(15.994915);
+		mod.getResidues().add("M");
+		CvParam modParam = new CvParam();
+		modParam.setAccession("UNIMOD:35");
+		modParam.setName("Oxidation");
+		mod.getCvParam().add(modParam);
+
+		UserParam param = new UserParam();
+		param.setName("scan number(s)");
+		param.setValue(Integer.toString(nr));
+
+		List<Modification> mods = new ArrayList<Modification>();
+		mods.add(mod);
+		List<AbstractParam> params = new ArrayList<AbstractParam>();
+		params.add(param);
+
+		return new StoredPeptideSpectrumMatch(controllerID + ":" + nr, controllerID, null,
+				500.0 + nr, 0.001, null, 2, null, sequence,
+				new String[] {SCORE_ACCESSION}, new double[] {sequence.length()},
+				mods, params);
+	}
+
+
+	/**
+	 * Describes each PSM of the structure by its IDs and its decoy and unique
+	 * flags.
+	 */
+	private static Set<String> describePSMs(IntermediateStructure structure) {
+		Set<String> psms = new TreeSet<String>();
+		for (Set<IntermediateGroup> cluster : structure.getClusters().values()) {
+			psms.addAll(describePSMs(cluster));
+		}
+		return psms;
+	}
+
+
+	private static Set<String> describePSMs(Set<IntermediateGroup> cluster) {
+		Set<String> psms = new TreeSet<String>();
+		for (IntermediateGroup group : cluster) {
+			if (group.getPeptides() == null) {
+				continue;
+			}
+			for (IntermediatePeptide peptide : group.getPeptides()) {
+				for (IntermediatePeptideSpectrumMatch psm : peptide.getAllPeptideSpectrumMatches()) {
+					psms.add(psm.getID() + " " + psm.getNumericID() + " " + psm.getIsDecoyFlag()
+							+ " " + psm.getIsDecoy() + " " + psm.getIsUnique());
+				}
+			}
+		}
+		return psms;
+	}
+
+
+	private static Map<Integer, IntermediateGroup> getGroupsByID(IntermediateStructure structure) {
+		Map<Integer, IntermediateGroup> groups = new HashMap<Integer, IntermediateGroup>();
+		for (Set<IntermediateGroup> cluster : structure.getClusters().values()) {
+			for (IntermediateGroup group : cluster) {
+				groups.put(group.getID(), group);
+			}
+		}
+		return groups;
+	}
+
+
+	private static Set<Integer> getIDs(Set<IntermediateGroup> groups) {
+		Set<Integer> ids = new TreeSet<Integer>();
+		if (groups != null) {
+			for (IntermediateGroup group : groups) {
+				ids.add(group.getID());
+			}
+		}
+		return ids;
+	}
+
+
+	/**
+	 * Returns the IDs, which the given groups get when they are read.
+	 */
+	private static Set<Integer> getLoadedIDs(Set<IntermediateGroup> groups, Map<Integer, Integer> loadedIDs) {
+		Set<Integer> ids = new TreeSet<Integer>();
+		for (Integer id : getIDs(groups)) {
+			ids.add(loadedIDs.get(id));
+		}
+		return ids;
+	}
+
+
+	private static Set<String> getAccessions(Set<IntermediateProtein> proteins) {
+		Set<String> accessions = new TreeSet<String>();
+		for (IntermediateProtein protein : proteins) {
+			accessions.add(protein.getAccession() + (protein.getIsDecoy() ? "_decoy" : "")
+					+ ((protein.getProteinSequence() != null) ? protein.getProteinSequence() : ""));
+		}
+		return accessions;
+	}
+
+
+	private static Set<String> getSequences(Set<IntermediatePeptide> peptides) {
+		Set<String> sequences = new TreeSet<String>();
+		for (IntermediatePeptide peptide : peptides) {
+			sequences.add(peptide.getSequence() + ":" + peptide.getNumberOfPeptideSpectrumMatches());
+		}
+		return sequences;
+	}
+}
@@ -0,0 +1,237 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.mzidimpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.pride.utilities.data.controller.impl.ControllerImpl.MzIdentMLControllerImpl;
+import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.intermediate.prideimpl.PrideImportController;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterComparator;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.ImportFilterStage;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMChargeFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMDecoyFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMScoreFilter;
+
+
+public class MzIdentMLImportControllerTest {
+
+	/** logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(MzIdentMLImportControllerTest.class);
+
+	/** the bundled test files */
+	private static final String[] TEST_FILES = new String[] {
+		"55merge_tandem.mzid",
+		"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_05].mzid",
+		"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_08].mzid",
+		"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_B[Node_05].mzid",
+	};
+
+
+	@Test
+	public void importOfTandemFile() throws Exception {
+		File inputFile = getTestFile("55merge_tandem.mzid");
+		assertTrue(MzIdentMLImportController.isValidFormat(inputFile));
+
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		DataImportController importController = new MzIdentMLImportController(inputFile, creator);
+		importController.addSpectrumIdentificationsToStructCreator(null);
+
+		// the file contains 170 spectrum identification items for 147 DBSequences
+		assertEquals(170, creator.getNrSpectrumIdentifications());
+		assertEquals(147, creator.getNrProteins());
+
+		IntermediateProtein protein = creator.getProtein("psu|NC_LIV_020800");
+		assertNotNull(protein);
+		assertTrue(protein.getProteinSequence().startsWith("MADEEVQALVVDNGSGNVKAGVAGDDAPRAVF"));
+
+		IntermediatePeptide peptide = creator.getPeptide(IntermediatePeptide.computeID("LCYIALDFDEEMKAAEDSSDIEK"));
+		assertNotNull(peptide);
+		IntermediatePeptideSpectrumMatch psm = peptide.getAllPeptideSpectrumMatches().get(0);
+		assertEquals(importController.getID() + ":SII_1_1", psm.getID());
+		assertEquals("index=12", psm.getSpectrumId());
+		assertEquals(Integer.valueOf(3), psm.getCharge());
+		assertEquals(903.720851, psm.getExperimentalMassToCharge(), 1e-9);
+		assertEquals(903.720851 - 903.403184, psm.getDeltaMass(), 1e-9);
+		assertEquals(2, psm.getModifications().size());
+		assertEquals(Integer.valueOf(2), psm.getModifications().get(0).getLocation());
+		assertEquals("C", psm.getModifications().get(0).getResidues().get(0));
+		assertEquals("UNIMOD:4", psm.getModifications().get(0).getCvParam().get(0).getAccession());
+
+		IntermediateStructure structure = creator.buildIntermediateStructure();
+		assertEquals(creator.getNrPeptides(), structure.getNrPeptides());
+	}
+
+
+	@Test
+	public void importOfMSGFFile() throws Exception {
+		File inputFile = getTestFile(TEST_FILES[1]);
+
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		new MzIdentMLImportController(inputFile, creator).addSpectrumIdentificationsToStructCreator(null);
+
+		assertEquals(63, creator.getNrSpectrumIdentifications());
+
+		assertNotNull(creator.getProtein("sp|P14209|CD99_HUMAN"));
+
+		IntermediatePeptide peptide = creator.getPeptide(IntermediatePeptide.computeID("DDPRPPNPPKPMPNPNPNHPSSSGSFS"));
+		assertNotNull(peptide);
+
+		boolean found = false;
+		for (IntermediatePeptideSpectrumMatch psm : peptide.getAllPeptideSpectrumMatches()) {
+			if (psm.getID().toString().endsWith(":SII_15_1")) {
+				assertEquals(26.676905, psm.getScore("MS:1002053"), 1e-9);
+				assertEquals(1.2150222E-6, psm.getScore("MS:1002052"), 1e-15);
+				assertFalse(psm.getParams().isEmpty());
+				found = true;
+			}
+		}
+		assertTrue(found);
+	}
+
+
+	@Test
+	public void importFiltersAreAppliedOnRawValues() throws Exception {
+		File inputFile = getTestFile(TEST_FILES[1]);
+
+		IntermediateStructureCreator allCreator = new IntermediateStructureCreator(1);
+		new MzIdentMLImportController(inputFile, allCreator).addSpectrumIdentificationsToStructCreator(null);
+
+		List<AbstractFilter> filters = new ArrayList<AbstractFilter>();
+		filters.add(new PSMChargeFilter(FilterComparator.equal, 3, false));
+		filters.add(new PSMScoreFilter(FilterComparator.less_equal, 5e-5, false, "MS:1002052", false));
+		filters.add(new PSMDecoyFilter(FilterComparator.equal, true, true));
+
+		// the PSM's decoy state is known only after the structure is built
+		int nrPSMs = allCreator.getNrSpectrumIdentifications();
+		int expected = 0;
+		for (IntermediatePeptideSpectrumMatch psm : allCreator.buildIntermediateStructure().getAllIntermediatePSMs()) {
+			if ((psm.getCharge() == 3) && (psm.getScore("MS:1002052") <= 5e-5) && !psm.getIsDecoy()) {
+				expected++;
+			}
+		}
+
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		DataImportController importController = new MzIdentMLImportController(inputFile, creator);
+		importController.addSpectrumIdentificationsToStructCreator(filters);
+
+		assertTrue(expected > 0);
+		assertEquals(expected, creator.getNrSpectrumIdentifications());
+
+		ImportFilterStage filterStage = importController.getImportFilterStage();
+		assertEquals(nrPSMs, filterStage.getNrChecked());
+		assertEquals(nrPSMs - expected, filterStage.getNrRejected());
+
+		long rejected = 0;
+		for (Long count : filterStage.getRejectionCounts().values()) {
+			rejected += count;
+		}
+		assertEquals(filterStage.getNrRejected(), rejected);
+	}
+
+
+	@Test
+	public void importEqualsPrideImport() throws Exception {
+		for (String fileName : TEST_FILES) {
+			File inputFile = getTestFile(fileName);
+			assertEquals(timeImport(inputFile, false)[0], timeImport(inputFile, true)[0]);
+		}
+	}
+
+
+	@Test
+	public void throughputComparedToPrideImport() throws Exception {
+		Assume.assumeTrue(Boolean.getBoolean("pia.benchmarks"));
+
+		long[] streamed = new long[3];
+		long[] pride = new long[3];
+
+		for (String fileName : TEST_FILES) {
+			File inputFile = getTestFile(fileName);
+
+			long[] result = timeImport(inputFile, true);
+			streamed[0] += result[0];
+			streamed[1] += result[1];
+			streamed[2] = Math.max(streamed[2], result[2]);
+
+			result = timeImport(inputFile, false);
+			pride[0] += result[0];
+			pride[1] += result[1];
+			pride[2] = Math.max(pride[2], result[2]);
+
+			assertEquals(pride[0], streamed[0]);
+		}
+
+		logger.info("StAX import: " + (1000000000L * streamed[0] / Math.max(1, streamed[1])) + " PSMs/s, peak heap "
+				+ (streamed[2] >> 20) + " MB");
+		logger.info("PRIDE import: " + (1000000000L * pride[0] / Math.max(1, pride[1])) + " PSMs/s, peak heap "
+				+ (pride[2] >> 20) + " MB");
+	}
+
+
+	/**
+	 * Imports all PSMs of the file into a new creator, either streamed or by
+	 * the PRIDE controller, and returns the number of PSMs, the needed
+	 * nanoseconds (including the opening of the PRIDE controller) and the
+	 * peak heap usage.
+	 */
+	private static long[] timeImport(File inputFile, boolean streamed) {
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+
+		long start = System.nanoTime();
+		if (streamed) {
+			new MzIdentMLImportController(inputFile, creator).addSpectrumIdentificationsToStructCreator(null);
+		} else {
+			MzIdentMLControllerImpl controller = new MzIdentMLControllerImpl(inputFile);
+			try {
+				new PrideImportController(controller, creator).addSpectrumIdentificationsToStructCreator(null);
+			} finally {
+				controller.close();
+			}
+		}
+		long time = System.nanoTime() - start;
+
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			}
+		}
+
+		return new long[] {creator.getNrSpectrumIdentifications(), time, peakHeap};
+	}
+
+
+	private static File getTestFile(String fileName) throws Exception {
+		URL url = MzIdentMLImportControllerTest.class.getClassLoader().getResource(fileName);
+		if (url == null) {
+			throw new IllegalStateException("no file for input found!");
+		}
+		return new File(url.toURI());
+	}
+}
@@ -0,0 +1,387 @@
+package uk.ac.ebi.pride.utilities.pia.intermediate.mztabimpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.DataImportController;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterComparator;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.ImportFilterStage;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMChargeFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMDecoyFilter;
+
+
+public class MzTabImportControllerTest {
+
+	/** logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(MzTabImportControllerTest.class);
+
+	/** the number of PSM rows of the generated benchmark file, the benchmark runs only with -Dpia.benchmarks=true */
+	private static final int BENCHMARK_ROWS = Integer.getInteger("pia.mztab.benchmarkRows", 2000000);
+
+	private static final String PSM_HEADER = "PSH\tsequence\tPSM_ID\taccession\tunique\tmodifications"
+			+ "\tretention_time\tcharge\texp_mass_to_charge\tcalc_mass_to_charge\tspectra_ref"
+			+ "\tsearch_engine_score[1]\tsearch_engine_score[2]\topt_global_cv_MS:1002217_decoy_peptide\n";
+
+	private File file;
+
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("pia-mztab", ".mzTab");
+	}
+
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+
+	@Test
+	public void importOfPSMSection() throws Exception {
+		writeTestFile();
+		assertTrue(MzTabImportController.isValidFormat(file));
+		assertFalse(MzTabImportController.isValidFormat(getTestFile("55merge_tandem.mzid")));
+
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		DataImportController importController = new MzTabImportController(file, creator);
+		importController.addSpectrumIdentificationsToStructCreator(null);
+
+		// the rows of the first PSM are combined
+		assertEquals(4, creator.getNrSpectrumIdentifications());
+		assertEquals(4, creator.getNrProteins());
+		assertEquals(3, creator.getNrPeptides());
+		assertTrue(creator.getProtein("DECOY_P3").getIsDecoy());
+		assertNull(creator.getProtein("P2").getIsDecoy());
+
+		IntermediatePeptide peptide = creator.getPeptide(IntermediatePeptide.computeID("PEPMTIDE"));
+		assertNotNull(peptide);
+		assertEquals(2, peptide.getAllPeptideSpectrumMatches().size());
+
+		IntermediatePeptideSpectrumMatch psm = peptide.getAllPeptideSpectrumMatches().get(0);
+		assertEquals(importController.getID() + ":1", psm.getID());
+		assertEquals("ms_run[1]:index=3", psm.getSpectrumId());
+		assertEquals(Integer.valueOf(2), psm.getCharge());
+		assertEquals(450.25, psm.getExperimentalMassToCharge(), 0.0);
+		assertEquals(0.05, psm.getDeltaMass(), 1e-9);
+		assertEquals(1234.5, psm.getRetentionTime(), 0.0);
+		assertEquals(1.5e-10, psm.getScore("MS:1002052"), 0.0);
+		assertEquals(0.001, psm.getScore("MS:1002053"), 0.0);
+		assertEquals(1, psm.getModifications().size());
+		assertEquals(Integer.valueOf(4), psm.getModifications().get(0).getLocation());
+		assertEquals("M", psm.getModifications().get(0).getResidues().get(0));
+		assertEquals("UNIMOD:35", psm.getModifications().get(0).getCvParam().get(0).getAccession());
+		assertEquals("Oxidation", psm.getModifications().get(0).getCvParam().get(0).getName());
+
+		psm = peptide.getAllPeptideSpectrumMatches().get(1);
+		assertNull(psm.getScore("MS:1002053"));
+		assertEquals(Integer.valueOf(4), psm.getModifications().get(0).getLocation());
+		assertEquals(15.995, psm.getModifications().get(0).getMonoisotopicMassDelta(), 0.0);
+
+		psm = creator.getPeptide(IntermediatePeptide.computeID("ACDEFGHIK")).getAllPeptideSpectrumMatches().get(0);
+		assertTrue(psm.getModifications().isEmpty());
+		assertTrue(psm.getNumericID() != peptide.getAllPeptideSpectrumMatches().get(0).getNumericID());
+	}
+
+
+	@Test
+	public void recurringNonIntegerIDsAreOnePSM() throws Exception {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writeMetadata(out);
+			out.write(PSM_HEADER);
+			out.write("PSM\tACDEFGHIK\tpsm_x\tP4\t0\t0\tnull\t3\t500.0\t500.0\tms_run[1]:index=6\t1.0E-3\t0.5\t0\n");
+			out.write("PSM\tKLMNPQR\tpsm_y\tP1\t1\tnull\t1300\t3\t300.1\t300.1\tms_run[1]:index=4\t2.0E-5\tnull\t0\n");
+			out.write("PSM\tACDEFGHIK\tpsm_x\tP5\t0\t0\tnull\t3\t500.0\t500.0\tms_run[1]:index=6\t1.0E-3\t0.5\t0\n");
+		} finally {
+			out.close();
+		}
+
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		new MzTabImportController(file, creator).addSpectrumIdentificationsToStructCreator(null);
+
+		// the later row of psm_x adds its protein to the same PSM
+		IntermediatePeptide peptide = creator.getPeptide(IntermediatePeptide.computeID("ACDEFGHIK"));
+		assertEquals(1, peptide.getAllPeptideSpectrumMatches().size());
+		assertNotNull(creator.getProtein("P4"));
+		assertNotNull(creator.getProtein("P5"));
+
+		long otherID = creator.getPeptide(IntermediatePeptide.computeID("KLMNPQR"))
+				.getAllPeptideSpectrumMatches().get(0).getNumericID();
+		assertTrue(peptide.getAllPeptideSpectrumMatches().get(0).getNumericID() != otherID);
+	}
+
+
+	@Test
+	public void importFiltersAreAppliedOnRawValues() throws Exception {
+		writeTestFile();
+
+		List<AbstractFilter> filters = new ArrayList<AbstractFilter>();
+		filters.add(new PSMDecoyFilter(FilterComparator.equal, true, true));
+		filters.add(new PSMChargeFilter(FilterComparator.equal, 2, false));
+
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		DataImportController importController = new MzTabImportController(file, creator);
+		importController.addSpectrumIdentificationsToStructCreator(filters);
+
+		assertEquals(2, creator.getNrSpectrumIdentifications());
+		assertNull(creator.getProtein("DECOY_P3"));
+
+		ImportFilterStage filterStage = importController.getImportFilterStage();
+		assertEquals(4, filterStage.getNrChecked());
+		assertEquals(2, filterStage.getNrRejected());
+	}
+
+
+	@Test
+	public void pipelinedImportEqualsDirectImport() throws Exception {
+		writeBenchmarkFile(20000);
+
+		List<AbstractFilter> filters = new ArrayList<AbstractFilter>();
+		filters.add(new PSMDecoyFilter(FilterComparator.equal, false, false));
+
+		IntermediateStructureCreator directCreator = new IntermediateStructureCreator(1);
+		MzTabImportController directImport = new MzTabImportController(file, directCreator);
+		directImport.addSpectrumIdentificationsToStructCreator(filters);
+
+		// a small capacity lets the reader wait for the writer
+		IntermediateStructureCreator pipelinedCreator = new IntermediateStructureCreator(1);
+		MzTabImportController pipelinedImport = new MzTabImportController(file, pipelinedCreator);
+		pipelinedImport.setPipelineThreads(3);
+		pipelinedImport.setPipelineCapacity(2);
+		pipelinedImport.addSpectrumIdentificationsToStructCreator(filters);
+
+		assertTrue(directCreator.getNrSpectrumIdentifications() > 0);
+		assertEquals(directCreator.getNrSpectrumIdentifications(), pipelinedCreator.getNrSpectrumIdentifications());
+		assertEquals(directCreator.getNrPeptides(), pipelinedCreator.getNrPeptides());
+		assertEquals(directCreator.getNrProteins(), pipelinedCreator.getNrProteins());
+
+		for (String sequence : readSequences()) {
+			IntermediatePeptide peptide = directCreator.getPeptide(IntermediatePeptide.computeID(sequence));
+			if (peptide == null) {
+				assertNull(pipelinedCreator.getPeptide(IntermediatePeptide.computeID(sequence)));
+				continue;
+			}
+
+			List<IntermediatePeptideSpectrumMatch> directPSMs = peptide.getAllPeptideSpectrumMatches();
+			List<IntermediatePeptideSpectrumMatch> pipelinedPSMs =
+					pipelinedCreator.getPeptide(peptide.getID()).getAllPeptideSpectrumMatches();
+			assertEquals(directPSMs.size(), pipelinedPSMs.size());
+			for (int i = 0; i < directPSMs.size(); i++) {
+				assertEquals(directPSMs.get(i).getID(), pipelinedPSMs.get(i).getID());
+			}
+		}
+
+		ImportFilterStage directStage = directImport.getImportFilterStage();
+		ImportFilterStage pipelinedStage = pipelinedImport.getImportFilterStage();
+		assertEquals(directStage.getNrChecked(), pipelinedStage.getNrChecked());
+		assertEquals(directStage.getNrRejected(), pipelinedStage.getNrRejected());
+	}
+
+
+	@Test
+	public void throughputOfGeneratedFile() throws Exception {
+		Assume.assumeTrue(Boolean.getBoolean("pia.benchmarks"));
+
+		int nrPSMs = writeBenchmarkFile(BENCHMARK_ROWS);
+		logger.info("generated " + BENCHMARK_ROWS + " PSM rows (" + (file.length() >> 20) + " MB) for "
+				+ nrPSMs + " PSMs");
+
+		// streaming only, no PSM passes the filter
+		List<AbstractFilter> filters = new ArrayList<AbstractFilter>();
+		filters.add(new PSMChargeFilter(FilterComparator.equal, 99, false));
+		long[] result = timeImport(filters, 0);
+		assertEquals(0, result[0]);
+		logger.info("mzTab streaming: " + (1000000000L * BENCHMARK_ROWS / Math.max(1, result[1])) + " rows/s, "
+				+ (1000000000L * (file.length() >> 20) / Math.max(1, result[1])) + " MB/s");
+
+		result = timeImport(null, 0);
+		assertEquals(nrPSMs, result[0]);
+		logger.info("mzTab import: " + (1000000000L * BENCHMARK_ROWS / Math.max(1, result[1])) + " rows/s, "
+				+ (1000000000L * nrPSMs / Math.max(1, result[1])) + " PSMs/s, peak heap "
+				+ (result[2] >> 20) + " MB");
+
+		int pipelineThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+		result = timeImport(null, pipelineThreads);
+		assertEquals(nrPSMs, result[0]);
+		logger.info("mzTab pipelined import (" + pipelineThreads + " threads): "
+				+ (1000000000L * BENCHMARK_ROWS / Math.max(1, result[1])) + " rows/s, "
+				+ (1000000000L * nrPSMs / Math.max(1, result[1])) + " PSMs/s, peak heap "
+				+ (result[2] >> 20) + " MB");
+	}
+
+
+	/**
+	 * Imports the file into a new creator and returns the number of PSMs, the
+	 * needed nanoseconds and the peak heap usage.
+	 */
+	private long[] timeImport(List<AbstractFilter> filters, int pipelineThreads) {
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+
+		long start = System.nanoTime();
+		MzTabImportController importController = new MzTabImportController(file, creator);
+		importController.setPipelineThreads(pipelineThreads);
+		importController.addSpectrumIdentificationsToStructCreator(filters);
+		long time = System.nanoTime() - start;
+
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			}
+		}
+
+		return new long[] {creator.getNrSpectrumIdentifications(), time, peakHeap};
+	}
+
+
+	private void writeTestFile() throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write("COM\tgenerated for the tests\n");
+			writeMetadata(out);
+			out.write("\n");
+			out.write("PRH\taccession\tdescription\n");
+			out.write("PRT\tP1\tprotein 1\n");
+			out.write("\n");
+			out.write(PSM_HEADER);
+			out.write("PSM\tPEPMTIDE\t1\tP1\t0\t4-UNIMOD:35\t1234.5|1240.0\t2\t450.25\t450.2\tms_run[1]:index=3\t1.5E-10\t0.001\t0\r\n");
+			out.write("PSM\tPEPMTIDE\t1\tP2\t0\t4-UNIMOD:35\t1234.5|1240.0\t2\t450.25\t450.2\tms_run[1]:index=3\t1.5E-10\t0.001\t0\r\n");
+			out.write("PSM\tKLMNPQR\t2\tDECOY_P3\t1\tnull\t1300\t3\t300.1\t300.1\tms_run[1]:index=4\t2.0E-5\tnull\t1\n");
+			out.write("PSM\tPEPMTIDE\t3\tP1\t0\t4|5[MS, MS:1001876, modification probability, 0.8]-CHEMMOD:+15.995"
+					+ "\t1500\t2\t450.26\t450.2\tms_run[1]:index=5\t3.0E-9\tnull\t0\n");
+			out.write("PSM\tACDEFGHIK\tpsm_x\tP4\t1\t0\tnull\t3\t500.0\t500.0\tms_run[1]:index=6\t1.0E-3\t0.5\t0");
+		} finally {
+			out.close();
+		}
+	}
+
+
+	private static void writeMetadata(Writer out) throws IOException {
+		out.write("MTD\tmzTab-version\t1.0.0\n");
+		out.write("MTD\tmzTab-mode\tSummary\n");
+		out.write("MTD\tpsm_search_engine_score[1]\t[MS, MS:1002052, MS-GF:SpecEValue, ]\n");
+		out.write("MTD\tpsm_search_engine_score[2]\t[MS, MS:1002053, MS-GF:EValue, ]\n");
+		out.write("MTD\tvariable_mod[1]\t[UNIMOD, UNIMOD:35, Oxidation, ]\n");
+	}
+
+
+	/**
+	 * Writes a file with the given number of PSM rows, each PSM has one to
+	 * three rows for its proteins.
+	 *
+	 * @return the number of PSMs
+	 */
+	private int writeBenchmarkFile(int nrRows) throws IOException {
+		Random random = new Random(42);
+		String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+
+		String[] sequences = new String[Math.max(1, nrRows / 10)];
+		for (int i = 0; i < sequences.length; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int length = 7 + random.nextInt(15); length > 0; length--) {
+				sb.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+			}
+			sequences[i] = sb.toString();
+		}
+
+		int nrPSMs = 0;
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+		try {
+			writeMetadata(out);
+			out.write(PSM_HEADER);
+
+			int row = 0;
+			while (row < nrRows) {
+				int pepIdx = random.nextInt(sequences.length);
+				String sequence = sequences[pepIdx];
+				int mod = sequence.indexOf('M');
+				String psmValues = "\t" + ((mod >= 0) ? ((mod + 1) + "-UNIMOD:35") : "null")
+						+ "\t" + (random.nextInt(72000) / 10.0)
+						+ "\t" + (2 + random.nextInt(3))
+						+ "\t" + (400 + random.nextInt(160000) / 100.0)
+						+ "\t" + (400 + random.nextInt(160000) / 100.0)
+						+ "\tms_run[1]:index=" + nrPSMs
+						+ "\t" + random.nextDouble() * 1e-3
+						+ "\t" + ((random.nextInt(4) == 0) ? "null" : String.valueOf(random.nextDouble()))
+						+ "\t" + ((pepIdx % 2 == 0) ? "0" : "1") + "\n";
+
+				for (int protein = random.nextInt(3); (protein >= 0) && (row < nrRows); protein--, row++) {
+					out.write("PSM\t" + sequence + "\t" + nrPSMs + "\t" + ((pepIdx % 2 == 0) ? "P" : "DECOY_P")
+							+ ((pepIdx / 2 + protein) % 20000) + "\t0" + psmValues);
+				}
+				nrPSMs++;
+			}
+		} finally {
+			out.close();
+		}
+		return nrPSMs;
+	}
+
+
+	/**
+	 * Returns the sequences of the PSM rows in the file.
+	 */
+	private Set<String> readSequences() throws IOException {
+		Set<String> sequences = new HashSet<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("PSM\t")) {
+					sequences.add(line.split("\t", 3)[1]);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return sequences;
+	}
+
+
+	private static File getTestFile(String fileName) throws Exception {
+		URL url = MzTabImportControllerTest.class.getClassLoader().getResource(fileName);
+		if (url == null) {
+			throw new IllegalStateException("no file for input found!");
+		}
+		return new File(url.toURI());
+	}
+}
@@ -1,17 +1,28 @@
 package uk.ac.ebi.pride.utilities.pia.modeller;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import uk.ac.ebi.pride.jmztab.model.MZTabFile;
 import uk.ac.ebi.pride.jmztab.utils.MZTabFileConverter;
 import uk.ac.ebi.pride.utilities.data.controller.impl.ControllerImpl.MzIdentMLControllerImpl;
 import uk.ac.ebi.pride.utilities.data.exporters.AbstractMzTabConverter;
 import uk.ac.ebi.pride.utilities.data.exporters.HQMzIdentMLMzTabConverter;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
 import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
 import uk.ac.ebi.pride.utilities.pia.intermediate.prideimpl.PrideIntermediateProtein;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterComparator;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.protein.ProteinAccessionFilter;
 import uk.ac.ebi.pride.utilities.pia.modeller.protein.inference.InferenceProteinGroup;
 import uk.ac.ebi.pride.utilities.pia.modeller.protein.inference.OccamsRazorInference;
+import uk.ac.ebi.pride.utilities.pia.modeller.psm.PSMModeller;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.CvScore;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoring;
 import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoringUseBestPSM;
@@ -26,6 +37,9 @@ import java.util.*;
 
 public class PIAModellerTest {
 
+    /** logger for this class */
+    private static final Logger logger = LoggerFactory.getLogger(PIAModellerTest.class);
+
     MzIdentMLControllerImpl controller = null;
 
     @Before
@@ -212,4 +226,229 @@ public class PIAModellerTest {
 		checker.check(mzTabFile);
 		*/
 	}
-}
\ No newline at end of file
+	
+	
+	@Test
+	public void materializedImportEqualsLazyImport() throws Exception {
+		// compares the lazy and the materialized PSM mode on the MS-GF+ files,
+		// the controllers of the materialized run are closed before the FDR
+		// calculation and the inference
+		InferenceResult lazy = runFDRAndInference(false);
+		InferenceResult materialized = runFDRAndInference(true);
+		
+		assertEquals(lazy.nrPSMs, materialized.nrPSMs);
+		assertEquals(lazy.nrFDRPSMs, materialized.nrFDRPSMs);
+		assertEquals(lazy.groupAccessions, materialized.groupAccessions);
+	}
+	
+	
+	@Test
+	public void chunkedImportEqualsSequentialImport() throws Exception {
+		// the 222 proteins of this file are imported in 3 chunks
+		String fileName = "PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_08].mzid";
+		Map<String, Long> sequentialIDs = importNumericPSMIDs(fileName, 1);
+		
+		// the numeric IDs must not depend on the order, in which the threads import the chunks,
+		// while the threads read the one controller of each run one after another
+		for (int run = 0; run < 10; run++) {
+			assertEquals("run " + run, sequentialIDs, importNumericPSMIDs(fileName, 4));
+		}
+	}
+	
+	
+	@Test
+	public void concurrentFileImportEqualsSequentialImport() throws Exception {
+		String[] fileNames = new String[] {
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_05].mzid",
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_08].mzid",
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_B[Node_05].mzid"};
+		Map<String, Long> sequentialIDs = importNumericPSMIDs(fileNames, 1);
+		
+		// the numeric IDs must not depend on the order, in which the threads import the files
+		for (int run = 0; run < 3; run++) {
+			assertEquals(sequentialIDs, importNumericPSMIDs(fileNames, 4));
+		}
+	}
+	
+	
+	@Test
+	public void importComparedToLoad() throws Exception {
+		// times the import of the MS-GF+ files against loading the saved structure
+		Assume.assumeTrue(Boolean.getBoolean("pia.benchmarks"));
+		
+		String[] fileNames = new String[] {
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_05].mzid",
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_08].mzid",
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_B[Node_05].mzid"};
+		File structureFile = File.createTempFile("pia-structure", ".bin");
+		
+		try {
+			for (int run = 1; run <= 3; run++) {
+				long start = System.currentTimeMillis();
+				PIAModeller importModeller = new PIAModeller();
+				for (String fileName : fileNames) {
+					URL url = PIAModellerTest.class.getClassLoader().getResource(fileName);
+					Integer fileID = importModeller.addFile(new File(url.toURI()).getAbsolutePath());
+					importModeller.importAllDataFromFile(fileID);
+				}
+				IntermediateStructure imported = importModeller.buildIntermediateStructure();
+				long importTime = System.currentTimeMillis() - start;
+				
+				start = System.currentTimeMillis();
+				assertTrue(importModeller.saveIntermediateStructure(structureFile.getAbsolutePath()));
+				long saveTime = System.currentTimeMillis() - start;
+				importModeller.close();
+				
+				start = System.currentTimeMillis();
+				PIAModeller loadModeller = new PIAModeller(structureFile.getAbsolutePath());
+				IntermediateStructure loaded = loadModeller.getIntermediateStructure();
+				long loadTime = System.currentTimeMillis() - start;
+				
+				assertEquals(imported.getNrClusters(), loaded.getNrClusters());
+				assertEquals(imported.getNrGroups(), loaded.getNrGroups());
+				assertEquals(imported.getNrPeptides(), loaded.getNrPeptides());
+				assertEquals(imported.getNrProteins(), loaded.getNrProteins());
+				assertEquals(imported.getAllIntermediatePSMs().size(), loaded.getAllIntermediatePSMs().size());
+				
+				logger.info("run " + run + ": import " + importTime + " ms, save " + saveTime + " ms ("
+						+ (structureFile.length() >> 10) + " kB), load " + loadTime + " ms, "
+						+ loaded.getAllIntermediatePSMs().size() + " PSMs");
+				loadModeller.close();
+			}
+		} finally {
+			structureFile.delete();
+		}
+	}
+	
+	
+	/**
+	 * Imports the file with the given number of threads per file and returns
+	 * the numeric IDs of the PSMs by their IDs.
+	 */
+	private Map<String, Long> importNumericPSMIDs(String fileName, int importThreads) throws Exception {
+		URL url = PIAModellerTest.class.getClassLoader().getResource(fileName);
+		MzIdentMLControllerImpl fileController = new MzIdentMLControllerImpl(new File(url.toURI()));
+		
+		try {
+			PIAModeller piaModeller = new PIAModeller();
+			piaModeller.setImportThreadsPerFile(importThreads);
+			Integer fileID = piaModeller.addPrideControllerAsInput(fileController);
+			piaModeller.importAllDataFromFile(fileID);
+			piaModeller.buildIntermediateStructure();
+			
+			Map<String, Long> numericIDs = new TreeMap<String, Long>();
+			for (IntermediatePeptideSpectrumMatch psm : piaModeller.getIntermediateStructure().getAllIntermediatePSMs()) {
+				numericIDs.put(psm.getID().toString(), psm.getNumericID());
+			}
+			return numericIDs;
+		} finally {
+			fileController.close();
+		}
+	}
+	
+	
+	/**
+	 * Streams the files into a modeller with the given number of threads and
+	 * returns the numeric IDs of the PSMs by their controller and PSM IDs.
+	 */
+	private Map<String, Long> importNumericPSMIDs(String[] fileNames, int nrThreads) throws Exception {
+		List<String> pathnames = new ArrayList<String>(fileNames.length);
+		for (String fileName : fileNames) {
+			URL url = PIAModellerTest.class.getClassLoader().getResource(fileName);
+			pathnames.add(new File(url.toURI()).getAbsolutePath());
+		}
+		
+		PIAModeller piaModeller = new PIAModeller(nrThreads, false);
+		try {
+			piaModeller.setStreamMzIdentML(true);
+			piaModeller.addFilesAndImportSpectra(pathnames, null, null);
+			piaModeller.buildIntermediateStructure();
+			
+			Map<String, Long> numericIDs = new TreeMap<String, Long>();
+			for (IntermediatePeptideSpectrumMatch psm : piaModeller.getIntermediateStructure().getAllIntermediatePSMs()) {
+				numericIDs.put(psm.getControllerID() + " " + psm.getID(), psm.getNumericID());
+			}
+			return numericIDs;
+		} finally {
+			piaModeller.close();
+		}
+	}
+	
+	
+	/**
+	 * Imports the MS-GF+ files, calculates the FDR and infers the proteins
+	 * using either lazy or materialized PSMs.
+	 */
+	private InferenceResult runFDRAndInference(boolean materializePSMs) throws Exception {
+		String scoreAccession = "MS:1002053";
+		String[] fileNames = new String[] {
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_05].mzid",
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_08].mzid",
+				"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_B[Node_05].mzid"};
+		
+		List<MzIdentMLControllerImpl> controllers = new ArrayList<MzIdentMLControllerImpl>();
+		PIAModeller piaModeller = new PIAModeller();
+		piaModeller.setMaterializePSMs(materializePSMs);
+		
+		for (String fileName : fileNames) {
+			URL url = PIAModellerTest.class.getClassLoader().getResource(fileName);
+			MzIdentMLControllerImpl fileController = new MzIdentMLControllerImpl(new File(url.toURI()));
+			controllers.add(fileController);
+			
+			Integer fileID = piaModeller.addPrideControllerAsInput(fileController);
+			piaModeller.importAllDataFromFile(fileID);
+		}
+		piaModeller.buildIntermediateStructure();
+		
+		if (materializePSMs) {
+			// the materialized PSMs do not need the controllers anymore
+			for (MzIdentMLControllerImpl fileController : controllers) {
+				fileController.close();
+			}
+		}
+		
+		InferenceResult result = new InferenceResult();
+		
+		PSMModeller psmModeller = piaModeller.getPSMModeller();
+		psmModeller.setDecoyFilter(new ProteinAccessionFilter(FilterComparator.contains, "DECOY", false));
+		for (int fileID = 1; fileID <= fileNames.length; fileID++) {
+			psmModeller.setFdrScoreAccession(fileID, scoreAccession);
+		}
+		psmModeller.calculateAllFDR();
+		
+		PeptideScoring pepScoring = new PeptideScoringUseBestPSM(scoreAccession, false);
+		ProteinScoring protScoring = new ProteinScoringMultiplicative(false, pepScoring);
+		piaModeller.getProteinModeller().infereProteins(pepScoring, protScoring, OccamsRazorInference.class, null, false);
+		
+		for (int fileID = 1; fileID <= fileNames.length; fileID++) {
+			for (IntermediatePeptideSpectrumMatch psm : psmModeller.getFilesPSMs(fileID)) {
+				result.nrPSMs++;
+				if ((psm.getFDR() != null) && (psm.getFDR() <= 0.01)) {
+					result.nrFDRPSMs++;
+				}
+			}
+		}
+		
+		for (InferenceProteinGroup piaGroup : piaModeller.getProteinModeller().getInferredProteins()) {
+			Set<String> accessions = new TreeSet<String>();
+			for (IntermediateProtein protein : piaGroup.getProteins()) {
+				accessions.add(protein.getAccession());
+			}
+			result.groupAccessions.add(accessions.toString());
+		}
+		
+		if (!materializePSMs) {
+			for (MzIdentMLControllerImpl fileController : controllers) {
+				fileController.close();
+			}
+		}
+		return result;
+	}
+	
+	
+	private static class InferenceResult {
+		int nrPSMs;
+		int nrFDRPSMs;
+		Set<String> groupAccessions = new TreeSet<String>();
+	}
+}
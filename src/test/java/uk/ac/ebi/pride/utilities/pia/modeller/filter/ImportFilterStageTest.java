@@ -0,0 +1,146 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMChargeFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMDecoyFilter;
+
+
+public class ImportFilterStageTest {
+
+	/** rejects all PSMs with another charge than 2 */
+	private AbstractFilter chargeFilter;
+
+	/** rejects all decoys */
+	private AbstractFilter decoyFilter;
+
+	private List<AbstractFilter> filters;
+
+
+	@Before
+	public void setUp() {
+		chargeFilter = new PSMChargeFilter(FilterComparator.equal, 2, false);
+		decoyFilter = new PSMDecoyFilter(FilterComparator.equal, false, false);
+
+		filters = new ArrayList<AbstractFilter>();
+		filters.add(chargeFilter);
+		filters.add(decoyFilter);
+	}
+
+
+	@Test
+	public void psmRejectedByAllFiltersIsCountedForTheFirst() {
+		ImportFilterStage stage = new ImportFilterStage(filters);
+		for (int i = 0; i < 10; i++) {
+			assertFalse(stage.satisfiesRawFilters(new Values(3, true)));
+		}
+		assertTrue(stage.satisfiesRawFilters(new Values(2, false)));
+
+		assertEquals(11, stage.getNrChecked());
+		assertEquals(10, stage.getNrRejected());
+		assertEquals(Long.valueOf(10), stage.getRejectionCounts().get(chargeFilter));
+		assertEquals(Long.valueOf(0), stage.getRejectionCounts().get(decoyFilter));
+	}
+
+
+	@Test
+	public void filtersAreReorderedBySelectivity() {
+		ImportFilterStage stage = new ImportFilterStage(filters);
+
+		// before the first reorder, the decoy filter rejects every second PSM and the charge filter none
+		for (int i = 1; i < 1024; i++) {
+			assertEquals(i % 2 != 0, stage.satisfiesRawFilters(new Values(2, i % 2 == 0)));
+		}
+		assertEquals(Long.valueOf(0), stage.getRejectionCounts().get(chargeFilter));
+		assertEquals(Long.valueOf(511), stage.getRejectionCounts().get(decoyFilter));
+
+		// the 1024th check reorders, so the decoy filter is evaluated first from now on
+		for (int i = 0; i < 100; i++) {
+			assertFalse(stage.satisfiesRawFilters(new Values(3, true)));
+		}
+		assertEquals(Long.valueOf(0), stage.getRejectionCounts().get(chargeFilter));
+		assertEquals(Long.valueOf(611), stage.getRejectionCounts().get(decoyFilter));
+
+		// the counts are still given in the order of the filters
+		assertEquals(filters, new ArrayList<AbstractFilter>(stage.getRejectionCounts().keySet()));
+		assertEquals(1123, stage.getNrChecked());
+		assertEquals(611, stage.getNrRejected());
+	}
+
+
+	@Test
+	public void countsOfChunkStagesAreAdded() {
+		ImportFilterStage stage = new ImportFilterStage(filters);
+
+		// the chunks check their PSMs and reorder their filters independently, as in a concurrent import
+		ImportFilterStage firstChunk = new ImportFilterStage(filters);
+		ImportFilterStage secondChunk = new ImportFilterStage(filters);
+		for (int i = 0; i < 1200; i++) {
+			firstChunk.satisfiesRawFilters(new Values((i < 1024) ? 3 : 2, i >= 1024));
+			secondChunk.satisfiesRawFilters(new Values(2, i < 1100));
+		}
+
+		stage.addCounts(firstChunk);
+		stage.addCounts(secondChunk);
+
+		assertEquals(2400, stage.getNrChecked());
+		assertEquals(firstChunk.getNrRejected() + secondChunk.getNrRejected(), stage.getNrRejected());
+		assertEquals(Long.valueOf(1024), stage.getRejectionCounts().get(chargeFilter));
+		assertEquals(Long.valueOf(176 + 1100), stage.getRejectionCounts().get(decoyFilter));
+	}
+
+
+	@Test(expected=IllegalArgumentException.class)
+	public void countsOfOtherFiltersAreNotAdded() {
+		new ImportFilterStage(filters).addCounts(
+				new ImportFilterStage(Collections.singletonList(chargeFilter)));
+	}
+
+
+	/**
+	 * The raw values of a synthetic PSM.
+	 */
+	private static class Values implements ImportFilterStage.PSMValues {
+		private Integer charge;
+		private Boolean isDecoy;
+
+
+		Values(Integer charge, Boolean isDecoy) {
+			this.charge = charge;
+			this.isDecoy = isDecoy;
+		}
+
+
+		@Override
+		public Double getScore(String scoreAccession) {
+			return null;
+		}
+
+
+		@Override
+		public Integer getCharge() {
+			return charge;
+		}
+
+
+		@Override
+		public Boolean getIsDecoy() {
+			return isDecoy;
+		}
+
+
+		@Override
+		public List<String> getAccessions() {
+			return Collections.singletonList("P1");
+		}
+	}
+}
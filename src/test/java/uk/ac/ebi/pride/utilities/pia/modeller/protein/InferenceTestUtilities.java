@@ -0,0 +1,117 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.protein;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateProtein;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.intermediate.mzidimpl.MzIdentMLImportController;
+import uk.ac.ebi.pride.utilities.pia.modeller.protein.inference.InferenceProteinGroup;
+
+
+/**
+ * The test data and helpers shared by the tests of the protein inferences.
+ */
+public final class InferenceTestUtilities {
+
+	/** the MS-GF+ files of PXD001428 */
+	public static final String[] PXD001428_FILES = new String[] {
+		"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_05].mzid",
+		"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_A[Node_08].mzid",
+		"PXD001428/F1_20150223_Agilent5_PG_incl_list_AspN_B[Node_05].mzid",
+	};
+
+	/** the main score of the PXD001428 files */
+	public static final String PXD001428_SCORE_ACCESSION = "MS:1002053";
+
+
+	private InferenceTestUtilities() {
+		// only static helpers
+	}
+
+
+	/**
+	 * Imports the PXD001428 files into a new intermediate structure. The
+	 * structure is built by a single thread, so the IDs of its groups are the
+	 * same in each call.
+	 */
+	public static IntermediateStructure createPXD001428Structure() throws Exception {
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		for (String fileName : PXD001428_FILES) {
+			URL url = InferenceTestUtilities.class.getClassLoader().getResource(fileName);
+			if (url == null) {
+				throw new IllegalStateException("no file for input found!");
+			}
+			new MzIdentMLImportController(new File(url.toURI()), creator).addSpectrumIdentificationsToStructCreator(null);
+		}
+		return creator.buildIntermediateStructure();
+	}
+
+
+	/**
+	 * Describes each protein group by its ID, accessions, peptides with their
+	 * numbers of PSMs, score and sub-groups, sorted by the descriptions.
+	 */
+	public static List<String> describeGroups(List<InferenceProteinGroup> proteinGroups) {
+		List<String> groups = new ArrayList<String>(proteinGroups.size());
+		for (InferenceProteinGroup proteinGroup : proteinGroups) {
+			Set<String> accessions = new TreeSet<String>();
+			for (IntermediateProtein protein : proteinGroup.getProteins()) {
+				accessions.add(protein.getAccession());
+			}
+
+			Set<String> sequences = new TreeSet<String>();
+			for (IntermediatePeptide peptide : proteinGroup.getPeptides()) {
+				sequences.add(peptide.getSequence() + ":" + peptide.getNumberOfPeptideSpectrumMatches());
+			}
+
+			Set<String> subGroups = new TreeSet<String>();
+			for (InferenceProteinGroup subGroup : proteinGroup.getSubGroups()) {
+				subGroups.add(subGroup.getID());
+			}
+
+			groups.add(proteinGroup.getID() + " " + accessions + " " + sequences + " "
+					+ proteinGroup.getScore() + " " + subGroups);
+		}
+		Collections.sort(groups);
+		return groups;
+	}
+
+
+	/**
+	 * Reads the group descriptions of a reference file, which holds one
+	 * description of {@link #describeGroups(List)} per line. Lines starting
+	 * with # are comments.
+	 */
+	public static List<String> readGroupDescriptions(String resourceName) throws IOException {
+		InputStream in = InferenceTestUtilities.class.getClassLoader().getResourceAsStream(resourceName);
+		if (in == null) {
+			throw new IllegalStateException("no reference file " + resourceName + " found!");
+		}
+
+		List<String> groups = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					groups.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return groups;
+	}
+}
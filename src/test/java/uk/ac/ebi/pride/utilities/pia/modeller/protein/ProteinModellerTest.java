@@ -0,0 +1,80 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.protein;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterComparator;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMChargeFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.protein.ProteinModeller.InferenceConfiguration;
+import uk.ac.ebi.pride.utilities.pia.modeller.protein.inference.AbstractProteinInference;
+import uk.ac.ebi.pride.utilities.pia.modeller.protein.inference.InferenceProteinGroup;
+import uk.ac.ebi.pride.utilities.pia.modeller.protein.inference.OccamsRazorInference;
+import uk.ac.ebi.pride.utilities.pia.modeller.protein.inference.ReportAllInference;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoring;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoringUseBestPSM;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoring;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoringAdditive;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoringMultiplicative;
+
+
+public class ProteinModellerTest {
+
+	@Test
+	public void batchInferenceEqualsSequentialInferences() throws Exception {
+		IntermediateStructure structure = InferenceTestUtilities.createPXD001428Structure();
+
+		// a sweep over the scorings, filters and inference methods
+		PeptideScoring pepScoring = new PeptideScoringUseBestPSM(InferenceTestUtilities.PXD001428_SCORE_ACCESSION, false);
+		List<ProteinScoring> protScorings = new ArrayList<ProteinScoring>();
+		protScorings.add(new ProteinScoringAdditive(false, pepScoring));
+		protScorings.add(new ProteinScoringMultiplicative(false, pepScoring));
+
+		List<List<AbstractFilter>> filterSettings = new ArrayList<List<AbstractFilter>>();
+		filterSettings.add(new ArrayList<AbstractFilter>());
+		for (int charge = 2; charge <= 3; charge++) {
+			List<AbstractFilter> filters = new ArrayList<AbstractFilter>();
+			filters.add(new PSMChargeFilter(FilterComparator.less_equal, charge, false));
+			filterSettings.add(filters);
+		}
+
+		List<Class<? extends AbstractProteinInference>> inferenceClasses =
+				new ArrayList<Class<? extends AbstractProteinInference>>();
+		inferenceClasses.add(OccamsRazorInference.class);
+		inferenceClasses.add(ReportAllInference.class);
+
+		List<InferenceConfiguration> configurations = new ArrayList<InferenceConfiguration>();
+		for (Class<? extends AbstractProteinInference> inferenceClass : inferenceClasses) {
+			for (List<AbstractFilter> filters : filterSettings) {
+				for (ProteinScoring protScoring : protScorings) {
+					configurations.add(new InferenceConfiguration(pepScoring, protScoring,
+							inferenceClass, filters, false));
+				}
+			}
+		}
+
+		ProteinModeller modeller = new ProteinModeller(structure, Runtime.getRuntime().availableProcessors());
+
+		List<List<String>> sequentialGroups = new ArrayList<List<String>>();
+		for (InferenceConfiguration configuration : configurations) {
+			modeller.infereProteins(configuration.getPeptideScoring(), configuration.getProteinScoring(),
+					configuration.getProteinInferenceClass(), configuration.getFilters(),
+					configuration.getConsiderModifications());
+			sequentialGroups.add(InferenceTestUtilities.describeGroups(modeller.getInferredProteins()));
+		}
+
+		List<List<InferenceProteinGroup>> batchGroups = modeller.infereProteins(configurations);
+
+		assertEquals(configurations.size(), batchGroups.size());
+		for (int i = 0; i < configurations.size(); i++) {
+			assertTrue(sequentialGroups.get(i).size() > 0);
+			assertEquals(sequentialGroups.get(i), InferenceTestUtilities.describeGroups(batchGroups.get(i)));
+		}
+	}
+}
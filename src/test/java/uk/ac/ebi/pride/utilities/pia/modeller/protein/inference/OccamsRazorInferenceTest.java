@@ -0,0 +1,196 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.protein.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptide;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.StoredPeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.StoredProtein;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterComparator;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMChargeFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.protein.InferenceTestUtilities;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoring;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoringUseBestPSM;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoring;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoringAdditive;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoringMultiplicative;
+
+
+public class OccamsRazorInferenceTest {
+
+	/** logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(OccamsRazorInferenceTest.class);
+
+
+	@Test
+	public void reportedGroupsOfSharedPeptides() {
+		IntermediateStructure structure = createSharedPeptidesStructure(2000, 12000, 42);
+
+		PeptideScoring pepScoring = new PeptideScoringUseBestPSM("MS:1002053", false);
+		OccamsRazorInference inference = new OccamsRazorInference(structure, pepScoring,
+				new ProteinScoringAdditive(false, pepScoring), null, 1);
+
+		long start = System.currentTimeMillis();
+		List<InferenceProteinGroup> proteinGroups = inference.calculateInference(false);
+		logger.info("Occam's Razor on " + structure.getNrClusters() + " clusters with "
+				+ structure.getNrGroups() + " groups: " + (System.currentTimeMillis() - start) + " ms");
+
+		// all peptides are explained
+		Set<String> reportedSequences = new HashSet<String>();
+		for (InferenceProteinGroup proteinGroup : proteinGroups) {
+			reportedSequences.addAll(getSequences(proteinGroup));
+		}
+		assertTrue(reportedSequences.size() == structure.getNrPeptides());
+
+		for (InferenceProteinGroup proteinGroup : proteinGroups) {
+			Set<String> sequences = getSequences(proteinGroup);
+
+			// the sub-groups are explained by their group
+			for (InferenceProteinGroup subGroup : proteinGroup.getSubGroups()) {
+				assertTrue(sequences.containsAll(getSequences(subGroup)));
+			}
+
+			// no reported group is explained by another one
+			for (InferenceProteinGroup otherGroup : proteinGroups) {
+				if (otherGroup != proteinGroup) {
+					assertFalse(getSequences(otherGroup).containsAll(sequences));
+				}
+			}
+		}
+	}
+
+
+	@Test
+	public void greedyReportsMostExplainingFirst() {
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+		for (String accession : new String[] {"A", "B", "C"}) {
+			creator.addProtein(new StoredProtein(accession, null));
+		}
+
+		// A = {1, 2, 3}, B = {3, 4}, C = {4, 5, 6, 7}: all intersect
+		addPeptide(creator, "PEPONE", "A");
+		addPeptide(creator, "PEPTWO", "A");
+		addPeptide(creator, "PEPTHREE", "A", "B");
+		addPeptide(creator, "PEPFOUR", "B", "C");
+		addPeptide(creator, "PEPFIVE", "C");
+		addPeptide(creator, "PEPSIX", "C");
+		addPeptide(creator, "PEPSEVEN", "C");
+
+		PeptideScoring pepScoring = new PeptideScoringUseBestPSM("MS:1002053", false);
+		List<InferenceProteinGroup> proteinGroups = new OccamsRazorInference(creator.buildIntermediateStructure(),
+				pepScoring, new ProteinScoringAdditive(false, pepScoring), null, 1).calculateInference(false);
+
+		// C explains most peptides, then A the three new ones, B none
+		assertEquals(3, proteinGroups.size());
+		assertEquals("C", proteinGroups.get(0).getProteins().iterator().next().getAccession());
+		assertEquals("A", proteinGroups.get(1).getProteins().iterator().next().getAccession());
+		assertEquals("B", proteinGroups.get(2).getProteins().iterator().next().getAccession());
+	}
+
+
+	@Test
+	public void groupsOfPXD001428EqualReference() throws Exception {
+		// the references were created by the implementation before the
+		// priority queue and by the one before the inverted peptide index
+		IntermediateStructure structure = InferenceTestUtilities.createPXD001428Structure();
+		
+		PeptideScoring pepScoring = new PeptideScoringUseBestPSM(InferenceTestUtilities.PXD001428_SCORE_ACCESSION, false);
+		ProteinScoring protScoring = new ProteinScoringMultiplicative(false, pepScoring);
+		
+		List<String> groups = InferenceTestUtilities.describeGroups(
+				new OccamsRazorInference(structure, pepScoring, protScoring, null, 1).calculateInference(false));
+		assertEquals(InferenceTestUtilities.readGroupDescriptions("PXD001428/occams_razor_groups.txt"), groups);
+		
+		// the filter lets some groups get the same peptides
+		List<AbstractFilter> filters = new ArrayList<AbstractFilter>();
+		filters.add(new PSMChargeFilter(FilterComparator.less_equal, 2, false));
+		
+		groups = InferenceTestUtilities.describeGroups(
+				new OccamsRazorInference(structure, pepScoring, protScoring, filters, 1).calculateInference(false));
+		assertEquals(InferenceTestUtilities.readGroupDescriptions("PXD001428/occams_razor_groups_charge_2.txt"), groups);
+	}
+	
+	
+	@Test
+	public void groupsOfSharedPeptidesEqualReference() throws Exception {
+		// unlike the PXD001428 files, these clusters have sub-groups and intersecting groups
+		IntermediateStructure structure = createSharedPeptidesStructure(200, 200, 42);
+		
+		PeptideScoring pepScoring = new PeptideScoringUseBestPSM("MS:1002053", false);
+		List<String> groups = InferenceTestUtilities.describeGroups(new OccamsRazorInference(structure, pepScoring,
+				new ProteinScoringAdditive(false, pepScoring), null, 1).calculateInference(false));
+		
+		assertEquals(InferenceTestUtilities.readGroupDescriptions("occams_razor_shared_peptides_groups.txt"), groups);
+	}
+	
+	
+	/**
+	 * Returns the sequences of the peptides of the protein group.
+	 */
+	private static Set<String> getSequences(InferenceProteinGroup proteinGroup) {
+		Set<String> sequences = new HashSet<String>();
+		for (IntermediatePeptide peptide : proteinGroup.getPeptides()) {
+			sequences.add(peptide.getSequence());
+		}
+		return sequences;
+	}
+
+
+	/**
+	 * Creates a structure with large clusters, in which the peptides are
+	 * shared by up to four proteins of a small neighbourhood.
+	 */
+	static IntermediateStructure createSharedPeptidesStructure(int nrProteins, int nrPeptides, long seed) {
+		Random random = new Random(seed);
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(1);
+
+		for (int i = 0; i < nrProteins; i++) {
+			creator.addProtein(new StoredProtein("PROT_" + i, null));
+		}
+
+		for (int i = 0; i < nrPeptides; i++) {
+			int firstProtein = random.nextInt(nrProteins);
+			String[] accessions = new String[1 + random.nextInt(4)];
+			for (int j = 0; j < accessions.length; j++) {
+				accessions[j] = "PROT_" + ((firstProtein + random.nextInt(20)) % nrProteins);
+			}
+			addPeptide(creator, "PEPTIDE" + i, accessions);
+		}
+
+		return creator.buildIntermediateStructure();
+	}
+
+
+	/**
+	 * Adds a peptide with one PSM and connects it to the given proteins.
+	 */
+	private static void addPeptide(IntermediateStructureCreator creator, String sequence, String... accessions) {
+		IntermediatePeptide peptide = new IntermediatePeptide(sequence);
+		creator.addPeptide(peptide);
+		peptide.addPeptideSpectrumMatch(new StoredPeptideSpectrumMatch("psm_" + sequence,
+				"file", null, null, null, null, null, null, sequence,
+				new String[0], new double[0], Collections.<Modification>emptyList(),
+				Collections.<AbstractParam>emptyList()));
+
+		for (String accession : accessions) {
+			creator.addPeptideToProteinConnection(peptide.getID(), accession);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.protein.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructure;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.AbstractFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.FilterComparator;
+import uk.ac.ebi.pride.utilities.pia.modeller.filter.psm.PSMChargeFilter;
+import uk.ac.ebi.pride.utilities.pia.modeller.protein.InferenceTestUtilities;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoring;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.peptide.PeptideScoringUseBestPSM;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoring;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.protein.ProteinScoringMultiplicative;
+
+
+public class ReportAllInferenceTest {
+	
+	@Test
+	public void inferenceIsIndependentOfThreads() throws Exception {
+		IntermediateStructure structure = InferenceTestUtilities.createPXD001428Structure();
+		
+		PeptideScoring pepScoring = new PeptideScoringUseBestPSM(InferenceTestUtilities.PXD001428_SCORE_ACCESSION, false);
+		ProteinScoring protScoring = new ProteinScoringMultiplicative(false, pepScoring);
+		
+		// the filter lets some groups get the same peptides
+		List<AbstractFilter> filters = new ArrayList<AbstractFilter>();
+		filters.add(new PSMChargeFilter(FilterComparator.less_equal, 2, false));
+		
+		List<String> sequentialGroups = InferenceTestUtilities.describeGroups(
+				new ReportAllInference(structure, pepScoring, protScoring, filters, 1).calculateInference(false));
+		assertTrue(sequentialGroups.size() > 0);
+		
+		for (int nrThreads = 2; nrThreads <= 8; nrThreads *= 2) {
+			assertEquals(sequentialGroups, InferenceTestUtilities.describeGroups(
+					new ReportAllInference(structure, pepScoring, protScoring, filters, nrThreads).calculateInference(false)));
+		}
+	}
+	
+	
+	@Test
+	public void concurrentRunsWithDifferentFilters() throws Exception {
+		final IntermediateStructure structure = InferenceTestUtilities.createPXD001428Structure();
+		final PeptideScoring pepScoring = new PeptideScoringUseBestPSM(InferenceTestUtilities.PXD001428_SCORE_ACCESSION, false);
+		final ProteinScoring protScoring = new ProteinScoringMultiplicative(false, pepScoring);
+		
+		List<List<AbstractFilter>> filterSettings = new ArrayList<List<AbstractFilter>>();
+		filterSettings.add(new ArrayList<AbstractFilter>());
+		filterSettings.add(new ArrayList<AbstractFilter>());
+		filterSettings.get(1).add(new PSMChargeFilter(FilterComparator.less_equal, 2, false));
+		filterSettings.add(new ArrayList<AbstractFilter>());
+		filterSettings.get(2).add(new PSMChargeFilter(FilterComparator.greater_equal, 3, false));
+		
+		// the results of the runs one after another
+		List<List<String>> sequentialGroups = new ArrayList<List<String>>();
+		for (List<AbstractFilter> filters : filterSettings) {
+			sequentialGroups.add(InferenceTestUtilities.describeGroups(
+					new ReportAllInference(structure, pepScoring, protScoring, filters, 1).calculateInference(false)));
+		}
+		
+		// each run filters the shared structure differently at the same time
+		ExecutorService executor = Executors.newFixedThreadPool(filterSettings.size());
+		try {
+			for (int round = 0; round < 5; round++) {
+				List<Future<List<InferenceProteinGroup>>> runs = new ArrayList<Future<List<InferenceProteinGroup>>>();
+				for (final List<AbstractFilter> filters : filterSettings) {
+					runs.add(executor.submit(new Callable<List<InferenceProteinGroup>>() {
+						@Override
+						public List<InferenceProteinGroup> call() {
+							return new ReportAllInference(structure, pepScoring,
+									protScoring, filters, 1).calculateInference(false);
+						}
+					}));
+				}
+				
+				// the results are still valid after all runs are finished
+				for (int i = 0; i < runs.size(); i++) {
+					assertEquals(sequentialGroups.get(i), InferenceTestUtilities.describeGroups(runs.get(i).get()));
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package uk.ac.ebi.pride.utilities.pia.modeller.scores.psm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
+import uk.ac.ebi.jmzidml.model.mzidml.Modification;
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediatePeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.intermediate.io.StoredPeptideSpectrumMatch;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.CvScore;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.ScoreRegistry;
+import uk.ac.ebi.pride.utilities.pia.modeller.scores.ScoreUtilities;
+
+
+public class IntermediatePSMComparatorTest {
+
+	/** logger for this class */
+	private static final Logger logger = LoggerFactory.getLogger(IntermediatePSMComparatorTest.class);
+
+	/** the MS-GF:SpecEValue, lower is better */
+	private static final String SPEC_E_VALUE = "MS:1002052";
+
+	/** the MS-GF:RawScore, higher is better */
+	private static final String RAW_SCORE = "MS:1002049";
+
+
+	@Test
+	public void sortsBySlotScores() {
+		List<IntermediatePeptideSpectrumMatch> psms = createPSMs(1000, new Random(42));
+
+		// some PSMs without the sorted score
+		psms.add(createPSM("noScore1", new String[] {RAW_SCORE}, new double[] {1.0}));
+		psms.add(createPSM("noScore2", new String[0], new double[0]));
+
+		Collections.shuffle(psms, new Random(7));
+		Collections.sort(psms, new IntermediatePSMComparator(SPEC_E_VALUE, false));
+
+		for (int i = 1; i < psms.size() - 2; i++) {
+			assertTrue(psms.get(i - 1).getScore(SPEC_E_VALUE) <= psms.get(i).getScore(SPEC_E_VALUE));
+		}
+		assertEquals(null, psms.get(psms.size() - 1).getScore(SPEC_E_VALUE));
+		assertEquals(null, psms.get(psms.size() - 2).getScore(SPEC_E_VALUE));
+
+		Collections.sort(psms, new IntermediatePSMComparator(RAW_SCORE, false));
+		assertEquals("noScore2", psms.get(psms.size() - 1).getID());
+	}
+
+
+	@Test
+	public void sortsByCalculatedScores() {
+		List<IntermediatePeptideSpectrumMatch> psms = createPSMs(100, new Random(42));
+		for (int i = 0; i < psms.size(); i++) {
+			psms.get(i).setFDRScore((double) (psms.size() - i));
+		}
+
+		Collections.sort(psms,
+				new IntermediatePSMComparator(CvScore.PSI_PSM_LEVEL_FDRSCORE.getAccession(), false));
+
+		assertEquals(ScoreRegistry.FDR_SCORE_SLOT,
+				ScoreRegistry.getSlot(CvScore.PSI_PSM_LEVEL_FDRSCORE.getAccession()));
+		for (int i = 0; i < psms.size(); i++) {
+			assertEquals(i + 1, psms.get(i).getFDRScore(), 0.0);
+		}
+	}
+
+
+	@Test
+	public void sortTimeComparedToAccessionLookup() {
+		List<IntermediatePeptideSpectrumMatch> psms = createPSMs(200000, new Random(42));
+
+		final boolean higherScoreBetter = false;
+		Comparator<IntermediatePeptideSpectrumMatch> accessionComparator =
+				new Comparator<IntermediatePeptideSpectrumMatch>() {
+			@Override
+			public int compare(IntermediatePeptideSpectrumMatch o1, IntermediatePeptideSpectrumMatch o2) {
+				return ScoreUtilities.compareValues(o1.getScore(SPEC_E_VALUE), o2.getScore(SPEC_E_VALUE),
+						higherScoreBetter);
+			}
+		};
+		Comparator<IntermediatePeptideSpectrumMatch> slotComparator =
+				new IntermediatePSMComparator(SPEC_E_VALUE, false);
+
+		long accessionTime = Long.MAX_VALUE;
+		long slotTime = Long.MAX_VALUE;
+		for (int run = 0; run < 3; run++) {
+			List<IntermediatePeptideSpectrumMatch> sorted = new ArrayList<IntermediatePeptideSpectrumMatch>(psms);
+			long start = System.nanoTime();
+			Collections.sort(sorted, accessionComparator);
+			accessionTime = Math.min(accessionTime, System.nanoTime() - start);
+
+			List<IntermediatePeptideSpectrumMatch> slotSorted = new ArrayList<IntermediatePeptideSpectrumMatch>(psms);
+			start = System.nanoTime();
+			Collections.sort(slotSorted, slotComparator);
+			slotTime = Math.min(slotTime, System.nanoTime() - start);
+
+			assertEquals(sorted, slotSorted);
+		}
+
+		logger.info("sorting " + psms.size() + " PSMs: accession lookup " + (accessionTime / 1000000)
+				+ " ms, score slots " + (slotTime / 1000000) + " ms");
+	}
+
+
+	/**
+	 * Creates PSMs with random values for the SpecEValue and RawScore.
+	 */
+	private static List<IntermediatePeptideSpectrumMatch> createPSMs(int nrPSMs, Random random) {
+		List<IntermediatePeptideSpectrumMatch> psms = new ArrayList<IntermediatePeptideSpectrumMatch>(nrPSMs);
+		String[] accessions = new String[] {RAW_SCORE, SPEC_E_VALUE};
+
+		for (int i = 0; i < nrPSMs; i++) {
+			psms.add(createPSM("psm" + i, accessions,
+					new double[] {random.nextInt(300), Math.pow(10, -15 * random.nextDouble())}));
+		}
+		return psms;
+	}
+
+
+	private static IntermediatePeptideSpectrumMatch createPSM(String id, String[] accessions, double[] scores) {
+		return new StoredPeptideSpectrumMatch(id, "test", null, 500.0, 0.0, null, 2, null, "PEPTIDE",
+				accessions, scores,
+				Collections.<Modification>emptyList(), Collections.<AbstractParam>emptyList());
+	}
+}
@@ -0,0 +1,127 @@
+package uk.ac.ebi.pride.utilities.pia.progress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import uk.ac.ebi.pride.utilities.pia.intermediate.IntermediateStructureCreator;
+import uk.ac.ebi.pride.utilities.pia.intermediate.mzidimpl.MzIdentMLImportController;
+import uk.ac.ebi.pride.utilities.pia.progress.ProgressListener.Stage;
+
+
+public class ProgressReporterTest {
+
+	@Test
+	public void concurrentProgressIsCounted() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		ProgressReporter reporter = new ProgressReporter(listener, 0);
+
+		final ProgressTracker tracker = reporter.startStage(Stage.INFERENCE, "test", 40000);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						tracker.advance();
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(40000, tracker.getSnapshot().getItemsDone());
+		assertEquals(1.0, tracker.getSnapshot().getFraction(), 0.0);
+		assertEquals(99, tracker.getPercent());
+		assertFalse(listener.updates.isEmpty());
+
+		tracker.finish();
+		tracker.finish();
+		assertEquals(100, tracker.getPercent());
+		assertEquals(1, listener.started.size());
+		assertEquals(1, listener.finished.size());
+		assertTrue(listener.finished.get(0).isFinished());
+		assertEquals(listener.finished.get(0).getElapsedNanos(),
+				reporter.getStageNanos().get(Stage.INFERENCE).longValue());
+	}
+
+
+	@Test
+	public void importAndBuildingAreReported() throws Exception {
+		URL url = ProgressReporterTest.class.getClassLoader().getResource("55merge_tandem.mzid");
+		File inputFile = new File(url.toURI());
+
+		RecordingListener listener = new RecordingListener();
+		ProgressReporter reporter = new ProgressReporter(listener);
+
+		IntermediateStructureCreator creator = new IntermediateStructureCreator(2);
+		creator.setProgressReporter(reporter);
+		MzIdentMLImportController importController = new MzIdentMLImportController(inputFile, creator);
+
+		ProgressTracker tracker = reporter.startStage(Stage.IMPORT, inputFile.getName(), -1);
+		importController.setProgressTracker(tracker);
+		importController.addSpectrumIdentificationsToStructCreator(null);
+		tracker.finish();
+
+		ProgressEvent event = tracker.getSnapshot();
+		assertEquals(170, event.getItemsDone());
+		assertEquals(inputFile.length(), event.getBytesRead());
+		assertEquals(inputFile.length(), event.getTotalBytes());
+		assertEquals(-1, event.getTotalItems());
+
+		creator.buildIntermediateStructure();
+		assertEquals(3, listener.finished.size());
+		assertEquals(Stage.CLUSTERING, listener.finished.get(1).getStage());
+		assertEquals(Stage.STRUCTURE_BUILDING, listener.finished.get(2).getStage());
+
+		ProgressEvent building = listener.finished.get(2);
+		assertEquals(building.getTotalItems(), building.getItemsDone());
+
+		Map<Stage, Long> stageNanos = reporter.getStageNanos();
+		assertTrue(stageNanos.containsKey(Stage.IMPORT));
+		assertTrue(stageNanos.containsKey(Stage.CLUSTERING));
+		assertTrue(stageNanos.containsKey(Stage.STRUCTURE_BUILDING));
+	}
+
+
+	/**
+	 * Records all events.
+	 */
+	private static class RecordingListener implements ProgressListener {
+		List<ProgressEvent> started = Collections.synchronizedList(new ArrayList<ProgressEvent>());
+		List<ProgressEvent> updates = Collections.synchronizedList(new ArrayList<ProgressEvent>());
+		List<ProgressEvent> finished = Collections.synchronizedList(new ArrayList<ProgressEvent>());
+
+
+		@Override
+		public void stageStarted(ProgressEvent event) {
+			started.add(event);
+		}
+
+
+		@Override
+		public void progressUpdated(ProgressEvent event) {
+			updates.add(event);
+		}
+
+
+		@Override
+		public void stageFinished(ProgressEvent event) {
+			finished.add(event);
+		}
+	}
+}